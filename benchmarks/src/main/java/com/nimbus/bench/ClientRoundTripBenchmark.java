@@ -0,0 +1,86 @@
+package com.nimbus.bench;
+
+import com.nimbus.net.client.ClientResources;
+import com.nimbus.net.client.FlushPolicy;
+import com.nimbus.net.client.SuperTcpClient;
+import com.nimbus.net.server.SuperTcpServer;
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.storage.OffHeapStorage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelOption;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end GET round trips through {@link SuperTcpClient#send(ByteBuf)} against a
+ * {@link SuperTcpServer} on loopback in the same process. Run with -t to vary the
+ * number of concurrent callers sharing the client's pipelined connections, where
+ * batched flushes pay off.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientRoundTripBenchmark {
+
+    @Param({"1", "64"})
+    int maxInFlightPerChannel;
+
+    @Param({"128"})
+    int valueSize;
+
+    @Param({"true", "false"})
+    boolean batchFlushes;
+
+    private SuperTcpServer server;
+    private ClientResources resources;
+    private SuperTcpClient client;
+
+    @Setup
+    public void setup() throws Exception {
+        Map<ChannelOption<?>, Object> options = Map.of(ChannelOption.TCP_NODELAY, true);
+
+        server = new SuperTcpServer(0, 1, 2, new OffHeapStorage(64L * 1024 * 1024, 16), options);
+        server.start();
+
+        resources = new ClientResources();
+        client = new SuperTcpClient(resources, "127.0.0.1", server.boundPort(), 4, maxInFlightPerChannel, 5000,
+                batchFlushes ? FlushPolicy.DEFAULT : FlushPolicy.IMMEDIATE, options);
+
+        RequestMessage set = new RequestMessage(BinaryMessage.alloc.directBuffer(64 + valueSize));
+        set.command(RequestProtocol.CMD_SET);
+        set.key("benchmark:key:0001");
+        set.value(new byte[valueSize]);
+        client.send(set.end()).join().release();
+        set.release();
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        resources.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int get() {
+        RequestMessage request = new RequestMessage(BinaryMessage.alloc.directBuffer(64));
+        request.command(RequestProtocol.CMD_GET);
+        request.key("benchmark:key:0001");
+
+        ByteBuf response = client.send(request.end()).join();
+        int length = response.readableBytes();
+
+        response.release();
+        request.release();
+
+        return length;
+    }
+
+}
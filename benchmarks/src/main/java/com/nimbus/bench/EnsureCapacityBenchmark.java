@@ -0,0 +1,83 @@
+package com.nimbus.bench;
+
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building messages whose fields outgrow the initial buffer, exercising
+ * BinaryMessage.ensureCapacity, either by one large value or by many small fields,
+ * against a request presized from its field lengths which never grows.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EnsureCapacityBenchmark {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    @Param({"64", "1024", "16384", "262144"})
+    int valueSize;
+
+    private byte[] value;
+    private byte[] smallValue;
+
+    @Setup
+    public void setup() {
+        value = new byte[valueSize];
+        smallValue = new byte[16];
+    }
+
+    @Benchmark
+    public int singleLargeValue() {
+        RequestMessage request = new RequestMessage(BinaryMessage.alloc.directBuffer(INITIAL_CAPACITY));
+        request.command(RequestProtocol.CMD_SET);
+        request.key("benchmark:key:0001");
+        request.value(value);
+
+        int length = request.end().readableBytes();
+        request.release();
+
+        return length;
+    }
+
+    @Benchmark
+    public int manySmallFields() {
+        RequestMessage request = new RequestMessage(BinaryMessage.alloc.directBuffer(INITIAL_CAPACITY));
+        request.command(RequestProtocol.CMD_MSET);
+
+        int fields = valueSize / smallValue.length;
+        request.count(fields);
+        for (int i = 0; i < fields; i++) {
+            request.key(i);
+            request.value(smallValue);
+        }
+
+        int length = request.end().readableBytes();
+        request.release();
+
+        return length;
+    }
+
+    @Benchmark
+    public int presizedLargeValue() {
+        String key = "benchmark:key:0001";
+        RequestMessage request = new RequestMessage(BinaryMessage.keyFieldLength(key.length())
+                + BinaryMessage.valueFieldLength(value.length));
+        request.command(RequestProtocol.CMD_SET);
+        request.key(key);
+        request.value(value);
+
+        int length = request.end().readableBytes();
+        request.release();
+
+        return length;
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.nimbus.bench;
+
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading a key and value back out of a message through the copying
+ * keyAs and valueAs accessors, compared to the zero copy slice accessors.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageDecodeBenchmark {
+
+    @Param({"16", "256", "4096"})
+    int valueSize;
+
+    private ResponseMessage stringMessage;
+    private ResponseMessage longMessage;
+
+    @Setup
+    public void setup() {
+        stringMessage = new ResponseMessage(BinaryMessage.alloc.directBuffer(64 + valueSize));
+        stringMessage.resetReaderIndex();
+        stringMessage.buffer().writerIndex(stringMessage.buffer().readerIndex());
+        stringMessage.key("benchmark:key:0001");
+        stringMessage.value("v".repeat(valueSize));
+        stringMessage.end();
+
+        longMessage = new ResponseMessage(BinaryMessage.alloc.directBuffer(64));
+        longMessage.resetReaderIndex();
+        longMessage.buffer().writerIndex(longMessage.buffer().readerIndex());
+        longMessage.key("benchmark:key:0001");
+        longMessage.value(123456789L);
+        longMessage.end();
+    }
+
+    @TearDown
+    public void tearDown() {
+        stringMessage.release();
+        longMessage.release();
+    }
+
+    @Benchmark
+    public void bytes(Blackhole bh) {
+        stringMessage.resetReaderIndex();
+        bh.consume(stringMessage.keyAsBytes());
+        bh.consume(stringMessage.valueAsBytes());
+    }
+
+    @Benchmark
+    public void strings(Blackhole bh) {
+        stringMessage.resetReaderIndex();
+        bh.consume(stringMessage.keyAsString());
+        bh.consume(stringMessage.valueAsString());
+    }
+
+    @Benchmark
+    public void slices(Blackhole bh) {
+        stringMessage.resetReaderIndex();
+        bh.consume(stringMessage.keyAsSlice());
+        bh.consume(stringMessage.valueAsSlice());
+    }
+
+    @Benchmark
+    public void keyHash(Blackhole bh) {
+        stringMessage.resetReaderIndex();
+        bh.consume(stringMessage.keyHash());
+    }
+
+    @Benchmark
+    public long valueAsLong() {
+        longMessage.resetReaderIndex();
+        longMessage.keyAsSlice();
+
+        return longMessage.valueAsLong();
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.nimbus.bench;
+
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.HeaderProtocol;
+import com.nimbus.proto.protocol.RequestProtocol;
+import io.netty.buffer.ByteBuf;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building a SET request and finalizing it with {@link RequestMessage#end()},
+ * into a buffer presized to fit so growth is excluded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MessageEncodeBenchmark {
+
+    @Param({"16", "256", "4096"})
+    int valueSize;
+
+    private byte[] key;
+    private byte[] value;
+    private int capacity;
+
+    @Setup
+    public void setup() {
+        key = "benchmark:key:0001".getBytes();
+        value = new byte[valueSize];
+        ThreadLocalRandom.current().nextBytes(value);
+
+        capacity = HeaderProtocol.HDR_END_OFFSET + HeaderProtocol.SZ_KEY_LEN + key.length
+                + HeaderProtocol.SZ_VALUE_LEN + value.length;
+    }
+
+    @Benchmark
+    public int buildAndEnd() {
+        RequestMessage request = new RequestMessage(BinaryMessage.alloc.directBuffer(capacity));
+        request.command(RequestProtocol.CMD_SET);
+        request.key(key);
+        request.value(value);
+
+        ByteBuf buffer = request.end();
+        int length = buffer.readableBytes();
+        request.release();
+
+        return length;
+    }
+
+    @Benchmark
+    public int buildLongValueAndEnd() {
+        RequestMessage request = new RequestMessage(BinaryMessage.alloc.directBuffer(64));
+        request.command(RequestProtocol.CMD_SET);
+        request.key(key);
+        request.value(123456789L);
+
+        ByteBuf buffer = request.end();
+        int length = buffer.readableBytes();
+        request.release();
+
+        return length;
+    }
+
+}
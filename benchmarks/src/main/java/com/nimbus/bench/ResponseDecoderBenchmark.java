@@ -0,0 +1,66 @@
+package com.nimbus.bench;
+
+import com.nimbus.net.ProtoResponseDecoder;
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of framing a read of many back to back responses with {@link ProtoResponseDecoder}.
+ * Reported per read batch of {@link #frames} responses.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ResponseDecoderBenchmark {
+
+    @Param({"1", "64"})
+    int frames;
+
+    @Param({"16", "1024"})
+    int valueSize;
+
+    private EmbeddedChannel channel;
+    private ByteBuf stream;
+
+    @Setup
+    public void setup() {
+        channel = new EmbeddedChannel(new ProtoResponseDecoder());
+        stream = BinaryMessage.alloc.directBuffer();
+
+        for (int i = 0; i < frames; i++) {
+            ResponseMessage response = new ResponseMessage();
+            response.value(new byte[valueSize]);
+            stream.writeBytes(response.end());
+            response.release();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        channel.finishAndReleaseAll();
+        stream.release();
+    }
+
+    @Benchmark
+    public int decode() {
+        channel.writeInbound(stream.retainedDuplicate());
+
+        int decoded = 0;
+        ByteBuf frame;
+        while ((frame = channel.readInbound()) != null) {
+            decoded += frame.readableBytes();
+            frame.release();
+        }
+
+        return decoded;
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.nimbus.net;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Reflective binding to the netty io_uring transport, which ships as a separate module
+ * and so is optional at runtime. Both the netty 4.2 transport and the older incubator
+ * module are recognised.
+ */
+final class IoUring {
+
+    private static final String NETTY_PACKAGE = "io.netty.channel.uring.";
+    private static final String INCUBATOR_PACKAGE = "io.netty.incubator.channel.uring.";
+
+    static final boolean AVAILABLE;
+
+    private static final Constructor<? extends EventLoopGroup> GROUP_CONSTRUCTOR;
+    private static final Object IO_HANDLER_FACTORY;
+    private static final Class<? extends SocketChannel> SOCKET_CHANNEL;
+    private static final Class<? extends ServerSocketChannel> SERVER_SOCKET_CHANNEL;
+
+    static {
+        Constructor<? extends EventLoopGroup> groupConstructor = null;
+        Object ioHandlerFactory = null;
+        Class<? extends SocketChannel> socketChannel = null;
+        Class<? extends ServerSocketChannel> serverSocketChannel = null;
+        boolean available = false;
+
+        try {
+            if (isAvailable(NETTY_PACKAGE + "IoUring")) {
+                Class<?> ioHandlerFactoryClass = Class.forName("io.netty.channel.IoHandlerFactory");
+
+                ioHandlerFactory = Class.forName(NETTY_PACKAGE + "IoUringIoHandler")
+                        .getMethod("newFactory").invoke(null);
+                groupConstructor = Class.forName("io.netty.channel.MultiThreadIoEventLoopGroup")
+                        .asSubclass(EventLoopGroup.class)
+                        .getConstructor(int.class, ThreadFactory.class, ioHandlerFactoryClass);
+                socketChannel = Class.forName(NETTY_PACKAGE + "IoUringSocketChannel")
+                        .asSubclass(SocketChannel.class);
+                serverSocketChannel = Class.forName(NETTY_PACKAGE + "IoUringServerSocketChannel")
+                        .asSubclass(ServerSocketChannel.class);
+                available = true;
+            } else if (isAvailable(INCUBATOR_PACKAGE + "IOUring")) {
+                groupConstructor = Class.forName(INCUBATOR_PACKAGE + "IOUringEventLoopGroup")
+                        .asSubclass(EventLoopGroup.class)
+                        .getConstructor(int.class, ThreadFactory.class);
+                socketChannel = Class.forName(INCUBATOR_PACKAGE + "IOUringSocketChannel")
+                        .asSubclass(SocketChannel.class);
+                serverSocketChannel = Class.forName(INCUBATOR_PACKAGE + "IOUringServerSocketChannel")
+                        .asSubclass(ServerSocketChannel.class);
+                available = true;
+            }
+        } catch (ReflectiveOperationException | LinkageError e) {
+            available = false;
+        }
+
+        AVAILABLE = available;
+        GROUP_CONSTRUCTOR = groupConstructor;
+        IO_HANDLER_FACTORY = ioHandlerFactory;
+        SOCKET_CHANNEL = socketChannel;
+        SERVER_SOCKET_CHANNEL = serverSocketChannel;
+    }
+
+    private IoUring() {
+    }
+
+    private static boolean isAvailable(String className) {
+        try {
+            return (boolean) Class.forName(className).getMethod("isAvailable").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return false;
+        }
+    }
+
+    private static void ensureAvailable() {
+        if (!AVAILABLE)
+            throw new IllegalStateException("io_uring transport is not available");
+    }
+
+    static EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+        ensureAvailable();
+
+        try {
+            return IO_HANDLER_FACTORY == null
+                    ? GROUP_CONSTRUCTOR.newInstance(threads, threadFactory)
+                    : GROUP_CONSTRUCTOR.newInstance(threads, threadFactory, IO_HANDLER_FACTORY);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create io_uring event loop group", e);
+        }
+    }
+
+    static Class<? extends SocketChannel> socketChannelClass() {
+        ensureAvailable();
+
+        return SOCKET_CHANNEL;
+    }
+
+    static Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+        ensureAvailable();
+
+        return SERVER_SOCKET_CHANNEL;
+    }
+
+}
@@ -1,2 +1,44 @@
-package com.nimbus.net;public class Node {
+package com.nimbus.net;
+
+import java.util.Objects;
+
+/**
+ * Address of a single server in the cluster, identity is by host and port.
+ */
+public final class Node {
+
+    private final String host;
+    private final int port;
+
+    public Node(String host, int port) {
+        if (host == null || host.isEmpty())
+            throw new IllegalArgumentException("Node host must be non-empty");
+
+        this.host = host;
+        this.port = port;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Node other && port == other.port && host.equals(other.host);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host, port);
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+
 }
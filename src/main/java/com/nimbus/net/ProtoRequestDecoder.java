@@ -0,0 +1,52 @@
+package com.nimbus.net;
+
+import com.nimbus.proto.compression.Compression;
+import com.nimbus.proto.protocol.HeaderProtocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+
+import java.util.List;
+
+/**
+ * Server side counterpart of {@link ProtoResponseDecoder}, splitting the inbound stream
+ * into whole request frames by their {@link HeaderProtocol#HDR_TOTAL_LEN} prefix.
+ * Unlike responses, requests arrive from untrusted peers so frame lengths are validated.
+ * Compressed frames are restored before being passed on, bounded by the same max length.
+ */
+public class ProtoRequestDecoder extends ByteToMessageDecoder {
+
+    private static final int HEADER_SIZE = HeaderProtocol.HDR_TOTAL_LEN.sizeBytes(); // Size of the length header in bytes
+
+    private final int maxFrameLength;
+
+    /**
+     * @param maxFrameLength Max total length of a single request frame in bytes
+     */
+    public ProtoRequestDecoder(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+        if (in.readableBytes() < HEADER_SIZE)
+            return;
+
+        int length = in.getInt(in.readerIndex());
+
+        if (length < HeaderProtocol.HDR_END_OFFSET)
+            throw new CorruptedFrameException("Request frame length " + length + " shorter than header");
+
+        if (length > maxFrameLength)
+            throw new TooLongFrameException("Request frame length " + length + " exceeds max " + maxFrameLength);
+
+        if (in.readableBytes() < length)
+            return;
+
+        ByteBuf message = in.readSlice(length);
+        out.add(Compression.decompress(message.retain(), maxFrameLength, ctx.alloc()));
+    }
+
+}
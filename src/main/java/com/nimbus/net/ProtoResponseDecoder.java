@@ -1,13 +1,17 @@
 package com.nimbus.net;
 
+import com.nimbus.proto.compression.Compression;
 import com.nimbus.proto.protocol.HeaderProtocol;
 import io.netty.buffer.ByteBuf;
-import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
 
 import java.util.List;
 
+/**
+ * Splits the inbound stream into whole response frames by their {@link HeaderProtocol#HDR_TOTAL_LEN}
+ * prefix, restoring compressed data sections so handlers only ever see uncompressed frames.
+ */
 public class ProtoResponseDecoder extends ByteToMessageDecoder {
 
     private static final int HEADER_SIZE = HeaderProtocol.HDR_TOTAL_LEN.sizeBytes(); // Size of the length header in bytes
@@ -23,7 +27,7 @@ public class ProtoResponseDecoder extends ByteToMessageDecoder {
             return;
 
         ByteBuf message = in.readSlice(length);
-        out.add(message.retain());
+        out.add(Compression.decompress(message.retain(), Integer.MAX_VALUE, ctx.alloc()));
     }
 
 }
\ No newline at end of file
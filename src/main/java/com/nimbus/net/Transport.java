@@ -0,0 +1,143 @@
+package com.nimbus.net;
+
+import com.nimbus.trace.Trace;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Socket transports, each pairing an event loop implementation with its channel classes.
+ * Native transports avoid the selector wakeups and garbage of NIO, but are only usable
+ * where their native library loads, so {@link #best()} falls back to NIO elsewhere.
+ * <p>
+ * Selection may be forced with -Dnimbus.transport=nio|epoll|io_uring. io_uring is only
+ * used when requested, as it needs a recent kernel and the separate netty io_uring module.
+ */
+public enum Transport {
+
+    IO_URING {
+        @Override
+        public boolean isAvailable() {
+            return IoUring.AVAILABLE;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+            return IoUring.newEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return IoUring.socketChannelClass();
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+            return IoUring.serverSocketChannelClass();
+        }
+    },
+
+    EPOLL {
+        @Override
+        public boolean isAvailable() {
+            return Epoll.isAvailable();
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+            return new EpollEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return EpollSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+            return EpollServerSocketChannel.class;
+        }
+    },
+
+    NIO {
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory) {
+            return new NioEventLoopGroup(threads, threadFactory);
+        }
+
+        @Override
+        public Class<? extends SocketChannel> socketChannelClass() {
+            return NioSocketChannel.class;
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> serverSocketChannelClass() {
+            return NioServerSocketChannel.class;
+        }
+    };
+
+    public static final String TRANSPORT_PROPERTY = "nimbus.transport";
+
+    /**
+     * @return true if the native library of this transport loaded on this platform
+     */
+    public abstract boolean isAvailable();
+
+    /**
+     * @param threads Event loop threads, 0 for the netty default of 2 * cores
+     * @param threadFactory Factory naming the event loop threads
+     * @return A new event loop group, which the caller must shut down
+     */
+    public abstract EventLoopGroup newEventLoopGroup(int threads, ThreadFactory threadFactory);
+
+    public abstract Class<? extends SocketChannel> socketChannelClass();
+
+    public abstract Class<? extends ServerSocketChannel> serverSocketChannelClass();
+
+    /**
+     * The transport requested by {@value #TRANSPORT_PROPERTY} if available, otherwise
+     * epoll where available, otherwise NIO. An unknown name falls back the same way.
+     * @return The best available transport on this platform
+     */
+    public static Transport best() {
+        String requested = System.getProperty(TRANSPORT_PROPERTY);
+
+        if (requested != null && !requested.isBlank()) {
+            Transport transport = named(requested);
+            if (transport != null && transport.isAvailable())
+                return transport;
+
+            if (Trace.ENABLED)
+                Trace.event("transport", "Requested transport " + requested + " unknown or unavailable, falling back");
+        }
+
+        return EPOLL.isAvailable() ? EPOLL : NIO;
+    }
+
+    /**
+     * @return Transport of a case insensitive name, or null if there is none, as this runs in
+     * static initializers where an exception would leave the class unusable
+     */
+    private static Transport named(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+}
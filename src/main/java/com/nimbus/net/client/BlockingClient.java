@@ -0,0 +1,196 @@
+package com.nimbus.net.client;
+
+import com.nimbus.net.results.ValueResult;
+import io.netty.buffer.ByteBuf;
+
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/**
+ * Synchronous facade over a pipelined {@link SuperTcpClient}, built for virtual threads.
+ * Callers park with {@link java.util.concurrent.locks.LockSupport} while the event loop
+ * completes their request, so a blocked virtual thread releases its carrier, and no
+ * monitors are held anywhere on the path.
+ * <p>
+ * Any number of threads may share one instance. At most {@link SuperTcpClient#capacity()}
+ * requests are issued at once; further callers park on admission instead of piling up
+ * in the connection pool, so many thousands of threads can share a few connections.
+ * An interrupted caller cancels its request, so its in flight slot is freed along with
+ * its admission.
+ * <p>
+ * Failures, including deadlines, are thrown as a {@link CompletionException} wrapping the cause.
+ */
+public class BlockingClient {
+
+    private final SuperTcpClient client;
+    private final Semaphore admission;
+
+    /**
+     * @param client Client to issue requests through, which remains owned by the caller
+     */
+    public BlockingClient(SuperTcpClient client) {
+        this.client = client;
+        this.admission = new Semaphore(client.capacity());
+    }
+
+    public SuperTcpClient client() {
+        return client;
+    }
+
+    /**
+     * Send a fully encoded request message with the client default deadline
+     * @see SuperTcpClient#send(ByteBuf)
+     */
+    public ByteBuf send(ByteBuf message) throws InterruptedException {
+        return send(message, -1);
+    }
+
+    /**
+     * Send a fully encoded request message, parking until its response arrives.
+     * An interrupt abandons the request, freeing its in flight slot.
+     * @param timeoutMs Deadline from now, zero for none or negative for the client default
+     * @return Response buffer, which the caller must release
+     */
+    public ByteBuf send(ByteBuf message, long timeoutMs) throws InterruptedException {
+        BlockingWaiter waiter = new BlockingWaiter();
+
+        admission.acquire();
+        try {
+            CompletableFuture<ByteBuf> future = timeoutMs < 0 ? client.send(message) : client.send(message, timeoutMs);
+            future.whenComplete(waiter);
+
+            try {
+                waiter.await();
+            } catch (InterruptedException e) {
+                future.cancel(false);
+                throw e;
+            }
+        } finally {
+            admission.release();
+        }
+
+        return waiter.result();
+    }
+
+    /**
+     * @see SuperTcpClient#get(Object, ResultListener)
+     * @return Result, {@link ValueResult#isOk() ok} if the key exists, which the caller must release
+     */
+    public ValueResult get(Object key) throws InterruptedException {
+        return call(waiter -> client.getCached(key, waiter) ? null
+                : client.execute(TypedRequest.get(client, key, waiter))).result();
+    }
+
+    /**
+     * @see SuperTcpClient#getLong(Object, LongResultListener)
+     * @return The value, or empty if the key does not exist
+     */
+    public OptionalLong getLong(Object key) throws InterruptedException {
+        return optionalLong(call(waiter -> client.getLongCached(key, waiter) ? null
+                : client.execute(TypedRequest.getLong(client, key, waiter))));
+    }
+
+    /**
+     * @see SuperTcpClient#set(Object, Object, ResultListener)
+     * @return true if the value was stored
+     */
+    public boolean set(Object key, Object value) throws InterruptedException {
+        return set(key, value, 0);
+    }
+
+    /**
+     * @see SuperTcpClient#set(Object, Object, long, ResultListener)
+     * @return true if the value was stored
+     */
+    public boolean set(Object key, Object value, long ttlMillis) throws InterruptedException {
+        return isOkAndRelease(call(waiter -> client.execute(TypedRequest.set(client, key, value, ttlMillis, waiter))));
+    }
+
+    /**
+     * @see SuperTcpClient#setLong(Object, long, ResultListener)
+     * @return true if the value was stored
+     */
+    public boolean setLong(Object key, long value) throws InterruptedException {
+        return setLong(key, value, 0);
+    }
+
+    /**
+     * @see SuperTcpClient#setLong(Object, long, long, ResultListener)
+     * @return true if the value was stored
+     */
+    public boolean setLong(Object key, long value, long ttlMillis) throws InterruptedException {
+        return isOkAndRelease(call(waiter -> client.execute(TypedRequest.setLong(client, key, value, ttlMillis, waiter))));
+    }
+
+    /**
+     * @see SuperTcpClient#expire(Object, long, ResultListener)
+     * @return true if the key existed
+     */
+    public boolean expire(Object key, long ttlMillis) throws InterruptedException {
+        return isOkAndRelease(call(waiter -> client.execute(TypedRequest.expire(client, key, ttlMillis, waiter))));
+    }
+
+    /**
+     * @see SuperTcpClient#ttl(Object, LongResultListener)
+     * @return Remaining milliseconds to live, -1 if the key never expires, or empty if it does not exist
+     */
+    public OptionalLong ttl(Object key) throws InterruptedException {
+        return optionalLong(call(waiter -> client.execute(TypedRequest.ttl(client, key, waiter))));
+    }
+
+    /**
+     * @see SuperTcpClient#del(Object, ResultListener)
+     * @return true if the key existed
+     */
+    public boolean del(Object key) throws InterruptedException {
+        return isOkAndRelease(call(waiter -> client.execute(TypedRequest.del(client, key, waiter))));
+    }
+
+    /**
+     * Issue a typed request once admitted and park until it completes. An interrupt cancels
+     * the request, freeing its in flight slot before its admission is released.
+     * @param issue Issues the request with the waiter as its listener, returning it, or null
+     *              if completed at once, such as from the near cache
+     * @return The completed waiter
+     */
+    private BlockingWaiter call(Function<BlockingWaiter, TypedRequest> issue) throws InterruptedException {
+        BlockingWaiter waiter = new BlockingWaiter();
+
+        admission.acquire();
+        try {
+            TypedRequest request = issue.apply(waiter);
+
+            try {
+                waiter.await();
+            } catch (InterruptedException e) {
+                if (request != null)
+                    request.cancel();
+                throw e;
+            }
+        } finally {
+            admission.release();
+        }
+
+        return waiter;
+    }
+
+    private static OptionalLong optionalLong(BlockingWaiter waiter) {
+        return waiter.found() ? OptionalLong.of(waiter.longValue()) : OptionalLong.empty();
+    }
+
+    private static boolean isOkAndRelease(BlockingWaiter waiter) {
+        return isOkAndRelease(waiter.<ValueResult>result());
+    }
+
+    private static boolean isOkAndRelease(ValueResult result) {
+        try {
+            return result.isOk();
+        } finally {
+            result.release();
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.nimbus.net.client;
+
+import com.nimbus.net.results.QueryResult;
+import io.netty.buffer.ByteBuf;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+
+/**
+ * Parks the calling thread until an asynchronous result arrives on the event loop. Unlike
+ * a monitor wait this never pins a virtual thread's carrier, and it is a single object per
+ * call serving as the listener for every result shape {@link BlockingClient} waits on.
+ * <p>
+ * A waiter abandoned by an interrupt releases any result arriving afterwards.
+ */
+final class BlockingWaiter implements ResultListener<QueryResult>, LongResultListener, BiConsumer<ByteBuf, Throwable> {
+
+    private static final int WAITING = 0;
+    private static final int DONE = 1;
+    private static final int ABANDONED = 2;
+
+    private static final AtomicIntegerFieldUpdater<BlockingWaiter> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(BlockingWaiter.class, "state");
+
+    private final Thread waiter = Thread.currentThread();
+    private volatile int state;
+
+    // Published by the volatile write of state
+    private Object result;
+    private boolean found;
+    private long longValue;
+    private Throwable cause;
+
+    @Override
+    public void onComplete(QueryResult result, Throwable cause) {
+        this.result = result;
+        this.cause = cause;
+
+        signal();
+    }
+
+    @Override
+    public void onComplete(boolean found, long value, Throwable cause) {
+        this.found = found;
+        this.longValue = value;
+        this.cause = cause;
+
+        signal();
+    }
+
+    @Override
+    public void accept(ByteBuf response, Throwable cause) {
+        this.result = response;
+        this.cause = cause;
+
+        signal();
+    }
+
+    private void signal() {
+        if (STATE.compareAndSet(this, WAITING, DONE)) {
+            LockSupport.unpark(waiter);
+        } else {
+            release(result);
+        }
+    }
+
+    /**
+     * Park until signalled. Deadlines are enforced by the client, so no timeout is needed here.
+     * @throws InterruptedException if interrupted first, the waiter is then abandoned
+     * @throws CompletionException wrapping the cause if the request failed
+     */
+    void await() throws InterruptedException {
+        while (state == WAITING) {
+            LockSupport.park(this);
+
+            if (Thread.interrupted()) {
+                if (STATE.compareAndSet(this, WAITING, ABANDONED))
+                    throw new InterruptedException();
+
+                // Completed regardless, keep the interrupt for the caller
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        if (cause != null)
+            throw new CompletionException(cause);
+    }
+
+    @SuppressWarnings("unchecked")
+    <R> R result() {
+        return (R) result;
+    }
+
+    boolean found() {
+        return found;
+    }
+
+    long longValue() {
+        return longValue;
+    }
+
+    private static void release(Object result) {
+        if (result instanceof ByteBuf buf)
+            buf.release();
+        else if (result instanceof QueryResult queryResult)
+            queryResult.release();
+    }
+
+}
@@ -1,51 +1,225 @@
 package com.nimbus.net;
 
+import com.nimbus.proto.protocol.HeaderProtocol;
 import io.netty.buffer.ByteBuf;
-import io.netty.channel.Channel;
-import io.netty.channel.ChannelHandler;
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.*;
+import io.netty.util.collection.IntObjectHashMap;
+import io.netty.util.collection.IntObjectMap;
 import io.netty.util.concurrent.Promise;
 
 import java.nio.channels.ClosedChannelException;
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
 
-@ChannelHandler.Sharable
-public class ClientHandler extends ChannelInboundHandlerAdapter {
+/**
+ * Per channel handler which multiplexes many requests over a single connection.
+ * Each outbound {@link PendingRequest} is tagged with a channel unique id in the
+ * {@link HeaderProtocol#HDR_REQUEST_ID} header, and responses are matched back to
+ * their promise by that id regardless of the order they arrive in. The id is written
+ * into the request buffer itself, so a buffer must not be sent on two channels at once,
+ * and a caller sending the same request twice sends a copy the second time.
+ * <p>
+ * A request whose promise is failed or cancelled from outside, such as by a deadline,
+ * is abandoned: its slot is freed at once and a late response is discarded. A channel
+ * which abandons its whole in flight limit without receiving any response in between
+ * is presumed stalled and closed.
+ * <p>
+ * Frames pushed by the server carry {@link #NO_REQUEST_ID} and go to the push listener, if any.
+ * Subscribing to them is left to {@link NettyChannelPool}, which subscribes a single channel.
+ * @implNote All state is confined to the channel event loop, so no locking is required
+ */
+public class ClientHandler extends ChannelDuplexHandler {
 
-    private final Map<Channel, Promise<ByteBuf>> responsePromises;
+    /**
+     * Request id which is never assigned to a request
+     */
+    public static final int NO_REQUEST_ID = 0;
 
-    public ClientHandler(Map<Channel, Promise<ByteBuf>> responsePromises) {
-        this.responsePromises = responsePromises;
+    private final int maxInFlight;
+    private final Consumer<ByteBuf> pushListener;
+    private final IntObjectMap<Promise<ByteBuf>> inFlight;
+    private int requestIdSeq;
+    private int abandonedSinceRead;
+    private Runnable capacityListener;
+
+    public ClientHandler(int maxInFlight) {
+        this(maxInFlight, null);
+    }
+
+    /**
+     * @param pushListener Receives server pushed frames on the event loop, which remain owned
+     *                     by the handler, or null if none are expected. Frames
+     *                     are not filtered by command, so the listener checks the major field.
+     */
+    public ClientHandler(int maxInFlight, Consumer<ByteBuf> pushListener) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("Max in flight requests must be at least 1");
+
+        this.maxInFlight = maxInFlight;
+        this.pushListener = pushListener;
+        this.inFlight = new IntObjectHashMap<>(Math.min(maxInFlight, 64));
+    }
+
+    /**
+     * @param channel Channel created by {@link NettyChannelPool}
+     * @return The {@link ClientHandler} installed in the channel pipeline
+     */
+    public static ClientHandler of(Channel channel) {
+        return channel.pipeline().get(ClientHandler.class);
+    }
+
+    /**
+     * @implNote Must be called from the channel event loop
+     * @return Number of requests written and awaiting a response
+     */
+    public int inFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * @implNote Must be called from the channel event loop
+     * @return true if another request may be written to this channel
+     */
+    public boolean hasCapacity() {
+        return inFlight.size() < maxInFlight;
+    }
+
+    /**
+     * Register a one shot callback which runs on the channel event loop once this channel
+     * drops back below its in flight limit, or immediately if it already has capacity.
+     * @implNote Must be called from the channel event loop
+     * @param listener Callback, typically releasing the channel back to its pool
+     */
+    public void onCapacity(Runnable listener) {
+        this.capacityListener = listener;
+        notifyCapacity();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise writePromise) {
+        if (!(msg instanceof PendingRequest request)) {
+            ctx.write(msg, writePromise);
+            return;
+        }
+
+        if (!hasCapacity()) {
+            RejectedExecutionException cause = new RejectedExecutionException("Channel exceeded "
+                    + maxInFlight + " in flight requests");
+
+            request.message().release();
+            request.promise().tryFailure(cause);
+            writePromise.tryFailure(cause);
+            return;
+        }
+
+        int requestId = nextRequestId();
+        HeaderProtocol.setRequestId(request.message(), requestId);
+        inFlight.put(requestId, request.promise());
+
+        request.promise().addListener(future -> {
+            if (!future.isSuccess())
+                abandon(ctx, requestId, request.promise());
+        });
+
+        ChannelPromise promise = writePromise.unvoid();
+        promise.addListener((ChannelFutureListener) writeFuture -> {
+            if (!writeFuture.isSuccess())
+                fail(requestId, writeFuture.cause());
+        });
+
+        ctx.write(request.message(), promise);
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) {
         ByteBuf response = (ByteBuf) msg;
-        Promise<ByteBuf> promise = responsePromises.get(ctx.channel());
-        if (promise != null) {
-            promise.setSuccess(response);
-        } else {
-            response.release();
+        int requestId = HeaderProtocol.getRequestId(response);
+
+        if (requestId == NO_REQUEST_ID) {
+            try {
+                if (pushListener != null)
+                    pushListener.accept(response);
+            } finally {
+                response.release();
+            }
+            return;
         }
+
+        Promise<ByteBuf> promise = inFlight.remove(requestId);
+        abandonedSinceRead = 0;
+
+        if (promise == null || !promise.trySuccess(response))
+            response.release();
+
+        notifyCapacity();
     }
 
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-        Promise<ByteBuf> promise = responsePromises.remove(ctx.channel());
-        if (promise != null) {
-            promise.setFailure(cause);
-        }
+        failAll(cause);
         ctx.close(); // Close the channel to prevent reuse
     }
 
     @Override
     public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-        Promise<ByteBuf> promise = responsePromises.remove(ctx.channel());
-        if (promise != null) {
-            promise.setFailure(new ClosedChannelException());
-        }
+        failAll(new ClosedChannelException());
         super.channelInactive(ctx);
     }
 
+    private int nextRequestId() {
+        int requestId;
+        do {
+            requestId = ++requestIdSeq;
+        } while (requestId == NO_REQUEST_ID || inFlight.containsKey(requestId));
+
+        return requestId;
+    }
+
+    private void fail(int requestId, Throwable cause) {
+        Promise<ByteBuf> promise = inFlight.remove(requestId);
+        if (promise != null)
+            promise.tryFailure(cause);
+
+        notifyCapacity();
+    }
+
+    /**
+     * Free the slot of a request failed from outside the handler, if still in flight
+     */
+    private void abandon(ChannelHandlerContext ctx, int requestId, Promise<ByteBuf> promise) {
+        if (inFlight.get(requestId) != promise)
+            return;
+
+        inFlight.remove(requestId);
+
+        if (++abandonedSinceRead >= maxInFlight) {
+            ctx.close();
+            return;
+        }
+
+        notifyCapacity();
+    }
+
+    private void failAll(Throwable cause) {
+        if (!inFlight.isEmpty()) {
+            List<Promise<ByteBuf>> promises = new ArrayList<>(inFlight.values());
+            inFlight.clear();
+
+            for (Promise<ByteBuf> promise : promises)
+                promise.tryFailure(cause);
+        }
+
+        notifyCapacity();
+    }
+
+    private void notifyCapacity() {
+        Runnable listener = this.capacityListener;
+        if (listener != null && hasCapacity()) {
+            this.capacityListener = null;
+            listener.run();
+        }
+    }
+
 }
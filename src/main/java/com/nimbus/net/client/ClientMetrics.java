@@ -0,0 +1,89 @@
+package com.nimbus.net.client;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters shared by every client of a {@link ClientResources}, recorded from many
+ * event loops at once. Counters only grow, so rates are derived by sampling twice.
+ */
+public class ClientMetrics {
+
+    private final LongAdder requestsSent = new LongAdder();
+    private final LongAdder responsesReceived = new LongAdder();
+    private final LongAdder requestsFailed = new LongAdder();
+    private final LongAdder requestsTimedOut = new LongAdder();
+    private final LongAdder responseNanos = new LongAdder();
+    private final LongAdder connectionsOpened = new LongAdder();
+    private final LongAdder connectionsClosed = new LongAdder();
+
+    public void requestSent() {
+        requestsSent.increment();
+    }
+
+    /**
+     * @param latencyNanos Time from send to response
+     */
+    public void responseReceived(long latencyNanos) {
+        responsesReceived.increment();
+        responseNanos.add(latencyNanos);
+    }
+
+    public void requestFailed() {
+        requestsFailed.increment();
+    }
+
+    public void requestTimedOut() {
+        requestsTimedOut.increment();
+    }
+
+    public void connectionOpened() {
+        connectionsOpened.increment();
+    }
+
+    public void connectionClosed() {
+        connectionsClosed.increment();
+    }
+
+    public long requestsSent() {
+        return requestsSent.sum();
+    }
+
+    public long responsesReceived() {
+        return responsesReceived.sum();
+    }
+
+    /**
+     * @return Requests which failed for any reason, including timeouts
+     */
+    public long requestsFailed() {
+        return requestsFailed.sum();
+    }
+
+    public long requestsTimedOut() {
+        return requestsTimedOut.sum();
+    }
+
+    /**
+     * @return Mean response latency in nanoseconds since creation, or 0 before any response
+     */
+    public long meanLatencyNanos() {
+        long responses = responsesReceived.sum();
+
+        return responses == 0 ? 0 : responseNanos.sum() / responses;
+    }
+
+    /**
+     * @return Connections currently open
+     */
+    public long openConnections() {
+        return connectionsOpened.sum() - connectionsClosed.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "ClientMetrics{sent=" + requestsSent() + ", received=" + responsesReceived()
+                + ", failed=" + requestsFailed() + ", timedOut=" + requestsTimedOut()
+                + ", meanLatencyNanos=" + meanLatencyNanos() + ", openConnections=" + openConnections() + "}";
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.nimbus.net.client;
+
+import com.nimbus.net.Transport;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runtime shared by many {@link SuperTcpClient}s, typically one per node of a cluster, so
+ * thread count scales with cores rather than with cluster size. Holds one event loop group,
+ * one allocator, one timer for request deadlines and one metrics registry.
+ * <p>
+ * Resources outlive the clients using them. Whoever creates an instance closes it, after
+ * closing its clients. The {@link #shared()} instance is never closed and runs on daemon threads.
+ */
+public class ClientResources implements AutoCloseable {
+
+    private static final long TIMER_TICK_MS = 10;
+
+    private static final class Shared {
+        static final ClientResources INSTANCE = new ClientResources(Transport.best(), 0,
+                PooledByteBufAllocator.DEFAULT, true);
+    }
+
+    private final Transport transport;
+    private final EventLoopGroup eventLoopGroup;
+    private final ByteBufAllocator allocator;
+    private final HashedWheelTimer timer;
+    private final ClientMetrics metrics;
+    private final boolean shared;
+
+    public ClientResources() {
+        this(Transport.best(), 0, PooledByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * @param transport Socket transport, which must be {@link Transport#isAvailable() available}
+     * @param eventLoopThreads Event loop threads, 0 for the netty default of 2 * cores
+     * @param allocator Allocator for channel buffers
+     */
+    public ClientResources(Transport transport, int eventLoopThreads, ByteBufAllocator allocator) {
+        this(transport, eventLoopThreads, allocator, false);
+    }
+
+    private ClientResources(Transport transport, int eventLoopThreads, ByteBufAllocator allocator, boolean shared) {
+        this.shared = shared;
+        this.transport = transport;
+        this.allocator = allocator;
+        this.eventLoopGroup = transport.newEventLoopGroup(eventLoopThreads,
+                new DefaultThreadFactory("nimbus-client", true));
+        this.timer = new HashedWheelTimer(new DefaultThreadFactory("nimbus-client-timer", true),
+                TIMER_TICK_MS, TimeUnit.MILLISECONDS);
+        this.metrics = new ClientMetrics();
+    }
+
+    /**
+     * @return Process wide resources used by clients constructed without their own
+     */
+    public static ClientResources shared() {
+        return Shared.INSTANCE;
+    }
+
+    public Transport transport() {
+        return transport;
+    }
+
+    public EventLoopGroup eventLoopGroup() {
+        return eventLoopGroup;
+    }
+
+    public ByteBufAllocator allocator() {
+        return allocator;
+    }
+
+    /**
+     * @return Timer for coarse grained deadlines, ticking every {@value #TIMER_TICK_MS}ms
+     */
+    public Timer timer() {
+        return timer;
+    }
+
+    public ClientMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Stop the timer, cancelling pending deadlines, and shut down the event loops,
+     * blocking until they terminate. Clients using these resources must be closed first.
+     * @throws IllegalStateException if called on the {@link #shared()} instance
+     */
+    @Override
+    public void close() {
+        if (shared)
+            throw new IllegalStateException("Shared client resources cannot be closed");
+
+        for (Timeout timeout : timer.stop())
+            timeout.cancel();
+
+        eventLoopGroup.shutdownGracefully(0, 2, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+}
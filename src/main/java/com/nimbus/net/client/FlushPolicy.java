@@ -0,0 +1,45 @@
+package com.nimbus.net.client;
+
+/**
+ * When a client connection flushes its pending writes to the socket. Each flush is a
+ * syscall, so coalescing the requests written by many concurrent callers into one flush
+ * raises throughput, at the cost of holding early writes back until the batch is sent.
+ * <p>
+ * Pending writes are flushed as soon as either size bound is reached, otherwise once
+ * the delay elapses. A delay of zero flushes at the end of the current event loop tick,
+ * so only requests dispatched in the same tick share a flush and latency is barely affected.
+ * @param maxMessages Flush once this many messages are pending, 1 flushes every message
+ * @param maxBytes Flush once this many bytes are pending
+ * @param maxDelayMicros Longest a pending write is held back, 0 for the end of the event loop tick
+ */
+public record FlushPolicy(int maxMessages, int maxBytes, long maxDelayMicros) {
+
+    /**
+     * Flush every message as it is written
+     */
+    public static final FlushPolicy IMMEDIATE = new FlushPolicy(1, 1, 0);
+
+    /**
+     * Coalesce writes within an event loop tick, up to 64 messages or 64KiB
+     */
+    public static final FlushPolicy DEFAULT = new FlushPolicy(64, 64 * 1024, 0);
+
+    public FlushPolicy {
+        if (maxMessages < 1)
+            throw new IllegalArgumentException("Max messages per flush must be at least 1");
+
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("Max bytes per flush must be at least 1");
+
+        if (maxDelayMicros < 0)
+            throw new IllegalArgumentException("Max flush delay cannot be negative");
+    }
+
+    /**
+     * @return true if every write is flushed at once, so no batching stage is needed
+     */
+    public boolean isImmediate() {
+        return maxMessages == 1;
+    }
+
+}
@@ -0,0 +1,17 @@
+package com.nimbus.net.client;
+
+/**
+ * Callback receiving a long value decoded without boxing, invoked on the channel event loop
+ * so must not block. The underlying result is released before the callback runs.
+ */
+@FunctionalInterface
+public interface LongResultListener {
+
+    /**
+     * @param found true if the key exists
+     * @param value Decoded value, 0 if not found or on failure
+     * @param cause Failure, including a value which is not 8 bytes, else null
+     */
+    void onComplete(boolean found, long value, Throwable cause);
+
+}
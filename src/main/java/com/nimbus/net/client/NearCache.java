@@ -0,0 +1,354 @@
+package com.nimbus.net.client;
+
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import com.nimbus.routing.HashConstants;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Client side cache of GET values for a {@link SuperTcpClient}, so the hottest keys are served
+ * without a round trip. Values are copied on heap into compact byte arrays, bounded by a byte
+ * budget with CLOCK eviction, and expire after a fixed time to live.
+ * <p>
+ * Entries are invalidated by SET and DEL issued through the owning client. With server
+ * invalidation enabled, one connection of the client also subscribes to
+ * {@link com.nimbus.proto.protocol.RequestProtocol#CMD_INVALIDATE} pushes, dropping keys written
+ * by other clients. If it closes another connection subscribes, and as pushes sent in between
+ * are lost the whole cache is dropped once the server acknowledges the new subscription.
+ * Pushes are best effort, so the time to live bounds staleness either way.
+ * Keys expiring on the server are not tracked, and may be served until the time to live here.
+ * Only the typed API is cached; raw {@link SuperTcpClient#send(ByteBuf)} requests bypass it.
+ * <p>
+ * A GET response only fills the cache if no invalidation of its key happened while it was in
+ * flight, so a response racing a write can never cache the value the write replaced. Invalidations
+ * are counted per stripe of keys by hash, so only writes to keys sharing the stripe discard a fill.
+ */
+public class NearCache {
+
+    /**
+     * Approximate heap overhead of an entry beyond its key and value bytes
+     */
+    private static final int ENTRY_OVERHEAD = 96;
+
+    /**
+     * Removed entries tolerated in the clock before it is compacted
+     */
+    private static final int MAX_DEAD_ENTRIES = 1024;
+
+    /**
+     * Invalidation counters, a power of two
+     */
+    private static final int STAMP_STRIPES = 4096;
+
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final boolean serverInvalidation;
+
+    private final ConcurrentHashMap<CacheKey, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLongArray invalidations = new AtomicLongArray(STAMP_STRIPES);
+    private final AtomicInteger deadEntries = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxBytes Budget for cached keys, values and their overhead
+     * @param ttlMillis Time to live of each entry from when it is cached, zero or less for none
+     * @param serverInvalidation true to subscribe the client to server pushed invalidations
+     */
+    public NearCache(long maxBytes, long ttlMillis, boolean serverInvalidation) {
+        if (maxBytes < 1)
+            throw new IllegalArgumentException("Near cache byte budget must be positive");
+
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttlMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(ttlMillis) : Long.MAX_VALUE;
+        this.serverInvalidation = serverInvalidation;
+    }
+
+    public boolean serverInvalidation() {
+        return serverInvalidation;
+    }
+
+    /**
+     * @return Cached value bytes, which must not be modified, or null on a miss
+     */
+    byte[] get(Object key) {
+        Entry entry = entries.get(CacheKey.of(key, false));
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+
+        if (entry.isExpired(System.nanoTime())) {
+            remove(entry);
+            misses.increment();
+            return null;
+        }
+
+        entry.referenced = true;
+        hits.increment();
+
+        return entry.value;
+    }
+
+    /**
+     * @return Invalidation stamp of the key to pass to {@link #fill(Object, ByteBuf, long)} once
+     * the value read at this point arrives
+     */
+    long stamp(Object key) {
+        return invalidations.get(stripe(CacheKey.of(key, false)));
+    }
+
+    /**
+     * Cache a value read from the server, unless the key was invalidated since the stamp
+     * @param value Value bytes, copied without changing its indexes
+     * @param stamp {@link #stamp(Object)} of the key taken before the value was requested
+     */
+    void fill(Object key, ByteBuf value, long stamp) {
+        int weight = ENTRY_OVERHEAD + value.readableBytes();
+        if (weight > maxBytes)
+            return;
+
+        CacheKey cacheKey = CacheKey.of(key, true);
+        int stripe = stripe(cacheKey);
+        if (invalidations.get(stripe) != stamp)
+            return;
+
+        weight += cacheKey.bytes.length;
+
+        Entry entry = new Entry(cacheKey, ByteBufUtil.getBytes(value), weight,
+                saturatedAdd(System.nanoTime(), ttlNanos));
+
+        bytes.addAndGet(weight);
+        clock.offer(entry);
+
+        Entry replaced = entries.put(cacheKey, entry);
+        if (replaced != null)
+            unlink(replaced);
+
+        // Raced an invalidation between the check and the put
+        if (invalidations.get(stripe) != stamp)
+            remove(entry);
+
+        evictIfNeeded();
+    }
+
+    /**
+     * Drop a key, and discard any value for it still in flight
+     * @param key byte[], String, Integer or Long key
+     */
+    public void invalidate(Object key) {
+        CacheKey cacheKey = CacheKey.of(key, false);
+        invalidations.incrementAndGet(stripe(cacheKey));
+
+        Entry entry = entries.remove(cacheKey);
+        if (entry != null)
+            unlink(entry);
+    }
+
+    /**
+     * Drop every entry, and discard any value still in flight
+     */
+    public void invalidateAll() {
+        for (int i = 0; i < STAMP_STRIPES; i++)
+            invalidations.incrementAndGet(i);
+
+        for (Entry entry : entries.values())
+            remove(entry);
+    }
+
+    /**
+     * Apply a server pushed invalidation frame, whose data section holds its keys. The
+     * acknowledgement of a subscription drops every entry, as any cached before it may have
+     * missed pushes, while other pushed frames are ignored.
+     * @param frame Frame, which remains owned by the caller
+     */
+    void onPush(ByteBuf frame) {
+        ResponseMessage message = new ResponseMessage(frame);
+        if (message.status() == ResponseProtocol.STATUS_OK) {
+            invalidateAll();
+            return;
+        }
+
+        if (message.status() != RequestProtocol.CMD_INVALIDATE)
+            return;
+
+        message.resetReaderIndex();
+
+        int count = message.count();
+        for (int i = 0; i < count; i++)
+            invalidate(ByteBufUtil.getBytes(message.keyAsSlice()));
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Bytes currently held, including per entry overhead
+     */
+    public long bytes() {
+        return bytes.get();
+    }
+
+    private static int stripe(CacheKey key) {
+        return key.hash & (STAMP_STRIPES - 1);
+    }
+
+    private void remove(Entry entry) {
+        if (entries.remove(entry.key, entry))
+            unlink(entry);
+    }
+
+    /**
+     * Account for an entry no longer in the map, leaving it in the clock until swept
+     */
+    private void unlink(Entry entry) {
+        entry.removed = true;
+        bytes.addAndGet(-entry.weight);
+        deadEntries.incrementAndGet();
+    }
+
+    /**
+     * Sweep the clock hand until back under budget. An entry referenced since the hand last
+     * passed gets a second chance, otherwise it is evicted. Only one thread sweeps at a time,
+     * others carry on as the sweeping thread restores the budget for them.
+     */
+    private void evictIfNeeded() {
+        if ((bytes.get() <= maxBytes && deadEntries.get() < MAX_DEAD_ENTRIES) || !evictionLock.tryLock())
+            return;
+
+        try {
+            long now = System.nanoTime();
+
+            while (bytes.get() > maxBytes) {
+                Entry entry = clock.poll();
+                if (entry == null)
+                    break;
+
+                if (entry.removed) {
+                    deadEntries.decrementAndGet();
+                } else if (entry.referenced && !entry.isExpired(now)) {
+                    entry.referenced = false;
+                    clock.offer(entry);
+                } else if (entries.remove(entry.key, entry)) {
+                    unlink(entry);
+                    deadEntries.decrementAndGet();
+                    evictions.increment();
+                }
+            }
+
+            if (deadEntries.get() >= MAX_DEAD_ENTRIES) {
+                clock.removeIf(entry -> entry.removed);
+                deadEntries.set(0);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        long sum = a + b;
+
+        return ((a ^ sum) & (b ^ sum)) < 0 ? Long.MAX_VALUE : sum;
+    }
+
+    private static final class Entry {
+        final CacheKey key;
+        final byte[] value;
+        final int weight;
+        final long expiresAtNanos;
+        volatile boolean referenced;
+        volatile boolean removed;
+
+        Entry(CacheKey key, byte[] value, int weight, long expiresAtNanos) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAtNanos >= 0;
+        }
+    }
+
+    /**
+     * Key in its wire encoding, so a key cached as one type is invalidated as any other
+     */
+    private static final class CacheKey {
+        final byte[] bytes;
+        final int hash;
+
+        private CacheKey(byte[] bytes) {
+            this.bytes = bytes;
+            this.hash = (int) HashConstants.HASH_FUNCTION.hashBytes(bytes);
+        }
+
+        /**
+         * @param copy true to copy a byte[] key, so the caller may reuse its array
+         */
+        static CacheKey of(Object key, boolean copy) {
+            if (key instanceof byte[] array)
+                return new CacheKey(copy ? array.clone() : array);
+            if (key instanceof String string)
+                return new CacheKey(string.getBytes(StandardCharsets.UTF_8));
+            if (key instanceof Integer value)
+                return new CacheKey(toBytes(value, Integer.BYTES));
+            if (key instanceof Long value)
+                return new CacheKey(toBytes(value, Long.BYTES));
+
+            throw new IllegalArgumentException("Unsupported key type: " + key.getClass().getName());
+        }
+
+        private static byte[] toBytes(long value, int size) {
+            byte[] bytes = new byte[size];
+            for (int i = size - 1; i >= 0; i--) {
+                bytes[i] = (byte) value;
+                value >>>= 8;
+            }
+
+            return bytes;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof CacheKey key && Arrays.equals(bytes, key.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -1,6 +1,13 @@
 package com.nimbus.net;
 
+import com.nimbus.net.client.ClientMetrics;
+import com.nimbus.net.client.FlushPolicy;
+import com.nimbus.net.client.WriteBatchingHandler;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.trace.Trace;
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.pool.*;
@@ -9,48 +16,143 @@ import io.netty.util.concurrent.Promise;
 
 import java.net.InetSocketAddress;
 import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 
+/**
+ * With a push listener, one channel of the pool at a time is subscribed to server pushes with
+ * {@link RequestProtocol#CMD_INVALIDATE}, so each push reaches the client once however many
+ * channels it has open. If the subscribed channel closes another open channel is subscribed,
+ * or else the next one acquired.
+ */
 public class NettyChannelPool {
 
     private final ChannelPool pool;
-    private final ClientHandler clientHandler;
+    private final int maxInFlightPerChannel;
+    private final int capacity;
+    private final ClientMetrics metrics;
+    private final FlushPolicy flushPolicy;
+    private final Consumer<ByteBuf> pushListener;
+    private final Set<Channel> channels = ConcurrentHashMap.newKeySet();
+    private final AtomicReference<Channel> subscriber = new AtomicReference<>();
 
-    public NettyChannelPool(Bootstrap bootstrap, ClientHandler clientHandler, String host, int port, int maxConnections, Duration connectTimeout) {
+    /**
+     * @param maxInFlightPerChannel Max requests which may be pipelined on a single channel
+     *                              before it is withheld from the pool, 1 disables pipelining
+     * @param metrics Metrics recording connections opened and closed
+     * @param flushPolicy When writes to each channel are flushed to the socket
+     * @param pushListener Receives frames pushed by the server, including the acknowledgement of
+     *                     each subscription, or null if none are subscribed to
+     */
+    public NettyChannelPool(Bootstrap bootstrap, int maxInFlightPerChannel, String host, int port, int maxConnections,
+                            Duration connectTimeout, ClientMetrics metrics, FlushPolicy flushPolicy,
+                            Consumer<ByteBuf> pushListener) {
+        int connections = Math.max(maxConnections, 8);
+
+        // As many callers as may be in flight can wait for a channel before acquires fail fast
+        this.capacity = connections * maxInFlightPerChannel;
         this.pool = new FixedChannelPool(bootstrap.remoteAddress(new InetSocketAddress(host, port)),
                 this.getHandler(),
                 ChannelHealthChecker.ACTIVE,
                 FixedChannelPool.AcquireTimeoutAction.FAIL,
                 connectTimeout.toMillis(),
-                Math.max(maxConnections, 8),
-                Math.max(maxConnections / 4, 8),
+                connections,
+                Math.max(capacity, 8),
                 true);
-        this.clientHandler = clientHandler;
+        this.maxInFlightPerChannel = maxInFlightPerChannel;
+        this.metrics = metrics;
+        this.flushPolicy = flushPolicy;
+        this.pushListener = pushListener;
     }
 
     private ChannelPoolHandler getHandler() {
         return new ChannelPoolHandler() {
             @Override
             public void channelReleased(Channel ch) {
-                System.out.println("Channel released: " + ch.id());
+                if (Trace.ENABLED)
+                    Trace.event("pool", "Channel released: " + ch.id());
             }
 
             @Override
             public void channelAcquired(Channel ch) {
-                System.out.println("Channel acquired: " + ch.id());
+                if (Trace.ENABLED)
+                    Trace.event("pool", "Channel acquired: " + ch.id());
+
+                if (pushListener != null && subscriber.get() == null)
+                    subscribe(ch);
             }
 
             @Override
             public void channelCreated(Channel ch) {
-                System.out.println("Channel created: " + ch.id());
+                if (Trace.ENABLED)
+                    Trace.event("pool", "Channel created: " + ch.id());
+
+                metrics.connectionOpened();
+                ch.closeFuture().addListener(closeFuture -> metrics.connectionClosed());
 
                 ChannelPipeline pipeline = ch.pipeline();
 
+                // Outbound requests leave the client handler before reaching the batching stage
+                if (!flushPolicy.isImmediate())
+                    pipeline.addLast(new WriteBatchingHandler(flushPolicy));
+
                 pipeline.addLast(new ProtoResponseDecoder());
-                pipeline.addLast(clientHandler);
+                pipeline.addLast(new ClientHandler(maxInFlightPerChannel, pushListener));
+
+                if (pushListener != null) {
+                    channels.add(ch);
+                    ch.closeFuture().addListener(closeFuture -> {
+                        channels.remove(ch);
+                        if (subscriber.compareAndSet(ch, null))
+                            resubscribe();
+                    });
+                }
             }
         };
     }
 
+    private void resubscribe() {
+        for (Channel channel : channels) {
+            if (subscribe(channel))
+                return;
+        }
+    }
+
+    /**
+     * Subscribe a channel to server pushes unless another channel already is. The subscription
+     * is sent without a request id so it takes no in flight slot, its acknowledgement then
+     * arriving as a push frame.
+     * @return true if some channel is now subscribed
+     */
+    private boolean subscribe(Channel channel) {
+        if (!subscriber.compareAndSet(null, channel))
+            return true;
+
+        // Closed before the swap, so its close listener did not see it subscribed
+        if (!channel.isActive()) {
+            subscriber.compareAndSet(channel, null);
+            return false;
+        }
+
+        if (Trace.ENABLED)
+            Trace.event("pool", "Channel subscribed: " + channel.id());
+
+        RequestMessage request = new RequestMessage(0);
+        request.command(RequestProtocol.CMD_INVALIDATE);
+        channel.writeAndFlush(request.end(), channel.voidPromise());
+
+        return true;
+    }
+
+    /**
+     * @return Requests which may be in flight across all channels of the pool at once
+     */
+    public int capacity() {
+        return capacity;
+    }
+
     public Future<Channel> acquire() {
         return pool.acquire();
     }
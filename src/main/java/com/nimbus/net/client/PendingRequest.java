@@ -0,0 +1,14 @@
+package com.nimbus.net;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.Promise;
+
+/**
+ * Outbound request paired with the promise to complete once its response
+ * arrives. Written through the channel pipeline so {@link ClientHandler}
+ * can assign a request id and track it on the channel event loop.
+ * @param message Fully encoded request message, ownership passes to the pipeline
+ * @param promise Promise completed with the response buffer
+ */
+public record PendingRequest(ByteBuf message, Promise<ByteBuf> promise) {
+}
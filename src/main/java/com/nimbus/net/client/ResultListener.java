@@ -0,0 +1,19 @@
+package com.nimbus.net.client;
+
+import com.nimbus.net.results.QueryResult;
+
+/**
+ * Callback receiving the result of a typed client command, invoked on the channel event loop
+ * so must not block.
+ * @param <R> Result type, which the listener must release
+ */
+@FunctionalInterface
+public interface ResultListener<R extends QueryResult> {
+
+    /**
+     * @param result Result on success, else null
+     * @param cause Failure such as a {@link java.util.concurrent.TimeoutException}, else null
+     */
+    void onComplete(R result, Throwable cause);
+
+}
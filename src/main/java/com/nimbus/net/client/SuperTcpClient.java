@@ -2,38 +2,112 @@ package com.nimbus.net.client;
 
 import com.nimbus.net.ClientHandler;
 import com.nimbus.net.NettyChannelPool;
+import com.nimbus.net.PendingRequest;
+import com.nimbus.net.results.ValueResult;
+import com.nimbus.trace.Trace;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufUtil;
 import io.netty.channel.*;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.util.Timeout;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.Promise;
 
 import java.time.Duration;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class SuperTcpClient {
 
+    private final ClientResources resources;
+    private final String host;
     private final NettyChannelPool channelPool;
-    private final Map<Channel, Promise<ByteBuf>> responsePromises;
-    private final ClientHandler clientHandler;
+    private final long requestTimeoutMs;
+    private final NearCache nearCache;
 
     public SuperTcpClient(String host, int port, int maxConnections, int timeoutMs, Map<ChannelOption<?>, Object> options) {
-        this.responsePromises = new ConcurrentHashMap<>();
-        this.clientHandler = new ClientHandler(this.responsePromises);
+        this(host, port, maxConnections, 1, timeoutMs, options);
+    }
+
+    /**
+     * @param maxInFlightPerChannel Max requests pipelined concurrently on a single connection,
+     *                              responses are matched by {@link com.nimbus.proto.protocol.HeaderProtocol#HDR_REQUEST_ID}.
+     *                              A value of 1 holds each connection for the full request round trip.
+     */
+    public SuperTcpClient(String host, int port, int maxConnections, int maxInFlightPerChannel, int timeoutMs,
+                          Map<ChannelOption<?>, Object> options) {
+        this(ClientResources.shared(), host, port, maxConnections, maxInFlightPerChannel, timeoutMs, options);
+    }
+
+    /**
+     * @param resources Event loops, allocator, timer and metrics shared with other clients,
+     *                  which must outlive this client
+     * @param timeoutMs Default deadline of each request, covering both connection acquire
+     *                  and the response. Zero or less disables the response deadline.
+     */
+    public SuperTcpClient(ClientResources resources, String host, int port, int maxConnections,
+                          int maxInFlightPerChannel, int timeoutMs, Map<ChannelOption<?>, Object> options) {
+        this(resources, host, port, maxConnections, maxInFlightPerChannel, timeoutMs, FlushPolicy.DEFAULT, options);
+    }
+
+    /**
+     * @param flushPolicy When requests written to a connection are flushed to the socket,
+     *                    {@link FlushPolicy#IMMEDIATE} to flush each request on its own
+     */
+    public SuperTcpClient(ClientResources resources, String host, int port, int maxConnections,
+                          int maxInFlightPerChannel, int timeoutMs, FlushPolicy flushPolicy,
+                          Map<ChannelOption<?>, Object> options) {
+        this(resources, host, port, maxConnections, maxInFlightPerChannel, timeoutMs, flushPolicy, null, options);
+    }
+
+    /**
+     * @param nearCache Cache serving typed GETs locally, owned by this client alone, or null for none
+     */
+    public SuperTcpClient(ClientResources resources, String host, int port, int maxConnections,
+                          int maxInFlightPerChannel, int timeoutMs, FlushPolicy flushPolicy,
+                          NearCache nearCache, Map<ChannelOption<?>, Object> options) {
+        this.resources = resources;
+        this.host = host + ":" + port;
+        this.requestTimeoutMs = timeoutMs;
+        this.nearCache = nearCache;
 
-        System.out.println("making new client lol");
         Bootstrap bootstrap = new Bootstrap();
-        bootstrap.group(new NioEventLoopGroup())
-                .channel(NioSocketChannel.class);
+        bootstrap.group(resources.eventLoopGroup())
+                .channel(resources.transport().socketChannelClass())
+                .option(ChannelOption.ALLOCATOR, resources.allocator());
 
         applyOptions(bootstrap, options);
 
-        this.channelPool = new NettyChannelPool(bootstrap, clientHandler, host, port, maxConnections, Duration.ofMillis(timeoutMs));
+        this.channelPool = new NettyChannelPool(bootstrap, maxInFlightPerChannel, host, port, maxConnections,
+                Duration.ofMillis(timeoutMs), resources.metrics(), flushPolicy,
+                nearCache != null && nearCache.serverInvalidation() ? nearCache::onPush : null);
+    }
+
+    public ClientResources resources() {
+        return resources;
+    }
+
+    /**
+     * @return Requests which may be in flight on this client at once, across all its connections
+     */
+    public int capacity() {
+        return channelPool.capacity();
+    }
+
+    /**
+     * @return The near cache of this client, or null if it has none
+     */
+    public NearCache nearCache() {
+        return nearCache;
+    }
+
+    /**
+     * @return host:port this client connects to
+     */
+    public String host() {
+        return host;
     }
 
     private void applyOptions(Bootstrap bootstrap, Map<ChannelOption<?>, Object> options) {
@@ -47,45 +121,64 @@ public class SuperTcpClient {
         bootstrap.option(option, (T) value);
     }
 
+    /**
+     * Send a fully encoded request message with the client default deadline.
+     * @see #send(ByteBuf, long)
+     */
     public CompletableFuture<ByteBuf> send(ByteBuf message) {
+        return send(message, requestTimeoutMs);
+    }
+
+    /**
+     * Send a fully encoded request message. The message may share its connection with other
+     * in flight requests, its response is matched by request id rather than arrival order.
+     * <p>
+     * Once the deadline passes the future fails with a {@link TimeoutException}, the in flight
+     * slot of the request is freed and any late response is discarded. Cancelling the future
+     * has the same effect.
+     * @param message Encoded request, retained for the write so the caller keeps its reference.
+     *                Its request id header is written in place, so it must not be sent again
+     *                while in flight, only a copy of it
+     * @param timeoutMs Deadline from now, zero or less for none
+     * @return Future completed with the response buffer, which the caller must release
+     */
+    public CompletableFuture<ByteBuf> send(ByteBuf message, long timeoutMs) {
         CompletableFuture<ByteBuf> resultFuture = new CompletableFuture<>();
+        long startNanos = System.nanoTime();
+
+        resources.metrics().requestSent();
+
+        if (timeoutMs > 0) {
+            Timeout deadline = resources.timer().newTimeout(timeout -> {
+                if (resultFuture.isDone())
+                    return;
+
+                // Recorded first so metrics are current once callers observe the failure
+                resources.metrics().requestTimedOut();
+                resources.metrics().requestFailed();
+                resultFuture.completeExceptionally(new TimeoutException("Request exceeded deadline of "
+                        + timeoutMs + "ms"));
+            }, timeoutMs, TimeUnit.MILLISECONDS);
+
+            resultFuture.whenComplete((response, cause) -> deadline.cancel());
+        }
 
         channelPool.acquire().addListener((Future<Channel> future) -> {
             if (future.isSuccess()) {
                 Channel channel = future.getNow();
-                System.out.println("Acquired channel: " + channel.id());
-
-                Promise<ByteBuf> promise = channel.eventLoop().newPromise();
-                responsePromises.put(channel, promise);
-
-                System.out.println(ByteBufUtil.hexDump(message));
-
-                channel.writeAndFlush(message.retain()).addListener((ChannelFutureListener) writeFuture -> {
-                    if (!writeFuture.isSuccess()) {
-                        System.err.println("Write failed: " + writeFuture.cause());
-                        responsePromises.remove(channel);
-                        resultFuture.completeExceptionally(writeFuture.cause());
-                        channelPool.release(channel);
-                    } else {
-                        System.out.println("Write succeeded on channel: " + channel.id());
-                    }
-                    // Do not release the channel here if write succeeded
-                });
-
-                promise.addListener((Future<ByteBuf> responseFuture) -> {
-                    if (responseFuture.isSuccess()) {
-                        System.out.println("Received response on channel: " + channel.id());
-                        resultFuture.complete(responseFuture.getNow());
-                    } else {
-                        System.err.println("Response future failed: " + responseFuture.cause());
-                        resultFuture.completeExceptionally(responseFuture.cause());
-                    }
-
-                    responsePromises.remove(channel);
-                    channelPool.release(channel);
-                });
+                if (Trace.ENABLED)
+                    Trace.event("client", "Acquired channel: " + channel.id());
+
+                if (channel.eventLoop().inEventLoop()) {
+                    dispatch(channel, message, startNanos, resultFuture);
+                } else {
+                    channel.eventLoop().execute(() -> dispatch(channel, message, startNanos, resultFuture));
+                }
             } else {
-                System.err.println("Failed to acquire channel: " + future.cause());
+                if (Trace.ENABLED)
+                    Trace.error("client", "Failed to acquire channel", future.cause());
+                if (!resultFuture.isDone())
+                    resources.metrics().requestFailed();
                 resultFuture.completeExceptionally(future.cause());
             }
         });
@@ -93,6 +186,235 @@ public class SuperTcpClient {
         return resultFuture;
     }
 
+    /**
+     * Writes the request on the acquired channel and hands the channel back to the pool
+     * as soon as it can accept another request, so other callers pipeline behind it.
+     * A channel at its in flight limit is withheld until a response frees a slot.
+     * @implNote Must run on the channel event loop
+     */
+    private void dispatch(Channel channel, ByteBuf message, long startNanos, CompletableFuture<ByteBuf> resultFuture) {
+        // Deadline passed or cancelled while acquiring, the request is never written
+        if (resultFuture.isDone()) {
+            channelPool.release(channel);
+            return;
+        }
+
+        ClientHandler handler = ClientHandler.of(channel);
+        Promise<ByteBuf> promise = channel.eventLoop().newPromise();
+
+        // Failing the promise abandons the request in the handler, freeing its slot
+        resultFuture.whenComplete((response, cause) -> {
+            if (cause != null)
+                promise.tryFailure(cause);
+        });
+
+        promise.addListener((Future<ByteBuf> responseFuture) -> {
+            if (responseFuture.isSuccess()) {
+                if (Trace.ENABLED)
+                    Trace.event("client", "Received response on channel: " + channel.id());
+                ByteBuf response = responseFuture.getNow();
+                if (!resultFuture.isDone())
+                    resources.metrics().responseReceived(System.nanoTime() - startNanos);
+
+                // Lost the race against the deadline, nobody else will release it
+                if (!resultFuture.complete(response))
+                    response.release();
+            } else {
+                if (Trace.ENABLED)
+                    Trace.error("client", "Response future failed", responseFuture.cause());
+                if (!resultFuture.isDone())
+                    resources.metrics().requestFailed();
+                resultFuture.completeExceptionally(responseFuture.cause());
+            }
+        });
+
+        if (Trace.ENABLED)
+            Trace.event("client", "Sending on channel " + channel.id() + ": " + ByteBufUtil.hexDump(message));
+
+        channel.writeAndFlush(new PendingRequest(message.retain(), promise));
+
+        handler.onCapacity(() -> channelPool.release(channel));
+    }
+
+    /**
+     * Get the value of a key. The result is {@link ValueResult#isOk() ok} if the key exists.
+     * A near cache hit completes the listener at once on the calling thread.
+     * @param key byte[], String, Integer or Long key
+     * @param listener Receives the result, and must release it
+     */
+    public void get(Object key, ResultListener<? super ValueResult> listener) {
+        if (!getCached(key, listener))
+            execute(TypedRequest.get(this, key, listener));
+    }
+
+    /**
+     * @return true if the near cache held the key and completed the listener with its value
+     */
+    boolean getCached(Object key, ResultListener<? super ValueResult> listener) {
+        if (nearCache == null)
+            return false;
+
+        byte[] cached = nearCache.get(key);
+        if (cached == null)
+            return false;
+
+        listener.onComplete(ValueResult.of(cached, host), null);
+        return true;
+    }
+
+    /**
+     * Get the value of a key holding an 8 byte long, decoded directly from the response buffer.
+     * A near cache hit completes the listener at once on the calling thread.
+     * @param key byte[], String, Integer or Long key
+     * @param listener Receives the value
+     */
+    public void getLong(Object key, LongResultListener listener) {
+        if (!getLongCached(key, listener))
+            execute(TypedRequest.getLong(this, key, listener));
+    }
+
+    /**
+     * @return true if the near cache held an 8 byte value of the key and completed the listener with it
+     */
+    boolean getLongCached(Object key, LongResultListener listener) {
+        if (nearCache == null)
+            return false;
+
+        byte[] cached = nearCache.get(key);
+        if (cached == null || cached.length != Long.BYTES)
+            return false;
+
+        listener.onComplete(true, decodeLong(cached), null);
+        return true;
+    }
+
+    private static long decodeLong(byte[] bytes) {
+        long value = 0;
+        for (byte b : bytes)
+            value = (value << 8) | (b & 0xFF);
+
+        return value;
+    }
+
+    /**
+     * @param key byte[], String, Integer or Long key
+     * @param value byte[] or String value
+     * @param listener Receives the result, and must release it
+     */
+    public void set(Object key, Object value, ResultListener<? super ValueResult> listener) {
+        execute(TypedRequest.set(this, key, value, 0, listener));
+    }
+
+    /**
+     * Set a key which the server expires once its time to live passes
+     * @param key byte[], String, Integer or Long key
+     * @param value byte[] or String value
+     * @param ttlMillis Time to live from when the server applies the write, zero or less for none
+     * @param listener Receives the result, and must release it
+     */
+    public void set(Object key, Object value, long ttlMillis, ResultListener<? super ValueResult> listener) {
+        execute(TypedRequest.set(this, key, value, ttlMillis, listener));
+    }
+
+    /**
+     * Set a key to an 8 byte long value, readable with {@link #getLong(Object, LongResultListener)}
+     * @param listener Receives the result, and must release it
+     */
+    public void setLong(Object key, long value, ResultListener<? super ValueResult> listener) {
+        execute(TypedRequest.setLong(this, key, value, 0, listener));
+    }
+
+    /**
+     * Set a key to an 8 byte long value which the server expires once its time to live passes
+     * @param ttlMillis Time to live from when the server applies the write, zero or less for none
+     * @param listener Receives the result, and must release it
+     */
+    public void setLong(Object key, long value, long ttlMillis, ResultListener<? super ValueResult> listener) {
+        execute(TypedRequest.setLong(this, key, value, ttlMillis, listener));
+    }
+
+    /**
+     * Delete a key. The result is {@link ValueResult#isOk() ok} if the key existed.
+     * @param listener Receives the result, and must release it
+     */
+    public void del(Object key, ResultListener<? super ValueResult> listener) {
+        execute(TypedRequest.del(this, key, listener));
+    }
+
+    /**
+     * Change the time to live of an existing key. The result is {@link ValueResult#isOk() ok}
+     * if the key exists.
+     * @param ttlMillis Time to live from now, or zero to remove any expiry so the key persists
+     * @param listener Receives the result, and must release it
+     */
+    public void expire(Object key, long ttlMillis, ResultListener<? super ValueResult> listener) {
+        execute(TypedRequest.expire(this, key, ttlMillis, listener));
+    }
+
+    /**
+     * Get the remaining time to live of a key in milliseconds, or -1 if it never expires.
+     * Not found if the key does not exist. Always asks the server, never the near cache.
+     * @param listener Receives the time to live
+     */
+    public void ttl(Object key, LongResultListener listener) {
+        execute(TypedRequest.ttl(this, key, listener));
+    }
+
+    /**
+     * @return The request, which may be {@link TypedRequest#cancel() cancelled} once issued
+     */
+    TypedRequest execute(TypedRequest request) {
+        request.start(requestTimeoutMs);
+
+        channelPool.acquire().addListener((Future<Channel> future) -> {
+            if (!future.isSuccess()) {
+                request.fail(future.cause());
+                return;
+            }
+
+            Channel channel = future.getNow();
+            if (channel.eventLoop().inEventLoop()) {
+                dispatch(channel, request);
+            } else {
+                channel.eventLoop().execute(() -> dispatch(channel, request));
+            }
+        });
+
+        return request;
+    }
+
+    /**
+     * Encodes the typed request straight into a buffer from the channel allocator and writes it.
+     * @implNote Must run on the channel event loop
+     * @see #dispatch(Channel, ByteBuf, long, CompletableFuture)
+     */
+    private void dispatch(Channel channel, TypedRequest request) {
+        if (request.isDone()) {
+            channelPool.release(channel);
+            return;
+        }
+
+        ByteBuf message;
+        try {
+            message = request.encode(channel.alloc());
+        } catch (RuntimeException e) {
+            channelPool.release(channel);
+            request.fail(e);
+            return;
+        }
+
+        Promise<ByteBuf> promise = channel.eventLoop().newPromise();
+        request.promise(promise);
+
+        channel.writeAndFlush(new PendingRequest(message, promise));
+
+        ClientHandler.of(channel).onCapacity(() -> channelPool.release(channel));
+    }
+
+    /**
+     * Close all connections of this client, failing requests still in flight.
+     * Its {@link ClientResources} are left running for other clients.
+     */
     public void close() {
         channelPool.close();
     }
@@ -0,0 +1,349 @@
+package com.nimbus.net.client;
+
+import com.nimbus.net.results.ValueResult;
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.trace.Trace;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.util.Timeout;
+import io.netty.util.TimerTask;
+import io.netty.util.concurrent.Future;
+import io.netty.util.concurrent.FutureListener;
+import io.netty.util.concurrent.Promise;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A single key command issued through the typed {@link SuperTcpClient} API. Holds the caller's
+ * key and value until the request is encoded on the event loop, then acts as both the
+ * response listener and the deadline task, so no further per request objects are needed.
+ * @implNote Completes exactly once, whichever of response, failure or deadline comes first
+ */
+final class TypedRequest implements FutureListener<ByteBuf>, TimerTask {
+
+    private static final AtomicIntegerFieldUpdater<TypedRequest> DONE =
+            AtomicIntegerFieldUpdater.newUpdater(TypedRequest.class, "done");
+
+    private final SuperTcpClient client;
+    private final int command;
+    private final Object key;
+    private final Object value;
+    private final long longValue;
+    private final long ttlMillis;
+    private final ResultListener<? super ValueResult> listener;
+    private final LongResultListener longListener;
+
+    private long startNanos;
+    private long timeoutMs;
+    private long cacheStamp;
+    private volatile Timeout deadline;
+    private volatile Promise<ByteBuf> promise;
+    private volatile int done;
+
+    /**
+     * @param value byte[] or String value, or null to encode longValue or no value
+     * @param ttlMillis Time to live of a SET or EXPIRE, zero or less for none
+     */
+    private TypedRequest(SuperTcpClient client, int command, Object key, Object value, long longValue,
+                         long ttlMillis, ResultListener<? super ValueResult> listener,
+                         LongResultListener longListener) {
+        if (key == null)
+            throw new NullPointerException("Key cannot be null");
+
+        this.client = client;
+        this.command = command;
+        this.key = key;
+        this.value = value;
+        this.longValue = longValue;
+        this.ttlMillis = ttlMillis;
+        this.listener = listener;
+        this.longListener = longListener;
+    }
+
+    static TypedRequest get(SuperTcpClient client, Object key, ResultListener<? super ValueResult> listener) {
+        return new TypedRequest(client, RequestProtocol.CMD_GET, key, null, 0, 0, listener, null);
+    }
+
+    static TypedRequest getLong(SuperTcpClient client, Object key, LongResultListener listener) {
+        return new TypedRequest(client, RequestProtocol.CMD_GET, key, null, 0, 0, null, listener);
+    }
+
+    static TypedRequest set(SuperTcpClient client, Object key, Object value, long ttlMillis,
+                            ResultListener<? super ValueResult> listener) {
+        if (value == null)
+            throw new NullPointerException("Value cannot be null");
+
+        if (!(value instanceof byte[]) && !(value instanceof String))
+            throw new IllegalArgumentException("Unsupported value type: " + value.getClass().getName());
+
+        return new TypedRequest(client, RequestProtocol.CMD_SET, key, value, 0, ttlMillis, listener, null);
+    }
+
+    static TypedRequest setLong(SuperTcpClient client, Object key, long value, long ttlMillis,
+                                ResultListener<? super ValueResult> listener) {
+        return new TypedRequest(client, RequestProtocol.CMD_SET, key, null, value, ttlMillis, listener, null);
+    }
+
+    static TypedRequest del(SuperTcpClient client, Object key, ResultListener<? super ValueResult> listener) {
+        return new TypedRequest(client, RequestProtocol.CMD_DEL, key, null, 0, 0, listener, null);
+    }
+
+    /**
+     * @param ttlMillis Time to live from now, or zero to remove any expiry
+     */
+    static TypedRequest expire(SuperTcpClient client, Object key, long ttlMillis,
+                               ResultListener<? super ValueResult> listener) {
+        if (ttlMillis < 0)
+            throw new IllegalArgumentException("Time to live cannot be negative");
+
+        return new TypedRequest(client, RequestProtocol.CMD_EXPIRE, key, null, 0, ttlMillis, listener, null);
+    }
+
+    static TypedRequest ttl(SuperTcpClient client, Object key, LongResultListener listener) {
+        return new TypedRequest(client, RequestProtocol.CMD_TTL, key, null, 0, 0, null, listener);
+    }
+
+    /**
+     * Mark the request as sent, scheduling its deadline
+     * @param timeoutMs Deadline from now, zero or less for none
+     */
+    void start(long timeoutMs) {
+        this.startNanos = System.nanoTime();
+        this.timeoutMs = timeoutMs;
+
+        NearCache cache = client.nearCache();
+        if (cache != null) {
+            if (command == RequestProtocol.CMD_GET)
+                this.cacheStamp = cache.stamp(key);
+            else if (isWrite())
+                cache.invalidate(key);
+        }
+
+        client.resources().metrics().requestSent();
+
+        if (timeoutMs > 0)
+            this.deadline = client.resources().timer().newTimeout(this, timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isWrite() {
+        return command != RequestProtocol.CMD_GET && command != RequestProtocol.CMD_TTL;
+    }
+
+    boolean isDone() {
+        return done != 0;
+    }
+
+    /**
+     * Bind the promise the request is written with, failing it at once if the
+     * request completed in the meantime so its in flight slot is freed
+     */
+    void promise(Promise<ByteBuf> promise) {
+        this.promise = promise;
+        promise.addListener(this);
+
+        if (isDone())
+            promise.tryFailure(new IllegalStateException("Request completed before its write"));
+    }
+
+    /**
+     * Encode the request into a single pooled buffer sized exactly for its fields
+     */
+    ByteBuf encode(ByteBufAllocator alloc) {
+        int dataSize = BinaryMessage.keyFieldLength(keyLength());
+        if (command == RequestProtocol.CMD_SET)
+            dataSize += BinaryMessage.valueFieldLength(valueLength());
+        if (command == RequestProtocol.CMD_EXPIRE || (command == RequestProtocol.CMD_SET && ttlMillis > 0))
+            dataSize += BinaryMessage.valueFieldLength(Long.BYTES);
+
+        RequestMessage request = new RequestMessage(alloc.directBuffer(RequestProtocol.START_OF_DATA + dataSize));
+        try {
+            request.command(command);
+            request.count(1);
+            request.key(key);
+
+            if (command == RequestProtocol.CMD_SET) {
+                if (value == null)
+                    request.value(longValue, Long.BYTES);
+                else
+                    request.value(value);
+
+                if (ttlMillis > 0)
+                    request.value(ttlMillis, Long.BYTES);
+            } else if (command == RequestProtocol.CMD_EXPIRE) {
+                request.value(ttlMillis, Long.BYTES);
+            }
+
+            return request.end();
+        } catch (RuntimeException e) {
+            request.release();
+            throw e;
+        }
+    }
+
+    private int keyLength() {
+        if (key instanceof byte[] bytes)
+            return bytes.length;
+        if (key instanceof String string)
+            return ByteBufUtil.utf8Bytes(string);
+        if (key instanceof Integer)
+            return Integer.BYTES;
+        if (key instanceof Long)
+            return Long.BYTES;
+
+        throw new IllegalArgumentException("Unsupported key type: " + key.getClass().getName());
+    }
+
+    private int valueLength() {
+        if (value == null)
+            return Long.BYTES;
+        if (value instanceof byte[] bytes)
+            return bytes.length;
+
+        return ByteBufUtil.utf8Bytes((String) value);
+    }
+
+    private boolean tryComplete() {
+        if (!DONE.compareAndSet(this, 0, 1))
+            return false;
+
+        Timeout deadline = this.deadline;
+        if (deadline != null)
+            deadline.cancel();
+
+        // A write may land on the server at any point until it completes, even by failing,
+        // so a GET racing it could have cached the old value after the first invalidation
+        NearCache cache = client.nearCache();
+        if (cache != null && isWrite())
+            cache.invalidate(key);
+
+        return true;
+    }
+
+    /**
+     * Deadline expired
+     */
+    @Override
+    public void run(Timeout timeout) {
+        if (!tryComplete())
+            return;
+
+        client.resources().metrics().requestTimedOut();
+        abandon(new TimeoutException("Request exceeded deadline of " + timeoutMs + "ms"));
+    }
+
+    /**
+     * Give up on the request for a caller no longer waiting for it, freeing its in flight slot
+     * as a deadline would
+     */
+    void cancel() {
+        if (tryComplete())
+            abandon(new CancellationException("Request cancelled"));
+    }
+
+    private void abandon(Throwable cause) {
+        client.resources().metrics().requestFailed();
+
+        // Abandons the request in the channel handler, freeing its slot, or fails it on
+        // binding if not yet written
+        Promise<ByteBuf> promise = this.promise;
+        if (promise != null)
+            promise.tryFailure(cause);
+
+        notifyFailure(cause);
+    }
+
+    /**
+     * Response or write failure
+     */
+    @Override
+    public void operationComplete(Future<ByteBuf> future) {
+        if (!future.isSuccess()) {
+            fail(future.cause());
+            return;
+        }
+
+        ByteBuf response = future.getNow();
+        if (!tryComplete()) {
+            response.release();
+            return;
+        }
+
+        client.resources().metrics().responseReceived(System.nanoTime() - startNanos);
+
+        ValueResult result = ValueResult.newInstance(new ResponseMessage(response), client.host());
+
+        NearCache cache = client.nearCache();
+        if (cache != null && command == RequestProtocol.CMD_GET && result.isOk()) {
+            try {
+                cache.fill(key, result.valueAsSlice(), cacheStamp);
+            } catch (RuntimeException e) {
+                // Malformed value, surfaced to the listener when it reads the result
+            }
+        }
+        if (longListener != null)
+            notifyLong(result);
+        else
+            notifyResult(result);
+    }
+
+    void fail(Throwable cause) {
+        if (!tryComplete())
+            return;
+
+        client.resources().metrics().requestFailed();
+        notifyFailure(cause);
+    }
+
+    private void notifyResult(ValueResult result) {
+        try {
+            listener.onComplete(result, null);
+        } catch (RuntimeException e) {
+            if (Trace.ENABLED)
+                Trace.error("client", "Result listener threw", e);
+        }
+    }
+
+    private void notifyLong(ValueResult result) {
+        boolean found;
+        long decoded = 0;
+
+        try {
+            found = result.isOk();
+            if (found)
+                decoded = result.valueAsLong();
+        } catch (RuntimeException e) {
+            result.release();
+            notifyFailure(e);
+            return;
+        }
+
+        result.release();
+
+        try {
+            longListener.onComplete(found, decoded, null);
+        } catch (RuntimeException e) {
+            if (Trace.ENABLED)
+                Trace.error("client", "Result listener threw", e);
+        }
+    }
+
+    private void notifyFailure(Throwable cause) {
+        try {
+            if (longListener != null)
+                longListener.onComplete(false, 0, cause);
+            else
+                listener.onComplete(null, cause);
+        } catch (RuntimeException e) {
+            if (Trace.ENABLED)
+                Trace.error("client", "Result listener threw", e);
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.nimbus.net.client;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outbound stage which coalesces flushes according to a {@link FlushPolicy}, so callers
+ * may keep using writeAndFlush per request while the socket sees one flush per batch.
+ * Writes pass straight through; only the flush is held back until a bound of the policy
+ * is reached. Pending writes are flushed early when the channel turns unwritable, closes
+ * or the handler is removed, so nothing is stranded in the outbound buffer.
+ * @implNote All state is confined to the channel event loop, so no locking is required
+ */
+public class WriteBatchingHandler extends ChannelDuplexHandler {
+
+    private final FlushPolicy policy;
+    private final Runnable flushTask;
+
+    private ChannelHandlerContext ctx;
+    private int pendingMessages;
+    private long pendingBytes;
+    private boolean flushScheduled;
+    private ScheduledFuture<?> delayedFlush;
+
+    public WriteBatchingHandler(FlushPolicy policy) {
+        this.policy = policy;
+        this.flushTask = () -> {
+            if (flushScheduled)
+                flushNow();
+        };
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        flushIfPending();
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        pendingMessages++;
+        pendingBytes += sizeOf(msg);
+
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (pendingMessages == 0) {
+            ctx.flush();
+            return;
+        }
+
+        if (pendingMessages >= policy.maxMessages() || pendingBytes >= policy.maxBytes()) {
+            flushNow();
+            return;
+        }
+
+        if (flushScheduled)
+            return;
+
+        flushScheduled = true;
+        if (policy.maxDelayMicros() == 0) {
+            ctx.channel().eventLoop().execute(flushTask);
+        } else {
+            delayedFlush = ctx.channel().eventLoop().schedule(flushTask, policy.maxDelayMicros(),
+                    TimeUnit.MICROSECONDS);
+        }
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+        // Let the socket drain what is already buffered rather than hold it back
+        if (!ctx.channel().isWritable())
+            flushIfPending();
+
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfPending();
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+        flushIfPending();
+        ctx.close(promise);
+    }
+
+    private void flushIfPending() {
+        if (pendingMessages > 0)
+            flushNow();
+    }
+
+    private void flushNow() {
+        if (delayedFlush != null) {
+            delayedFlush.cancel(false);
+            delayedFlush = null;
+        }
+
+        flushScheduled = false;
+        pendingMessages = 0;
+        pendingBytes = 0;
+
+        ctx.flush();
+    }
+
+    private static int sizeOf(Object msg) {
+        if (msg instanceof ByteBuf buf)
+            return buf.readableBytes();
+        if (msg instanceof ByteBufHolder holder)
+            return holder.content().readableBytes();
+
+        return 0;
+    }
+
+}
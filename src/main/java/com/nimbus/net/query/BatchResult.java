@@ -0,0 +1,77 @@
+package com.nimbus.net.results;
+
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.HeaderProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Result of a batch command answered by one node, being the per entry statuses of MGET, MSET
+ * or MDEL in request order, and for found MGET keys their values. Entries are indexed once on
+ * construction, while values remain in the response buffer until {@link #release()}.
+ */
+public final class BatchResult extends QueryResult {
+
+    private final int[] statuses;
+    private final int[] valueIndexes;
+    private final int[] valueLengths;
+
+    /**
+     * @param response Batch response to take ownership of
+     * @param host host:port of the node which answered
+     * @param withValues Whether ok entries carry a value, as for MGET
+     * @throws IllegalStateException if the whole batch failed, or its entries are malformed,
+     * in which case the response is still owned by the caller
+     */
+    public BatchResult(ResponseMessage response, String host, boolean withValues) {
+        super(response, host);
+
+        if (response.status() != ResponseProtocol.STATUS_OK)
+            throw new IllegalStateException("Node " + host + " answered batch with status " + response.status());
+
+        int count = response.count();
+        this.statuses = new int[count];
+        this.valueIndexes = withValues ? new int[count] : null;
+        this.valueLengths = withValues ? new int[count] : null;
+
+        response.resetReaderIndex();
+        try {
+            for (int i = 0; i < count; i++) {
+                statuses[i] = response.readEntryStatus();
+                if (withValues && statuses[i] == ResponseProtocol.STATUS_OK) {
+                    valueIndexes[i] = response.buffer().readerIndex() + HeaderProtocol.SZ_VALUE_LEN;
+                    valueLengths[i] = response.valueAsSlice().readableBytes();
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalStateException("Node " + host + " answered a malformed batch", e);
+        }
+    }
+
+    /**
+     * @return Number of entries, matching the keys of the request
+     */
+    public int entries() {
+        return statuses.length;
+    }
+
+    public int status(int entry) {
+        return statuses[entry];
+    }
+
+    public boolean isOk(int entry) {
+        return statuses[entry] == ResponseProtocol.STATUS_OK;
+    }
+
+    /**
+     * @return View of the value of a found MGET entry, only valid until this result is
+     * released, or null if the entry carries no value
+     */
+    public ByteBuf valueAsSlice(int entry) {
+        if (valueIndexes == null || !isOk(entry))
+            return null;
+
+        return responseMessage.buffer().slice(valueIndexes[entry], valueLengths[entry]);
+    }
+
+}
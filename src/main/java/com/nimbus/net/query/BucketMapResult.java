@@ -1,2 +1,48 @@
-package com.nimbus.net.query;public class BucketMapResult {
+package com.nimbus.net.query;
+
+import com.nimbus.net.Node;
+
+import java.util.List;
+
+/**
+ * Resolution of a key hash against a {@link com.nimbus.routing.BucketMap}, carrying the
+ * map version so callers can detect a route made against a since replaced topology.
+ */
+public class BucketMapResult {
+
+    private final int bucket;
+    private final Node node;
+    private final List<Node> replicas;
+    private final long mapVersion;
+
+    public BucketMapResult(int bucket, Node node, long mapVersion) {
+        this(bucket, node, List.of(), mapVersion);
+    }
+
+    public BucketMapResult(int bucket, Node node, List<Node> replicas, long mapVersion) {
+        this.bucket = bucket;
+        this.node = node;
+        this.replicas = replicas;
+        this.mapVersion = mapVersion;
+    }
+
+    public int bucket() {
+        return bucket;
+    }
+
+    public Node node() {
+        return node;
+    }
+
+    /**
+     * @return Replicas of the bucket, which may serve reads
+     */
+    public List<Node> replicas() {
+        return replicas;
+    }
+
+    public long mapVersion() {
+        return mapVersion;
+    }
+
 }
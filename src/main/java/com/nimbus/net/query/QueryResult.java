@@ -4,18 +4,36 @@ import com.nimbus.proto.messages.ResponseMessage;
 
 public abstract class QueryResult {
 
-    final ResponseMessage responseMessage;
-    final String host;
+    ResponseMessage responseMessage;
+    String host;
 
     public QueryResult(ResponseMessage responseMessage, String host) {
         this.responseMessage = responseMessage;
         this.host = host;
     }
 
+    /**
+     * For pooled results, which are bound to a response by {@link #init(ResponseMessage, String)}
+     */
+    protected QueryResult() {
+    }
+
+    protected void init(ResponseMessage responseMessage, String host) {
+        this.responseMessage = responseMessage;
+        this.host = host;
+    }
+
     ResponseMessage getResponseMessage() {
         return responseMessage;
     }
 
+    /**
+     * @return host:port of the node which answered
+     */
+    public String host() {
+        return host;
+    }
+
     public int responseBytes() {
         return responseMessage.totalLength();
     }
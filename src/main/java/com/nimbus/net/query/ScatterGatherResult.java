@@ -0,0 +1,154 @@
+package com.nimbus.net.results;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Result of one multi key request executed across many nodes, merging the {@link BatchResult}
+ * of each node back into the order keys were given. A node which failed does not fail the
+ * whole request: its keys report {@link #STATUS_FAILED} and the cause, while keys of other
+ * nodes carry their results as usual. {@link #release()} frees every node's response.
+ */
+public final class ScatterGatherResult {
+
+    /**
+     * Status of a key whose node failed to answer, distinct from every wire status
+     */
+    public static final int STATUS_FAILED = 0;
+
+    /**
+     * Outcome of the sub-request sent to one node
+     * @param host host:port of the node
+     * @param keys Number of keys sent to it
+     * @param latencyNanos Time from sending the sub-request to its completion
+     * @param error Cause of the failure, or null if the node answered
+     */
+    public record Shard(String host, int keys, long latencyNanos, Throwable error) {
+    }
+
+    private final List<Shard> shards;
+    private final BatchResult[] batches;
+    private final int[] keyShards;
+    private final int[] keyEntries;
+    private final long latencyNanos;
+
+    /**
+     * @param shards Outcome of each sub-request
+     * @param batches Result of each sub-request by shard index, null where it failed
+     * @param keyShards Shard index of each key, in caller order
+     * @param keyEntries Entry of each key within its shard's batch, in caller order
+     * @param latencyNanos Time from sending the first sub-request to completing the last
+     */
+    public ScatterGatherResult(List<Shard> shards, BatchResult[] batches, int[] keyShards, int[] keyEntries,
+                               long latencyNanos) {
+        this.shards = shards;
+        this.batches = batches;
+        this.keyShards = keyShards;
+        this.keyEntries = keyEntries;
+        this.latencyNanos = latencyNanos;
+    }
+
+    /**
+     * @return Number of keys, in the order they were given
+     */
+    public int size() {
+        return keyShards.length;
+    }
+
+    /**
+     * @return Entry status of the key, one of the ResponseProtocol.STATUS_* values, or
+     * {@link #STATUS_FAILED} if its node failed
+     */
+    public int status(int key) {
+        BatchResult batch = batches[keyShards[key]];
+
+        return batch == null ? STATUS_FAILED : batch.status(keyEntries[key]);
+    }
+
+    /**
+     * @return true if the command succeeded for the key, for MGET that the key was found
+     */
+    public boolean isOk(int key) {
+        BatchResult batch = batches[keyShards[key]];
+
+        return batch != null && batch.isOk(keyEntries[key]);
+    }
+
+    /**
+     * @return Failure of the key's node, or null if it answered
+     */
+    public Throwable error(int key) {
+        return shards.get(keyShards[key]).error();
+    }
+
+    /**
+     * @return View of the value of a found MGET key, only valid until this result is
+     * released, or null if it has none
+     */
+    public ByteBuf valueAsSlice(int key) {
+        BatchResult batch = batches[keyShards[key]];
+
+        return batch == null ? null : batch.valueAsSlice(keyEntries[key]);
+    }
+
+    public byte[] valueAsBytes(int key) {
+        ByteBuf value = valueAsSlice(key);
+
+        return value == null ? null : ByteBufUtil.getBytes(value);
+    }
+
+    public String valueAsString(int key) {
+        ByteBuf value = valueAsSlice(key);
+
+        return value == null ? null : value.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @throws IllegalStateException if the key has no value, or its value is not 8 bytes
+     */
+    public long valueAsLong(int key) {
+        ByteBuf value = valueAsSlice(key);
+        if (value == null || value.readableBytes() != Long.BYTES)
+            throw new IllegalStateException("Key " + key + " has no 8 byte value");
+
+        return value.getLong(value.readerIndex());
+    }
+
+    /**
+     * @return Outcome of every sub-request, in the order they were sent
+     */
+    public List<Shard> shards() {
+        return shards;
+    }
+
+    /**
+     * @return true if any node failed to answer
+     */
+    public boolean hasErrors() {
+        for (Shard shard : shards) {
+            if (shard.error() != null)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return Time from sending the first sub-request to completing the last, bounded by the
+     * slowest node rather than the sum of all
+     */
+    public long latencyNanos() {
+        return latencyNanos;
+    }
+
+    public void release() {
+        for (BatchResult batch : batches) {
+            if (batch != null)
+                batch.release();
+        }
+    }
+
+}
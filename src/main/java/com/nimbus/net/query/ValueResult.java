@@ -0,0 +1,103 @@
+package com.nimbus.net.results;
+
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.Recycler;
+
+/**
+ * Result of a single key command, decoding its value straight from the response buffer.
+ * Instances are pooled, so {@link #release()} both frees the response buffer and returns
+ * the result to its pool. A result must not be used after it is released.
+ */
+public final class ValueResult extends QueryResult {
+
+    private static final Recycler<ValueResult> RECYCLER = new Recycler<>() {
+        @Override
+        protected ValueResult newObject(Handle<ValueResult> handle) {
+            return new ValueResult(handle);
+        }
+    };
+
+    private final Recycler.Handle<ValueResult> handle;
+
+    private ValueResult(Recycler.Handle<ValueResult> handle) {
+        this.handle = handle;
+    }
+
+    /**
+     * @param response Response to take ownership of
+     * @param host host:port of the node which answered
+     * @return A pooled result bound to the response
+     */
+    public static ValueResult newInstance(ResponseMessage response, String host) {
+        ValueResult result = RECYCLER.get();
+        result.init(response, host);
+
+        return result;
+    }
+
+    /**
+     * @param value Value to serve, such as from a near cache, copied into a new response
+     * @param host host:port of the node the value was originally read from
+     * @return A pooled ok result holding the value
+     */
+    public static ValueResult of(byte[] value, String host) {
+        ResponseMessage response = new ResponseMessage(BinaryMessage.valueFieldLength(value.length));
+        response.count(1);
+        response.value(value);
+
+        return newInstance(response, host);
+    }
+
+    public int status() {
+        return responseMessage.status();
+    }
+
+    /**
+     * @return true if the command succeeded, for a GET that the key was found
+     */
+    public boolean isOk() {
+        return status() == ResponseProtocol.STATUS_OK;
+    }
+
+    public byte[] valueAsBytes() {
+        responseMessage.resetReaderIndex();
+
+        return responseMessage.valueAsBytes();
+    }
+
+    public String valueAsString() {
+        responseMessage.resetReaderIndex();
+
+        return responseMessage.valueAsString();
+    }
+
+    /**
+     * @throws IllegalStateException if the value is not 8 bytes
+     */
+    public long valueAsLong() {
+        responseMessage.resetReaderIndex();
+
+        return responseMessage.valueAsLong();
+    }
+
+    /**
+     * @return View of the value bytes, only valid until this result is released
+     */
+    public ByteBuf valueAsSlice() {
+        responseMessage.resetReaderIndex();
+
+        return responseMessage.valueAsSlice();
+    }
+
+    @Override
+    public void release() {
+        super.release();
+
+        init(null, null);
+        handle.recycle(this);
+    }
+
+}
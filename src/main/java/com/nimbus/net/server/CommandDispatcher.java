@@ -0,0 +1,251 @@
+package com.nimbus.net.server;
+
+import com.nimbus.persistence.WriteRecord;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import com.nimbus.routing.BucketMovedException;
+import com.nimbus.storage.Storage;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Executes decoded requests against a {@link Storage} engine. Responses reuse the
+ * request buffer via {@link ResponseMessage#ResponseMessage(RequestMessage)}, which
+ * also echoes back the request id header so pipelined clients can match them, and the
+ * compression codec so large responses are compressed the way the client asked.
+ * Writes to buckets moving to another node are answered with {@link ResponseProtocol#STATUS_MOVED}.
+ * Stateless and safe to share across all event loops.
+ */
+public class CommandDispatcher {
+
+    private final Storage storage;
+
+    public CommandDispatcher(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Execute a request and build its response.
+     * @implNote The request buffer may be retained by the returned response, the caller
+     * must still release the request once the response has been written
+     * @param request Decoded request message
+     * @return Response message ready for {@link ResponseMessage#end()}
+     */
+    public ResponseMessage dispatch(RequestMessage request) {
+        try {
+            return switch (request.command()) {
+                case RequestProtocol.CMD_GET -> get(request);
+                case RequestProtocol.CMD_SET -> set(request);
+                case RequestProtocol.CMD_DEL -> del(request);
+                case RequestProtocol.CMD_MGET -> mget(request);
+                case RequestProtocol.CMD_MSET -> mset(request);
+                case RequestProtocol.CMD_MDEL -> mdel(request);
+                case RequestProtocol.CMD_EXPIRE -> expire(request);
+                case RequestProtocol.CMD_TTL -> ttl(request);
+                case RequestProtocol.REPL_CMD_MIGRATE -> migrate(request);
+                default -> invalid(request);
+            };
+        } catch (BucketMovedException e) {
+            return ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_MOVED, 0);
+        } catch (IllegalStateException | IndexOutOfBoundsException e) {
+            // Malformed key or value fields
+            return invalid(request);
+        }
+    }
+
+    private ResponseMessage get(RequestMessage request) {
+        // Key remains a view of the request buffer, which storage reads before writing the value
+        ByteBuf key = request.keyAsSlice();
+
+        ResponseMessage response = new ResponseMessage(request);
+        if (storage.get(key, response))
+            return response.count(1);
+
+        return response.status(ResponseProtocol.STATUS_KEY_UNKNOWN).count(0);
+    }
+
+    private ResponseMessage set(RequestMessage request) {
+        ByteBuf key = request.keyAsSlice();
+        ByteBuf value = request.valueAsSlice();
+
+        long expireAt = Storage.NO_EXPIRY;
+        if (request.buffer().isReadable()) {
+            long ttlMillis = request.valueAsLong();
+            if (ttlMillis < 1)
+                return invalid(request);
+
+            expireAt = expireAt(ttlMillis);
+        }
+
+        if (!storage.set(key, value, expireAt))
+            return ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_STORAGE_FULL, 0);
+
+        return ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_OK, 1);
+    }
+
+    private ResponseMessage del(RequestMessage request) {
+        ByteBuf key = request.keyAsSlice();
+
+        if (storage.delete(key))
+            return ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_OK, 1);
+
+        return ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_KEY_UNKNOWN, 0);
+    }
+
+    private ResponseMessage expire(RequestMessage request) {
+        ByteBuf key = request.keyAsSlice();
+        long ttlMillis = request.valueAsLong();
+        if (ttlMillis < 0)
+            return invalid(request);
+
+        if (storage.expire(key, ttlMillis == 0 ? Storage.NO_EXPIRY : expireAt(ttlMillis)))
+            return ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_OK, 1);
+
+        return ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_KEY_UNKNOWN, 0);
+    }
+
+    private ResponseMessage ttl(RequestMessage request) {
+        long expireAt = storage.expireAt(request.keyAsSlice());
+        if (expireAt == Storage.KEY_ABSENT)
+            return ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_KEY_UNKNOWN, 0);
+
+        long ttlMillis = expireAt == Storage.NO_EXPIRY ? -1 : Math.max(expireAt - System.currentTimeMillis(), 0);
+
+        ResponseMessage response = new ResponseMessage(request);
+        response.value(ttlMillis, Long.BYTES);
+
+        return response.count(1);
+    }
+
+    /**
+     * Apply migrated write records in order, stopping at the first the storage rejects. Records
+     * preceding a malformed one remain applied even though the request is answered as invalid.
+     */
+    private ResponseMessage migrate(RequestMessage request) {
+        int records = request.count();
+        ByteBuf data = request.valueAsSlice();
+
+        int applied = 0;
+        while (applied < records) {
+            int length = data.getInt(data.readerIndex());
+            if (length < RequestProtocol.START_OF_DATA || length > data.readableBytes())
+                return invalid(request);
+
+            if (!WriteRecord.apply(new RequestMessage(data.readSlice(length)), storage))
+                return ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_STORAGE_FULL, applied);
+
+            applied++;
+        }
+
+        return ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_OK, applied);
+    }
+
+    /**
+     * @return Absolute expiry of a time to live from now, saturating rather than overflowing
+     */
+    private static long expireAt(long ttlMillis) {
+        long now = System.currentTimeMillis();
+
+        return ttlMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttlMillis;
+    }
+
+    /**
+     * Batch responses are written to a fresh buffer, as their entries would
+     * otherwise overwrite keys of the request not yet read. They carry over the
+     * request id and compression codec a reused buffer would have kept. Presized to
+     * hold every entry status, which is exact unless MGET values are found.
+     */
+    private ResponseMessage batchResponse(RequestMessage request) {
+        return new ResponseMessage(request.count() * ResponseProtocol.SZ_ENTRY_STATUS)
+                .requestId(request.requestId())
+                .compression(request.compression())
+                .count(request.count());
+    }
+
+    private ResponseMessage mget(RequestMessage request) {
+        int count = request.count();
+        if (count < 1)
+            return invalid(request);
+
+        ResponseMessage response = batchResponse(request);
+        try {
+            for (int i = 0; i < count; i++) {
+                ByteBuf key = request.keyAsSlice();
+
+                int statusIndex = response.entryStatus(ResponseProtocol.STATUS_OK);
+                if (!storage.get(key, response))
+                    response.entryStatus(statusIndex, ResponseProtocol.STATUS_KEY_UNKNOWN);
+            }
+        } catch (RuntimeException e) {
+            response.release();
+            throw e;
+        }
+
+        return response;
+    }
+
+    /**
+     * Entries are applied as they are read, so those preceding a malformed
+     * entry remain applied even though the request is answered as invalid.
+     */
+    private ResponseMessage mset(RequestMessage request) {
+        int count = request.count();
+        if (count < 1)
+            return invalid(request);
+
+        ResponseMessage response = batchResponse(request);
+        try {
+            for (int i = 0; i < count; i++) {
+                ByteBuf key = request.keyAsSlice();
+                ByteBuf value = request.valueAsSlice();
+
+                int status;
+                try {
+                    status = storage.set(key, value) ? ResponseProtocol.STATUS_OK : ResponseProtocol.STATUS_STORAGE_FULL;
+                } catch (BucketMovedException e) {
+                    status = ResponseProtocol.STATUS_MOVED;
+                }
+
+                response.entryStatus(status);
+            }
+        } catch (RuntimeException e) {
+            response.release();
+            throw e;
+        }
+
+        return response;
+    }
+
+    private ResponseMessage mdel(RequestMessage request) {
+        int count = request.count();
+        if (count < 1)
+            return invalid(request);
+
+        ResponseMessage response = batchResponse(request);
+        try {
+            for (int i = 0; i < count; i++) {
+                ByteBuf key = request.keyAsSlice();
+
+                int status;
+                try {
+                    status = storage.delete(key) ? ResponseProtocol.STATUS_OK : ResponseProtocol.STATUS_KEY_UNKNOWN;
+                } catch (BucketMovedException e) {
+                    status = ResponseProtocol.STATUS_MOVED;
+                }
+
+                response.entryStatus(status);
+            }
+        } catch (RuntimeException e) {
+            response.release();
+            throw e;
+        }
+
+        return response;
+    }
+
+    private ResponseMessage invalid(RequestMessage request) {
+        return ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_INVALID_REQ, 0);
+    }
+
+}
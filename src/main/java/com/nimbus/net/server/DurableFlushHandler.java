@@ -0,0 +1,115 @@
+package com.nimbus.net.server;
+
+import com.nimbus.persistence.AppendLog;
+import com.nimbus.persistence.FsyncPolicy;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCountUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds back responses until the {@link AppendLog} has forced every record appended before
+ * they were flushed, so under {@link FsyncPolicy#ALWAYS} no write is acknowledged before it is
+ * durable. Each flush waits on the log position at that moment, so one force commits the
+ * responses of a whole read batch, alongside those of every other connection.
+ * <p>
+ * Read responses are held too, never exposing a value which is not yet durable. Batches are
+ * released strictly in flush order, a batch already durable still queueing behind any earlier
+ * one awaiting its force, so responses keep request order. One instance per channel.
+ */
+public class DurableFlushHandler extends ChannelOutboundHandlerAdapter {
+
+    private record Pending(Object msg, ChannelPromise promise) {
+    }
+
+    /**
+     * Flushed batch awaiting the log position it was flushed at to become durable
+     */
+    private record Held(long position, List<Pending> batch) {
+    }
+
+    private final AppendLog log;
+    private final ArrayDeque<Held> held = new ArrayDeque<>();
+    private List<Pending> pending = new ArrayList<>();
+
+    public DurableFlushHandler(AppendLog log) {
+        this.log = log;
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+        pending.add(new Pending(msg, promise));
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) {
+        if (pending.isEmpty()) {
+            ctx.flush();
+            return;
+        }
+
+        long position = log.position();
+        held.add(new Held(position, pending));
+        pending = new ArrayList<>();
+
+        // Positions only grow, so every batch held before this one is durable too
+        if (position <= log.durablePosition()) {
+            release(ctx, position);
+            return;
+        }
+
+        log.sync(position).whenComplete((ignored, cause) -> ctx.executor().execute(() -> {
+            if (cause == null) {
+                release(ctx, position);
+            } else {
+                failHeld(cause);
+                ctx.close();
+            }
+        }));
+    }
+
+    /**
+     * Write and flush every held batch up to a durable position, oldest first. A batch
+     * released by a later one before its own sync completed is already gone.
+     */
+    private void release(ChannelHandlerContext ctx, long durable) {
+        boolean released = false;
+        while (!held.isEmpty() && held.peek().position() <= durable) {
+            for (Pending write : held.poll().batch())
+                ctx.write(write.msg(), write.promise());
+
+            released = true;
+        }
+
+        if (released)
+            ctx.flush();
+    }
+
+    private void failHeld(Throwable cause) {
+        while (!held.isEmpty())
+            fail(held.poll().batch(), cause);
+    }
+
+    private static void fail(List<Pending> batch, Throwable cause) {
+        for (Pending write : batch) {
+            ReferenceCountUtil.release(write.msg());
+
+            // Void promises would report the failure to the pipeline, which is closing anyway
+            if (!write.promise().isVoid())
+                write.promise().tryFailure(cause);
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) {
+        IllegalStateException cause = new IllegalStateException("Channel closed before its responses were durable");
+        failHeld(cause);
+        fail(pending, cause);
+        pending.clear();
+    }
+
+}
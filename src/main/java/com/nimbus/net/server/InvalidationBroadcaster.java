@@ -0,0 +1,99 @@
+package com.nimbus.net.server;
+
+import com.nimbus.net.ClientHandler;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+/**
+ * Pushes the keys of each write to every connection subscribed with
+ * {@link RequestProtocol#CMD_INVALIDATE}, other than the one which wrote them, so client
+ * near caches drop values changed elsewhere. Costs nothing until a client subscribes.
+ * Delivery is best effort: a push racing a subscription or a closing connection is lost.
+ */
+public class InvalidationBroadcaster {
+
+    private final ChannelGroup subscribers = new DefaultChannelGroup("nimbus-invalidation",
+            GlobalEventExecutor.INSTANCE);
+
+    /**
+     * Subscribe a connection until it closes
+     */
+    public void subscribe(Channel channel) {
+        subscribers.add(channel);
+    }
+
+    public int subscribers() {
+        return subscribers.size();
+    }
+
+    /**
+     * Collect the keys written by a request into a push, if it is a write command and anyone
+     * subscribed. The push is only sent by {@link #publish} once the write is applied.
+     * @implNote Must be called before the request is dispatched, as a response may reuse
+     * its buffer. The request reader index is restored afterwards.
+     * @param origin Connection the request arrived on, which is not notified
+     * @return Push frame for {@link #publish}, or null if there is nothing to push
+     */
+    public ByteBuf collect(Channel origin, RequestMessage request) {
+        if (subscribers.isEmpty())
+            return null;
+
+        int command = request.command();
+        int keys = switch (command) {
+            case RequestProtocol.CMD_SET, RequestProtocol.CMD_DEL, RequestProtocol.CMD_EXPIRE -> 1;
+            case RequestProtocol.CMD_MSET, RequestProtocol.CMD_MDEL -> request.count();
+            default -> 0;
+        };
+
+        if (keys < 1 || (subscribers.size() == 1 && subscribers.contains(origin)))
+            return null;
+
+        ResponseMessage push = new ResponseMessage(request.buffer().readableBytes())
+                .requestId(ClientHandler.NO_REQUEST_ID)
+                .status(RequestProtocol.CMD_INVALIDATE)
+                .count(keys);
+
+        try {
+            for (int i = 0; i < keys; i++) {
+                ByteBuf key = request.keyAsSlice();
+                push.key(key, key.readerIndex(), key.readableBytes());
+
+                if (command == RequestProtocol.CMD_MSET)
+                    request.valueAsSlice();
+            }
+        } catch (IllegalStateException | IndexOutOfBoundsException e) {
+            // Malformed request, which the dispatcher answers as invalid
+            push.release();
+            return null;
+        } finally {
+            request.resetReaderIndex();
+        }
+
+        return push.end();
+    }
+
+    /**
+     * Push keys collected from a request if its write succeeded, otherwise release the push
+     * @implNote Must be called once the request is dispatched, so a subscriber which re-reads a
+     * key on receiving the push is answered with the new value rather than caching the old one
+     * @param origin Connection the request arrived on, which is not notified
+     * @param push Frame returned by {@link #collect}, owned by this call
+     * @param status Status the request was answered with
+     */
+    public void publish(Channel origin, ByteBuf push, int status) {
+        if (status != ResponseProtocol.STATUS_OK) {
+            push.release();
+            return;
+        }
+
+        subscribers.writeAndFlush(push, channel -> channel != origin);
+    }
+
+}
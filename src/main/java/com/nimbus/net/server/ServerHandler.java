@@ -0,0 +1,101 @@
+package com.nimbus.net.server;
+
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import com.nimbus.replication.ReplicationSource;
+import com.nimbus.trace.Trace;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Inbound handler running each decoded request frame through the {@link CommandDispatcher}
+ * on the channel event loop. Responses are written as they are produced and flushed once
+ * per read batch, so pipelined requests share a single syscall. Applied writes are published
+ * to the {@link InvalidationBroadcaster} for connections subscribed with
+ * {@link RequestProtocol#CMD_INVALIDATE}. Replication commands of replica connections are
+ * handed to the {@link ReplicationSource}, and commands above {@link RequestProtocol#REPL_CMD_ECHO}
+ * are answered as invalid by a server without one.
+ */
+@ChannelHandler.Sharable
+public class ServerHandler extends ChannelInboundHandlerAdapter {
+
+    private final CommandDispatcher dispatcher;
+    private final InvalidationBroadcaster invalidations;
+    private final ReplicationSource replication;
+
+    public ServerHandler(CommandDispatcher dispatcher, InvalidationBroadcaster invalidations) {
+        this(dispatcher, invalidations, null);
+    }
+
+    /**
+     * @param replication Source streaming writes to replicas, or null if this server has none
+     */
+    public ServerHandler(CommandDispatcher dispatcher, InvalidationBroadcaster invalidations,
+                         ReplicationSource replication) {
+        this.dispatcher = dispatcher;
+        this.invalidations = invalidations;
+        this.replication = replication;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        RequestMessage request = new RequestMessage((ByteBuf) msg);
+
+        try {
+            if (request.command() == RequestProtocol.CMD_INVALIDATE) {
+                invalidations.subscribe(ctx.channel());
+                ctx.write(ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_OK, 0).end(),
+                        ctx.voidPromise());
+                return;
+            }
+
+            // Replication and migration commands are only served by a server replicating
+            if (request.command() > RequestProtocol.REPL_CMD_ECHO) {
+                if (replication == null) {
+                    ctx.write(ResponseMessage.of(request.buffer(), ResponseProtocol.STATUS_INVALID_REQ, 0).end(),
+                            ctx.voidPromise());
+                    return;
+                }
+
+                if (replication.handle(ctx.channel(), request))
+                    return;
+            }
+
+            // Keys are read before the response may reuse the buffer, and pushed once applied
+            ByteBuf push = invalidations.collect(ctx.channel(), request);
+
+            ResponseMessage response;
+            try {
+                response = dispatcher.dispatch(request);
+            } catch (RuntimeException e) {
+                if (push != null)
+                    push.release();
+                throw e;
+            }
+
+            if (push != null)
+                invalidations.publish(ctx.channel(), push, response.status());
+
+            ctx.write(response.end(), ctx.voidPromise());
+        } finally {
+            request.release();
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.flush();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        if (Trace.ENABLED)
+            Trace.error("server", "Closing channel " + ctx.channel().id() + " after error", cause);
+        ctx.close();
+    }
+
+}
@@ -0,0 +1,222 @@
+package com.nimbus.net.server;
+
+import com.nimbus.net.Node;
+import com.nimbus.net.ProtoRequestDecoder;
+import com.nimbus.net.Transport;
+import com.nimbus.net.client.ClientResources;
+import com.nimbus.persistence.AppendLog;
+import com.nimbus.persistence.FsyncPolicy;
+import com.nimbus.persistence.LoggedStorage;
+import com.nimbus.persistence.Snapshotter;
+import com.nimbus.replication.BucketMigration;
+import com.nimbus.replication.ReplicationSource;
+import com.nimbus.storage.ExpiryReaper;
+import com.nimbus.storage.Storage;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.*;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class SuperTcpServer {
+
+    /**
+     * Default max size of a single request frame
+     */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+    private final ServerBootstrap bootstrap;
+    private final Storage storage;
+    private final Storage served;
+    private final AppendLog log;
+    private final Snapshotter snapshotter;
+    private final ReplicationSource replication;
+    private final InvalidationBroadcaster invalidations;
+    private final int port;
+    private Channel serverChannel;
+
+    /**
+     * @param port Port to listen on
+     * @param bossThreads Threads accepting new connections, 1 is sufficient for a single listening port
+     * @param workerThreads Event loop threads decoding and executing requests, 0 for the netty default of 2 * cores
+     * @param storage Storage engine, shared by all worker threads
+     * @param childOptions Options applied to each accepted connection
+     */
+    public SuperTcpServer(int port, int bossThreads, int workerThreads, Storage storage,
+                          Map<ChannelOption<?>, Object> childOptions) {
+        this(port, bossThreads, workerThreads, storage, childOptions, Transport.best());
+    }
+
+    /**
+     * @param transport Socket transport, which must be {@link Transport#isAvailable() available}
+     */
+    public SuperTcpServer(int port, int bossThreads, int workerThreads, Storage storage,
+                          Map<ChannelOption<?>, Object> childOptions, Transport transport) {
+        this(port, bossThreads, workerThreads, storage, childOptions, transport, null);
+    }
+
+    /**
+     * @param log Log persisting every write, replayed into storage on {@link #start()} and closed
+     *            with the server, or null to keep data in memory only
+     */
+    public SuperTcpServer(int port, int bossThreads, int workerThreads, Storage storage,
+                          Map<ChannelOption<?>, Object> childOptions, Transport transport, AppendLog log) {
+        this(port, bossThreads, workerThreads, storage, childOptions, transport, log, null);
+    }
+
+    /**
+     * @param snapshotter Snapshots loaded into storage on {@link #start()} before the log is replayed
+     *                    from the position they cover, then taken periodically, or null for none
+     */
+    public SuperTcpServer(int port, int bossThreads, int workerThreads, Storage storage,
+                          Map<ChannelOption<?>, Object> childOptions, Transport transport, AppendLog log,
+                          Snapshotter snapshotter) {
+        this(port, bossThreads, workerThreads, storage, childOptions, transport, log, snapshotter, null);
+    }
+
+    /**
+     * @param replication Source streaming every write to replicas which connect, built over the
+     *                    same storage and closed with the server, or null for none
+     */
+    public SuperTcpServer(int port, int bossThreads, int workerThreads, Storage storage,
+                          Map<ChannelOption<?>, Object> childOptions, Transport transport, AppendLog log,
+                          Snapshotter snapshotter, ReplicationSource replication) {
+        this.port = port;
+        this.storage = storage;
+        this.log = log;
+        this.snapshotter = snapshotter;
+        this.replication = replication;
+        this.bossGroup = transport.newEventLoopGroup(bossThreads, new DefaultThreadFactory("nimbus-boss"));
+        this.workerGroup = transport.newEventLoopGroup(workerThreads, new DefaultThreadFactory("nimbus-worker"));
+
+        Storage served = storage;
+        if (replication != null)
+            served = new LoggedStorage(served, replication.backlog());
+        if (log != null)
+            served = new LoggedStorage(served, log);
+
+        this.served = served;
+        this.invalidations = new InvalidationBroadcaster();
+
+        ServerHandler serverHandler = new ServerHandler(new CommandDispatcher(served), invalidations, replication);
+
+        this.bootstrap = new ServerBootstrap();
+        bootstrap.group(bossGroup, workerGroup)
+                .channel(transport.serverSocketChannelClass())
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline pipeline = ch.pipeline();
+
+                        pipeline.addLast(new ProtoRequestDecoder(DEFAULT_MAX_FRAME_LENGTH));
+                        if (log != null && log.policy() == FsyncPolicy.ALWAYS)
+                            pipeline.addLast(new DurableFlushHandler(log));
+                        pipeline.addLast(serverHandler);
+                    }
+                });
+
+        applyChildOptions(childOptions);
+    }
+
+    private void applyChildOptions(Map<ChannelOption<?>, Object> options) {
+        for (Map.Entry<ChannelOption<?>, Object> entry : options.entrySet()) {
+            applyChildOption(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void applyChildOption(ChannelOption<T> option, Object value) {
+        bootstrap.childOption(option, (T) value);
+    }
+
+    /**
+     * Load any snapshot and replay any log into storage, then bind the listening socket,
+     * blocking until bound, and start reclaiming expired keys and taking snapshots
+     * @throws InterruptedException if interrupted while binding
+     * @throws UncheckedIOException if the snapshot cannot be loaded or the log replayed
+     */
+    public void start() throws InterruptedException {
+        try {
+            long position = snapshotter != null ? snapshotter.load(storage) : 0;
+            if (log != null)
+                log.replay(storage, position);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to recover storage", e);
+        }
+
+        this.serverChannel = bootstrap.bind(port).sync().channel();
+
+        // The boss loop is idle between accepts, so reclaiming expired keys there costs no worker time
+        bossGroup.next().scheduleAtFixedRate(new ExpiryReaper(storage), ExpiryReaper.DEFAULT_INTERVAL_MILLIS,
+                ExpiryReaper.DEFAULT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        if (snapshotter != null)
+            snapshotter.start(storage);
+    }
+
+    /**
+     * @return Port the server is bound to, useful when constructed with port 0
+     */
+    public int boundPort() {
+        return ((InetSocketAddress) serverChannel.localAddress()).getPort();
+    }
+
+    /**
+     * @return Connections subscribed to invalidation pushes, at most one per near caching client
+     */
+    public int invalidationSubscribers() {
+        return invalidations.subscribers();
+    }
+
+    /**
+     * Start moving a range of buckets to another server while both keep serving them. Once the
+     * migration has {@link BucketMigration#caughtUp() caught up} it is
+     * {@link BucketMigration#fence() fenced}, after which the range may be reassigned to the
+     * target in the bucket map clients route by, then the migration
+     * {@link BucketMigration#finish() finished} once every client has the new map.
+     * @param resources Resources of the client connecting to the target
+     * @param target Server taking over the buckets, which only accepts them if it has replication enabled too
+     * @param fromBucket First bucket to move, inclusive
+     * @param toBucket Last bucket to move, exclusive
+     * @throws IllegalStateException if this server has no replication source, whose backlog
+     * records the writes forwarded during the move
+     */
+    public BucketMigration migrate(ClientResources resources, Node target, int fromBucket, int toBucket) {
+        if (replication == null)
+            throw new IllegalStateException("Migrating buckets requires a replication source");
+
+        // Served through at least the decorator recording writes in the replication backlog
+        return replication.migrate((LoggedStorage) served, resources, target, fromBucket, toBucket);
+    }
+
+    /**
+     * Stop accepting connections, shut down all event loops, snapshots and replication, and close
+     * the storage engine and log
+     */
+    public void close() {
+        if (serverChannel != null)
+            serverChannel.close().syncUninterruptibly();
+
+        if (snapshotter != null)
+            snapshotter.close();
+
+        bossGroup.shutdownGracefully().syncUninterruptibly();
+        workerGroup.shutdownGracefully().syncUninterruptibly();
+
+        if (replication != null)
+            replication.close();
+
+        storage.close();
+
+        if (log != null)
+            log.close();
+    }
+
+}
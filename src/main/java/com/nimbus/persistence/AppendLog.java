@@ -0,0 +1,424 @@
+package com.nimbus.persistence;
+
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.storage.Storage;
+import com.nimbus.trace.Trace;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Append only log of writes for warm restarts, recording each SET, DEL and EXPIRE as a
+ * {@link WriteRecord}, so recovery reuses the wire framing by
+ * {@link com.nimbus.proto.protocol.HeaderProtocol#HDR_TOTAL_LEN} and keys expire at their
+ * original time after replay.
+ * <p>
+ * Records are encoded straight into memory mapped {@link LogSegment} files, which roll over
+ * once full. Each position in the log is a byte offset across all segments, which only grows.
+ * Forcing mapped records to disk is left to a single syncing thread according to the
+ * {@link FsyncPolicy}, which under {@link FsyncPolicy#ALWAYS} commits every record appended
+ * while the previous force ran as one group.
+ * <p>
+ * A log must be {@link #replay(Storage) replayed} once after opening, which also finds where
+ * appending resumes. Replay stops at the first record failing its checksum in the last
+ * segment, being a write torn by a crash, and clears the rest of the segment before later
+ * appends overwrite it. Once a snapshot
+ * covers the log up to a position, segments before it are dropped with
+ * {@link #truncateBefore(long)} and later replays start from that position.
+ */
+public class AppendLog implements WriteLog, AutoCloseable {
+
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private static final long SYNC_INTERVAL_MILLIS = 1000;
+
+    private static final CompletableFuture<Void> SYNCED = CompletableFuture.completedFuture(null);
+
+    private record SyncWaiter(long position, CompletableFuture<Void> future) {
+    }
+
+    private final Path directory;
+    private final FsyncPolicy policy;
+    private final int segmentBytes;
+
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final List<LogSegment> segments = new ArrayList<>();
+    private LogSegment active;
+    private volatile long position;
+    private boolean replayed;
+
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Condition syncRequested = syncLock.newCondition();
+    private final ArrayDeque<SyncWaiter> syncWaiters = new ArrayDeque<>();
+    private final Thread syncThread;
+    private volatile long durablePosition;
+    private volatile boolean closed;
+
+    public AppendLog(Path directory, FsyncPolicy policy) throws IOException {
+        this(directory, policy, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Open or create the log in a directory, mapping its existing segments
+     * @param segmentBytes Capacity of each segment file, which grows to fit any larger record
+     */
+    public AppendLog(Path directory, FsyncPolicy policy, int segmentBytes) throws IOException {
+        if (segmentBytes < RequestProtocol.START_OF_DATA)
+            throw new IllegalArgumentException("Segment size of " + segmentBytes + " bytes cannot hold a record");
+
+        this.directory = directory;
+        this.policy = policy;
+        this.segmentBytes = segmentBytes;
+
+        Files.createDirectories(directory);
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path path : files.filter(LogSegment::isSegment).sorted().toList())
+                segments.add(LogSegment.open(path));
+        }
+
+        this.syncThread = policy == FsyncPolicy.NEVER ? null
+                : new DefaultThreadFactory("nimbus-log-sync", true).newThread(this::syncLoop);
+    }
+
+    public FsyncPolicy policy() {
+        return policy;
+    }
+
+    /**
+     * @return Log position following the last record appended
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * @return Log position up to which records are known to be forced to disk
+     */
+    public long durablePosition() {
+        return durablePosition;
+    }
+
+    /**
+     * Apply every record of the log to a storage engine, in order, then resume appending
+     * after the last of them. Must be called once, before any append.
+     * @param storage Storage to apply records to directly, not one which logs its writes
+     * @return Number of records applied
+     * @throws IOException if a sealed segment is corrupt, or the storage cannot hold the records
+     */
+    public long replay(Storage storage) throws IOException {
+        return replay(storage, 0);
+    }
+
+    /**
+     * Apply the records of the log from a position to a storage engine, in order, then resume
+     * appending after the last of them, or at the position if the log ends before it.
+     * Must be called once, before any append.
+     * @param storage Storage to apply records to directly, not one which logs its writes
+     * @param from Position of the first record to apply, such as that of a loaded snapshot
+     * @return Number of records applied
+     * @throws IOException if a sealed segment is corrupt, the log starts after the position,
+     * or the storage cannot hold the records
+     */
+    public long replay(Storage storage, long from) throws IOException {
+        appendLock.lock();
+        try {
+            if (replayed)
+                throw new IllegalStateException("Log already replayed");
+
+            if (!segments.isEmpty() && segments.getFirst().base > from)
+                throw new IOException("Log starts at position " + segments.getFirst().base
+                        + " after replay position " + from);
+
+            long records = 0;
+            for (int i = 0; i < segments.size(); i++) {
+                LogSegment segment = segments.get(i);
+                boolean last = i == segments.size() - 1;
+
+                // Sealed segments wholly before the position are kept until truncated
+                if (!last && segment.base + segment.capacity() <= from) {
+                    segment.writeOffset = segment.capacity();
+                    segment.forcedOffset = segment.capacity();
+                    continue;
+                }
+
+                // Records before the position are still walked to find where valid records end
+                int offset = 0;
+                int length;
+                while ((length = segment.recordLength(offset)) > 0) {
+                    if (segment.base + offset >= from) {
+                        if (!WriteRecord.apply(new RequestMessage(segment.record(offset, length)), storage))
+                            throw new IOException("Storage rejected record at log position " + (segment.base + offset));
+
+                        records++;
+                    }
+
+                    offset += length;
+                }
+
+                if (!last && offset != segment.capacity())
+                    throw new IOException("Corrupt log record in " + segment.path + " at offset " + offset);
+
+                // Records carry no sequence, so valid records behind a torn one must not survive
+                // to follow a shorter append on the next replay
+                if (last)
+                    segment.clearFrom(offset);
+
+                segment.writeOffset = offset;
+                segment.forcedOffset = offset;
+            }
+
+            if (segments.isEmpty()) {
+                segments.add(LogSegment.create(directory, from, segmentBytes));
+            } else if (segments.getLast().end() < from) {
+                // Records a snapshot covers were lost from the tail, so appending resumes
+                // at the position to keep positions ascending
+                LogSegment last = segments.getLast();
+                last.seal();
+                segments.add(LogSegment.create(directory, from, segmentBytes));
+            }
+
+            this.active = segments.getLast();
+            this.position = active.end();
+            this.durablePosition = position;
+            this.replayed = true;
+
+            if (syncThread != null)
+                syncThread.start();
+
+            if (Trace.ENABLED)
+                Trace.event("log", "Replayed " + records + " records from " + segments.size()
+                        + " segments up to position " + position);
+
+            return records;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void appendSet(ByteBuf key, ByteBuf value, long expireAt) {
+        append(WriteRecord.setCommand(expireAt), key, value, expireAt != Storage.NO_EXPIRY, expireAt);
+    }
+
+    @Override
+    public void appendDelete(ByteBuf key) {
+        append(RequestProtocol.CMD_DEL, key, null, false, 0);
+    }
+
+    @Override
+    public void appendExpire(ByteBuf key, long expireAt) {
+        append(RequestProtocol.REPL_CMD_EXPIRE_AT, key, null, true, expireAt);
+    }
+
+    private void append(int command, ByteBuf key, ByteBuf value, boolean withExpiry, long expireAt) {
+        int length = WriteRecord.length(key, value, withExpiry);
+
+        appendLock.lock();
+        try {
+            if (!replayed)
+                throw new IllegalStateException("Log must be replayed before appending");
+            if (closed)
+                throw new IllegalStateException("Log is closed");
+
+            if (active.remaining() < length)
+                roll(length);
+
+            active.commit(WriteRecord.encode(active.reserve(length), command, key, value, withExpiry, expireAt));
+            this.position = active.end();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to roll log segment", e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Seal the active segment and start the next at the current position
+     * @param length Length of the record which did not fit
+     */
+    private void roll(int length) throws IOException {
+        int capacity = Math.max(segmentBytes, length);
+
+        // An empty segment has no records to seal, and its successor would share its name
+        if (active.writeOffset == 0) {
+            active.close();
+            active.delete();
+            segments.removeLast();
+        } else {
+            active.seal();
+            active.close();
+        }
+
+        this.active = LogSegment.create(directory, position, capacity);
+        segments.add(active);
+
+        if (Trace.ENABLED)
+            Trace.event("log", "Rolled to segment " + active.path);
+    }
+
+    /**
+     * Delete sealed segments holding only records before a position, which a durable
+     * snapshot already covers. The active segment is always kept.
+     * @return Number of segments deleted
+     */
+    public int truncateBefore(long position) throws IOException {
+        appendLock.lock();
+        try {
+            int deleted = 0;
+            while (segments.size() > 1 && segments.getFirst().end() <= position) {
+                LogSegment segment = segments.removeFirst();
+                segment.close();
+                segment.delete();
+                deleted++;
+            }
+
+            if (Trace.ENABLED && deleted > 0)
+                Trace.event("log", "Truncated " + deleted + " segments before position " + position);
+
+            return deleted;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Wait for records up to a position to be forced to disk, grouping every waiter
+     * into the next force. Completes at once if already durable, or if the policy
+     * never forces as records are appended.
+     * @return Future completed on the syncing thread, or failed if forcing failed
+     */
+    public CompletableFuture<Void> sync(long position) {
+        if (position <= durablePosition || policy == FsyncPolicy.NEVER)
+            return SYNCED;
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+
+        syncLock.lock();
+        try {
+            if (closed)
+                return CompletableFuture.failedFuture(new IllegalStateException("Log is closed"));
+
+            syncWaiters.add(new SyncWaiter(position, future));
+            syncRequested.signal();
+        } finally {
+            syncLock.unlock();
+        }
+
+        return future;
+    }
+
+    private void syncLoop() {
+        while (true) {
+            List<SyncWaiter> waiters;
+
+            syncLock.lock();
+            try {
+                while (syncWaiters.isEmpty() && !closed) {
+                    if (policy == FsyncPolicy.EVERY_SECOND) {
+                        syncRequested.await(SYNC_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                        break;
+                    }
+
+                    syncRequested.await();
+                }
+
+                if (closed && syncWaiters.isEmpty())
+                    return;
+
+                waiters = new ArrayList<>(syncWaiters);
+                syncWaiters.clear();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                syncLock.unlock();
+            }
+
+            try {
+                forceActive();
+                for (SyncWaiter waiter : waiters)
+                    waiter.future().complete(null);
+            } catch (RuntimeException e) {
+                if (Trace.ENABLED)
+                    Trace.error("log", "Failed to force log", e);
+
+                for (SyncWaiter waiter : waiters)
+                    waiter.future().completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Force the active segment up to the current position. Records appended meanwhile are
+     * covered by the next force, and sealed segments were forced as they were sealed.
+     */
+    private void forceActive() {
+        LogSegment segment;
+        int to;
+
+        appendLock.lock();
+        try {
+            segment = active;
+            to = segment.writeOffset;
+        } finally {
+            appendLock.unlock();
+        }
+
+        segment.force(segment.forcedOffset, to);
+        segment.forcedOffset = to;
+        this.durablePosition = Math.max(durablePosition, segment.base + to);
+    }
+
+    /**
+     * Force outstanding records, stop the syncing thread and close every segment
+     */
+    @Override
+    public void close() {
+        syncLock.lock();
+        try {
+            if (closed)
+                return;
+
+            closed = true;
+            syncRequested.signal();
+        } finally {
+            syncLock.unlock();
+        }
+
+        if (syncThread != null && syncThread.isAlive()) {
+            try {
+                syncThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        appendLock.lock();
+        try {
+            if (active != null) {
+                active.force(active.forcedOffset, active.writeOffset);
+                this.durablePosition = active.end();
+            }
+
+            for (LogSegment segment : segments)
+                segment.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to close log", e);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+}
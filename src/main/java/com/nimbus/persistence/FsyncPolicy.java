@@ -0,0 +1,26 @@
+package com.nimbus.persistence;
+
+/**
+ * When appended {@link AppendLog} records are forced from the page cache to disk.
+ * Records always reach the page cache as they are appended, so survive a crash of the
+ * process under any policy; the policy bounds what an operating system crash may lose.
+ */
+public enum FsyncPolicy {
+
+    /**
+     * Writes are acknowledged only once forced. Concurrent writes from every connection
+     * share each force, so throughput is bounded by forces per second, not writes.
+     */
+    ALWAYS,
+
+    /**
+     * Forced once a second, so at most about a second of acknowledged writes may be lost
+     */
+    EVERY_SECOND,
+
+    /**
+     * Left to the operating system writeback, forcing only when segments are sealed or closed
+     */
+    NEVER
+
+}
@@ -0,0 +1,220 @@
+package com.nimbus.persistence;
+
+import com.nimbus.proto.protocol.HeaderProtocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * A single memory mapped file of an {@link AppendLog}, named by the log position of its first
+ * record. Records are request frames laid end to end, each carrying a CRC32C of its other
+ * fields in the otherwise unused request id header. The file is extended to its full capacity
+ * when created, so unwritten space reads as zero length frames, and truncated to the records
+ * it holds once sealed.
+ */
+final class LogSegment {
+
+    static final String SUFFIX = ".log";
+
+    private static final int CHECKSUM_OFFSET = HeaderProtocol.HDR_REQUEST_ID.offsetStart();
+
+    final long base;
+    final Path path;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final ByteBuf buffer;
+
+    /**
+     * End of the records written, guarded by the log append lock
+     */
+    int writeOffset;
+
+    /**
+     * End of the records forced to disk, only accessed by the syncing thread
+     */
+    int forcedOffset;
+
+    /**
+     * Set once unmapped, guarded by the segment monitor
+     */
+    private boolean closed;
+
+    private LogSegment(long base, Path path, FileChannel channel, int capacity) throws IOException {
+        this.base = base;
+        this.path = path;
+        this.channel = channel;
+        this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        this.buffer = Unpooled.wrappedBuffer(mapped).clear();
+    }
+
+    static LogSegment create(Path directory, long base, int capacity) throws IOException {
+        Path path = directory.resolve(fileName(base));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        return new LogSegment(base, path, channel, capacity);
+    }
+
+    static LogSegment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size > Integer.MAX_VALUE) {
+            channel.close();
+            throw new IOException("Log segment " + path + " exceeds 2GiB");
+        }
+
+        return new LogSegment(parseBase(path), path, channel, (int) size);
+    }
+
+    static String fileName(long base) {
+        return String.format("%020d%s", base, SUFFIX);
+    }
+
+    static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.endsWith(SUFFIX) && name.length() == 20 + SUFFIX.length();
+    }
+
+    private static long parseBase(Path path) throws IOException {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed log segment name " + path, e);
+        }
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    int remaining() {
+        return capacity() - writeOffset;
+    }
+
+    /**
+     * @return Log position following the last record written
+     */
+    long end() {
+        return base + writeOffset;
+    }
+
+    /**
+     * @return Empty buffer over the next length bytes, to encode a record into
+     */
+    ByteBuf reserve(int length) {
+        return buffer.slice(writeOffset, length).clear();
+    }
+
+    /**
+     * Seal the checksum of a record encoded into {@link #reserve(int)}, and make it part of the log
+     */
+    void commit(ByteBuf record) {
+        int length = record.writerIndex();
+        record.setInt(CHECKSUM_OFFSET, checksum(record, length));
+        writeOffset += length;
+    }
+
+    /**
+     * Validate the record at an offset
+     * @return Length of the record, or 0 if there is no valid record, which marks the end of the log
+     */
+    int recordLength(int offset) {
+        int remaining = capacity() - offset;
+        if (remaining < HeaderProtocol.HDR_END_OFFSET)
+            return 0;
+
+        int length = buffer.getInt(offset);
+        if (length < HeaderProtocol.HDR_END_OFFSET || length > remaining)
+            return 0;
+
+        ByteBuf record = buffer.slice(offset, length);
+        if (record.getInt(CHECKSUM_OFFSET) != checksum(record, length))
+            return 0;
+
+        return length;
+    }
+
+    /**
+     * @return View of a record validated by {@link #recordLength(int)}, which must not be released
+     */
+    ByteBuf record(int offset, int length) {
+        return buffer.slice(offset, length);
+    }
+
+    /**
+     * Force records written between the offsets to disk. Does nothing once closed, as a segment
+     * is only closed after its records were forced by {@link #seal()} or by the log closing.
+     */
+    synchronized void force(int from, int to) {
+        if (to > from && !closed)
+            mapped.force(from, to - from);
+    }
+
+    /**
+     * Zero and force everything after an offset, where appending resumes, so records left behind
+     * a torn one can never be mistaken for records appended later. Only the span up to the last
+     * non zero byte is written, keeping unwritten space of the file sparse.
+     */
+    void clearFrom(int offset) {
+        int lastWritten = buffer.forEachByteDesc(offset, capacity() - offset, b -> b == 0);
+        if (lastWritten < 0)
+            return;
+
+        buffer.setZero(offset, lastWritten + 1 - offset);
+        force(offset, lastWritten + 1);
+    }
+
+    /**
+     * Force every record to disk, then shrink the file to end at the last of them
+     */
+    void seal() throws IOException {
+        force(0, writeOffset);
+        forcedOffset = writeOffset;
+        channel.truncate(writeOffset);
+    }
+
+    /**
+     * Unmap the file and close its channel, rather than leaving the mapping, and with it the
+     * address space and disk blocks of a deleted file, until the buffer is collected.
+     * Serialized with {@link #force(int, int)}, which the syncing thread may call on a segment
+     * just rolled away from.
+     */
+    synchronized void close() throws IOException {
+        if (closed)
+            return;
+
+        closed = true;
+        PlatformDependent.freeDirectBuffer(mapped);
+        channel.close();
+    }
+
+    /**
+     * Delete the file, which must be closed and not the active segment
+     */
+    void delete() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * CRC32C of every field of a record other than its total length and the checksum itself
+     */
+    private static int checksum(ByteBuf record, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(record.nioBuffer(HeaderProtocol.HDR_MAJOR.offsetStart(),
+                CHECKSUM_OFFSET - HeaderProtocol.HDR_MAJOR.offsetStart()));
+        crc.update(record.nioBuffer(HeaderProtocol.HDR_END_OFFSET, length - HeaderProtocol.HDR_END_OFFSET));
+
+        return (int) crc.getValue();
+    }
+
+}
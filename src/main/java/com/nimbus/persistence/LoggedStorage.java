@@ -0,0 +1,218 @@
+package com.nimbus.persistence;
+
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.routing.BucketMap;
+import com.nimbus.routing.BucketMovedException;
+import com.nimbus.routing.HashConstants;
+import com.nimbus.storage.EntryVisitor;
+import com.nimbus.storage.Storage;
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link Storage} decorator recording every applied write in a {@link WriteLog}, such as an
+ * {@link AppendLog} or a replication backlog, stacking one decorator per log. A write is
+ * applied then recorded under a lock striped by key hash, so records of the same key are
+ * logged in the order they were applied, while writes to other keys proceed in parallel.
+ * Rejected writes and deletes of absent keys are not recorded. Reads pass straight through.
+ * <p>
+ * Ranges of buckets may be {@link #fence(int, int) fenced} while they move to another node,
+ * refusing writes to them with a {@link BucketMovedException} checked under the same lock.
+ */
+public class LoggedStorage implements Storage {
+
+    private static final int LOCK_STRIPES = 1024;
+
+    private final Storage storage;
+    private final WriteLog log;
+    private final ReentrantLock[] stripes;
+
+    /**
+     * Buckets refusing writes, or null if none, replaced rather than modified
+     */
+    private volatile boolean[] fenced;
+
+    /**
+     * @param storage Storage to apply writes to, already holding the replayed log
+     * @param log Log to record writes in, which remains owned by the caller
+     */
+    public LoggedStorage(Storage storage, WriteLog log) {
+        this.storage = storage;
+        this.log = log;
+        this.stripes = new ReentrantLock[LOCK_STRIPES];
+
+        for (int i = 0; i < LOCK_STRIPES; i++)
+            stripes[i] = new ReentrantLock();
+    }
+
+    public Storage storage() {
+        return storage;
+    }
+
+    public WriteLog log() {
+        return log;
+    }
+
+    /**
+     * Refuse every later write to a range of buckets, returning once writes to it already in
+     * progress are applied and recorded, so the log holds every write the range will receive here
+     * @param fromBucket First bucket to fence, inclusive
+     * @param toBucket Last bucket to fence, exclusive
+     */
+    public void fence(int fromBucket, int toBucket) {
+        synchronized (stripes) {
+            boolean[] buckets = fenced != null ? fenced.clone() : new boolean[BucketMap.BUCKET_COUNT];
+            Arrays.fill(buckets, fromBucket, toBucket, true);
+            this.fenced = buckets;
+        }
+
+        // Writers check the fence under their stripe, so once each stripe is passed none remain
+        for (ReentrantLock stripe : stripes) {
+            stripe.lock();
+            stripe.unlock();
+        }
+    }
+
+    /**
+     * Accept writes to a range of buckets again
+     */
+    public void unfence(int fromBucket, int toBucket) {
+        synchronized (stripes) {
+            if (fenced == null)
+                return;
+
+            boolean[] buckets = fenced.clone();
+            Arrays.fill(buckets, fromBucket, toBucket, false);
+
+            boolean any = false;
+            for (boolean bucket : buckets)
+                any |= bucket;
+
+            this.fenced = any ? buckets : null;
+        }
+    }
+
+    private static long hash(ByteBuf key) {
+        return HashConstants.hash(key, key.readerIndex(), key.readableBytes());
+    }
+
+    private ReentrantLock stripe(long hash) {
+        return stripes[(int) hash & (LOCK_STRIPES - 1)];
+    }
+
+    /**
+     * @throws BucketMovedException if the bucket of the hash is fenced
+     */
+    private void checkFence(long hash) {
+        boolean[] buckets = fenced;
+        if (buckets != null && buckets[BucketMap.bucket(hash)])
+            throw new BucketMovedException(BucketMap.bucket(hash));
+    }
+
+    @Override
+    public boolean get(ByteBuf key, BinaryMessage out) {
+        return storage.get(key, out);
+    }
+
+    @Override
+    public boolean set(ByteBuf key, ByteBuf value, long expireAt) {
+        long hash = hash(key);
+        ReentrantLock lock = stripe(hash);
+        lock.lock();
+        try {
+            checkFence(hash);
+            if (!storage.set(key, value, expireAt))
+                return false;
+
+            log.appendSet(key, value, expireAt);
+
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean delete(ByteBuf key) {
+        long hash = hash(key);
+        ReentrantLock lock = stripe(hash);
+        lock.lock();
+        try {
+            checkFence(hash);
+            if (!storage.delete(key))
+                return false;
+
+            log.appendDelete(key);
+
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean expire(ByteBuf key, long expireAt) {
+        long hash = hash(key);
+        ReentrantLock lock = stripe(hash);
+        lock.lock();
+        try {
+            checkFence(hash);
+            if (!storage.expire(key, expireAt))
+                return false;
+
+            log.appendExpire(key, expireAt);
+
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long expireAt(ByteBuf key) {
+        return storage.expireAt(key);
+    }
+
+    /**
+     * Expired keys are purged without being recorded, as their records already carry the
+     * absolute expiry which replay honours
+     */
+    @Override
+    public int purgeExpired(int maxSamples) {
+        return storage.purgeExpired(maxSamples);
+    }
+
+    @Override
+    public void scan(EntryVisitor visitor) {
+        storage.scan(visitor);
+    }
+
+    @Override
+    public void scan(int fromBucket, int toBucket, EntryVisitor visitor) {
+        storage.scan(fromBucket, toBucket, visitor);
+    }
+
+    /**
+     * Not supported, as clearing cannot be recorded
+     */
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException("A logged storage cannot be cleared");
+    }
+
+    @Override
+    public long size() {
+        return storage.size();
+    }
+
+    /**
+     * Close the underlying storage. The log is closed by its owner.
+     */
+    @Override
+    public void close() {
+        storage.close();
+    }
+
+}
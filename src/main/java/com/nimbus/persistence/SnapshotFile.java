@@ -0,0 +1,287 @@
+package com.nimbus.persistence;
+
+import com.nimbus.routing.BucketMap;
+import com.nimbus.storage.EntryVisitor;
+import com.nimbus.storage.Storage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * Compact file format of a keyspace snapshot, written sequentially in one pass over a
+ * {@link Storage#scan(EntryVisitor)}. Entries are grouped into ranges of
+ * {@link #BUCKETS_PER_RANGE} consecutive {@link BucketMap} buckets, each with its own checksum,
+ * and indexed in a trailer so ranges can be loaded in parallel.
+ * <pre>
+ * [int magic][int version][long log position][long created millis]
+ * per range, entries of [long hash][long expire at][short key len][int value len][key][value]
+ * [range index of [int first bucket][long offset][long length][int entries][int crc32c] per range]
+ * [int range count][long index offset][int magic]
+ * </pre>
+ */
+final class SnapshotFile {
+
+    static final int MAGIC = 0x4E534E50; // NSNP
+    static final int VERSION = 1;
+
+    static final int BUCKETS_PER_RANGE = 64;
+
+    private static final int HEADER_SIZE = Integer.BYTES * 2 + Long.BYTES * 2;
+    private static final int TRAILER_SIZE = Integer.BYTES * 2 + Long.BYTES;
+    private static final int INDEX_ENTRY_SIZE = Integer.BYTES * 3 + Long.BYTES * 2;
+
+    /**
+     * Buffered bytes written to the file at once
+     */
+    private static final int WRITE_CHUNK = 1024 * 1024;
+
+    private record Range(int firstBucket, long offset, long length, int entries, int crc) {
+    }
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Write every live entry of a storage engine to a new file, forced to disk once complete
+     * @param logPosition Log position the snapshot covers, from which replay resumes
+     * @return Number of entries written
+     */
+    static long write(Storage storage, Path path, long logPosition) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            Writer writer = new Writer(channel);
+            try {
+                writer.header(logPosition);
+                storage.scan(writer::entry);
+                writer.finish();
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                writer.release();
+            }
+
+            channel.force(true);
+
+            return writer.totalEntries;
+        }
+    }
+
+    /**
+     * Sequential writer of a snapshot, staging entries in one buffer flushed in large chunks
+     */
+    private static final class Writer {
+        private final FileChannel channel;
+        private final ByteBuf staging = Unpooled.directBuffer(WRITE_CHUNK * 2);
+        private final List<Range> ranges = new ArrayList<>();
+        private final CRC32C crc = new CRC32C();
+
+        private long written;
+        private int rangeIndex = -1;
+        private long rangeOffset;
+        private int rangeEntries;
+        private long totalEntries;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void header(long logPosition) {
+            staging.writeInt(MAGIC);
+            staging.writeInt(VERSION);
+            staging.writeLong(logPosition);
+            staging.writeLong(System.currentTimeMillis());
+        }
+
+        void entry(long hash, ByteBuf key, ByteBuf value, long expireAt) {
+            int range = BucketMap.bucket(hash) / BUCKETS_PER_RANGE;
+            if (range != rangeIndex) {
+                endRange();
+                rangeIndex = range;
+                rangeOffset = position();
+            }
+
+            int start = staging.writerIndex();
+            staging.writeLong(hash);
+            staging.writeLong(expireAt);
+            staging.writeShort(key.readableBytes());
+            staging.writeInt(value.readableBytes());
+            staging.writeBytes(key, key.readerIndex(), key.readableBytes());
+            staging.writeBytes(value, value.readerIndex(), value.readableBytes());
+
+            crc.update(staging.nioBuffer(start, staging.writerIndex() - start));
+            rangeEntries++;
+            totalEntries++;
+
+            if (staging.readableBytes() >= WRITE_CHUNK)
+                flushStaging();
+        }
+
+        private long position() {
+            return written + staging.readableBytes();
+        }
+
+        private void endRange() {
+            if (rangeIndex >= 0) {
+                ranges.add(new Range(rangeIndex * BUCKETS_PER_RANGE, rangeOffset, position() - rangeOffset,
+                        rangeEntries, (int) crc.getValue()));
+            }
+
+            crc.reset();
+            rangeEntries = 0;
+        }
+
+        void finish() {
+            endRange();
+
+            long indexOffset = position();
+            for (Range range : ranges) {
+                staging.writeInt(range.firstBucket());
+                staging.writeLong(range.offset());
+                staging.writeLong(range.length());
+                staging.writeInt(range.entries());
+                staging.writeInt(range.crc());
+            }
+
+            staging.writeInt(ranges.size());
+            staging.writeLong(indexOffset);
+            staging.writeInt(MAGIC);
+
+            flushStaging();
+        }
+
+        /**
+         * Scan callbacks cannot throw checked exceptions, so write failures are rethrown unchecked
+         */
+        private void flushStaging() {
+            try {
+                ByteBuffer chunk = staging.nioBuffer();
+                while (chunk.hasRemaining())
+                    written += channel.write(chunk);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write snapshot", e);
+            }
+
+            staging.clear();
+        }
+
+        void release() {
+            staging.release();
+        }
+    }
+
+    /**
+     * Load every entry of a snapshot into a storage engine, loading ranges in parallel.
+     * Entries which expired since the snapshot was taken are skipped.
+     * @param threads Number of ranges loaded at once
+     * @return Log position the snapshot covers
+     * @throws IOException if the file is malformed, a range fails its checksum,
+     * or the storage cannot hold the entries
+     */
+    static long load(Path path, Storage storage, int threads) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE)
+                throw new IOException("Snapshot " + path + " is truncated");
+
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION)
+                throw new IOException("Snapshot " + path + " has an unknown format");
+            long logPosition = header.getLong();
+
+            ByteBuffer trailer = read(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+            int rangeCount = trailer.getInt();
+            long indexOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || indexOffset + (long) rangeCount * INDEX_ENTRY_SIZE != size - TRAILER_SIZE)
+                throw new IOException("Snapshot " + path + " is truncated");
+
+            ByteBuffer index = read(channel, indexOffset, rangeCount * INDEX_ENTRY_SIZE);
+            List<Range> ranges = new ArrayList<>(rangeCount);
+            for (int i = 0; i < rangeCount; i++)
+                ranges.add(new Range(index.getInt(), index.getLong(), index.getLong(), index.getInt(), index.getInt()));
+
+            loadRanges(path, channel, ranges, storage, threads);
+
+            return logPosition;
+        }
+    }
+
+    private static void loadRanges(Path path, FileChannel channel, List<Range> ranges, Storage storage, int threads)
+            throws IOException {
+        long now = System.currentTimeMillis();
+
+        try (ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads))) {
+            List<Future<?>> loads = new ArrayList<>(ranges.size());
+            for (Range range : ranges) {
+                loads.add(executor.submit(() -> {
+                    loadRange(path, channel, range, storage, now);
+                    return null;
+                }));
+            }
+
+            for (Future<?> load : loads)
+                load.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause)
+                throw cause;
+
+            throw new IOException("Failed to load snapshot " + path, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted loading snapshot " + path, e);
+        }
+    }
+
+    private static void loadRange(Path path, FileChannel channel, Range range, Storage storage, long now)
+            throws IOException {
+        if (range.length() > Integer.MAX_VALUE)
+            throw new IOException("Snapshot range of bucket " + range.firstBucket() + " exceeds 2GiB");
+
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, range.offset(), range.length());
+
+        CRC32C crc = new CRC32C();
+        crc.update(mapped.duplicate());
+        if ((int) crc.getValue() != range.crc())
+            throw new IOException("Snapshot " + path + " range of bucket " + range.firstBucket() + " is corrupt");
+
+        ByteBuf data = Unpooled.wrappedBuffer(mapped);
+        for (int i = 0; i < range.entries(); i++) {
+            data.skipBytes(Long.BYTES);
+            long expireAt = data.readLong();
+            int keyLen = data.readShort();
+            int valueLen = data.readInt();
+
+            ByteBuf key = data.readSlice(keyLen);
+            ByteBuf value = data.readSlice(valueLen);
+
+            if (expireAt != Storage.NO_EXPIRY && expireAt <= now)
+                continue;
+
+            if (!storage.set(key, value, expireAt))
+                throw new IOException("Storage rejected snapshot entry, its memory budget is exhausted");
+        }
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0)
+                throw new IOException("Unexpected end of snapshot");
+        }
+
+        return buffer.flip();
+    }
+
+}
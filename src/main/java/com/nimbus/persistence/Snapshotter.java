@@ -0,0 +1,210 @@
+package com.nimbus.persistence;
+
+import com.nimbus.storage.Storage;
+import com.nimbus.trace.Trace;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Takes periodic snapshots of a storage engine alongside an {@link AppendLog}, so the log can
+ * be truncated and recovery loads the latest snapshot then replays only the records after it.
+ * <p>
+ * Snapshots are fuzzy: the log position is read before the scan starts, and the scan copies
+ * one portion of the keyspace at a time while writes carry on. Each record appended after
+ * that position may or may not be reflected in the snapshot. Recovery replays all of them
+ * anyway, and as records set or delete whole values and carry absolute expiry times,
+ * replaying them over the snapshot reproduces exactly the state at the end of the log.
+ * Without a log, a snapshot is consistent per portion of the keyspace only.
+ * <p>
+ * Each snapshot is written to a temporary file, forced, then atomically renamed to the log
+ * position it covers, so a crash mid snapshot leaves the previous snapshot in place. The rename is
+ * forced to disk with the directory before older snapshots and log segments are deleted, so a
+ * crash can never persist the deletes but not the snapshot replacing them.
+ * <p>
+ * A failed snapshot leaves the log untruncated, so it grows until a later snapshot succeeds.
+ * Periodic snapshots have no caller to throw to, so their failures are reported through
+ * {@link #lastSnapshot()}, which should be monitored.
+ */
+public class Snapshotter implements AutoCloseable {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    private static final String SUFFIX = ".snap";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Outcome of a snapshot
+     * @param timeMillis Epoch millis the snapshot finished or failed at, 0 if none was attempted
+     * @param path Snapshot written, or null if it failed
+     * @param failure Cause of the failure, or null if it succeeded
+     */
+    public record Outcome(long timeMillis, Path path, Throwable failure) {
+
+        public boolean failed() {
+            return failure != null;
+        }
+
+    }
+
+    private final Path directory;
+    private final AppendLog log;
+    private final long intervalMillis;
+    private final int loadThreads;
+    private volatile Outcome lastSnapshot = new Outcome(0, null, null);
+    private ScheduledExecutorService scheduler;
+
+    public Snapshotter(Path directory, AppendLog log) throws IOException {
+        this(directory, log, DEFAULT_INTERVAL_MILLIS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param directory Directory holding snapshots, which may be that of the log
+     * @param log Log whose records each snapshot covers, truncated after each snapshot, or null
+     * @param intervalMillis Time between periodic snapshots once {@link #start(Storage) started}
+     * @param loadThreads Number of bucket ranges loaded in parallel by {@link #load(Storage)}
+     */
+    public Snapshotter(Path directory, AppendLog log, long intervalMillis, int loadThreads) throws IOException {
+        this.directory = directory;
+        this.log = log;
+        this.intervalMillis = intervalMillis;
+        this.loadThreads = loadThreads;
+
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Load the latest snapshot, if any, into a storage engine
+     * @return Log position to replay the log from, 0 if there is no snapshot
+     */
+    public long load(Storage storage) throws IOException {
+        List<Path> snapshots = snapshots();
+        if (snapshots.isEmpty())
+            return 0;
+
+        Path latest = snapshots.getLast();
+        long position = SnapshotFile.load(latest, storage, loadThreads);
+
+        if (Trace.ENABLED)
+            Trace.event("snapshot", "Loaded " + latest + " covering log position " + position);
+
+        return position;
+    }
+
+    /**
+     * @return Outcome of the latest snapshot, periodic or not
+     */
+    public Outcome lastSnapshot() {
+        return lastSnapshot;
+    }
+
+    /**
+     * Take a snapshot now, then delete older snapshots and the log segments it covers
+     * @return Path of the snapshot written
+     */
+    public Path snapshot(Storage storage) throws IOException {
+        try {
+            Path path = write(storage);
+            lastSnapshot = new Outcome(System.currentTimeMillis(), path, null);
+
+            return path;
+        } catch (IOException | RuntimeException e) {
+            lastSnapshot = new Outcome(System.currentTimeMillis(), null, e);
+            throw e;
+        }
+    }
+
+    private Path write(Storage storage) throws IOException {
+        long position = log != null ? log.position() : 0;
+
+        Path path = directory.resolve(String.format("%020d%s", position, SUFFIX));
+        Path temp = directory.resolve(path.getFileName() + TEMP_SUFFIX);
+        Files.deleteIfExists(temp);
+
+        long entries;
+        try {
+            entries = SnapshotFile.write(storage, temp, position);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            forceDirectory();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        for (Path older : snapshots()) {
+            if (!older.equals(path))
+                Files.deleteIfExists(older);
+        }
+
+        if (log != null)
+            log.truncateBefore(position);
+
+        if (Trace.ENABLED)
+            Trace.event("snapshot", "Wrote " + entries + " entries to " + path);
+
+        return path;
+    }
+
+    /**
+     * Force the entries of the snapshot directory, such as a rename, to disk
+     */
+    private void forceDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Take snapshots periodically on a dedicated thread, until closed
+     */
+    public void start(Storage storage) {
+        if (scheduler != null)
+            throw new IllegalStateException("Snapshots already started");
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("nimbus-snapshot", true));
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                snapshot(storage);
+            } catch (IOException | RuntimeException e) {
+                if (Trace.ENABLED)
+                    Trace.error("snapshot", "Snapshot failed", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop periodic snapshots, waiting for one in progress to finish
+     */
+    @Override
+    public void close() {
+        if (scheduler == null)
+            return;
+
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return Snapshot files in ascending log position
+     */
+    private List<Path> snapshots() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(SUFFIX)).sorted().toList();
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.nimbus.persistence;
+
+import com.nimbus.storage.Storage;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Ordered record of writes applied to a storage engine, fed by {@link LoggedStorage}, such as
+ * the {@link AppendLog} on disk or a replication backlog in memory. Records are encoded by
+ * {@link WriteRecord} and must be kept in the order they are appended.
+ */
+public interface WriteLog {
+
+    /**
+     * Record a key set to a value
+     * @param expireAt Absolute expiry in epoch millis, or {@link Storage#NO_EXPIRY}
+     */
+    void appendSet(ByteBuf key, ByteBuf value, long expireAt);
+
+    void appendDelete(ByteBuf key);
+
+    /**
+     * Record the expiry of an existing key changed
+     * @param expireAt Absolute expiry in epoch millis, or {@link Storage#NO_EXPIRY}
+     */
+    void appendExpire(ByteBuf key, long expireAt);
+
+}
@@ -0,0 +1,89 @@
+package com.nimbus.persistence;
+
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.storage.Storage;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Encoding of a single write as a {@link RequestMessage} frame, shared by every {@link WriteLog}.
+ * Records reuse the wire framing so they can be walked by
+ * {@link com.nimbus.proto.protocol.HeaderProtocol#HDR_TOTAL_LEN}. Writes to expiring keys are
+ * recorded as {@link RequestProtocol#REPL_CMD_SET_EXPIRE_AT} and
+ * {@link RequestProtocol#REPL_CMD_EXPIRE_AT}, so keys expire at their original time wherever
+ * the record is applied.
+ */
+public final class WriteRecord {
+
+    private WriteRecord() {
+    }
+
+    /**
+     * @return Command recording a key set to a value with an expiry
+     */
+    public static int setCommand(long expireAt) {
+        return expireAt == Storage.NO_EXPIRY ? RequestProtocol.CMD_SET : RequestProtocol.REPL_CMD_SET_EXPIRE_AT;
+    }
+
+    /**
+     * @param value Value recorded, or null for none
+     * @param withExpiry Whether an 8 byte expiry value field follows
+     * @return Encoded length of the record
+     */
+    public static int length(ByteBuf key, ByteBuf value, boolean withExpiry) {
+        int length = RequestProtocol.START_OF_DATA + BinaryMessage.keyFieldLength(key.readableBytes());
+        if (value != null)
+            length += BinaryMessage.valueFieldLength(value.readableBytes());
+        if (withExpiry)
+            length += BinaryMessage.valueFieldLength(Long.BYTES);
+
+        return length;
+    }
+
+    /**
+     * Encode a record at the start of a buffer
+     * @param out Empty buffer, with at least {@link #length(ByteBuf, ByteBuf, boolean)} capacity
+     *            from index 0, as header fields are written at absolute indexes
+     * @return Buffer holding the whole record
+     */
+    public static ByteBuf encode(ByteBuf out, int command, ByteBuf key, ByteBuf value,
+                                 boolean withExpiry, long expireAt) {
+        RequestMessage record = new RequestMessage(out);
+        record.command(command);
+        record.count(1);
+        record.key(key, key.readerIndex(), key.readableBytes());
+        if (value != null)
+            record.value(value, value.readerIndex(), value.readableBytes());
+        if (withExpiry)
+            record.value(expireAt, Long.BYTES);
+
+        return record.end();
+    }
+
+    /**
+     * Apply a single record to a storage engine
+     * @return false if the storage rejected it, being out of memory
+     */
+    public static boolean apply(RequestMessage record, Storage storage) {
+        return switch (record.command()) {
+            case RequestProtocol.CMD_SET -> storage.set(record.keyAsSlice(), record.valueAsSlice());
+            case RequestProtocol.REPL_CMD_SET_EXPIRE_AT -> {
+                ByteBuf key = record.keyAsSlice();
+                ByteBuf value = record.valueAsSlice();
+                yield storage.set(key, value, record.valueAsLong());
+            }
+            case RequestProtocol.CMD_DEL -> {
+                storage.delete(record.keyAsSlice());
+                yield true;
+            }
+            case RequestProtocol.REPL_CMD_EXPIRE_AT -> {
+                ByteBuf key = record.keyAsSlice();
+                storage.expire(key, record.valueAsLong());
+                yield true;
+            }
+            default -> throw new IllegalStateException("Unexpected write record command " + record.command());
+        };
+    }
+
+}
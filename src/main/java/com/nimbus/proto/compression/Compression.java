@@ -0,0 +1,158 @@
+package com.nimbus.proto.compression;
+
+import com.nimbus.proto.protocol.HeaderProtocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+/**
+ * Codec registry and frame level compression of the message data section.
+ * <p>
+ * The {@link HeaderProtocol#HDR_COMPRESSION} byte carries the codec id chosen for a message
+ * in its low bits, and {@link #FLAG_COMPRESSED} once the data section has actually been
+ * compressed. A codec id without the flag requests compression, which is skipped for data
+ * below the size threshold or which does not shrink. A compressed data section is laid out
+ * as [int original data len][compressed bytes], while the header itself is never compressed.
+ */
+public final class Compression {
+
+    public static final int NONE = 0;
+    /**
+     * LZ4 block compression, the default codec
+     */
+    public static final int LZ4 = 1;
+    /**
+     * Raw deflate, slower than {@link #LZ4} with a better ratio
+     */
+    public static final int DEFLATE = 2;
+
+    /**
+     * Header bit set when the data section of a frame is compressed
+     */
+    public static final int FLAG_COMPRESSED = 0x40;
+    public static final int CODEC_MASK = 0x3F;
+
+    /**
+     * Data sections smaller than this many bytes are sent uncompressed
+     */
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static final int SZ_ORIGINAL_LEN = Integer.BYTES;
+
+    private static final CompressionCodec[] CODECS = { null, new Lz4Codec(), new DeflateCodec() };
+
+    private Compression() {
+    }
+
+    /**
+     * @param compression Header compression value, with or without {@link #FLAG_COMPRESSED}
+     * @return The codec for the id, or null if {@link #NONE}
+     * @throws IllegalArgumentException if the codec id is unknown
+     */
+    public static CompressionCodec codec(int compression) {
+        int id = compression & CODEC_MASK;
+        if (id >= CODECS.length)
+            throw new IllegalArgumentException("Unknown compression codec " + id);
+
+        return CODECS[id];
+    }
+
+    /**
+     * @param frame Message frame
+     * @return true if the data section of the frame is compressed
+     */
+    public static boolean isCompressed(ByteBuf frame) {
+        return (HeaderProtocol.getCompression(frame) & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * Compress the data section of a frame with the codec requested in its header.
+     * @implNote Does not modify or release the source frame. Total length header is not updated
+     * @param frame Frame with its header at offset 0 and data up to its writer index
+     * @param startOfData Offset of the data section
+     * @param threshold Minimum data section length worth compressing
+     * @param alloc Allocator for the compressed frame
+     * @return A new frame with a compressed data section, or null if no codec was requested,
+     * the data is below threshold or compression would not reduce its size
+     */
+    public static ByteBuf compress(ByteBuf frame, int startOfData, int threshold, ByteBufAllocator alloc) {
+        int compression = HeaderProtocol.getCompression(frame);
+        int dataLen = frame.writerIndex() - startOfData;
+
+        if ((compression & FLAG_COMPRESSED) != 0 || dataLen < threshold)
+            return null;
+
+        CompressionCodec codec = codec(compression);
+        if (codec == null)
+            return null;
+
+        ByteBuf compressed = alloc.directBuffer(startOfData + SZ_ORIGINAL_LEN + codec.maxCompressedLength(dataLen));
+        try {
+            compressed.writeBytes(frame, 0, startOfData);
+            compressed.writeInt(dataLen);
+            codec.compress(frame, startOfData, dataLen, compressed);
+        } catch (RuntimeException e) {
+            compressed.release();
+            throw e;
+        }
+
+        if (compressed.writerIndex() >= frame.writerIndex()) {
+            compressed.release();
+            return null;
+        }
+
+        HeaderProtocol.setCompression(compressed, codec.id() | FLAG_COMPRESSED);
+
+        return compressed;
+    }
+
+    /**
+     * Restore the data section of a compressed frame. The codec id is kept in the header
+     * of the restored frame so a reply may be compressed the same way.
+     * @implNote Takes ownership of the frame, which is released if a new frame is returned
+     * @param frame Whole received frame, starting at offset 0
+     * @param maxLength Max length of the restored frame, bounding memory spent on hostile input
+     * @param alloc Allocator for the restored frame
+     * @return The frame itself if uncompressed, otherwise a new frame with its total length updated
+     * @throws IllegalStateException if the data section is corrupt or restores beyond maxLength
+     */
+    public static ByteBuf decompress(ByteBuf frame, int maxLength, ByteBufAllocator alloc) {
+        int compression = HeaderProtocol.getCompression(frame);
+        if ((compression & FLAG_COMPRESSED) == 0)
+            return frame;
+
+        try {
+            int startOfData = HeaderProtocol.HDR_END_OFFSET;
+            int compressedIndex = startOfData + SZ_ORIGINAL_LEN;
+            int compressedLen = frame.writerIndex() - compressedIndex;
+
+            if (compressedLen < 0)
+                throw new IllegalStateException("Compressed frame missing its original length");
+
+            int originalLen = frame.getInt(startOfData);
+            if (originalLen < 0 || originalLen > maxLength - startOfData)
+                throw new IllegalStateException("Compressed data section of " + originalLen
+                        + " bytes exceeds max frame length " + maxLength);
+
+            CompressionCodec codec = codec(compression);
+            if (codec == null)
+                throw new IllegalStateException("Compressed flag set without a codec");
+
+            ByteBuf restored = alloc.directBuffer(startOfData + originalLen);
+            try {
+                restored.writeBytes(frame, 0, startOfData);
+                codec.decompress(frame, compressedIndex, compressedLen, restored, originalLen);
+            } catch (RuntimeException e) {
+                restored.release();
+                throw e;
+            }
+
+            HeaderProtocol.setCompression(restored, compression & CODEC_MASK);
+            HeaderProtocol.setTotalLen(restored);
+
+            return restored;
+        } finally {
+            frame.release();
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.nimbus.proto.compression;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Block codec used to compress the data section of a message. Implementations
+ * operate on buffer regions directly, so pooled direct buffers are compressed
+ * without an intermediate copy onto the heap.
+ */
+public interface CompressionCodec {
+
+    /**
+     * @return Codec id carried in the {@link com.nimbus.proto.protocol.HeaderProtocol#HDR_COMPRESSION} header
+     */
+    int id();
+
+    /**
+     * @param length Uncompressed input length in bytes
+     * @return Worst case compressed length of the input
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Compress a region of src, writing the compressed bytes at the writer index of dst
+     * @implNote Does not modify the src indexes, advances the dst writer index
+     * @param src Buffer holding the uncompressed bytes
+     * @param index Static offset into src of the first byte
+     * @param length Number of bytes to compress
+     * @param dst Destination with at least {@link #maxCompressedLength(int)} writable bytes
+     */
+    void compress(ByteBuf src, int index, int length, ByteBuf dst);
+
+    /**
+     * Decompress a region of src, writing the original bytes at the writer index of dst
+     * @implNote Does not modify the src indexes, advances the dst writer index
+     * @param src Buffer holding the compressed bytes
+     * @param index Static offset into src of the first compressed byte
+     * @param length Number of compressed bytes
+     * @param dst Destination with at least originalLength writable bytes
+     * @param originalLength Exact uncompressed length
+     * @throws IllegalStateException if the input is corrupt or does not expand to originalLength
+     */
+    void decompress(ByteBuf src, int index, int length, ByteBuf dst, int originalLength);
+
+}
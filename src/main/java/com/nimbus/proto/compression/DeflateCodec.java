@@ -0,0 +1,105 @@
+package com.nimbus.proto.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw deflate codec from the JDK, for payloads where ratio matters more than
+ * speed. Requires no native library beyond the one bundled with the JVM.
+ * @implNote Deflater and Inflater hold native memory and are costly to create,
+ * so one of each is kept per thread and reset between uses
+ */
+final class DeflateCodec implements CompressionCodec {
+
+    private static final FastThreadLocal<Deflater> DEFLATER = new FastThreadLocal<>() {
+        @Override
+        protected Deflater initialValue() {
+            return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+
+        @Override
+        protected void onRemoval(Deflater deflater) {
+            deflater.end();
+        }
+    };
+
+    private static final FastThreadLocal<Inflater> INFLATER = new FastThreadLocal<>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+
+        @Override
+        protected void onRemoval(Inflater inflater) {
+            inflater.end();
+        }
+    };
+
+    @Override
+    public int id() {
+        return Compression.DEFLATE;
+    }
+
+    /**
+     * zlib compressBound, plus slack for the final empty block of a raw stream
+     */
+    @Override
+    public int maxCompressedLength(int length) {
+        return length + (length >>> 12) + (length >>> 14) + (length >>> 25) + 13 + 6;
+    }
+
+    @Override
+    public void compress(ByteBuf src, int index, int length, ByteBuf dst) {
+        Deflater deflater = DEFLATER.get();
+        ByteBuffer out = dst.nioBuffer(dst.writerIndex(), dst.writableBytes());
+        int start = out.position();
+
+        try {
+            deflater.setInput(src.nioBuffer(index, length));
+            deflater.finish();
+
+            while (!deflater.finished()) {
+                if (!out.hasRemaining())
+                    throw new IllegalStateException("Deflate output exceeded " + dst.writableBytes() + " bytes");
+
+                deflater.deflate(out);
+            }
+
+            dst.writerIndex(dst.writerIndex() + out.position() - start);
+        } finally {
+            deflater.reset();
+        }
+    }
+
+    @Override
+    public void decompress(ByteBuf src, int index, int length, ByteBuf dst, int originalLength) {
+        Inflater inflater = INFLATER.get();
+        ByteBuffer out = dst.nioBuffer(dst.writerIndex(), originalLength);
+        int start = out.position();
+
+        try {
+            inflater.setInput(src.nioBuffer(index, length));
+
+            while (!inflater.finished()) {
+                if (inflater.inflate(out) == 0 && (inflater.needsInput() || !out.hasRemaining()))
+                    break;
+            }
+
+            if (!inflater.finished() || out.position() - start != originalLength)
+                throw new IllegalStateException("Deflate data section expanded to " + (out.position() - start)
+                        + " bytes, expected " + originalLength);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt deflate data section", e);
+        } finally {
+            inflater.reset();
+        }
+
+        dst.writerIndex(dst.writerIndex() + originalLength);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.nimbus.proto.compression;
+
+import io.netty.buffer.ByteBuf;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+import java.nio.ByteBuffer;
+
+/**
+ * LZ4 block codec, the default. Trades ratio for compression speed which
+ * comfortably exceeds network bandwidth.
+ * @implNote Uses the safe decompressor as frames may arrive from untrusted peers
+ */
+final class Lz4Codec implements CompressionCodec {
+
+    private final LZ4Compressor compressor;
+    private final LZ4SafeDecompressor decompressor;
+
+    Lz4Codec() {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.safeDecompressor();
+    }
+
+    @Override
+    public int id() {
+        return Compression.LZ4;
+    }
+
+    @Override
+    public int maxCompressedLength(int length) {
+        return compressor.maxCompressedLength(length);
+    }
+
+    @Override
+    public void compress(ByteBuf src, int index, int length, ByteBuf dst) {
+        ByteBuffer in = src.nioBuffer(index, length);
+        ByteBuffer out = dst.nioBuffer(dst.writerIndex(), dst.writableBytes());
+
+        int written = compressor.compress(in, in.position(), length, out, out.position(), out.remaining());
+        dst.writerIndex(dst.writerIndex() + written);
+    }
+
+    @Override
+    public void decompress(ByteBuf src, int index, int length, ByteBuf dst, int originalLength) {
+        ByteBuffer in = src.nioBuffer(index, length);
+        ByteBuffer out = dst.nioBuffer(dst.writerIndex(), originalLength);
+
+        int written;
+        try {
+            written = decompressor.decompress(in, in.position(), length, out, out.position(), originalLength);
+        } catch (LZ4Exception e) {
+            throw new IllegalStateException("Corrupt LZ4 data section", e);
+        }
+
+        if (written != originalLength)
+            throw new IllegalStateException("LZ4 data section expanded to " + written
+                    + " bytes, expected " + originalLength);
+
+        dst.writerIndex(dst.writerIndex() + written);
+    }
+
+}
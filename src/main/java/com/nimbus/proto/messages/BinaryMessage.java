@@ -1,9 +1,14 @@
 package com.nimbus.proto.messages;
 
 
+import com.nimbus.proto.compression.Compression;
 import com.nimbus.proto.protocol.HeaderProtocol;
+import com.nimbus.routing.HashConstants;
+import com.nimbus.trace.Trace;
 import io.netty.buffer.*;
 
+import java.nio.charset.StandardCharsets;
+
 public abstract class BinaryMessage {
 
     public static final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
@@ -12,6 +17,7 @@ public abstract class BinaryMessage {
 
     protected ByteBuf buffer;
     final int startOfData;
+    private int compressionThreshold = Compression.DEFAULT_THRESHOLD;
 
     public BinaryMessage(ByteBuf buffer, int startOfData) {
         this.buffer = buffer;
@@ -43,10 +49,6 @@ public abstract class BinaryMessage {
         buffer.readerIndex(this.startOfData);
     }
 
-    private static int alignToBytes(int requiredCapacity, int alignment) {
-        return (requiredCapacity + (alignment - 1)) & ~(alignment - 1);
-    }
-
     /**
      * Resets the reader index to the start of all key or value data,
      * so they may be read again from the underlying buffer
@@ -56,54 +58,63 @@ public abstract class BinaryMessage {
     }
 
     /**
-     * Expands the provided buffer if needed to accommodate a potential write.
-     * @implNote First expansion copies the original buffer, subsequent resizes
-     * expand a composite buf. At time of writing, appears to be a bug in composite
-     * buffers if we use the original buffer.
+     * Encoded length of a key field, for presizing a message buffer
+     * @param keyLength Key data length in bytes
+     * @return Bytes the key field occupies including its length header
+     */
+    public static int keyFieldLength(int keyLength) {
+        return HeaderProtocol.SZ_KEY_LEN + keyLength;
+    }
+
+    /**
+     * Encoded length of a value field, for presizing a message buffer
+     * @param valueLength Value data length in bytes
+     * @return Bytes the value field occupies including its length header
+     */
+    public static int valueFieldLength(int valueLength) {
+        return HeaderProtocol.SZ_VALUE_LEN + valueLength;
+    }
+
+    /**
+     * Expands the buffer if needed to accommodate a potential write, always keeping
+     * the message in one contiguous buffer. Capacity grows through the allocator size
+     * classes, doubling up to its threshold, so a message built from many small fields
+     * reallocates a logarithmic number of times. Presizing with
+     * {@link #keyFieldLength(int)} and {@link #valueFieldLength(int)} avoids growth entirely.
+     * @implNote Buffers which cannot grow in place, such as a slice of a received
+     * frame, are copied once into a new pooled buffer and released
      * @param requiredCapacity required write capacity, which triggers an expansion if
      *                         requiredCapacity > writeableBytes
      */
     void ensureCapacity(int requiredCapacity) {
-        if (buffer.writableBytes() < requiredCapacity) {
-            int currCapacity = buffer.capacity();
-            int minWritableBytes = requiredCapacity - buffer.writableBytes();
-            int capacityIncrement = alignToBytes(minWritableBytes, 64);
-
-            // Store current state
-            int readerIndex = buffer.readerIndex();
-            int writerIndex = buffer.writerIndex();
-
-            if (buffer instanceof CompositeByteBuf) {
-                CompositeByteBuf compositeBuffer = (CompositeByteBuf) buffer;
-                ByteBuf additionalBuffer = alloc.directBuffer(capacityIncrement);
-                compositeBuffer.addComponent(true, additionalBuffer);
-                compositeBuffer.writerIndex(writerIndex);
-            } else {
-                // Create new composite buffer
-                CompositeByteBuf newCompositeBuffer = alloc.compositeBuffer();
-                ByteBuf additionalBuffer = alloc.directBuffer(capacityIncrement);
-
-                // Copy original buffer once
-                ByteBuf copiedContent = alloc.directBuffer(currCapacity);
-                buffer.getBytes(0, copiedContent, writerIndex);
-
-                // Add both buffers and set indices
-                newCompositeBuffer.addComponents(true, copiedContent, additionalBuffer);
-                newCompositeBuffer.writerIndex(writerIndex);
-                newCompositeBuffer.readerIndex(readerIndex);
-
-                // Switch buffers
-                ByteBuf oldBuffer = buffer;
-                buffer = newCompositeBuffer;
-                oldBuffer.release();
-            }
-
-            System.out.println("Buffer capacity increased to: " + buffer.capacity() +
-                    ", writable bytes: " + buffer.writableBytes());
+        if (buffer.writableBytes() >= requiredCapacity)
+            return;
+
+        if (buffer.maxWritableBytes() >= requiredCapacity && buffer.unwrap() == null) {
+            buffer.ensureWritable(requiredCapacity);
+        } else {
+            int minCapacity = buffer.writerIndex() + requiredCapacity;
+            ByteBuf grown = alloc.directBuffer(alloc.calculateNewCapacity(minCapacity, Integer.MAX_VALUE));
+
+            grown.writeBytes(buffer, 0, buffer.writerIndex());
+            grown.readerIndex(buffer.readerIndex());
+
+            ByteBuf oldBuffer = buffer;
+            buffer = grown;
+            oldBuffer.release();
         }
+
+        if (Trace.ENABLED)
+            Trace.event("proto", "Buffer capacity increased to: " + buffer.capacity() +
+                    ", writable bytes: " + buffer.writableBytes());
     }
 
-    public byte[] keyAsBytes() {
+    /**
+     * Read the length of the next key field and verify its data is present in the buffer
+     * @implNote Advances the reader index past the length field only
+     * @return key data length in bytes
+     */
+    private int readKeyLen() {
         int len = this.dataLen(HeaderProtocol.SZ_KEY_LEN);
         if (len < 1)
             throw new IllegalStateException("Error reading key with zero length, got " + len);
@@ -113,9 +124,106 @@ public abstract class BinaryMessage {
                     " in buffer than indicated length in value data " + len);
         }
 
-        byte[] key = HeaderProtocol.readBytes(buffer, len);
+        return len;
+    }
+
+    /**
+     * Read the length of the next value field and verify its data is present in the buffer
+     * @implNote Advances the reader index past the length field only
+     * @return value data length in bytes, may be zero
+     */
+    private int readValueLen() {
+        int len = this.dataLen(HeaderProtocol.SZ_VALUE_LEN);
+
+        if (len < 0)
+            throw new IllegalStateException("Value length field cannot have be negative");
+
+        if (buffer.readableBytes() < len)
+            throw new IllegalStateException("Less readable bytes in buffer than indicated length in value data");
+
+        return len;
+    }
 
-        return key;
+    /**
+     * Offset of the next key or value field length header, without reading it
+     */
+    private int peekIndex() {
+        return Math.max(buffer.readerIndex(), startOfData);
+    }
+
+    /**
+     * Length of the key field at the current reader position, verified against
+     * the data present in the buffer.
+     * @implNote Does not modify the buffer reader index
+     */
+    private int peekKeyLen(int index) {
+        if (buffer.writerIndex() - index < HeaderProtocol.SZ_KEY_LEN)
+            throw new IllegalStateException("No key field present at index " + index);
+
+        int len = (int) HeaderProtocol.getNumber(buffer, index, HeaderProtocol.SZ_KEY_LEN);
+        if (len < 1 || buffer.writerIndex() - index - HeaderProtocol.SZ_KEY_LEN < len)
+            throw new IllegalStateException("Invalid key length " + len + " at index " + index);
+
+        return len;
+    }
+
+    public byte[] keyAsBytes() {
+        return HeaderProtocol.readBytes(buffer, this.readKeyLen());
+    }
+
+    /**
+     * Read the next key as a view of the underlying buffer, without copying its bytes.
+     * @implNote Advances the reader index past the key. The slice is not retained, so
+     * is only valid until this message is released
+     * @return slice whose readable bytes are the key data
+     */
+    public ByteBuf keyAsSlice() {
+        return buffer.readSlice(this.readKeyLen());
+    }
+
+    /**
+     * Read the next key as a retained view of the underlying buffer, which
+     * may outlive this message.
+     * @implNote Advances the reader index past the key. Caller must release the slice
+     * @return retained slice whose readable bytes are the key data
+     */
+    public ByteBuf keyAsRetainedSlice() {
+        return buffer.readRetainedSlice(this.readKeyLen());
+    }
+
+    /**
+     * Compare the next key to the provided bytes in place, without copying the key.
+     * @implNote Does not modify the buffer reader index
+     * @param other Bytes to compare against
+     * @return true if the key bytes equal other
+     */
+    public boolean keyEquals(byte[] other) {
+        int index = this.peekIndex();
+        int len = this.peekKeyLen(index);
+
+        if (len != other.length)
+            return false;
+
+        int dataIndex = index + HeaderProtocol.SZ_KEY_LEN;
+        for (int i = 0; i < len; i++) {
+            if (buffer.getByte(dataIndex + i) != other[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Hash the next key with {@link HashConstants#HASH_FUNCTION} directly from the buffer
+     * memory, producing the same value as hashing {@link #keyAsBytes()}.
+     * @implNote Does not modify the buffer reader index
+     * @return 64 bit key hash
+     */
+    public long keyHash() {
+        int index = this.peekIndex();
+        int len = this.peekKeyLen(index);
+
+        return HashConstants.hash(buffer, index + HeaderProtocol.SZ_KEY_LEN, len);
     }
 
     public int keyAsInt() {
@@ -131,7 +239,7 @@ public abstract class BinaryMessage {
     }
 
     public String keyAsString() {
-        return new String(this.keyAsBytes());
+        return buffer.readCharSequence(this.readKeyLen(), StandardCharsets.UTF_8).toString();
     }
 
     /**
@@ -148,9 +256,9 @@ public abstract class BinaryMessage {
         } else if (key instanceof String) {
             this.key((String) key);
         } else if (key instanceof Integer) {
-            this.key((Integer) key);
+            this.key((int) key);
         } else if (key instanceof Long) {
-            this.key((Long) key);
+            this.key((long) key);
         } else {
             throw new IllegalArgumentException("Unsupported key type: " + key.getClass().getName());
         }
@@ -176,6 +284,24 @@ public abstract class BinaryMessage {
         HeaderProtocol.writeNumber(buffer, sz, value);
     }
 
+    /**
+     * Write a key field copied directly from a region of another buffer,
+     * avoiding an intermediate byte array.
+     * @implNote Does not modify the source buffer read or write index
+     * @param src Buffer holding the key bytes
+     * @param index Static offset into src of the first key byte
+     * @param length Number of key bytes
+     */
+    public void key(ByteBuf src, int index, int length) {
+        if (length == 0)
+            throw new IllegalArgumentException("Key must be non-zero length");
+
+        ensureCapacity(HeaderProtocol.SZ_KEY_LEN + length);
+
+        HeaderProtocol.writeNumber(buffer, HeaderProtocol.SZ_KEY_LEN, length);
+        buffer.writeBytes(src, index, length);
+    }
+
     public void key(int key) {
         this.key(key, Integer.BYTES);
     }
@@ -191,7 +317,12 @@ public abstract class BinaryMessage {
         if (key.length() == 0)
             throw new IllegalArgumentException("Key must be non-zero length");
 
-        this.key(key.getBytes());
+        // Encoded straight into the buffer, without an intermediate byte array
+        int len = ByteBufUtil.utf8Bytes(key);
+        ensureCapacity(HeaderProtocol.SZ_KEY_LEN + len);
+
+        HeaderProtocol.writeNumber(buffer, HeaderProtocol.SZ_KEY_LEN, len);
+        ByteBufUtil.writeUtf8(buffer, key);
     }
 
     /**
@@ -228,24 +359,36 @@ public abstract class BinaryMessage {
     }
 
     public byte[] valueAsBytes() {
-        int len = this.dataLen(HeaderProtocol.SZ_VALUE_LEN);
-
-        if (len < 0)
-            throw new IllegalStateException("Value length field cannot have be negative");
+        int len = this.readValueLen();
 
         if (len == 0) // item present but empty
             return EMPTY_BYTES;
 
-        if (buffer.readableBytes() < len)
-            throw new IllegalStateException("Less readable bytes in buffer than indicated length in value data");
-
         return HeaderProtocol.readBytes(buffer, len);
     }
 
-    public String valueAsString() {
-        byte[] value = this.valueAsBytes();
+    /**
+     * Read the next value as a view of the underlying buffer, without copying its bytes.
+     * @implNote Advances the reader index past the value. The slice is not retained, so
+     * is only valid until this message is released
+     * @return slice whose readable bytes are the value data, empty if the value is empty
+     */
+    public ByteBuf valueAsSlice() {
+        return buffer.readSlice(this.readValueLen());
+    }
 
-        return value != null ? new String(value) : null;
+    /**
+     * Read the next value as a retained view of the underlying buffer, which
+     * may outlive this message.
+     * @implNote Advances the reader index past the value. Caller must release the slice
+     * @return retained slice whose readable bytes are the value data
+     */
+    public ByteBuf valueAsRetainedSlice() {
+        return buffer.readRetainedSlice(this.readValueLen());
+    }
+
+    public String valueAsString() {
+        return buffer.readCharSequence(this.readValueLen(), StandardCharsets.UTF_8).toString();
     }
 
     public byte valueAsByte() {
@@ -303,7 +446,11 @@ public abstract class BinaryMessage {
         if (value == null)
             throw new NullPointerException("Value cannot be null");
 
-        this.value(value.getBytes());
+        int len = ByteBufUtil.utf8Bytes(value);
+        ensureCapacity(HeaderProtocol.SZ_VALUE_LEN + len);
+
+        HeaderProtocol.writeNumber(buffer, HeaderProtocol.SZ_VALUE_LEN, len);
+        ByteBufUtil.writeUtf8(buffer, value);
     }
 
     public void value(byte[] value) {
@@ -313,6 +460,21 @@ public abstract class BinaryMessage {
         HeaderProtocol.writeBytes(buffer, value);
     }
 
+    /**
+     * Write a value field copied directly from a region of another buffer,
+     * avoiding an intermediate byte array.
+     * @implNote Does not modify the source buffer read or write index
+     * @param src Buffer holding the value bytes
+     * @param index Static offset into src of the first value byte
+     * @param length Number of value bytes
+     */
+    public void value(ByteBuf src, int index, int length) {
+        ensureCapacity(HeaderProtocol.SZ_VALUE_LEN + length);
+
+        HeaderProtocol.writeNumber(buffer, HeaderProtocol.SZ_VALUE_LEN, length);
+        buffer.writeBytes(src, index, length);
+    }
+
     public void value(long value, int sz) {
         ensureCapacity(HeaderProtocol.SZ_VALUE_LEN + sz);
 
@@ -340,6 +502,23 @@ public abstract class BinaryMessage {
         this.value(value, Long.BYTES);
     }
 
+    /**
+     * Set the minimum data section length which is compressed by {@link #end()},
+     * when a codec is selected in the compression header
+     * @param compressionThreshold Length in bytes, defaults to {@link Compression#DEFAULT_THRESHOLD}
+     */
+    public void compressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Finish the message for writing, setting the total length header. If a codec was
+     * selected in the compression header, the data section is compressed when it is
+     * at least the compression threshold and shrinks.
+     * @implNote Compression replaces the underlying buffer, so any earlier reference
+     * to {@link #buffer()} must not be used after this call
+     * @return Buffer holding the whole message frame
+     */
     public ByteBuf end() {
         buffer.readerIndex(0);
 
@@ -348,6 +527,13 @@ public abstract class BinaryMessage {
         if (buffer.writerIndex() < startOfData)
             this.resetWriteIndex();
 
+        ByteBuf compressed = Compression.compress(buffer, startOfData, compressionThreshold, alloc);
+        if (compressed != null) {
+            ByteBuf oldBuffer = buffer;
+            buffer = compressed;
+            oldBuffer.release();
+        }
+
         HeaderProtocol.setTotalLen(buffer);
 
         return buffer;
@@ -5,11 +5,24 @@ import io.netty.buffer.ByteBuf;
 
 public class RequestMessage extends BinaryMessage {
 
+    /**
+     * Create a new request in a pooled buffer presized for its data, so building it
+     * never reallocates when the hint is exact
+     * @param dataSizeHint Expected encoded size of all key and value fields, see
+     *                     {@link #keyFieldLength(int)} and {@link #valueFieldLength(int)}
+     */
+    public RequestMessage(int dataSizeHint) {
+        this(alloc.directBuffer(RequestProtocol.START_OF_DATA + Math.max(dataSizeHint, 0)));
+    }
+
     public RequestMessage(ByteBuf buffer) {
         super(buffer, RequestProtocol.START_OF_DATA);
 
-        if (buffer.writerIndex() < this.startOfData)
+        // Pooled buffers may hold a stale header, which a new message must not inherit
+        if (buffer.writerIndex() < this.startOfData) {
+            buffer.setZero(0, this.startOfData);
             this.resetWriteIndex();
+        }
         this.resetReadIndex();
     }
 
@@ -37,4 +50,12 @@ public class RequestMessage extends BinaryMessage {
         RequestProtocol.setCount(buffer, count);
     }
 
+    public int requestId() {
+        return RequestProtocol.getRequestId(buffer);
+    }
+
+    public void requestId(int requestId) {
+        RequestProtocol.setRequestId(buffer, requestId);
+    }
+
 }
\ No newline at end of file
@@ -28,8 +28,17 @@ public class ResponseMessage extends BinaryMessage {
     }
 
     public ResponseMessage() {
-        this(alloc.buffer(HeaderProtocol.HDR_END_OFFSET * 4));
+        this(HeaderProtocol.HDR_END_OFFSET * 3);
+    }
+
+    /**
+     * Create a new response in a pooled buffer presized for its data
+     * @param dataSizeHint Expected encoded size of all entry fields
+     */
+    public ResponseMessage(int dataSizeHint) {
+        this(alloc.directBuffer(ResponseProtocol.START_OF_DATA + Math.max(dataSizeHint, 0)));
 
+        buffer.setZero(0, ResponseProtocol.START_OF_DATA);
         buffer.setIndex(ResponseProtocol.START_OF_DATA, ResponseProtocol.START_OF_DATA);
         this.status(ResponseProtocol.STATUS_OK);
     }
@@ -64,6 +73,57 @@ public class ResponseMessage extends BinaryMessage {
         return ResponseProtocol.getCount(buffer);
     }
 
+    /**
+     * @return The request id echoed back from the originating request, which
+     * is preserved when a response reuses the request buffer
+     */
+    public int requestId() {
+        return ResponseProtocol.getRequestId(buffer);
+    }
+
+    public ResponseMessage requestId(int requestId) {
+        ResponseProtocol.setRequestId(buffer, requestId);
+
+        return this;
+    }
+
+    /**
+     * Append the status of the next entry of a batch command response.
+     * @param status Entry status, one of the ResponseProtocol.STATUS_* values
+     * @return Static buffer offset the status was written to, for a later {@link #entryStatus(int, int)}
+     */
+    public int entryStatus(int status) {
+        ensureCapacity(ResponseProtocol.SZ_ENTRY_STATUS);
+
+        int index = buffer.writerIndex();
+        HeaderProtocol.writeNumber(buffer, ResponseProtocol.SZ_ENTRY_STATUS, status);
+
+        return index;
+    }
+
+    /**
+     * Overwrite a previously appended entry status
+     * @implNote Does not modify the buffer write index
+     * @param index Static buffer offset returned by {@link #entryStatus(int)}
+     * @param status Entry status
+     */
+    public void entryStatus(int index, int status) {
+        HeaderProtocol.setInt(buffer, index, ResponseProtocol.SZ_ENTRY_STATUS, status);
+    }
+
+    /**
+     * Read the status of the next entry of a batch command response. For a
+     * {@link ResponseProtocol#STATUS_OK} MGET entry, its value follows.
+     * @implNote Advances the reader index past the status
+     * @return Entry status
+     */
+    public int readEntryStatus() {
+        if (buffer.readerIndex() < startOfData)
+            buffer.readerIndex(startOfData);
+
+        return (int) HeaderProtocol.readNumber(buffer, ResponseProtocol.SZ_ENTRY_STATUS);
+    }
+
     /**
      * Convenience method for returning a quick response
      * which contains only status and count fields, which will
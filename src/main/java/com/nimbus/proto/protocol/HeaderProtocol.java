@@ -1,5 +1,6 @@
 package com.nimbus.proto.protocol;
 
+import com.nimbus.trace.Trace;
 import io.netty.buffer.ByteBuf;
 
 public class HeaderProtocol {
@@ -42,7 +43,8 @@ public class HeaderProtocol {
     public static final HeaderEntry HDR_COMPRESSION = new HeaderEntry(HDR_MAJOR.offsetEnd(), Byte.BYTES);
     public static final HeaderEntry HDR_COUNT = new HeaderEntry(HDR_COMPRESSION.offsetEnd(), Short.BYTES);
     public static final HeaderEntry HDR_AUTH = new HeaderEntry(HDR_COUNT.offsetEnd(), Byte.BYTES * MAX_AUTH_LEN);
-    public static final HeaderEntry HDR_RESERVED = new HeaderEntry(HDR_AUTH.offsetEnd(), 16  - HDR_AUTH.offsetEnd());
+    public static final HeaderEntry HDR_REQUEST_ID = new HeaderEntry(HDR_AUTH.offsetEnd(), Integer.BYTES);
+    public static final HeaderEntry HDR_RESERVED = new HeaderEntry(HDR_REQUEST_ID.offsetEnd(), 16  - HDR_REQUEST_ID.offsetEnd());
 
     public static void preintDebugHeaderLayout() {
         System.out.print("Total Sz (" + HDR_TOTAL_LEN.sizeBytes() + " bytes) offsets "
@@ -55,6 +57,8 @@ public class HeaderProtocol {
                 + HDR_COUNT.offsetStart() + " -> " + HDR_COUNT.offsetEnd() + "\t/\t");
         System.out.print("Auth (" + HDR_AUTH.sizeBytes() + " bytes) offsets "
                 + HDR_AUTH.offsetStart() + " -> " + HDR_AUTH.offsetEnd() + "\t/\t");
+        System.out.print("Request Id (" + HDR_REQUEST_ID.sizeBytes() + " bytes) offsets "
+                + HDR_REQUEST_ID.offsetStart() + " -> " + HDR_REQUEST_ID.offsetEnd() + "\t/\t");
         System.out.println("Reserved (" + HDR_RESERVED.sizeBytes() + " bytes) offsets "
                 + HDR_RESERVED.offsetStart() + " -> " + HDR_RESERVED.offsetEnd());
     }
@@ -111,7 +115,9 @@ public class HeaderProtocol {
      * @param value Value
      */
     public static void writeNumber(ByteBuf buffer, int szBytes, long value) {
-        System.out.println("Writing " + szBytes + " bytes of " + value + " from idx " + buffer.writerIndex());
+        if (Trace.ENABLED)
+            Trace.event("proto", "Writing " + szBytes + " bytes of " + value + " from idx " + buffer.writerIndex());
+
         switch (szBytes) {
             case 1 -> buffer.writeByte((byte) value);
             case 2 -> buffer.writeShort((short) value);
@@ -175,7 +181,9 @@ public class HeaderProtocol {
      * @param value Byte array value to write
      */
     public static void writeBytes(ByteBuf buffer, byte[] value) {
-        System.out.println("Writing " + value.length + " bytes to idx " + buffer.writerIndex());
+        if (Trace.ENABLED)
+            Trace.event("proto", "Writing " + value.length + " bytes to idx " + buffer.writerIndex());
+
         buffer.writeBytes(value);
     }
 
@@ -240,6 +248,7 @@ public class HeaderProtocol {
      * Set the header flag {@link #HDR_COMPRESSION} indicating payload compression is present.
      * 1 indicates default compression method, higher values reserved for additional implementations.
      * @see {@link #HDR_COMPRESSION}
+     * @see com.nimbus.proto.compression.Compression
      * @implNote Does not modify the buffer read or write index
      * @param buffer Buffer to write to
      * @param compression Byte compression value indicator. Nonzero indicates compression.
@@ -305,4 +314,28 @@ public class HeaderProtocol {
         return getBytes(buffer, HDR_AUTH.offsetStart(), HDR_AUTH.sizeBytes());
     }
 
-}
\ No newline at end of file
+    /**
+     * Set the request id header field, used to match pipelined responses to their
+     * originating request on a shared connection. Responses which reuse the request
+     * buffer echo this value back unchanged.
+     * @see {@link #HDR_REQUEST_ID}
+     * @implNote Does not modify the buffer read or write index
+     * @param buffer Buffer to write to
+     * @param requestId Request id value
+     */
+    public static void setRequestId(ByteBuf buffer, int requestId) {
+        setInt(buffer, HDR_REQUEST_ID.offsetStart(), HDR_REQUEST_ID.sizeBytes(), requestId);
+    }
+
+    /**
+     * Get the request id header field value.
+     * @see {@link #HDR_REQUEST_ID}
+     * @implNote Does not modify the buffer read or write index
+     * @param buffer Buffer to read from
+     * @return request id value present in header
+     */
+    public static int getRequestId(ByteBuf buffer) {
+        return (int) getNumber(buffer, HDR_REQUEST_ID.offsetStart(), HDR_REQUEST_ID.sizeBytes());
+    }
+
+}
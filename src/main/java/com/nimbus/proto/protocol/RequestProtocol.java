@@ -4,13 +4,83 @@ import io.netty.buffer.ByteBuf;
 
 public class RequestProtocol extends HeaderProtocol {
 
+    /*
+     * SET may carry a trailing 8 byte value field after its value, holding a time to live in
+     * milliseconds greater than zero, after which the key expires. Without it the key never expires.
+     */
     public static final int CMD_SET = 1;
     public static final int CMD_GET = 2;
     public static final int CMD_DEL = 3;
 
+    /*
+     * Batch commands carry {@link HeaderProtocol#HDR_COUNT} entries in a single frame, being
+     * count keys for MGET and MDEL, or count key then value pairs for MSET. Responses carry
+     * the same count of entries in request order, each a {@link ResponseProtocol#SZ_ENTRY_STATUS}
+     * status followed, for a found MGET key only, by its value.
+     */
+    public static final int CMD_MGET = 4;
+    public static final int CMD_MSET = 5;
+    public static final int CMD_MDEL = 6;
+
+    /*
+     * Sent by a client with no entries to subscribe its connection to invalidations. The server
+     * then pushes frames with this command in the major field and a request id of 0, carrying
+     * count keys written by any other connection, so near caches can drop them.
+     */
+    public static final int CMD_INVALIDATE = 7;
+
+    /*
+     * EXPIRE carries a key then an 8 byte value field holding a time to live in milliseconds,
+     * or 0 to remove any expiry, answered as key unknown if the key does not exist. TTL carries
+     * a key and is answered with an 8 byte value field holding the milliseconds the key has left
+     * to live, or -1 if it never expires.
+     */
+    public static final int CMD_EXPIRE = 8;
+    public static final int CMD_TTL = 9;
+
     // COMMANDS ABOVE 100 ARE REPLICATION SPECIFIC
     public static final int REPL_CMD_ECHO = 100;
 
+    /*
+     * Persistence and replication records of writes to expiring keys, carrying an absolute expiry
+     * in epoch millis rather than a time to live, so applying them later expires keys at the
+     * original time. SET_EXPIRE_AT carries a key, value then 8 byte expiry value field, and
+     * EXPIRE_AT a key then 8 byte expiry value field, 0 to remove any expiry.
+     */
+    public static final int REPL_CMD_SET_EXPIRE_AT = 101;
+    public static final int REPL_CMD_EXPIRE_AT = 102;
+
+    /*
+     * Replication over a connection a replica opens to its primary. The replica sends SYNC with
+     * two 8 byte value fields, the replication id and stream offset it has applied up to, and
+     * the primary answers with a SYNC frame carrying its replication id and the offset streaming
+     * resumes from. A count of 0 continues from the replica's offset, while a count of 1 means
+     * the replica must clear its keyspace, which is then sent as SNAPSHOT frames, ending with
+     * one of count 0.
+     *
+     * SNAPSHOT and STREAM frames carry a single value field of concatenated write records, as
+     * recorded in the append log. Records of a SNAPSHOT frame are whole and counted, while a
+     * STREAM frame is first given an 8 byte value field of the stream offset of its first byte,
+     * and may split records across frames. Replicas periodically send ACK with an 8 byte value
+     * field of the offset they applied, and no frame is ever answered but SYNC.
+     */
+    public static final int REPL_CMD_SYNC = 103;
+    public static final int REPL_CMD_SNAPSHOT = 104;
+    public static final int REPL_CMD_STREAM = 105;
+    public static final int REPL_CMD_ACK = 106;
+
+    /*
+     * Bucket migration, sent by the node giving up a range of buckets to the node taking them
+     * over. Carries a single value field of concatenated whole write records, counted, as in a
+     * SNAPSHOT frame. The receiving node applies them in order as ordinary writes, so they are
+     * logged and replicated there, and answers with status OK and the count of records applied,
+     * or STORAGE_FULL once one is rejected, leaving the rest unapplied. Like the other replication
+     * commands it is only served by a node with replication enabled. The protocol has no
+     * authentication, so any connection reaching such a node is trusted to send it, just as any
+     * may SYNC a copy of the keyspace or write to it; nodes are expected on a private network.
+     */
+    public static final int REPL_CMD_MIGRATE = 107;
+
     /**
      * Start of request payload data. Currently immediately after
      * the shared header. Perhaps in the future we will reserve space
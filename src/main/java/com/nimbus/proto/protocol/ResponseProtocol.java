@@ -7,6 +7,18 @@ public class ResponseProtocol extends HeaderProtocol {
     public static final int STATUS_OK = 0x01;
     public static final int STATUS_KEY_UNKNOWN = 0x02;
     public static final int STATUS_INVALID_REQ = 0x03;
+    public static final int STATUS_STORAGE_FULL = 0x04;
+
+    /**
+     * Write refused as the key's bucket is moving or moved to another node, so the client
+     * should refresh its bucket map and retry there
+     */
+    public static final int STATUS_MOVED = 0x05;
+
+    /**
+     * Size of the per entry status field preceding each entry of a batch command response
+     */
+    public static final int SZ_ENTRY_STATUS = Byte.BYTES;
 
     /**
      * Static offset into buffer where response payload data begins,
@@ -0,0 +1,515 @@
+package com.nimbus.replication;
+
+import com.nimbus.net.client.SuperTcpClient;
+import com.nimbus.persistence.LoggedStorage;
+import com.nimbus.persistence.WriteRecord;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.HeaderProtocol;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import com.nimbus.routing.BucketMap;
+import com.nimbus.routing.HashConstants;
+import com.nimbus.storage.Storage;
+import com.nimbus.trace.Trace;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Moves a range of {@link BucketMap} buckets from this node to another while both keep serving
+ * traffic, built by {@link ReplicationSource#migrate}. Entries are sent as batches of write
+ * records in {@link RequestProtocol#REPL_CMD_MIGRATE} requests, which the target applies as
+ * ordinary writes it logs and replicates. Copied entries are distinct keys, so their batches are
+ * sent in parallel, while forwarded writes are sent one batch at a time once the previous is
+ * applied, as batches may take different connections and writes to a key must apply in turn.
+ * <p>
+ * A migration runs in four steps:
+ * <ol>
+ * <li>Copy: live entries of the range are scanned and sent, without blocking writes. Every
+ * write to the range recorded in the {@link ReplicationBacklog} from just before the scan is
+ * then forwarded, so writes racing the scan converge as they do for a full replica sync.
+ * {@link #caughtUp()} completes once the forwarding has reached the end of the backlog.</li>
+ * <li>{@link #fence()}: this node stops applying writes to the range, answering them with
+ * {@link ResponseProtocol#STATUS_MOVED} so clients refresh their map, and the writes it already
+ * applied are forwarded. Writes to the range are refused until the map flips.</li>
+ * <li>Flip: once fenced, the coordinator publishes a bucket map with
+ * {@link BucketMap#withOwner(int, int, com.nimbus.net.Node) the range owned by the target}.
+ * Flipping earlier would let a forwarded write land on the target after a newer direct one.</li>
+ * <li>{@link #finish()}: once every client routes by the new map, the range is deleted here and
+ * writes to it are accepted again. Writes to the range arriving here after that are lost.</li>
+ * </ol>
+ * A failed migration leaves ownership unchanged and the target holding a partial copy, which
+ * another migration of the same range overwrites.
+ */
+public class BucketMigration implements AutoCloseable {
+
+    /**
+     * Most record bytes sent in one request
+     */
+    public static final int MAX_BATCH_BYTES = 256 * 1024;
+
+    /**
+     * Copied batches awaiting acknowledgement at once, bounding memory when the target is slow
+     */
+    public static final int MAX_BATCHES_IN_FLIGHT = 8;
+
+    public static final int REQUEST_TIMEOUT_MILLIS = 30_000;
+
+    private static final int RECORDS_INDEX = RequestProtocol.START_OF_DATA;
+
+    private final LoggedStorage storage;
+    private final ReplicationBacklog backlog;
+    private final SuperTcpClient target;
+    private final int fromBucket;
+    private final int toBucket;
+    private final Consumer<BucketMigration> onClose;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new DefaultThreadFactory("nimbus-migration", true));
+    private final Semaphore window = new Semaphore(MAX_BATCHES_IN_FLIGHT);
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final CompletableFuture<Void> caughtUp = new CompletableFuture<>();
+    private final CompletableFuture<Void> fenced = new CompletableFuture<>();
+    private final CompletableFuture<Void> finished = new CompletableFuture<>();
+    private final AtomicLong recordsSent = new AtomicLong();
+
+    private volatile boolean forwarding;
+    private volatile boolean aborted;
+    private volatile long forwarded;
+
+    /**
+     * Owned by the executor thread
+     */
+    private final ByteBuf scratch = Unpooled.directBuffer(MAX_BATCH_BYTES);
+    private RequestMessage batch;
+    private int batchRecords;
+    private boolean ordered;
+
+    /**
+     * @param storage Storage served by this node, fenced while the range moves, so deleting the
+     *                range once moved is logged
+     * @param target Client of the node taking over the range, closed with the migration
+     * @param onClose Called once the migration ends, however it ends
+     */
+    BucketMigration(LoggedStorage storage, ReplicationBacklog backlog, SuperTcpClient target,
+                    int fromBucket, int toBucket, Consumer<BucketMigration> onClose) {
+        this.storage = storage;
+        this.backlog = backlog;
+        this.target = target;
+        this.fromBucket = fromBucket;
+        this.toBucket = toBucket;
+        this.onClose = onClose;
+    }
+
+    void start() {
+        executor.execute(this::copy);
+    }
+
+    public int fromBucket() {
+        return fromBucket;
+    }
+
+    public int toBucket() {
+        return toBucket;
+    }
+
+    /**
+     * @return host:port of the node taking over the range, which {@link SuperTcpClient#host()}
+     *         already holds joined
+     */
+    public String target() {
+        return target.host();
+    }
+
+    /**
+     * @return Future completed once the range is copied and forwarding has reached the end of
+     * the backlog, after which the range may be {@link #fence() fenced}, or failed if the
+     * migration failed
+     */
+    public CompletableFuture<Void> caughtUp() {
+        return caughtUp;
+    }
+
+    /**
+     * @return Backlog bytes recorded here which are not yet examined for forwarding, none once
+     * fenced as no more are recorded for the range
+     */
+    public long lag() {
+        if (fenced.isDone())
+            return 0;
+
+        return forwarding ? backlog.offset() - forwarded : backlog.offset();
+    }
+
+    /**
+     * @return Entries copied and writes forwarded to the target so far
+     */
+    public long recordsSent() {
+        return recordsSent.get();
+    }
+
+    /**
+     * Copy every live entry of the range, then start forwarding from the backlog offset taken
+     * before the scan
+     */
+    private void copy() {
+        try {
+            long from = backlog.offset();
+
+            if (Trace.ENABLED)
+                Trace.event("migration", "Copying buckets " + fromBucket + " to " + toBucket + " to " + target());
+
+            storage.scan(fromBucket, toBucket, this::copyEntry);
+            flush();
+            awaitAcknowledged();
+
+            ordered = true;
+            forwarded = from;
+            forwarding = true;
+            drain();
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void copyEntry(long hash, ByteBuf key, ByteBuf value, long expireAt) {
+        if (aborted)
+            throw new IllegalStateException("Migration closed");
+
+        boolean withExpiry = expireAt != Storage.NO_EXPIRY;
+        int length = WriteRecord.length(key, value, withExpiry);
+
+        ByteBuf buffer = reserve(length);
+        int index = buffer.writerIndex();
+        WriteRecord.encode(buffer.slice(index, length).clear(), WriteRecord.setCommand(expireAt), key, value,
+                withExpiry, expireAt);
+        buffer.writerIndex(index + length);
+
+        added();
+    }
+
+    /**
+     * Called by the source after every write recorded in the backlog
+     */
+    void onAppend() {
+        if (forwarding && !aborted && drainScheduled.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drainSafely);
+            } catch (RejectedExecutionException e) {
+                // Closed meanwhile, and writers must never fail for it
+            }
+        }
+    }
+
+    private void drainSafely() {
+        try {
+            drain();
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        if (!forwarding || aborted)
+            return;
+
+        forwardUpTo(backlog.offset());
+        flush();
+
+        if (!caughtUp.isDone()) {
+            awaitAcknowledged();
+            caughtUp.complete(null);
+
+            if (Trace.ENABLED)
+                Trace.event("migration", "Caught up forwarding buckets " + fromBucket + " to " + toBucket);
+        }
+    }
+
+    /**
+     * Forward records of the range from the forwarded offset up to an offset ending a record
+     */
+    private void forwardUpTo(long end) {
+        while (forwarded < end) {
+            scratch.clear();
+            int copied = backlog.read(forwarded, scratch, (int) Math.min(end - forwarded, MAX_BATCH_BYTES));
+
+            // A record larger than a batch is read on its own
+            if (copied >= Integer.BYTES && scratch.getInt(0) > copied) {
+                int length = scratch.getInt(0);
+                scratch.clear().ensureWritable(length);
+                copied = backlog.read(forwarded, scratch, length);
+            }
+            if (copied < 0)
+                throw new IllegalStateException("Migration fell behind the replication backlog");
+
+            int consumed = 0;
+            while (scratch.readableBytes() >= Integer.BYTES) {
+                int index = scratch.readerIndex();
+                int length = scratch.getInt(index);
+                if (length > scratch.readableBytes())
+                    break;
+
+                int keyLength = scratch.getUnsignedShort(index + RequestProtocol.START_OF_DATA);
+                long hash = HashConstants.hash(scratch, index + RequestProtocol.START_OF_DATA
+                        + HeaderProtocol.SZ_KEY_LEN, keyLength);
+                int bucket = BucketMap.bucket(hash);
+                if (bucket >= fromBucket && bucket < toBucket) {
+                    reserve(length).writeBytes(scratch, index, length);
+                    added();
+                }
+
+                scratch.skipBytes(length);
+                consumed += length;
+            }
+
+            if (consumed == 0)
+                throw new IllegalStateException("Malformed record at backlog offset " + forwarded);
+
+            forwarded += consumed;
+        }
+    }
+
+    /**
+     * @return Buffer of the current batch with room for a record, sending the batch first if full
+     */
+    private ByteBuf reserve(int length) {
+        if (batch != null && batch.buffer().writerIndex() - RECORDS_INDEX + length > MAX_BATCH_BYTES)
+            flush();
+
+        if (batch == null) {
+            batch = new RequestMessage(HeaderProtocol.SZ_VALUE_LEN + Math.max(length, MAX_BATCH_BYTES));
+            batch.command(RequestProtocol.REPL_CMD_MIGRATE);
+            batch.buffer().writeInt(0);
+        }
+
+        ByteBuf buffer = batch.buffer();
+        buffer.ensureWritable(length);
+
+        return buffer;
+    }
+
+    private void added() {
+        batchRecords++;
+        recordsSent.incrementAndGet();
+
+        // The header count is read signed
+        if (batchRecords == Short.MAX_VALUE)
+            flush();
+    }
+
+    /**
+     * Send the current batch once a slot of the window frees, or once applied if forwarding,
+     * failing the migration if the target does not apply every record
+     */
+    private void flush() {
+        if (batch == null)
+            return;
+
+        RequestMessage request = batch;
+        int records = batchRecords;
+        batch = null;
+        batchRecords = 0;
+
+        ByteBuf buffer = request.buffer();
+        buffer.setInt(RECORDS_INDEX, buffer.writerIndex() - RECORDS_INDEX - HeaderProtocol.SZ_VALUE_LEN);
+        request.count(records);
+
+        try {
+            window.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.release();
+            throw new IllegalStateException("Migration interrupted", e);
+        }
+
+        if (aborted) {
+            window.release();
+            request.release();
+            throw new IllegalStateException("Migration closed");
+        }
+
+        CompletableFuture<ByteBuf> response;
+        try {
+            response = target.send(request.end());
+        } catch (RuntimeException e) {
+            response = CompletableFuture.failedFuture(e);
+        }
+
+        response.whenComplete((reply, cause) -> {
+            // Only retained once a connection is acquired, so held until the request completes
+            request.release();
+            window.release();
+
+            if (cause != null) {
+                fail(cause);
+                return;
+            }
+
+            ResponseMessage message = new ResponseMessage(reply);
+            try {
+                if (message.status() != ResponseProtocol.STATUS_OK || message.count() != records)
+                    fail(new IllegalStateException("Target " + target() + " applied " + message.count() + " of "
+                            + records + " records with status " + message.status()));
+            } finally {
+                message.release();
+            }
+        });
+
+        if (ordered)
+            awaitAcknowledged();
+    }
+
+    /**
+     * Wait for every batch sent to be acknowledged
+     */
+    private void awaitAcknowledged() {
+        try {
+            window.acquire(MAX_BATCHES_IN_FLIGHT);
+            window.release(MAX_BATCHES_IN_FLIGHT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Migration interrupted", e);
+        }
+
+        if (aborted)
+            throw new IllegalStateException("Migration failed");
+    }
+
+    /**
+     * Refuse writes to the range here from now on, then forward the writes left, to be called
+     * once {@link #caughtUp() caught up}. Refused writes are answered with
+     * {@link ResponseProtocol#STATUS_MOVED}, and stay refused until {@link #finish()} or the
+     * migration fails.
+     * @return Future completed once the target holds every write this node applied to the range,
+     * after which ownership may be flipped, or failed if the migration failed or had not yet
+     * caught up
+     */
+    public CompletableFuture<Void> fence() {
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!caughtUp.isDone() || caughtUp.isCompletedExceptionally())
+                        throw new IllegalStateException("Migration has not caught up");
+
+                    // No write to the range is recorded once fenced, so the backlog offset
+                    // read after covers every one left to forward
+                    storage.fence(fromBucket, toBucket);
+                    forwarding = false;
+                    forwardUpTo(backlog.offset());
+                    flush();
+                    awaitAcknowledged();
+
+                    if (Trace.ENABLED)
+                        Trace.event("migration", "Fenced buckets " + fromBucket + " to " + toBucket);
+
+                    fenced.complete(null);
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Already closed, which failed the future
+        }
+
+        return fenced;
+    }
+
+    /**
+     * Delete the range here, to be called once {@link #fence() fenced} and every client routes
+     * the range to the target. The migration is closed once the future completes.
+     * @return Future completed once the target holds the range and this node no longer does,
+     * or failed if the migration failed or had not yet been fenced
+     */
+    public CompletableFuture<Void> finish() {
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!fenced.isDone() || fenced.isCompletedExceptionally())
+                        throw new IllegalStateException("Migration has not been fenced");
+
+                    // Forwarding has stopped, so these deletes stay on this node and its replicas
+                    storage.unfence(fromBucket, toBucket);
+                    storage.scan(fromBucket, toBucket, (hash, key, value, expireAt) -> storage.delete(key));
+
+                    if (Trace.ENABLED)
+                        Trace.event("migration", "Moved buckets " + fromBucket + " to " + toBucket + " to " + target());
+
+                    finished.complete(null);
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+
+                close();
+            });
+        } catch (RejectedExecutionException e) {
+            // Already closed, which failed the future
+        }
+
+        return finished;
+    }
+
+    private void fail(Throwable cause) {
+        aborted = true;
+
+        if (caughtUp.completeExceptionally(cause) | fenced.completeExceptionally(cause)
+                | finished.completeExceptionally(cause)) {
+            if (Trace.ENABLED)
+                Trace.error("migration", "Failed to move buckets " + fromBucket + " to " + toBucket, cause);
+        }
+
+        close();
+    }
+
+    /**
+     * Abandon the migration if still running, leaving ownership with this node, which accepts
+     * writes to the range again. Any step in progress stops at its next batch.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true))
+            return;
+
+        aborted = true;
+        caughtUp.completeExceptionally(new IllegalStateException("Migration closed"));
+        fenced.completeExceptionally(new IllegalStateException("Migration closed"));
+        finished.completeExceptionally(new IllegalStateException("Migration closed"));
+        storage.unfence(fromBucket, toBucket);
+        onClose.accept(this);
+
+        // Queued behind any running step, as only the executor touches batches, and the client
+        // cannot be closed from the event loop a failure may be reported on
+        executor.execute(() -> {
+            target.close();
+            scratch.release();
+            if (batch != null)
+                batch.release();
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Wait for the step in progress to stop after {@link #close()}, which takes at most the
+     * request timeout of a batch in flight
+     */
+    void awaitClosed() {
+        try {
+            executor.awaitTermination(REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
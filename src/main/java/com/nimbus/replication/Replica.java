@@ -0,0 +1,301 @@
+package com.nimbus.replication;
+
+import com.nimbus.net.ProtoResponseDecoder;
+import com.nimbus.net.client.ClientResources;
+import com.nimbus.persistence.WriteRecord;
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.HeaderProtocol;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.storage.Storage;
+import com.nimbus.trace.Trace;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replica side of asynchronous replication, keeping a storage engine in step with a primary
+ * {@link ReplicationSource} over one connection. Records streamed from the primary are applied
+ * on the connection event loop in stream order, and the offset applied up to is acknowledged
+ * every {@value #ACK_INTERVAL_MILLIS}ms.
+ * <p>
+ * When the connection drops, the replica reconnects and resumes from the offset it applied,
+ * which only needs a full copy of the keyspace if the primary restarted or its backlog no longer
+ * holds that offset. While a full copy loads the storage holds part of the keyspace, which
+ * {@link #isSynced()} reports. The stream id and offset of a full copy are only adopted once it
+ * completes, so a copy cut short is started over rather than resumed.
+ * <p>
+ * The storage should serve reads only, as writes made to it directly are not replicated and may
+ * be lost to the next full copy.
+ */
+public class Replica implements AutoCloseable {
+
+    public static final long ACK_INTERVAL_MILLIS = 1000;
+    public static final long RECONNECT_DELAY_MILLIS = 1000;
+
+    private final ClientResources resources;
+    private final Bootstrap bootstrap;
+    private final Storage storage;
+
+    private volatile long replicationId;
+    private volatile long offset;
+    private volatile boolean synced;
+    private volatile boolean closed;
+    private volatile Channel channel;
+
+    /**
+     * @param host Host of the primary
+     * @param port Server port of the primary
+     * @param storage Storage engine to apply the primary's writes to, not one which logs its writes
+     */
+    public Replica(ClientResources resources, String host, int port, Storage storage) {
+        this.resources = resources;
+        this.storage = storage;
+        this.bootstrap = new Bootstrap()
+                .group(resources.eventLoopGroup())
+                .channel(resources.transport().socketChannelClass())
+                .option(ChannelOption.ALLOCATOR, resources.allocator())
+                .option(ChannelOption.TCP_NODELAY, true)
+                .remoteAddress(new InetSocketAddress(host, port))
+                .handler(new ChannelInitializer<>() {
+                    @Override
+                    protected void initChannel(Channel ch) {
+                        ch.pipeline().addLast(new ProtoResponseDecoder(), new ReplicaHandler());
+                    }
+                });
+    }
+
+    /**
+     * Start connecting to the primary, retrying until connected or closed
+     */
+    public void start() {
+        connect();
+    }
+
+    private void connect() {
+        if (closed)
+            return;
+
+        bootstrap.connect().addListener(future -> {
+            if (!future.isSuccess()) {
+                if (Trace.ENABLED)
+                    Trace.error("replica", "Failed to connect to primary", future.cause());
+
+                scheduleReconnect();
+            }
+        });
+    }
+
+    private void scheduleReconnect() {
+        if (!closed)
+            resources.eventLoopGroup().schedule(this::connect, RECONNECT_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Id of the primary stream being replicated, 0 before the first sync completes and
+     *         while a full copy loads
+     */
+    public long replicationId() {
+        return replicationId;
+    }
+
+    /**
+     * @return Stream offset of the primary up to which records have been applied, 0 while a full
+     *         copy loads
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * @return true while connected and holding a full copy of the primary keyspace
+     */
+    public boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * Disconnect from the primary and stop reconnecting. The storage remains open.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        Channel current = channel;
+        if (current != null)
+            current.close().syncUninterruptibly();
+    }
+
+    /**
+     * Applies frames from the primary, one instance per connection
+     */
+    private final class ReplicaHandler extends ChannelInboundHandlerAdapter {
+
+        /**
+         * Stream bytes received after the last whole record applied
+         */
+        private ByteBuf pending;
+        private ScheduledFuture<?> ackTask;
+        /**
+         * Stream id and offset of the full copy loading, adopted once its last frame arrives
+         */
+        private boolean loading;
+        private long loadingId;
+        private long loadingFrom;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            channel = ctx.channel();
+            pending = ctx.alloc().buffer();
+
+            RequestMessage sync = new RequestMessage(BinaryMessage.valueFieldLength(Long.BYTES) * 2);
+            sync.command(RequestProtocol.REPL_CMD_SYNC);
+            sync.value(replicationId, Long.BYTES);
+            sync.value(offset, Long.BYTES);
+            ctx.writeAndFlush(sync.end());
+
+            ackTask = ctx.executor().scheduleAtFixedRate(() -> ack(ctx), ACK_INTERVAL_MILLIS,
+                    ACK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+            if (closed)
+                ctx.close();
+        }
+
+        private void ack(ChannelHandlerContext ctx) {
+            // Nothing of a full copy counts as applied until it completes
+            if (loading)
+                return;
+
+            RequestMessage ack = new RequestMessage(BinaryMessage.valueFieldLength(Long.BYTES));
+            ack.command(RequestProtocol.REPL_CMD_ACK);
+            ack.value(offset, Long.BYTES);
+            ctx.writeAndFlush(ack.end(), ctx.voidPromise());
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) {
+            RequestMessage frame = new RequestMessage((ByteBuf) msg);
+            try {
+                // Frames decoded after an error closed the connection must not be applied
+                if (!ctx.channel().isOpen())
+                    return;
+
+                switch (frame.command()) {
+                    case RequestProtocol.REPL_CMD_SYNC -> sync(frame);
+                    case RequestProtocol.REPL_CMD_SNAPSHOT -> snapshot(frame);
+                    case RequestProtocol.REPL_CMD_STREAM -> stream(frame);
+                    default -> throw new CorruptedFrameException("Unexpected replication command " + frame.command());
+                }
+            } finally {
+                frame.release();
+            }
+        }
+
+        private void sync(RequestMessage frame) {
+            long id = frame.valueAsLong();
+            long from = frame.valueAsLong();
+
+            if (frame.count() == 0) {
+                if (loading || id != replicationId || from != offset)
+                    throw new CorruptedFrameException("Primary resumed from offset " + from + " of stream " + id
+                            + " rather than " + offset + " of " + replicationId);
+
+                synced = true;
+            } else {
+                // Forgotten until the copy completes, so a reconnect part way through starts it over
+                synced = false;
+                replicationId = 0;
+                offset = 0;
+                storage.clear();
+                loading = true;
+                loadingId = id;
+                loadingFrom = from;
+            }
+
+            if (Trace.ENABLED)
+                Trace.event("replica", (synced ? "Resumed" : "Fully syncing") + " from offset " + from);
+        }
+
+        private void snapshot(RequestMessage frame) {
+            if (!loading)
+                throw new CorruptedFrameException("Snapshot frame outside of a full copy");
+
+            int records = frame.count();
+            if (records == 0) {
+                loading = false;
+                offset = loadingFrom;
+                replicationId = loadingId;
+                synced = true;
+                return;
+            }
+
+            ByteBuf data = frame.valueAsSlice();
+            for (int i = 0; i < records; i++) {
+                int length = data.getInt(data.readerIndex());
+                apply(data.readSlice(length));
+            }
+        }
+
+        private void stream(RequestMessage frame) {
+            if (loading)
+                throw new CorruptedFrameException("Stream frame before the full copy completed");
+
+            long from = frame.valueAsLong();
+            if (from != offset + pending.readableBytes())
+                throw new CorruptedFrameException("Stream frame from offset " + from + " does not follow "
+                        + (offset + pending.readableBytes()));
+
+            pending.writeBytes(frame.valueAsSlice());
+
+            // Frames may split records, so only whole records are applied and the rest kept
+            int header = HeaderProtocol.HDR_TOTAL_LEN.sizeBytes();
+            while (pending.readableBytes() >= header) {
+                int length = pending.getInt(pending.readerIndex());
+                if (pending.readableBytes() < length)
+                    break;
+
+                apply(pending.readSlice(length));
+                offset += length;
+            }
+
+            pending.discardSomeReadBytes();
+        }
+
+        private void apply(ByteBuf record) {
+            if (!WriteRecord.apply(new RequestMessage(record), storage))
+                throw new IllegalStateException("Replica storage rejected a record, its memory budget is exhausted");
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            synced = false;
+            if (ackTask != null)
+                ackTask.cancel(false);
+            if (pending != null)
+                pending.release();
+
+            if (Trace.ENABLED)
+                Trace.event("replica", "Disconnected from primary at offset " + offset);
+
+            scheduleReconnect();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (Trace.ENABLED)
+                Trace.error("replica", "Closing replication connection after error", cause);
+
+            ctx.close();
+        }
+    }
+
+}
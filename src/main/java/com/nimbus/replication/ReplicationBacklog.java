@@ -0,0 +1,157 @@
+package com.nimbus.replication;
+
+import com.nimbus.persistence.WriteLog;
+import com.nimbus.persistence.WriteRecord;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.storage.Storage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed size ring of the most recent {@link WriteRecord}s applied on a primary, which replicas
+ * stream from. Each byte appended is numbered by a stream offset which only grows, so a replica
+ * which reconnects resumes from the offset it applied up to, as long as the ring still holds
+ * it. Once overwritten, the replica must instead be sent a full copy of the keyspace.
+ * <p>
+ * Records are encoded once into a reusable staging buffer, then copied into the ring under a
+ * single lock, which bounds the memory of the backlog no matter how far replicas fall behind.
+ */
+public class ReplicationBacklog implements WriteLog, AutoCloseable {
+
+    public static final int DEFAULT_CAPACITY_BYTES = 16 * 1024 * 1024;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ByteBuf ring;
+    private final ByteBuf staging;
+    private final int capacity;
+    private long startOffset;
+    private volatile long offset;
+    private volatile Runnable appendListener;
+
+    /**
+     * @param capacityBytes Bytes of records retained for replicas to resume from
+     */
+    public ReplicationBacklog(int capacityBytes) {
+        if (capacityBytes < RequestProtocol.START_OF_DATA)
+            throw new IllegalArgumentException("Backlog of " + capacityBytes + " bytes cannot hold a record");
+
+        this.capacity = capacityBytes;
+        this.ring = Unpooled.directBuffer(capacityBytes, capacityBytes);
+        this.staging = Unpooled.directBuffer(1024);
+    }
+
+    /**
+     * @return Stream offset following the last record appended
+     */
+    public long offset() {
+        return offset;
+    }
+
+    /**
+     * @return Oldest stream offset still held, from which a replica may resume
+     */
+    public long startOffset() {
+        lock.lock();
+        try {
+            return startOffset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Set the single listener called after each append, outside of the backlog lock
+     */
+    void appendListener(Runnable listener) {
+        this.appendListener = listener;
+    }
+
+    @Override
+    public void appendSet(ByteBuf key, ByteBuf value, long expireAt) {
+        append(WriteRecord.setCommand(expireAt), key, value, expireAt != Storage.NO_EXPIRY, expireAt);
+    }
+
+    @Override
+    public void appendDelete(ByteBuf key) {
+        append(RequestProtocol.CMD_DEL, key, null, false, 0);
+    }
+
+    @Override
+    public void appendExpire(ByteBuf key, long expireAt) {
+        append(RequestProtocol.REPL_CMD_EXPIRE_AT, key, null, true, expireAt);
+    }
+
+    private void append(int command, ByteBuf key, ByteBuf value, boolean withExpiry, long expireAt) {
+        int length = WriteRecord.length(key, value, withExpiry);
+
+        lock.lock();
+        try {
+            staging.clear().ensureWritable(length);
+            ByteBuf record = WriteRecord.encode(staging.slice(0, length).clear(), command, key, value,
+                    withExpiry, expireAt);
+
+            // A record larger than the ring keeps only its tail, which no replica can resume from
+            int skip = Math.max(length - capacity, 0);
+            copyIn(offset + skip, record, skip, length - skip);
+
+            this.offset += length;
+            this.startOffset = Math.max(startOffset, offset - capacity);
+        } finally {
+            lock.unlock();
+        }
+
+        Runnable listener = appendListener;
+        if (listener != null)
+            listener.run();
+    }
+
+    private void copyIn(long at, ByteBuf src, int srcIndex, int length) {
+        int index = (int) (at % capacity);
+        int first = Math.min(length, capacity - index);
+
+        ring.setBytes(index, src, srcIndex, first);
+        if (first < length)
+            ring.setBytes(0, src, srcIndex + first, length - first);
+    }
+
+    /**
+     * Copy records from a stream offset, which may end part way through a record
+     * @param from Stream offset to copy from
+     * @param out Buffer to write to
+     * @param maxBytes Most bytes to copy
+     * @return Bytes copied, or -1 if the offset has already been overwritten
+     */
+    public int read(long from, ByteBuf out, int maxBytes) {
+        lock.lock();
+        try {
+            if (from < startOffset || from > offset)
+                return -1;
+
+            int length = (int) Math.min(maxBytes, offset - from);
+            int index = (int) (from % capacity);
+            int first = Math.min(length, capacity - index);
+
+            out.writeBytes(ring, index, first);
+            if (first < length)
+                out.writeBytes(ring, 0, length - first);
+
+            return length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            ring.release();
+            staging.release();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
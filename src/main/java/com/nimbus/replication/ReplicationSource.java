@@ -0,0 +1,417 @@
+package com.nimbus.replication;
+
+import com.nimbus.net.Node;
+import com.nimbus.net.client.ClientResources;
+import com.nimbus.net.client.SuperTcpClient;
+import com.nimbus.persistence.LoggedStorage;
+import com.nimbus.persistence.WriteRecord;
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.HeaderProtocol;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.routing.BucketMap;
+import com.nimbus.storage.Storage;
+import com.nimbus.trace.Trace;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.net.SocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Primary side of asynchronous replication. Every write applied on the primary is recorded in
+ * a {@link ReplicationBacklog}, and streamed from there to each replica connection which sent
+ * {@link RequestProtocol#REPL_CMD_SYNC}, in frames batching as many records as are pending.
+ * Writes are acknowledged to clients without waiting for replicas.
+ * <p>
+ * A replica reconnecting with this primary's replication id and an offset the backlog still
+ * holds resumes streaming from that offset. Otherwise it is sent a full copy of the keyspace,
+ * scanned on a dedicated thread without blocking writes, after which streaming resumes from
+ * the backlog offset taken before the scan. Records racing the scan may reach the replica
+ * twice, which converges as each sets or deletes a whole value with an absolute expiry.
+ * <p>
+ * Replicas acknowledge the offset they applied periodically, exposed through
+ * {@link #replicaOffsets()} to measure their lag.
+ * <p>
+ * The backlog also feeds {@link BucketMigration}s, which forward writes to buckets moving to
+ * another node.
+ */
+public class ReplicationSource implements AutoCloseable {
+
+    /**
+     * Most record bytes batched into one frame
+     */
+    public static final int MAX_FRAME_BYTES = 256 * 1024;
+
+    private final Storage storage;
+    private final ReplicationBacklog backlog;
+    private final long replicationId;
+    private final Map<Channel, Session> sessions = new ConcurrentHashMap<>();
+    private final Set<BucketMigration> migrations = ConcurrentHashMap.newKeySet();
+    private final ExecutorService snapshotExecutor = Executors.newCachedThreadPool(
+            new DefaultThreadFactory("nimbus-repl-snapshot", true));
+
+    public ReplicationSource(Storage storage) {
+        this(storage, ReplicationBacklog.DEFAULT_CAPACITY_BYTES);
+    }
+
+    /**
+     * @param storage Storage engine to copy to replicas needing the full keyspace
+     * @param backlogBytes Bytes of recent records kept for replicas to resume from
+     */
+    public ReplicationSource(Storage storage, int backlogBytes) {
+        this.storage = storage;
+        this.backlog = new ReplicationBacklog(backlogBytes);
+
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        this.replicationId = id;
+
+        backlog.appendListener(this::onAppend);
+    }
+
+    /**
+     * @return Backlog to record every write in, through a {@link com.nimbus.persistence.LoggedStorage}
+     */
+    public ReplicationBacklog backlog() {
+        return backlog;
+    }
+
+    /**
+     * @return Random id of this primary's stream, so replicas of a previous run resync in full
+     */
+    public long replicationId() {
+        return replicationId;
+    }
+
+    /**
+     * @return Stream offset each connected replica last acknowledged applying, by its address
+     */
+    public Map<SocketAddress, Long> replicaOffsets() {
+        Map<SocketAddress, Long> offsets = new HashMap<>();
+        for (Session session : sessions.values())
+            offsets.put(session.channel.remoteAddress(), session.acked);
+
+        return offsets;
+    }
+
+    /**
+     * Handle a replication request of a replica connection, on its event loop
+     * @return false if the request is not a replication command this source answers
+     */
+    public boolean handle(Channel channel, RequestMessage request) {
+        switch (request.command()) {
+            case RequestProtocol.REPL_CMD_SYNC -> sync(channel, request);
+            case RequestProtocol.REPL_CMD_ACK -> {
+                Session session = sessions.get(channel);
+                if (session != null)
+                    session.acked = request.valueAsLong();
+            }
+            default -> {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private void sync(Channel channel, RequestMessage request) {
+        long id = request.valueAsLong();
+        long offset = request.valueAsLong();
+
+        if (sessions.containsKey(channel)) {
+            channel.close();
+            return;
+        }
+
+        boolean partial = id == replicationId && offset >= backlog.startOffset() && offset <= backlog.offset();
+        long from = partial ? offset : backlog.offset();
+
+        Session session = new Session(channel, from);
+        sessions.put(channel, session);
+        channel.closeFuture().addListener(future -> sessions.remove(channel));
+        channel.pipeline().addLast(new WritabilityListener(session));
+
+        RequestMessage reply = new RequestMessage(BinaryMessage.valueFieldLength(Long.BYTES) * 2);
+        reply.command(RequestProtocol.REPL_CMD_SYNC);
+        reply.count(partial ? 0 : 1);
+        reply.value(replicationId, Long.BYTES);
+        reply.value(from, Long.BYTES);
+        channel.writeAndFlush(reply.end());
+
+        if (Trace.ENABLED)
+            Trace.event("replication", (partial ? "Resuming " : "Fully syncing ") + channel.remoteAddress()
+                    + " from offset " + from);
+
+        if (partial)
+            session.startStreaming();
+        else
+            snapshotExecutor.execute(() -> sendSnapshot(session));
+    }
+
+    /**
+     * Send every live entry as records, then start streaming once every frame is queued
+     */
+    private void sendSnapshot(Session session) {
+        SnapshotSender sender = new SnapshotSender(session.channel);
+        try {
+            storage.scan(sender::entry);
+            sender.finish();
+
+            session.channel.eventLoop().execute(session::startStreaming);
+        } catch (RuntimeException e) {
+            if (Trace.ENABLED)
+                Trace.error("replication", "Failed to send snapshot to " + session.channel.remoteAddress(), e);
+
+            sender.release();
+            session.channel.close();
+        }
+    }
+
+    /**
+     * Start moving a range of buckets to another node, copying and then forwarding every write
+     * to them until {@link BucketMigration#finish() finished}
+     * @param storage Storage served by this node, every write passing through it on its way to
+     *                being recorded in this source's backlog, so fencing it fences every write
+     * @param resources Resources of the client connecting to the target
+     * @param target Node taking over the buckets, which only accepts them if it has replication enabled too
+     * @param fromBucket First bucket to move, inclusive
+     * @param toBucket Last bucket to move, exclusive
+     * @throws IllegalStateException if a migration of an overlapping range is running
+     */
+    public BucketMigration migrate(LoggedStorage storage, ClientResources resources, Node target,
+                                   int fromBucket, int toBucket) {
+        Objects.checkFromToIndex(fromBucket, toBucket, BucketMap.BUCKET_COUNT);
+
+        SuperTcpClient client = new SuperTcpClient(resources, target.host(), target.port(), 1,
+                BucketMigration.MAX_BATCHES_IN_FLIGHT, BucketMigration.REQUEST_TIMEOUT_MILLIS, Map.of());
+
+        BucketMigration migration;
+        synchronized (migrations) {
+            for (BucketMigration running : migrations) {
+                if (fromBucket < running.toBucket() && running.fromBucket() < toBucket) {
+                    client.close();
+                    throw new IllegalStateException("Buckets " + running.fromBucket() + " to "
+                            + running.toBucket() + " are already moving to " + running.target());
+                }
+            }
+
+            migration = new BucketMigration(storage, backlog, client, fromBucket, toBucket, migrations::remove);
+            migrations.add(migration);
+        }
+
+        migration.start();
+
+        return migration;
+    }
+
+    private void onAppend() {
+        for (BucketMigration migration : migrations)
+            migration.onAppend();
+
+        if (sessions.isEmpty())
+            return;
+
+        for (Session session : sessions.values())
+            session.scheduleDrain();
+    }
+
+    /**
+     * Close every replica connection and release the backlog, once no more writes are applied
+     */
+    @Override
+    public void close() {
+        snapshotExecutor.shutdownNow();
+
+        // Waited for, as a migration still scanning would read the storage once closed
+        for (BucketMigration migration : migrations) {
+            migration.close();
+            migration.awaitClosed();
+        }
+
+        for (Session session : sessions.values())
+            session.channel.close().syncUninterruptibly();
+
+        backlog.close();
+    }
+
+    /**
+     * Streaming state of one replica connection
+     */
+    private final class Session {
+        private final Channel channel;
+        private final AtomicBoolean drainScheduled = new AtomicBoolean();
+        private volatile boolean streaming;
+        private volatile long acked;
+        private long sent;
+
+        Session(Channel channel, long from) {
+            this.channel = channel;
+            this.sent = from;
+            this.acked = from;
+        }
+
+        void startStreaming() {
+            this.streaming = true;
+            drain();
+        }
+
+        /**
+         * Drain on the channel event loop, once however many appends race to schedule it
+         */
+        void scheduleDrain() {
+            if (streaming && drainScheduled.compareAndSet(false, true))
+                channel.eventLoop().execute(this::drain);
+        }
+
+        /**
+         * Write pending records while the connection accepts more, resuming once it is writable
+         */
+        private void drain() {
+            drainScheduled.set(false);
+
+            boolean written = false;
+            long end;
+            while ((end = backlog.offset()) > sent && channel.isWritable()) {
+                int length = (int) Math.min(end - sent, MAX_FRAME_BYTES);
+
+                RequestMessage frame = new RequestMessage(BinaryMessage.valueFieldLength(Long.BYTES)
+                        + BinaryMessage.valueFieldLength(length));
+                frame.command(RequestProtocol.REPL_CMD_STREAM);
+                frame.value(sent, Long.BYTES);
+
+                ByteBuf buffer = frame.buffer();
+                int lengthIndex = buffer.writerIndex();
+                buffer.writeInt(0);
+
+                int copied = backlog.read(sent, buffer, length);
+                if (copied < 0) {
+                    frame.release();
+
+                    if (Trace.ENABLED)
+                        Trace.event("replication", "Replica " + channel.remoteAddress() + " fell behind the backlog");
+
+                    channel.close();
+                    return;
+                }
+
+                buffer.setInt(lengthIndex, copied);
+                sent += copied;
+
+                channel.write(frame.end(), channel.voidPromise());
+                written = true;
+            }
+
+            if (written)
+                channel.flush();
+        }
+    }
+
+    /**
+     * Resumes streaming to a replica once its connection drains
+     */
+    private static final class WritabilityListener extends ChannelInboundHandlerAdapter {
+        private final Session session;
+
+        WritabilityListener(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+            if (ctx.channel().isWritable())
+                session.scheduleDrain();
+
+            ctx.fireChannelWritabilityChanged();
+        }
+    }
+
+    /**
+     * Batches snapshot entries as records into frames, written from the scanning thread,
+     * which waits for the connection to drain so a slow replica does not buffer the keyspace
+     */
+    private static final class SnapshotSender {
+        private static final int VALUE_LENGTH_INDEX = RequestProtocol.START_OF_DATA;
+
+        private final Channel channel;
+        private RequestMessage frame;
+        private int records;
+
+        SnapshotSender(Channel channel) {
+            this.channel = channel;
+        }
+
+        void entry(long hash, ByteBuf key, ByteBuf value, long expireAt) {
+            if (frame == null)
+                frame = newFrame(MAX_FRAME_BYTES);
+
+            boolean withExpiry = expireAt != Storage.NO_EXPIRY;
+            int length = WriteRecord.length(key, value, withExpiry);
+
+            ByteBuf buffer = frame.buffer();
+            buffer.ensureWritable(length);
+            int index = buffer.writerIndex();
+            WriteRecord.encode(buffer.slice(index, length).clear(), WriteRecord.setCommand(expireAt), key, value,
+                    withExpiry, expireAt);
+            buffer.writerIndex(index + length);
+            records++;
+
+            if (buffer.writerIndex() - VALUE_LENGTH_INDEX >= MAX_FRAME_BYTES)
+                send();
+        }
+
+        /**
+         * Send any pending records, then a frame of no records which ends the snapshot
+         */
+        void finish() {
+            if (frame != null)
+                send();
+
+            frame = newFrame(0);
+            send();
+        }
+
+        private static RequestMessage newFrame(int recordBytes) {
+            RequestMessage frame = new RequestMessage(HeaderProtocol.SZ_VALUE_LEN + recordBytes);
+            frame.command(RequestProtocol.REPL_CMD_SNAPSHOT);
+            frame.buffer().writeInt(0);
+
+            return frame;
+        }
+
+        private void send() {
+            ByteBuf buffer = frame.buffer();
+            buffer.setInt(VALUE_LENGTH_INDEX, buffer.writerIndex() - VALUE_LENGTH_INDEX - HeaderProtocol.SZ_VALUE_LEN);
+            frame.count(records);
+
+            ChannelFuture future = channel.writeAndFlush(frame.end());
+            frame = null;
+            records = 0;
+
+            if (!channel.isWritable())
+                future.awaitUninterruptibly();
+            if (!channel.isActive())
+                throw new IllegalStateException("Replica disconnected");
+        }
+
+        void release() {
+            if (frame != null)
+                frame.release();
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+package com.nimbus.routing;
+
+import com.nimbus.net.Node;
+
+import java.util.*;
+
+/**
+ * Immutable assignment of a fixed space of {@link #BUCKET_COUNT} buckets to owning {@link Node}s.
+ * A key's bucket is the top {@link #BUCKET_BITS} bits of its {@link HashConstants#HASH_FUNCTION}
+ * hash, so each bucket covers one contiguous range of hash values. Topology changes produce a
+ * new map with a higher version rather than mutating an existing one, so a map may be read
+ * from any thread without locking.
+ * <p>
+ * Each bucket may also list replica nodes holding an asynchronously replicated copy, which
+ * may serve reads but never writes.
+ */
+public final class BucketMap {
+
+    public static final int BUCKET_BITS = 14;
+    public static final int BUCKET_COUNT = 1 << BUCKET_BITS;
+
+    private final long version;
+    private final Node[] owners;
+    private final List<Node>[] replicas;
+    private final Set<Node> nodes;
+
+    private BucketMap(long version, Node[] owners, List<Node>[] replicas) {
+        this.version = version;
+        this.owners = owners;
+        this.replicas = replicas;
+
+        Set<Node> all = new LinkedHashSet<>(Arrays.asList(owners));
+        for (List<Node> bucketReplicas : replicas)
+            all.addAll(bucketReplicas);
+        this.nodes = Collections.unmodifiableSet(all);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<Node>[] noReplicas() {
+        List<Node>[] replicas = new List[BUCKET_COUNT];
+        Arrays.fill(replicas, List.of());
+
+        return replicas;
+    }
+
+    /**
+     * Assign buckets to nodes in equal contiguous ranges, in the order given
+     * @param version Map version, higher versions supersede lower
+     * @param nodes Nodes to assign buckets to
+     * @return New bucket map
+     */
+    public static BucketMap evenlyDistributed(long version, List<Node> nodes) {
+        if (nodes.isEmpty())
+            throw new IllegalArgumentException("Bucket map requires at least one node");
+
+        Node[] owners = new Node[BUCKET_COUNT];
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++)
+            owners[bucket] = nodes.get((int) ((long) bucket * nodes.size() / BUCKET_COUNT));
+
+        return new BucketMap(version, owners, noReplicas());
+    }
+
+    /**
+     * @param hash Key hash from {@link HashConstants#HASH_FUNCTION}
+     * @return Bucket the hash falls in, 0 <= bucket < {@link #BUCKET_COUNT}
+     */
+    public static int bucket(long hash) {
+        return (int) (hash >>> (Long.SIZE - BUCKET_BITS));
+    }
+
+    /**
+     * @return Lowest hash value, treated as unsigned, belonging to the bucket
+     */
+    public static long firstHash(int bucket) {
+        return (long) bucket << (Long.SIZE - BUCKET_BITS);
+    }
+
+    public long version() {
+        return version;
+    }
+
+    public Node owner(int bucket) {
+        return owners[bucket];
+    }
+
+    public Node ownerOf(long hash) {
+        return owners[bucket(hash)];
+    }
+
+    /**
+     * @return Replicas of the bucket, excluding its owner, empty if it has none
+     */
+    public List<Node> replicas(int bucket) {
+        return replicas[bucket];
+    }
+
+    /**
+     * @return Every distinct node owning or replicating at least one bucket
+     */
+    public Set<Node> nodes() {
+        return nodes;
+    }
+
+    /**
+     * Copy this map with a range of buckets reassigned
+     * @param fromBucket First bucket to reassign, inclusive
+     * @param toBucket Last bucket to reassign, exclusive
+     * @param owner New owner of the buckets
+     * @return New map with version incremented
+     */
+    public BucketMap withOwner(int fromBucket, int toBucket, Node owner) {
+        Objects.checkFromToIndex(fromBucket, toBucket, BUCKET_COUNT);
+
+        Node[] copy = owners.clone();
+        Arrays.fill(copy, fromBucket, toBucket, owner);
+
+        return new BucketMap(version + 1, copy, replicas);
+    }
+
+    /**
+     * Copy this map with the replicas of a range of buckets replaced
+     * @param fromBucket First bucket to change, inclusive
+     * @param toBucket Last bucket to change, exclusive
+     * @param replicaNodes Replicas of the buckets, empty for none
+     * @return New map with version incremented
+     */
+    public BucketMap withReplicas(int fromBucket, int toBucket, List<Node> replicaNodes) {
+        Objects.checkFromToIndex(fromBucket, toBucket, BUCKET_COUNT);
+
+        List<Node>[] copy = replicas.clone();
+        Arrays.fill(copy, fromBucket, toBucket, List.copyOf(replicaNodes));
+
+        return new BucketMap(version + 1, owners, copy);
+    }
+
+}
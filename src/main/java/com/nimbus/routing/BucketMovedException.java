@@ -0,0 +1,21 @@
+package com.nimbus.routing;
+
+/**
+ * Thrown by a write to a key whose {@link BucketMap bucket} this node is handing over to another,
+ * answered with {@link com.nimbus.proto.protocol.ResponseProtocol#STATUS_MOVED}. Carries no stack
+ * trace, as clients still routing by a stale map may send many such writes.
+ */
+public class BucketMovedException extends RuntimeException {
+
+    private final int bucket;
+
+    public BucketMovedException(int bucket) {
+        super("Bucket " + bucket + " is moving to another node", null, false, false);
+        this.bucket = bucket;
+    }
+
+    public int bucket() {
+        return bucket;
+    }
+
+}
@@ -1,5 +1,6 @@
 package com.nimbus.routing;
 
+import io.netty.buffer.ByteBuf;
 import net.openhft.hashing.LongHashFunction;
 
 public final class HashConstants {
@@ -8,4 +9,24 @@ public final class HashConstants {
 
     public static final LongHashFunction HASH_FUNCTION = LongHashFunction.xx3(HASH_SEED);
 
+    /**
+     * Hash a region of a buffer with {@link #HASH_FUNCTION}, reading direct memory by address
+     * or heap memory by backing array where possible so no intermediate copy is made.
+     * Produces the same value as hashing the equivalent byte array.
+     * @implNote Does not modify the buffer read or write index
+     * @param buffer Buffer to read from
+     * @param index Static offset into buffer of first byte to hash
+     * @param length Number of bytes to hash
+     * @return 64 bit hash value
+     */
+    public static long hash(ByteBuf buffer, int index, int length) {
+        if (buffer.hasMemoryAddress())
+            return HASH_FUNCTION.hashMemory(buffer.memoryAddress() + index, length);
+
+        if (buffer.hasArray())
+            return HASH_FUNCTION.hashBytes(buffer.array(), buffer.arrayOffset() + index, length);
+
+        return HASH_FUNCTION.hashBytes(buffer.nioBuffer(index, length));
+    }
+
 }
@@ -0,0 +1,70 @@
+package com.nimbus.routing;
+
+import java.time.Duration;
+
+/**
+ * When a {@link RoutingClient} hedges a GET of a bucket with more than one copy its read policy
+ * allows, so {@link ReadPolicy#PRIMARY} reads are never hedged. If the first copy has not
+ * answered once the delay passes, the same request is sent to another of those copies and
+ * whichever answers first wins, the other being cancelled. The delay is a high quantile of the
+ * first copy's recent latency, so only its slowest requests are duplicated.
+ * <p>
+ * Hedges are paid for from a budget earning {@link #budgetRatio()} of a hedge per hedgeable GET,
+ * so however slow a node becomes hedging adds at most that fraction of extra reads.
+ */
+public final class HedgePolicy {
+
+    /**
+     * Hedge the slowest 5% of GETs, adding at most 5% extra reads
+     */
+    public static final HedgePolicy DEFAULT = new HedgePolicy(0.95, 0.05, Duration.ofMillis(1),
+            Duration.ofMillis(50));
+
+    private final double delayQuantile;
+    private final double budgetRatio;
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+
+    /**
+     * @param delayQuantile Quantile of the first copy's latency waited before hedging, such as 0.95
+     * @param budgetRatio Hedges allowed per hedgeable GET, such as 0.05 for at most 5% extra reads
+     * @param minDelay Shortest wait before hedging, however fast the first copy has been
+     * @param maxDelay Longest wait before hedging, also used until the first copy has enough samples
+     */
+    public HedgePolicy(double delayQuantile, double budgetRatio, Duration minDelay, Duration maxDelay) {
+        if (delayQuantile <= 0 || delayQuantile >= 1)
+            throw new IllegalArgumentException("Delay quantile must be between 0 and 1 exclusive");
+        if (budgetRatio <= 0 || budgetRatio > 1)
+            throw new IllegalArgumentException("Budget ratio must be above 0 and at most 1");
+        if (minDelay.isNegative() || maxDelay.compareTo(minDelay) < 0)
+            throw new IllegalArgumentException("Delays must satisfy 0 <= min <= max");
+
+        this.delayQuantile = delayQuantile;
+        this.budgetRatio = budgetRatio;
+        this.minDelayNanos = minDelay.toNanos();
+        this.maxDelayNanos = maxDelay.toNanos();
+    }
+
+    public double delayQuantile() {
+        return delayQuantile;
+    }
+
+    public double budgetRatio() {
+        return budgetRatio;
+    }
+
+    public long minDelayNanos() {
+        return minDelayNanos;
+    }
+
+    public long maxDelayNanos() {
+        return maxDelayNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "HedgePolicy{delayQuantile=" + delayQuantile + ", budgetRatio=" + budgetRatio
+                + ", minDelayNanos=" + minDelayNanos + ", maxDelayNanos=" + maxDelayNanos + "}";
+    }
+
+}
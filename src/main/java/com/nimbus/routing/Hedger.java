@@ -0,0 +1,200 @@
+package com.nimbus.routing;
+
+import com.nimbus.net.Node;
+import com.nimbus.trace.Trace;
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sends hedged reads for a {@link RoutingClient} under a {@link HedgePolicy}. The hedge timer
+ * runs on an event loop rather than the coarse deadline timer, as useful delays are often well
+ * under a millisecond.
+ * <p>
+ * The budget is a token bucket counted in thousandths of a hedge, earning the policy ratio on
+ * every hedgeable read and spending one whole hedge per duplicate sent. It starts empty and holds
+ * at most {@value #MAX_BURST} hedges, so a burst of slow reads after a quiet period stays small.
+ */
+final class Hedger {
+
+    /**
+     * Most hedges the budget saves up
+     */
+    static final int MAX_BURST = 10;
+
+    private static final long HEDGE_COST = 1000;
+
+    private final HedgePolicy policy;
+    private final long earnedPerRead;
+    private final AtomicLong budget = new AtomicLong();
+    private final LongAdder hedgesSent = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+
+    Hedger(HedgePolicy policy) {
+        this.policy = policy;
+        this.earnedPerRead = Math.max(1, Math.round(policy.budgetRatio() * HEDGE_COST));
+    }
+
+    HedgePolicy policy() {
+        return policy;
+    }
+
+    long hedgesSent() {
+        return hedgesSent.sum();
+    }
+
+    long hedgesWon() {
+        return hedgesWon.sum();
+    }
+
+    void earn() {
+        long max = MAX_BURST * HEDGE_COST;
+        budget.updateAndGet(tokens -> Math.min(max, tokens + earnedPerRead));
+    }
+
+    boolean trySpend() {
+        long tokens;
+        do {
+            tokens = budget.get();
+            if (tokens < HEDGE_COST)
+                return false;
+        } while (!budget.compareAndSet(tokens, tokens - HEDGE_COST));
+
+        return true;
+    }
+
+    /**
+     * @param latencyQuantileNanos Recent latency quantile of the first copy, or negative if unknown
+     * @return Delay before hedging, clamped to the policy bounds
+     */
+    long delayNanos(long latencyQuantileNanos) {
+        if (latencyQuantileNanos < 0)
+            return policy.maxDelayNanos();
+
+        return Math.clamp(latencyQuantileNanos, policy.minDelayNanos(), policy.maxDelayNanos());
+    }
+
+    /**
+     * Send a read to its first copy, hedging to the alternate if the first is still pending once
+     * the delay passes and the budget allows
+     * @param routing Client sending each attempt
+     * @param request Encoded request, which the caller releases once the future completes
+     * @return Future completed with the first response, which the caller must release
+     */
+    CompletableFuture<ByteBuf> send(RoutingClient routing, Node first, Node alternate, ByteBuf request,
+                                    NodeSelector.NodeLoad firstLoad) {
+        earn();
+
+        Hedge hedge = new Hedge(routing, alternate, request);
+        hedge.attach(routing.send(first, request), false);
+
+        long delay = delayNanos(firstLoad.latencyQuantileNanos(policy.delayQuantile()));
+        hedge.timer = routing.client(first).resources().eventLoopGroup()
+                .schedule(hedge::launch, delay, TimeUnit.NANOSECONDS);
+
+        // Whichever way the result completes, nothing else needs sending or answering
+        hedge.result.whenComplete((response, cause) -> hedge.cancel());
+
+        return hedge.result;
+    }
+
+    /**
+     * State of one hedged read
+     */
+    private final class Hedge {
+        private final CompletableFuture<ByteBuf> result = new CompletableFuture<>();
+        private final RoutingClient routing;
+        private final Node alternate;
+        private final ByteBuf request;
+        /**
+         * Attempts sent which have not failed, the read failing once none remain
+         */
+        private final AtomicInteger pending = new AtomicInteger(1);
+        private volatile CompletableFuture<ByteBuf> firstAttempt;
+        private volatile CompletableFuture<ByteBuf> backupAttempt;
+        private volatile ScheduledFuture<?> timer;
+
+        Hedge(RoutingClient routing, Node alternate, ByteBuf request) {
+            this.routing = routing;
+            this.alternate = alternate;
+            this.request = request;
+        }
+
+        void attach(CompletableFuture<ByteBuf> attempt, boolean backup) {
+            if (backup)
+                backupAttempt = attempt;
+            else
+                firstAttempt = attempt;
+
+            attempt.whenComplete((response, cause) -> {
+                if (cause == null) {
+                    // Counted before completing, so the win is visible to whoever the result wakes
+                    if (backup)
+                        hedgesWon.increment();
+
+                    if (!result.complete(response)) {
+                        if (backup)
+                            hedgesWon.decrement();
+
+                        // The other attempt won, or the caller gave up
+                        response.release();
+                    }
+                } else if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(cause);
+                }
+            });
+
+            // The result completed before this attempt was published for cancel() to see
+            if (result.isDone())
+                attempt.cancel(false);
+        }
+
+        void launch() {
+            if (result.isDone() || !trySpend())
+                return;
+
+            // Counted before sending so a failing first attempt waits for this one
+            pending.incrementAndGet();
+            hedgesSent.increment();
+
+            if (Trace.ENABLED)
+                Trace.event("routing", "Hedging read to " + alternate);
+
+            // The first attempt may still be queued on its channel, and its id is written into
+            // the request, so only the rare backup pays for a copy of its own
+            ByteBuf copy = request.copy(0, request.writerIndex());
+            CompletableFuture<ByteBuf> backup;
+            try {
+                backup = routing.send(alternate, copy);
+            } catch (RuntimeException e) {
+                backup = CompletableFuture.failedFuture(e);
+            }
+            backup.whenComplete((response, cause) -> copy.release());
+
+            attach(backup, true);
+        }
+
+        void cancel() {
+            ScheduledFuture<?> current = timer;
+            if (current != null)
+                current.cancel(false);
+
+            cancel(firstAttempt);
+            cancel(backupAttempt);
+        }
+
+        /**
+         * Frees the slot of a request still in flight, any late response being released by the client
+         */
+        private static void cancel(CompletableFuture<ByteBuf> attempt) {
+            if (attempt != null)
+                attempt.cancel(false);
+        }
+    }
+
+}
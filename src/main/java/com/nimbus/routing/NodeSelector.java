@@ -0,0 +1,215 @@
+package com.nimbus.routing;
+
+import com.nimbus.net.Node;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Picks the node to read a bucket from by the power of two choices: two candidates are drawn
+ * at random and the one with the lower expected cost wins, being its latency EWMA scaled by its
+ * requests in flight plus one. Sampling two rather than scanning every copy avoids all callers
+ * herding onto the same momentarily fastest node, while still steering away from slow ones.
+ * <p>
+ * Nodes without a latency sample yet are assumed {@link #UNSAMPLED_NANOS}, low enough that new
+ * replicas are tried at once while their requests in flight still count. A failed request is
+ * recorded as a sample {@link #FAILURE_PENALTY} times the average, so a copy which is down or
+ * fails fast is steered away from rather than winning on a low average it never earned. All
+ * state is updated lock free from whichever thread sends or completes a request.
+ */
+final class NodeSelector {
+
+    /**
+     * Weight of each new latency sample in the moving average
+     */
+    static final double EWMA_ALPHA = 0.2;
+
+    /**
+     * Latency assumed of a node before its first sample
+     */
+    static final double UNSAMPLED_NANOS = 250_000;
+
+    /**
+     * Multiple of the average recorded as the sample of a failed request
+     */
+    static final double FAILURE_PENALTY = 4;
+
+    /**
+     * Most recent latency samples kept per node for quantiles
+     */
+    static final int LATENCY_WINDOW = 256;
+
+    /**
+     * Samples recorded between each re-sort of the window, so quantiles cost no sort per read
+     */
+    static final int QUANTILE_REFRESH = 32;
+
+    /**
+     * Load of a single node as seen by this client
+     */
+    static final class NodeLoad {
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong ewmaNanosBits = new AtomicLong(Double.doubleToRawLongBits(0));
+        private final AtomicLongArray window = new AtomicLongArray(LATENCY_WINDOW);
+        private final AtomicLong samples = new AtomicLong();
+        private volatile long[] sortedWindow;
+
+        void started() {
+            inFlight.incrementAndGet();
+        }
+
+        /**
+         * @param latencyNanos Latency of a completed request
+         */
+        void completed(long latencyNanos) {
+            inFlight.decrementAndGet();
+            updateEwma(latencyNanos);
+
+            long sample = samples.getAndIncrement();
+            window.set((int) (sample % LATENCY_WINDOW), latencyNanos);
+            if ((sample + 1) % QUANTILE_REFRESH == 0)
+                sortWindow((int) Math.min(sample + 1, LATENCY_WINDOW));
+        }
+
+        /**
+         * Record a failed request as a penalty sample, left out of the quantile window as its
+         * latency says nothing about how long a successful read takes
+         */
+        void failed() {
+            inFlight.decrementAndGet();
+
+            double ewma = ewmaNanos();
+            updateEwma((ewma == 0 ? UNSAMPLED_NANOS : ewma) * FAILURE_PENALTY);
+        }
+
+        private void updateEwma(double sampleNanos) {
+            long current;
+            double updated;
+            do {
+                current = ewmaNanosBits.get();
+                double ewma = Double.longBitsToDouble(current);
+                updated = ewma == 0 ? sampleNanos : ewma + EWMA_ALPHA * (sampleNanos - ewma);
+            } while (!ewmaNanosBits.compareAndSet(current, Double.doubleToRawLongBits(updated)));
+        }
+
+        /**
+         * Racing writers may land in the copy half written, which only skews one refresh
+         */
+        private void sortWindow(int size) {
+            long[] sorted = new long[size];
+            for (int i = 0; i < size; i++)
+                sorted[i] = window.get(i);
+
+            Arrays.sort(sorted);
+            sortedWindow = sorted;
+        }
+
+        /**
+         * @param quantile Quantile between 0 and 1, such as 0.95
+         * @return Latency of the quantile over the recent window, or -1 before enough samples
+         */
+        long latencyQuantileNanos(double quantile) {
+            long[] sorted = sortedWindow;
+            if (sorted == null)
+                return -1;
+
+            return sorted[Math.min(sorted.length - 1, (int) (quantile * sorted.length))];
+        }
+
+        int inFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * @return Latency moving average, or 0 before the first sample
+         */
+        double ewmaNanos() {
+            return Double.longBitsToDouble(ewmaNanosBits.get());
+        }
+
+        double cost() {
+            double ewma = ewmaNanos();
+
+            return (ewma == 0 ? UNSAMPLED_NANOS : ewma) * (inFlight.get() + 1);
+        }
+    }
+
+    private final Map<Node, NodeLoad> loads = new ConcurrentHashMap<>();
+
+    NodeLoad load(Node node) {
+        return loads.computeIfAbsent(node, ignored -> new NodeLoad());
+    }
+
+    /**
+     * Forget nodes no longer in the bucket map
+     */
+    void retain(BucketMap map) {
+        loads.keySet().retainAll(map.nodes());
+    }
+
+    /**
+     * @param owner Owner of the bucket
+     * @param replicas Replicas of the bucket
+     * @return Node to read the bucket from under the policy
+     */
+    Node select(Node owner, List<Node> replicas, ReadPolicy policy) {
+        if (policy == ReadPolicy.PRIMARY || replicas.isEmpty())
+            return owner;
+
+        // Candidates are the replicas, preceded by the owner unless reads must avoid it
+        int offset = policy == ReadPolicy.BALANCED ? 1 : 0;
+        int candidates = replicas.size() + offset;
+        if (candidates == 1)
+            return replicas.getFirst();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(candidates);
+        int second = random.nextInt(candidates - 1);
+        if (second >= first)
+            second++;
+
+        Node a = candidate(owner, replicas, offset, first);
+        Node b = candidate(owner, replicas, offset, second);
+
+        return load(a).cost() <= load(b).cost() ? a : b;
+    }
+
+    /**
+     * @param exclude Copy already chosen, typically by {@link #select(Node, List, ReadPolicy)}
+     * @return Least costly other copy the policy allows reading from, or null if there is none,
+     *         as always under {@link ReadPolicy#PRIMARY}
+     */
+    Node alternate(Node owner, List<Node> replicas, Node exclude, ReadPolicy policy) {
+        if (policy == ReadPolicy.PRIMARY)
+            return null;
+
+        Node best = null;
+        double bestCost = Double.MAX_VALUE;
+
+        int offset = policy == ReadPolicy.BALANCED ? 1 : 0;
+        for (int i = 0; i < replicas.size() + offset; i++) {
+            Node node = candidate(owner, replicas, offset, i);
+            if (node.equals(exclude))
+                continue;
+
+            double cost = load(node).cost();
+            if (best == null || cost < bestCost) {
+                best = node;
+                bestCost = cost;
+            }
+        }
+
+        return best;
+    }
+
+    private static Node candidate(Node owner, List<Node> replicas, int offset, int index) {
+        return index < offset ? owner : replicas.get(index - offset);
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.nimbus.routing;
+
+/**
+ * Which copies of a bucket a {@link RoutingClient} may read from. Replicas are updated
+ * asynchronously, so reading from them may return a value older than one just written.
+ * Writes always go to the owner.
+ */
+public enum ReadPolicy {
+
+    /**
+     * Read from the owning node only, always seeing the latest write. Never hedged.
+     */
+    PRIMARY,
+
+    /**
+     * Read from whichever of the owner and its replicas looks least loaded, spreading reads
+     * across every copy
+     */
+    BALANCED,
+
+    /**
+     * Read from whichever replica looks least loaded, only reading from the owner of buckets
+     * without replicas, so primaries are left to writes
+     */
+    REPLICA
+
+}
@@ -0,0 +1,229 @@
+package com.nimbus.routing;
+
+import com.nimbus.net.Node;
+import com.nimbus.net.client.SuperTcpClient;
+import com.nimbus.net.query.BucketMapResult;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import io.netty.buffer.ByteBuf;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Cluster client routing each request to the node owning its key's bucket, over a
+ * {@link SuperTcpClient} pool per node. The current {@link BucketMap} is read lock free
+ * and replaced atomically on topology change.
+ * <p>
+ * Reads may be sent to the replicas of a bucket according to a {@link ReadPolicy}, picking
+ * among the copies by latency and requests in flight as measured by this client. GETs may
+ * also be hedged to a second copy under a {@link HedgePolicy}, cutting the tail latency a
+ * single slow node adds.
+ */
+public class RoutingClient {
+
+    private final AtomicReference<BucketMap> bucketMap;
+    private final Function<Node, SuperTcpClient> clientFactory;
+    private final Map<Node, SuperTcpClient> clients;
+    private final ReadPolicy readPolicy;
+    private final NodeSelector selector;
+    private final Hedger hedger;
+
+    /**
+     * @param initialMap Bucket map to route with until replaced
+     * @param clientFactory Creates the client pool for a node, invoked once per node on first use
+     */
+    public RoutingClient(BucketMap initialMap, Function<Node, SuperTcpClient> clientFactory) {
+        this(initialMap, clientFactory, ReadPolicy.PRIMARY);
+    }
+
+    /**
+     * @param readPolicy Copies reads are sent to unless a request overrides it
+     */
+    public RoutingClient(BucketMap initialMap, Function<Node, SuperTcpClient> clientFactory, ReadPolicy readPolicy) {
+        this(initialMap, clientFactory, readPolicy, null);
+    }
+
+    /**
+     * @param hedgePolicy When GETs of buckets with several copies are hedged, or null to never hedge
+     */
+    public RoutingClient(BucketMap initialMap, Function<Node, SuperTcpClient> clientFactory, ReadPolicy readPolicy,
+                         HedgePolicy hedgePolicy) {
+        this.bucketMap = new AtomicReference<>(initialMap);
+        this.clientFactory = clientFactory;
+        this.clients = new ConcurrentHashMap<>();
+        this.readPolicy = readPolicy;
+        this.selector = new NodeSelector();
+        this.hedger = hedgePolicy != null ? new Hedger(hedgePolicy) : null;
+    }
+
+    public ReadPolicy readPolicy() {
+        return readPolicy;
+    }
+
+    /**
+     * @return Policy GETs are hedged under, or null if they are never hedged
+     */
+    public HedgePolicy hedgePolicy() {
+        return hedger != null ? hedger.policy() : null;
+    }
+
+    /**
+     * @return Duplicate GETs sent since creation
+     */
+    public long hedgesSent() {
+        return hedger != null ? hedger.hedgesSent() : 0;
+    }
+
+    /**
+     * @return Duplicate GETs which answered before the request they duplicated
+     */
+    public long hedgesWon() {
+        return hedger != null ? hedger.hedgesWon() : 0;
+    }
+
+    public BucketMap bucketMap() {
+        return bucketMap.get();
+    }
+
+    /**
+     * Replace the bucket map if the provided map is a newer version. Clients of nodes which
+     * no longer own any bucket are closed, failing any requests still in flight to them.
+     * @param newMap Replacement bucket map
+     * @return true if the map was replaced, false if the current map is the same or newer
+     */
+    public boolean updateBucketMap(BucketMap newMap) {
+        BucketMap current;
+        do {
+            current = bucketMap.get();
+            if (newMap.version() <= current.version())
+                return false;
+        } while (!bucketMap.compareAndSet(current, newMap));
+
+        for (Node node : clients.keySet()) {
+            if (!newMap.nodes().contains(node)) {
+                SuperTcpClient client = clients.remove(node);
+                if (client != null)
+                    client.close();
+            }
+        }
+        selector.retain(newMap);
+
+        return true;
+    }
+
+    /**
+     * @param hash Key hash from {@link HashConstants#HASH_FUNCTION}
+     * @return Owning node of the hash under the current bucket map
+     */
+    public BucketMapResult route(long hash) {
+        BucketMap map = bucketMap.get();
+        int bucket = BucketMap.bucket(hash);
+
+        return new BucketMapResult(bucket, map.owner(bucket), map.replicas(bucket), map.version());
+    }
+
+    /**
+     * @param hash Key hash from {@link HashConstants#HASH_FUNCTION}
+     * @return Node to read the hash from under a policy and the current bucket map
+     */
+    public Node readNode(long hash, ReadPolicy policy) {
+        BucketMap map = bucketMap.get();
+        int bucket = BucketMap.bucket(hash);
+
+        return selector.select(map.owner(bucket), map.replicas(bucket), policy);
+    }
+
+    NodeSelector selector() {
+        return selector;
+    }
+
+    /**
+     * @return Client pool of the node, created on first use
+     */
+    public SuperTcpClient client(Node node) {
+        return clients.computeIfAbsent(node, clientFactory);
+    }
+
+    /**
+     * Send a request to the node owning its first key, or for reads to a copy chosen by
+     * the client {@link #readPolicy()}.
+     * @param request Request which has been {@link RequestMessage#end() ended}, not released by this call
+     * @return Future completed with the response buffer, which the caller must release
+     */
+    public CompletableFuture<ByteBuf> send(RequestMessage request) {
+        return send(request, readPolicy);
+    }
+
+    /**
+     * Send a request to the node owning its first key, or for reads to a copy chosen by a policy.
+     * GETs are hedged to a second copy the policy allows if the client has a {@link HedgePolicy}.
+     * @param request Request which has been {@link RequestMessage#end() ended}, not released by this call
+     * @param policy Copies a read may be sent to, ignored for writes
+     * @return Future completed with the response buffer, which the caller must release
+     */
+    public CompletableFuture<ByteBuf> send(RequestMessage request, ReadPolicy policy) {
+        long hash = request.keyHash();
+        if (hedger != null && request.command() == RequestProtocol.CMD_GET)
+            return sendHedged(hash, request.buffer(), policy);
+
+        Node node = isRead(request.command()) ? readNode(hash, policy) : bucketMap.get().ownerOf(hash);
+
+        return send(node, request.buffer());
+    }
+
+    private CompletableFuture<ByteBuf> sendHedged(long hash, ByteBuf request, ReadPolicy policy) {
+        BucketMap map = bucketMap.get();
+        int bucket = BucketMap.bucket(hash);
+        Node owner = map.owner(bucket);
+        List<Node> replicas = map.replicas(bucket);
+
+        Node node = selector.select(owner, replicas, policy);
+        Node alternate = selector.alternate(owner, replicas, node, policy);
+        if (alternate == null)
+            return send(node, request);
+
+        return hedger.send(this, node, alternate, request, selector.load(node));
+    }
+
+    /**
+     * Send an encoded request to a specific node, recording its latency for choosing among
+     * the copies of later reads.
+     * @param request Encoded request, retained once a connection is acquired, so the caller releases it once the future completes
+     * @return Future completed with the response buffer, which the caller must release
+     */
+    public CompletableFuture<ByteBuf> send(Node node, ByteBuf request) {
+        NodeSelector.NodeLoad load = selector.load(node);
+        load.started();
+        long start = System.nanoTime();
+
+        CompletableFuture<ByteBuf> future = client(node).send(request);
+        // A cancelled request lost a hedge, so its time so far is a lower bound worth recording
+        future.whenComplete((response, cause) -> {
+            if (cause == null || cause instanceof CancellationException)
+                load.completed(System.nanoTime() - start);
+            else
+                load.failed();
+        });
+
+        return future;
+    }
+
+    private static boolean isRead(int command) {
+        return command == RequestProtocol.CMD_GET || command == RequestProtocol.CMD_MGET
+                || command == RequestProtocol.CMD_TTL;
+    }
+
+    public void close() {
+        for (SuperTcpClient client : clients.values())
+            client.close();
+
+        clients.clear();
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.nimbus.routing;
+
+import com.nimbus.net.Node;
+import com.nimbus.net.results.BatchResult;
+import com.nimbus.net.results.ScatterGatherResult;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.HeaderProtocol;
+import com.nimbus.proto.protocol.RequestProtocol;
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes one multi key request across every node holding its keys. Keys are grouped by the
+ * node of their bucket, each group is sent as MGET, MSET or MDEL sub-requests of at most
+ * {@link #maxKeysPerRequest()} keys, all in parallel, and their batch responses are merged
+ * back into the order keys were given. Latency is bounded by the slowest node rather than
+ * the sum of all of them.
+ * <p>
+ * Keys and values are encoded once into a staging buffer, from which each sub-request copies
+ * its entries as raw fields. Writes are routed by a single bucket map for the whole request,
+ * while reads pick a copy per key by {@link ReadPolicy}.
+ */
+public class ScatterGather {
+
+    public static final int DEFAULT_MAX_KEYS_PER_REQUEST = 1024;
+
+    private final RoutingClient routing;
+    private final int maxKeysPerRequest;
+
+    public ScatterGather(RoutingClient routing) {
+        this(routing, DEFAULT_MAX_KEYS_PER_REQUEST);
+    }
+
+    /**
+     * @param maxKeysPerRequest Most keys sent to a node in one sub-request, larger groups being
+     *                          split into several sent in parallel. At most {@link Short#MAX_VALUE},
+     *                          as the header count is read signed.
+     */
+    public ScatterGather(RoutingClient routing, int maxKeysPerRequest) {
+        if (maxKeysPerRequest < 1 || maxKeysPerRequest > Short.MAX_VALUE)
+            throw new IllegalArgumentException("Keys per request must be between 1 and " + Short.MAX_VALUE);
+
+        this.routing = routing;
+        this.maxKeysPerRequest = maxKeysPerRequest;
+    }
+
+    public int maxKeysPerRequest() {
+        return maxKeysPerRequest;
+    }
+
+    /**
+     * Get the values of many keys, reading from the copies the routing client policy allows
+     * @param keys byte[], String, Integer or Long keys
+     * @return Future always completed with a result, even if some nodes failed, which the caller must release
+     */
+    public CompletableFuture<ScatterGatherResult> mget(List<?> keys) {
+        return mget(keys, routing.readPolicy());
+    }
+
+    /**
+     * Get the values of many keys
+     * @param keys byte[], String, Integer or Long keys
+     * @param policy Copies each key may be read from
+     * @return Future always completed with a result, even if some nodes failed, which the caller must release
+     */
+    public CompletableFuture<ScatterGatherResult> mget(List<?> keys, ReadPolicy policy) {
+        return execute(RequestProtocol.CMD_MGET, keys, null, policy);
+    }
+
+    /**
+     * Set many keys to values, the key and value at the same position forming each pair
+     * @return Future always completed with a result, even if some nodes failed, which the caller must release
+     */
+    public CompletableFuture<ScatterGatherResult> mset(List<?> keys, List<?> values) {
+        if (values.size() != keys.size())
+            throw new IllegalArgumentException("Got " + keys.size() + " keys but " + values.size() + " values");
+
+        return execute(RequestProtocol.CMD_MSET, keys, values, ReadPolicy.PRIMARY);
+    }
+
+    /**
+     * Delete many keys
+     * @return Future always completed with a result, even if some nodes failed, which the caller must release
+     */
+    public CompletableFuture<ScatterGatherResult> mdel(List<?> keys) {
+        return execute(RequestProtocol.CMD_MDEL, keys, null, ReadPolicy.PRIMARY);
+    }
+
+    private CompletableFuture<ScatterGatherResult> execute(int command, List<?> keys, List<?> values,
+                                                           ReadPolicy policy) {
+        int size = keys.size();
+        if (size == 0)
+            throw new IllegalArgumentException("At least one key is required");
+
+        // Entry i spans [entryStarts[i], entryStarts[i + 1]) of the staging buffer
+        int[] entryStarts = new int[size + 1];
+        int[] entryNodes = new int[size];
+        List<Node> nodes = new ArrayList<>();
+        Map<Node, Integer> nodeIds = new HashMap<>();
+
+        RequestMessage staging = new RequestMessage(size * 32);
+        try {
+            ByteBuf buffer = staging.buffer();
+            BucketMap map = routing.bucketMap();
+
+            for (int i = 0; i < size; i++) {
+                int start = buffer.writerIndex();
+                entryStarts[i] = start;
+
+                staging.key(keys.get(i));
+                if (values != null)
+                    staging.value(values.get(i));
+
+                int keyLength = buffer.getUnsignedShort(start);
+                long hash = HashConstants.hash(buffer, start + HeaderProtocol.SZ_KEY_LEN, keyLength);
+                Node node = command == RequestProtocol.CMD_MGET ? routing.readNode(hash, policy) : map.ownerOf(hash);
+
+                Integer id = nodeIds.get(node);
+                if (id == null) {
+                    id = nodes.size();
+                    nodeIds.put(node, id);
+                    nodes.add(node);
+                }
+                entryNodes[i] = id;
+            }
+            entryStarts[size] = buffer.writerIndex();
+
+            return scatter(command, staging, entryStarts, entryNodes, nodes);
+        } finally {
+            staging.release();
+        }
+    }
+
+    /**
+     * Order entries by node, keeping caller order within each, then send each node's entries
+     * in chunks of at most {@link #maxKeysPerRequest} keys
+     */
+    private CompletableFuture<ScatterGatherResult> scatter(int command, RequestMessage staging, int[] entryStarts,
+                                                           int[] entryNodes, List<Node> nodes) {
+        int size = entryNodes.length;
+
+        int[] nodeStarts = new int[nodes.size() + 1];
+        for (int node : entryNodes)
+            nodeStarts[node + 1]++;
+        for (int node = 0; node < nodes.size(); node++)
+            nodeStarts[node + 1] += nodeStarts[node];
+
+        int[] order = new int[size];
+        int[] fill = Arrays.copyOf(nodeStarts, nodes.size());
+        for (int i = 0; i < size; i++)
+            order[fill[entryNodes[i]]++] = i;
+
+        int shardCount = 0;
+        for (int node = 0; node < nodes.size(); node++)
+            shardCount += (nodeStarts[node + 1] - nodeStarts[node] + maxKeysPerRequest - 1) / maxKeysPerRequest;
+
+        int[] keyShards = new int[size];
+        int[] keyEntries = new int[size];
+        Gather gather = new Gather(shardCount, keyShards, keyEntries, command == RequestProtocol.CMD_MGET);
+
+        int shard = 0;
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int from = nodeStarts[node]; from < nodeStarts[node + 1]; from += maxKeysPerRequest) {
+                int to = Math.min(from + maxKeysPerRequest, nodeStarts[node + 1]);
+
+                int bytes = 0;
+                for (int i = from; i < to; i++) {
+                    int entry = order[i];
+                    bytes += entryStarts[entry + 1] - entryStarts[entry];
+                    keyShards[entry] = shard;
+                    keyEntries[entry] = i - from;
+                }
+
+                RequestMessage request = new RequestMessage(bytes);
+                request.command(command);
+                request.count(to - from);
+                for (int i = from; i < to; i++) {
+                    int entry = order[i];
+                    request.buffer().writeBytes(staging.buffer(), entryStarts[entry],
+                            entryStarts[entry + 1] - entryStarts[entry]);
+                }
+
+                gather.send(shard++, nodes.get(node), to - from, request);
+            }
+        }
+
+        return gather.result;
+    }
+
+    /**
+     * Collects the outcome of every sub-request, completing the result once the last arrives
+     */
+    private final class Gather {
+        private final CompletableFuture<ScatterGatherResult> result = new CompletableFuture<>();
+        private final ScatterGatherResult.Shard[] shards;
+        private final BatchResult[] batches;
+        private final int[] keyShards;
+        private final int[] keyEntries;
+        private final boolean withValues;
+        private final AtomicInteger remaining;
+        private final long startNanos = System.nanoTime();
+
+        Gather(int shardCount, int[] keyShards, int[] keyEntries, boolean withValues) {
+            this.shards = new ScatterGatherResult.Shard[shardCount];
+            this.batches = new BatchResult[shardCount];
+            this.keyShards = keyShards;
+            this.keyEntries = keyEntries;
+            this.withValues = withValues;
+            this.remaining = new AtomicInteger(shardCount);
+        }
+
+        void send(int shard, Node node, int keys, RequestMessage request) {
+            String host = node.toString();
+            long sentNanos = System.nanoTime();
+
+            CompletableFuture<ByteBuf> response;
+            try {
+                response = routing.send(node, request.end());
+            } catch (RuntimeException e) {
+                response = CompletableFuture.failedFuture(e);
+            }
+
+            response.whenComplete((buffer, cause) -> {
+                long latency = System.nanoTime() - sentNanos;
+
+                // Only retained once a connection is acquired, so held until the request completes
+                request.release();
+
+                if (cause == null) {
+                    ResponseMessage message = new ResponseMessage(buffer);
+                    try {
+                        batches[shard] = new BatchResult(message, host, withValues);
+                        if (batches[shard].entries() != keys)
+                            throw new IllegalStateException("Node " + host + " answered "
+                                    + batches[shard].entries() + " entries for " + keys + " keys");
+                    } catch (IllegalStateException e) {
+                        batches[shard] = null;
+                        message.release();
+                        cause = e;
+                    }
+                }
+
+                shards[shard] = new ScatterGatherResult.Shard(host, keys, latency, cause);
+
+                // The last completion sees every earlier one, each having decremented after its writes
+                if (remaining.decrementAndGet() == 0) {
+                    result.complete(new ScatterGatherResult(List.of(shards), batches, keyShards, keyEntries,
+                            System.nanoTime() - startNanos));
+                }
+            });
+        }
+    }
+
+}
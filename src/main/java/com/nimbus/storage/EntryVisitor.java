@@ -0,0 +1,19 @@
+package com.nimbus.storage;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Receives each live entry of a {@link Storage#scan(EntryVisitor)}
+ */
+@FunctionalInterface
+public interface EntryVisitor {
+
+    /**
+     * @param hash Key hash from {@link com.nimbus.routing.HashConstants#HASH_FUNCTION}
+     * @param key Key bytes, only valid for the duration of the call
+     * @param value Value bytes, only valid for the duration of the call
+     * @param expireAt Absolute expiry in epoch millis, or {@link Storage#NO_EXPIRY}
+     */
+    void visit(long hash, ByteBuf key, ByteBuf value, long expireAt);
+
+}
@@ -0,0 +1,52 @@
+package com.nimbus.storage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic task reclaiming expired keys of a {@link Storage} engine, in the adaptive way of
+ * sampling a small batch and carrying on only while a large share of the batch had expired.
+ * Each run is bounded by a time budget, so reclaiming a mass expiry is spread across runs
+ * rather than stalling writers, while keys nobody reads again are still freed eventually.
+ * Must be run from a single thread at a time.
+ */
+public class ExpiryReaper implements Runnable {
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 100;
+    public static final long DEFAULT_BUDGET_MILLIS = 5;
+
+    /**
+     * Expiring keys examined per batch, so the share removed is unaffected by keys without expiry
+     */
+    static final int SAMPLES = 20;
+
+    /**
+     * Another batch follows while more than 1 in this many samples had expired
+     */
+    private static final int REPEAT_RATIO = 4;
+
+    private final Storage storage;
+    private final long budgetNanos;
+
+    public ExpiryReaper(Storage storage) {
+        this(storage, DEFAULT_BUDGET_MILLIS);
+    }
+
+    /**
+     * @param budgetMillis Time a single run may spend purging
+     */
+    public ExpiryReaper(Storage storage, long budgetMillis) {
+        this.storage = storage;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    @Override
+    public void run() {
+        long deadline = System.nanoTime() + budgetNanos;
+
+        int removed;
+        do {
+            removed = storage.purgeExpired(SAMPLES);
+        } while (removed * REPEAT_RATIO > SAMPLES && System.nanoTime() - deadline < 0);
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.nimbus.storage;
+
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.routing.BucketMap;
+import com.nimbus.routing.HashConstants;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Simple on heap {@link Storage} backed by a {@link ConcurrentHashMap}, which
+ * provides lock striping across event loop threads. Expired keys are removed when
+ * next accessed, or by {@link #purgeExpired(int)} walking the map a few expiring keys at a time.
+ */
+public class HeapStorage implements Storage {
+
+    /**
+     * Most entries walked per expiring key sampled, bounding the walk when few keys expire
+     */
+    private static final int PURGE_ENTRIES_PER_SAMPLE = 64;
+
+    private record Key(byte[] bytes, int hash) {
+
+        static Key of(ByteBuf buf) {
+            byte[] bytes = ByteBufUtil.getBytes(buf);
+            return new Key(bytes, (int) HashConstants.HASH_FUNCTION.hashBytes(bytes));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && Arrays.equals(bytes, other.bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private record Value(byte[] bytes, long expireAt) {
+
+        boolean isExpired(long now) {
+            return expireAt != NO_EXPIRY && expireAt <= now;
+        }
+    }
+
+    private final ConcurrentHashMap<Key, Value> map;
+    private Iterator<Map.Entry<Key, Value>> purgeIterator;
+
+    public HeapStorage() {
+        this.map = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public boolean get(ByteBuf key, BinaryMessage out) {
+        Value value = live(Key.of(key));
+        if (value == null)
+            return false;
+
+        out.value(value.bytes());
+
+        return true;
+    }
+
+    @Override
+    public boolean set(ByteBuf key, ByteBuf value, long expireAt) {
+        map.put(Key.of(key), new Value(ByteBufUtil.getBytes(value), expireAt));
+
+        return true;
+    }
+
+    @Override
+    public boolean delete(ByteBuf key) {
+        Value value = map.remove(Key.of(key));
+
+        return value != null && !value.isExpired(System.currentTimeMillis());
+    }
+
+    @Override
+    public boolean expire(ByteBuf key, long expireAt) {
+        Value value = map.computeIfPresent(Key.of(key), (k, current) ->
+                current.isExpired(System.currentTimeMillis()) ? null : new Value(current.bytes(), expireAt));
+
+        return value != null;
+    }
+
+    @Override
+    public long expireAt(ByteBuf key) {
+        Value value = live(Key.of(key));
+
+        return value != null ? value.expireAt() : KEY_ABSENT;
+    }
+
+    @Override
+    public int purgeExpired(int maxSamples) {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+
+        int sampled = 0;
+        int entriesLeft = maxSamples * PURGE_ENTRIES_PER_SAMPLE;
+
+        while (sampled < maxSamples && entriesLeft-- > 0) {
+            if (purgeIterator == null || !purgeIterator.hasNext()) {
+                purgeIterator = map.entrySet().iterator();
+                if (!purgeIterator.hasNext())
+                    break;
+            }
+
+            // Keys without expiry are passed over uncounted
+            Map.Entry<Key, Value> entry = purgeIterator.next();
+            if (entry.getValue().expireAt() == NO_EXPIRY)
+                continue;
+
+            sampled++;
+            if (entry.getValue().isExpired(now) && map.remove(entry.getKey(), entry.getValue()))
+                removed++;
+        }
+
+        return removed;
+    }
+
+    /**
+     * Values are immutable, so the scan collects references to every entry then sorts
+     * them by bucket, without copying any key or value bytes
+     */
+    @Override
+    public void scan(EntryVisitor visitor) {
+        record Scanned(long hash, byte[] key, Value value) {
+        }
+
+        long now = System.currentTimeMillis();
+        List<Scanned> entries = new ArrayList<>(map.size());
+        for (Map.Entry<Key, Value> entry : map.entrySet()) {
+            if (!entry.getValue().isExpired(now)) {
+                byte[] key = entry.getKey().bytes();
+                entries.add(new Scanned(HashConstants.HASH_FUNCTION.hashBytes(key), key, entry.getValue()));
+            }
+        }
+
+        entries.sort(Comparator.comparingInt(entry -> BucketMap.bucket(entry.hash())));
+
+        for (Scanned entry : entries) {
+            visitor.visit(entry.hash(), Unpooled.wrappedBuffer(entry.key()),
+                    Unpooled.wrappedBuffer(entry.value().bytes()), entry.value().expireAt());
+        }
+    }
+
+    /**
+     * @return Value of a key, or null if absent or expired, removing it in the latter case
+     */
+    private Value live(Key key) {
+        Value value = map.get(key);
+        if (value == null || !value.isExpired(System.currentTimeMillis()))
+            return value;
+
+        map.remove(key, value);
+
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        map.clear();
+    }
+
+    @Override
+    public long size() {
+        return map.size();
+    }
+
+    @Override
+    public void close() {
+        map.clear();
+    }
+
+}
@@ -0,0 +1,545 @@
+package com.nimbus.storage;
+
+import com.nimbus.proto.messages.BinaryMessage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * One independently locked partition of an {@link OffHeapStorage}. Entries are appended
+ * inline to a fixed size direct memory slab, and located through an open addressing
+ * index of linear probed slots, also held in direct memory. Neither lookups nor writes
+ * allocate on the Java heap.
+ * <p>
+ * Overwritten and deleted entries leave garbage in the slab which is reclaimed by sliding
+ * compaction once an append no longer fits. Slab memory is never grown past its initial
+ * capacity, which bounds the memory of the segment.
+ * <p>
+ * Entries may carry an absolute expiry time. Expired entries read as absent at once, and
+ * are reclaimed either when next written or by {@link #purgeExpired(long, int)} sampling
+ * expiring entries from a rolling cursor over the slots, so expiry never scans the whole table
+ * at once.
+ */
+final class OffHeapSegment {
+
+    // INDEX SLOT LAYOUT, [long hash][int entry offset + 1][int unused], zeroed slot is empty
+    private static final int SLOT_SIZE = 16;
+    private static final int SLOT_HASH = 0;
+    private static final int SLOT_OFFSET = Long.BYTES;
+
+    // ENTRY LAYOUT IN SLAB, [long hash][byte flags][short key len][int value len][long expire at][key][value]
+    static final int ENTRY_HASH = 0;
+    static final int ENTRY_FLAGS = ENTRY_HASH + Long.BYTES;
+    static final int ENTRY_KEY_LEN = ENTRY_FLAGS + Byte.BYTES;
+    static final int ENTRY_VALUE_LEN = ENTRY_KEY_LEN + Short.BYTES;
+    static final int ENTRY_EXPIRE_AT = ENTRY_VALUE_LEN + Integer.BYTES;
+    static final int ENTRY_HEADER_SIZE = ENTRY_EXPIRE_AT + Long.BYTES;
+
+    static final byte FLAG_DEAD = 0x01;
+
+    private static final int MAX_LOAD_PERCENT = 75;
+
+    /**
+     * Most slots walked per expiring entry sampled, bounding the walk when few entries expire
+     */
+    private static final int PURGE_SLOTS_PER_SAMPLE = 64;
+
+    /**
+     * Unlocked copies of the slab attempted before falling back to the read lock
+     */
+    private static final int OPTIMISTIC_COPY_ATTEMPTS = 3;
+
+    private final StampedLock lock;
+    private final ByteBuf data;
+    private ByteBuf index;
+    private int slotMask;
+    private int growThreshold;
+    private volatile int size;
+    private int writeOffset;
+    private int garbageBytes;
+    private volatile int expiringEntries;
+    private int expireCursor;
+    private int purgeSamples;
+
+    OffHeapSegment(int dataCapacity, int initialSlots) {
+        if (Integer.bitCount(initialSlots) != 1)
+            throw new IllegalArgumentException("Initial slots must be a power of two");
+
+        this.lock = new StampedLock();
+        this.data = Unpooled.directBuffer(dataCapacity, dataCapacity);
+        this.index = newIndex(initialSlots);
+    }
+
+    private ByteBuf newIndex(int slots) {
+        ByteBuf newIndex = Unpooled.directBuffer(slots * SLOT_SIZE, slots * SLOT_SIZE);
+        newIndex.setZero(0, newIndex.capacity());
+
+        this.slotMask = slots - 1;
+        this.growThreshold = (int) ((long) slots * MAX_LOAD_PERCENT / 100);
+
+        return newIndex;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true if any entry has an expiry time, so is worth sampling
+     */
+    boolean hasExpiringEntries() {
+        return expiringEntries > 0;
+    }
+
+    boolean get(long hash, ByteBuf key, int keyIndex, int keyLen, BinaryMessage out) {
+        long stamp = lock.readLock();
+        try {
+            int slot = findSlot(hash, key, keyIndex, keyLen);
+            if (slot < 0)
+                return false;
+
+            int offset = slotOffset(slot);
+            if (isExpired(offset, System.currentTimeMillis()))
+                return false;
+
+            out.value(data, offset + ENTRY_HEADER_SIZE + keyLen, data.getInt(offset + ENTRY_VALUE_LEN));
+
+            return true;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Copy the slab up to its last entry into out, replacing its contents. The copy is taken
+     * without locking and kept if no write happened meanwhile, so writers are not held up,
+     * only falling back to the read lock under sustained writes.
+     * @param out Buffer which grows to the slab capacity if needed
+     * @see #ENTRY_HEADER_SIZE for the layout of entries, which includes dead ones
+     */
+    void copySlab(ByteBuf out) {
+        out.clear().ensureWritable(data.capacity());
+
+        for (int attempt = 0; attempt < OPTIMISTIC_COPY_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0)
+                continue;
+
+            out.clear().writeBytes(data, 0, Math.min(writeOffset, data.capacity()));
+            if (lock.validate(stamp))
+                return;
+        }
+
+        long stamp = lock.readLock();
+        try {
+            out.clear().writeBytes(data, 0, writeOffset);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @param expireAt Absolute expiry in epoch millis, or {@link Storage#NO_EXPIRY}
+     */
+    boolean set(long hash, ByteBuf key, int keyIndex, int keyLen, ByteBuf value, int valueIndex, int valueLen,
+                long expireAt) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(hash, key, keyIndex, keyLen);
+
+            // Same sized values are overwritten in place without producing garbage
+            if (slot >= 0 && data.getInt(slotOffset(slot) + ENTRY_VALUE_LEN) == valueLen) {
+                int offset = slotOffset(slot);
+                setExpireAt(offset, expireAt);
+                data.setBytes(offset + ENTRY_HEADER_SIZE + keyLen, value, valueIndex, valueLen);
+                return true;
+            }
+
+            // The replaced entry becomes garbage, so its bytes count toward the fit
+            int entrySize = ENTRY_HEADER_SIZE + keyLen + valueLen;
+            int replacedSize = slot >= 0 ? entrySize(slotOffset(slot)) : 0;
+            if (data.capacity() - writeOffset + garbageBytes + replacedSize < entrySize)
+                return false;
+
+            if (slot >= 0)
+                killEntry(slotOffset(slot));
+
+            reserve(entrySize);
+
+            // Compaction may have moved entries, though never slots
+            int offset = append(hash, key, keyIndex, keyLen, value, valueIndex, valueLen, expireAt);
+            if (expireAt != Storage.NO_EXPIRY)
+                expiringEntries++;
+
+            if (slot >= 0) {
+                setSlotOffset(slot, offset);
+            } else {
+                if (size >= growThreshold)
+                    growIndex();
+
+                insertSlot(hash, offset);
+                size++;
+            }
+
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return true if the key was present and not yet expired
+     */
+    boolean delete(long hash, ByteBuf key, int keyIndex, int keyLen) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(hash, key, keyIndex, keyLen);
+            if (slot < 0)
+                return false;
+
+            boolean live = !isExpired(slotOffset(slot), System.currentTimeMillis());
+            removeEntry(slot);
+
+            return live;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @param expireAt Absolute expiry in epoch millis, or {@link Storage#NO_EXPIRY} to persist
+     * @return true if the key was present and not yet expired
+     */
+    boolean expire(long hash, ByteBuf key, int keyIndex, int keyLen, long expireAt) {
+        long stamp = lock.writeLock();
+        try {
+            int slot = findSlot(hash, key, keyIndex, keyLen);
+            if (slot < 0)
+                return false;
+
+            int offset = slotOffset(slot);
+            if (isExpired(offset, System.currentTimeMillis())) {
+                removeEntry(slot);
+                return false;
+            }
+
+            setExpireAt(offset, expireAt);
+
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return Absolute expiry in epoch millis, {@link Storage#NO_EXPIRY} if none,
+     * or {@link Storage#KEY_ABSENT} if the key is absent or expired
+     */
+    long expireAt(long hash, ByteBuf key, int keyIndex, int keyLen) {
+        long stamp = lock.readLock();
+        try {
+            int slot = findSlot(hash, key, keyIndex, keyLen);
+            if (slot < 0)
+                return Storage.KEY_ABSENT;
+
+            int offset = slotOffset(slot);
+            if (isExpired(offset, System.currentTimeMillis()))
+                return Storage.KEY_ABSENT;
+
+            return data.getLong(offset + ENTRY_EXPIRE_AT);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Examine up to maxSamples entries with an expiry from where the previous call stopped,
+     * removing those expired. Empty slots and entries without expiry are passed over uncounted,
+     * so the share of samples removed reflects the expiring entries alone.
+     * @param now Current epoch millis
+     * @return Number of entries removed
+     * @see #purgeSamples() for the number examined
+     */
+    int purgeExpired(long now, int maxSamples) {
+        purgeSamples = 0;
+        if (!hasExpiringEntries())
+            return 0;
+
+        long stamp = lock.writeLock();
+        try {
+            int removed = 0;
+            int sampled = 0;
+            int slotsLeft = maxSamples * PURGE_SLOTS_PER_SAMPLE;
+
+            while (sampled < maxSamples && slotsLeft-- > 0 && expiringEntries > 0) {
+                int slot = expireCursor & slotMask;
+                int offset = slotOffset(slot);
+
+                if (offset >= 0 && data.getLong(offset + ENTRY_EXPIRE_AT) != Storage.NO_EXPIRY) {
+                    sampled++;
+
+                    // Backward shift may pull the next entry of the run into this slot, so it is examined again
+                    if (isExpired(offset, now)) {
+                        removeEntry(slot);
+                        removed++;
+                        continue;
+                    }
+                }
+
+                expireCursor = (slot + 1) & slotMask;
+            }
+
+            purgeSamples = sampled;
+
+            return removed;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return Expiring entries examined by the last {@link #purgeExpired(long, int)}, fewer than
+     * asked for once the walk of slots is used up, called from the purging thread
+     */
+    int purgeSamples() {
+        return purgeSamples;
+    }
+
+    /**
+     * Drop every entry, keeping the slab and the index at its current size
+     */
+    void clear() {
+        long stamp = lock.writeLock();
+        try {
+            index.setZero(0, index.capacity());
+            size = 0;
+            writeOffset = 0;
+            garbageBytes = 0;
+            expiringEntries = 0;
+            expireCursor = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    void close() {
+        long stamp = lock.writeLock();
+        try {
+            data.release();
+            index.release();
+            size = 0;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int findSlot(long hash, ByteBuf key, int keyIndex, int keyLen) {
+        int slot = (int) hash & slotMask;
+
+        while (true) {
+            int offset = slotOffset(slot);
+            if (offset < 0)
+                return -1;
+
+            if (index.getLong(slot * SLOT_SIZE + SLOT_HASH) == hash
+                    && data.getShort(offset + ENTRY_KEY_LEN) == keyLen
+                    && keyEquals(offset + ENTRY_HEADER_SIZE, key, keyIndex, keyLen))
+                return slot;
+
+            slot = (slot + 1) & slotMask;
+        }
+    }
+
+    /**
+     * Compare stored key bytes by absolute index. {@link io.netty.buffer.ByteBufUtil#equals}
+     * is bounded by writer index, which the slab does not maintain.
+     */
+    private boolean keyEquals(int offset, ByteBuf key, int keyIndex, int keyLen) {
+        int i = 0;
+        for (; i + Long.BYTES <= keyLen; i += Long.BYTES) {
+            if (data.getLong(offset + i) != key.getLong(keyIndex + i))
+                return false;
+        }
+
+        for (; i < keyLen; i++) {
+            if (data.getByte(offset + i) != key.getByte(keyIndex + i))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return Offset of the entry in the data slab, or -1 if the slot is empty
+     */
+    private int slotOffset(int slot) {
+        return index.getInt(slot * SLOT_SIZE + SLOT_OFFSET) - 1;
+    }
+
+    private void setSlotOffset(int slot, int offset) {
+        index.setInt(slot * SLOT_SIZE + SLOT_OFFSET, offset + 1);
+    }
+
+    private void insertSlot(long hash, int offset) {
+        int slot = (int) hash & slotMask;
+        while (slotOffset(slot) >= 0)
+            slot = (slot + 1) & slotMask;
+
+        index.setLong(slot * SLOT_SIZE + SLOT_HASH, hash);
+        setSlotOffset(slot, offset);
+    }
+
+    /**
+     * Backward shift deletion, pulling later entries of the probe run into the hole
+     * so lookups never need tombstones.
+     */
+    private void removeSlot(int slot) {
+        int hole = slot;
+        int next = (hole + 1) & slotMask;
+
+        while (slotOffset(next) >= 0) {
+            int ideal = (int) index.getLong(next * SLOT_SIZE + SLOT_HASH) & slotMask;
+
+            if (((next - ideal) & slotMask) >= ((next - hole) & slotMask)) {
+                index.setBytes(hole * SLOT_SIZE, index, next * SLOT_SIZE, SLOT_SIZE);
+                hole = next;
+            }
+
+            next = (next + 1) & slotMask;
+        }
+
+        index.setZero(hole * SLOT_SIZE, SLOT_SIZE);
+    }
+
+    private void growIndex() {
+        ByteBuf oldIndex = this.index;
+        int oldSlots = oldIndex.capacity() / SLOT_SIZE;
+
+        this.index = newIndex(oldSlots << 1);
+
+        for (int slot = 0; slot < oldSlots; slot++) {
+            int offset = oldIndex.getInt(slot * SLOT_SIZE + SLOT_OFFSET) - 1;
+            if (offset >= 0)
+                insertSlot(oldIndex.getLong(slot * SLOT_SIZE + SLOT_HASH), offset);
+        }
+
+        oldIndex.release();
+    }
+
+    private boolean isExpired(int offset, long now) {
+        long expireAt = data.getLong(offset + ENTRY_EXPIRE_AT);
+
+        return expireAt != Storage.NO_EXPIRY && expireAt <= now;
+    }
+
+    private void setExpireAt(int offset, long expireAt) {
+        long previous = data.getLong(offset + ENTRY_EXPIRE_AT);
+        if (previous == Storage.NO_EXPIRY && expireAt != Storage.NO_EXPIRY)
+            expiringEntries++;
+        else if (previous != Storage.NO_EXPIRY && expireAt == Storage.NO_EXPIRY)
+            expiringEntries--;
+
+        data.setLong(offset + ENTRY_EXPIRE_AT, expireAt);
+    }
+
+    private void removeEntry(int slot) {
+        killEntry(slotOffset(slot));
+        removeSlot(slot);
+        size--;
+    }
+
+    /**
+     * Mark an entry dead, no longer counting it as expiring
+     */
+    private void killEntry(int offset) {
+        if (data.getLong(offset + ENTRY_EXPIRE_AT) != Storage.NO_EXPIRY)
+            expiringEntries--;
+
+        markDead(offset);
+    }
+
+    private int entrySize(int offset) {
+        return ENTRY_HEADER_SIZE + data.getShort(offset + ENTRY_KEY_LEN) + data.getInt(offset + ENTRY_VALUE_LEN);
+    }
+
+    private void markDead(int offset) {
+        data.setByte(offset + ENTRY_FLAGS, FLAG_DEAD);
+        garbageBytes += entrySize(offset);
+    }
+
+    /**
+     * Make room for an append of entrySize bytes, compacting if the free tail is too short.
+     * The caller has already checked that the entry fits once garbage is reclaimed.
+     */
+    private void reserve(int entrySize) {
+        if (data.capacity() - writeOffset < entrySize)
+            compact();
+    }
+
+    private int append(long hash, ByteBuf key, int keyIndex, int keyLen, ByteBuf value, int valueIndex, int valueLen,
+                       long expireAt) {
+        int offset = writeOffset;
+
+        data.setLong(offset + ENTRY_HASH, hash);
+        data.setByte(offset + ENTRY_FLAGS, 0);
+        data.setShort(offset + ENTRY_KEY_LEN, keyLen);
+        data.setInt(offset + ENTRY_VALUE_LEN, valueLen);
+        data.setLong(offset + ENTRY_EXPIRE_AT, expireAt);
+        data.setBytes(offset + ENTRY_HEADER_SIZE, key, keyIndex, keyLen);
+        data.setBytes(offset + ENTRY_HEADER_SIZE + keyLen, value, valueIndex, valueLen);
+
+        writeOffset += ENTRY_HEADER_SIZE + keyLen + valueLen;
+
+        return offset;
+    }
+
+    /**
+     * Slide all live entries toward the start of the slab in address order,
+     * repointing each moved entry's index slot.
+     */
+    private void compact() {
+        int src = 0;
+        int dst = 0;
+
+        while (src < writeOffset) {
+            int entrySize = entrySize(src);
+
+            if ((data.getByte(src + ENTRY_FLAGS) & FLAG_DEAD) == 0) {
+                if (src != dst) {
+                    int slot = slotOfOffset(data.getLong(src + ENTRY_HASH), src);
+                    moveDown(src, dst, entrySize);
+                    setSlotOffset(slot, dst);
+                }
+
+                dst += entrySize;
+            }
+
+            src += entrySize;
+        }
+
+        writeOffset = dst;
+        garbageBytes = 0;
+    }
+
+    private int slotOfOffset(long hash, int offset) {
+        int slot = (int) hash & slotMask;
+        while (slotOffset(slot) != offset)
+            slot = (slot + 1) & slotMask;
+
+        return slot;
+    }
+
+    /**
+     * Overlap safe copy to a lower offset, copying front to back
+     */
+    private void moveDown(int src, int dst, int length) {
+        int i = 0;
+        for (; i + Long.BYTES <= length; i += Long.BYTES)
+            data.setLong(dst + i, data.getLong(src + i));
+
+        for (; i < length; i++)
+            data.setByte(dst + i, data.getByte(src + i));
+    }
+
+}
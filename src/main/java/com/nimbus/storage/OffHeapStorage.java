@@ -0,0 +1,266 @@
+package com.nimbus.storage;
+
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.routing.BucketMap;
+import com.nimbus.routing.HashConstants;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.Arrays;
+
+/**
+ * {@link Storage} engine holding all keys and values in direct memory, outside the reach
+ * of the garbage collector. The keyspace is partitioned by {@link HashConstants#HASH_FUNCTION}
+ * across independently locked {@link OffHeapSegment}s, each an open addressing table with
+ * key and value bytes stored inline in a fixed size slab. Segments are selected by the top
+ * bits of the hash, so each holds a contiguous range of {@link BucketMap} buckets.
+ * <p>
+ * The memory budget is divided evenly between segments and bounds the slab memory used by
+ * keys, values and their 23 byte entry headers. Index slots add a further 16 bytes per slot,
+ * kept at most 75% full. Writes which cannot fit are rejected rather than evicting. As an entry
+ * lives in a single segment slab, no entry larger than {@link #maxEntryBytes()}, the budget
+ * divided by the segment count, can ever be stored, however empty the storage is.
+ * <p>
+ * Expired entries are purged by sampling a few expiring entries per segment at a time, visiting
+ * segments round robin and skipping any without expiring entries.
+ * @implNote Direct memory is allocated through netty, so the JVM must be started with a
+ * sufficient -XX:MaxDirectMemorySize for the configured budget
+ */
+public class OffHeapStorage implements Storage {
+
+    public static final int DEFAULT_SEGMENTS = 256;
+
+    /**
+     * Smallest segment the default segment count is reduced to, keeping the largest storable
+     * entry reasonable under small budgets
+     */
+    public static final long MIN_DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+
+    private static final int INITIAL_SLOTS = 1024;
+
+    /**
+     * Expiring entries examined in a segment per visit when purging expired entries
+     */
+    private static final int PURGE_SAMPLES_PER_SEGMENT = 16;
+
+    private final OffHeapSegment[] segments;
+    private final int segmentMask;
+    private final int segmentBits;
+    private final int maxEntryBytes;
+    private int purgeCursor;
+
+    /**
+     * Uses {@value #DEFAULT_SEGMENTS} segments, or fewer under a budget too small to give each
+     * {@link #MIN_DEFAULT_SEGMENT_BYTES}
+     * @param memoryBudgetBytes Total bytes of slab memory shared by all segments
+     */
+    public OffHeapStorage(long memoryBudgetBytes) {
+        this(memoryBudgetBytes, defaultSegments(memoryBudgetBytes));
+    }
+
+    /**
+     * @param memoryBudgetBytes Total bytes of slab memory shared by all segments
+     * @param segmentCount Number of independently locked segments, a power of two.
+     *                     More segments reduce lock contention and compaction pauses, but
+     *                     each bounds the largest entry to the budget divided by the count.
+     */
+    public OffHeapStorage(long memoryBudgetBytes, int segmentCount) {
+        if (Integer.bitCount(segmentCount) != 1)
+            throw new IllegalArgumentException("Segment count must be a power of two");
+
+        long segmentBytes = memoryBudgetBytes / segmentCount;
+        if (segmentBytes < OffHeapSegment.ENTRY_HEADER_SIZE || segmentBytes > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("Memory budget of " + memoryBudgetBytes
+                    + " bytes cannot be split into " + segmentCount + " segments");
+
+        this.segments = new OffHeapSegment[segmentCount];
+        this.segmentMask = segmentCount - 1;
+        this.segmentBits = Integer.numberOfTrailingZeros(segmentCount);
+
+        this.maxEntryBytes = (int) segmentBytes - OffHeapSegment.ENTRY_HEADER_SIZE;
+
+        for (int i = 0; i < segmentCount; i++)
+            segments[i] = new OffHeapSegment((int) segmentBytes, INITIAL_SLOTS);
+    }
+
+    private static int defaultSegments(long memoryBudgetBytes) {
+        long fitting = Math.max(1, memoryBudgetBytes / MIN_DEFAULT_SEGMENT_BYTES);
+
+        return (int) Math.min(DEFAULT_SEGMENTS, Long.highestOneBit(fitting));
+    }
+
+    /**
+     * @return Largest key plus value length in bytes which can be stored, as each entry must
+     * fit in the slab of its segment
+     */
+    public int maxEntryBytes() {
+        return maxEntryBytes;
+    }
+
+    /**
+     * Segments are selected from the upper hash bits, leaving the lower
+     * bits to select a slot within the segment index.
+     */
+    private OffHeapSegment segment(long hash) {
+        return segments[segmentIndex(hash)];
+    }
+
+    private int segmentIndex(long hash) {
+        return segmentBits == 0 ? 0 : (int) (hash >>> (Long.SIZE - segmentBits));
+    }
+
+    @Override
+    public boolean get(ByteBuf key, BinaryMessage out) {
+        int keyIndex = key.readerIndex();
+        int keyLen = key.readableBytes();
+        long hash = HashConstants.hash(key, keyIndex, keyLen);
+
+        return segment(hash).get(hash, key, keyIndex, keyLen, out);
+    }
+
+    @Override
+    public boolean set(ByteBuf key, ByteBuf value, long expireAt) {
+        int keyIndex = key.readerIndex();
+        int keyLen = key.readableBytes();
+        long hash = HashConstants.hash(key, keyIndex, keyLen);
+
+        return segment(hash).set(hash, key, keyIndex, keyLen, value, value.readerIndex(), value.readableBytes(),
+                expireAt);
+    }
+
+    @Override
+    public boolean delete(ByteBuf key) {
+        int keyIndex = key.readerIndex();
+        int keyLen = key.readableBytes();
+        long hash = HashConstants.hash(key, keyIndex, keyLen);
+
+        return segment(hash).delete(hash, key, keyIndex, keyLen);
+    }
+
+    @Override
+    public boolean expire(ByteBuf key, long expireAt) {
+        int keyIndex = key.readerIndex();
+        int keyLen = key.readableBytes();
+        long hash = HashConstants.hash(key, keyIndex, keyLen);
+
+        return segment(hash).expire(hash, key, keyIndex, keyLen, expireAt);
+    }
+
+    @Override
+    public long expireAt(ByteBuf key) {
+        int keyIndex = key.readerIndex();
+        int keyLen = key.readableBytes();
+        long hash = HashConstants.hash(key, keyIndex, keyLen);
+
+        return segment(hash).expireAt(hash, key, keyIndex, keyLen);
+    }
+
+    @Override
+    public int purgeExpired(int maxSamples) {
+        long now = System.currentTimeMillis();
+        int removed = 0;
+        int sampled = 0;
+
+        for (int visited = 0; visited < segments.length && sampled < maxSamples; visited++) {
+            OffHeapSegment segment = segments[purgeCursor];
+            purgeCursor = (purgeCursor + 1) & segmentMask;
+
+            if (!segment.hasExpiringEntries())
+                continue;
+
+            // Segments with few expiring entries yield fewer samples, which the next segments make up
+            removed += segment.purgeExpired(now, Math.min(PURGE_SAMPLES_PER_SEGMENT, maxSamples - sampled));
+            sampled += segment.purgeSamples();
+        }
+
+        return removed;
+    }
+
+    /**
+     * Copies one segment slab at a time, then visits its live entries sorted by bucket.
+     * As segments hold ascending bucket ranges, the whole scan is in bucket order.
+     */
+    @Override
+    public void scan(EntryVisitor visitor) {
+        scan(0, BucketMap.BUCKET_COUNT, visitor);
+    }
+
+    /**
+     * Only copies the segments overlapping the bucket range
+     */
+    @Override
+    public void scan(int fromBucket, int toBucket, EntryVisitor visitor) {
+        if (fromBucket >= toBucket)
+            return;
+
+        ByteBuf copy = Unpooled.directBuffer();
+        try {
+            long now = System.currentTimeMillis();
+            long[] entries = new long[64];
+
+            int first = segmentIndex(BucketMap.firstHash(fromBucket));
+            int last = segmentIndex(BucketMap.firstHash(toBucket - 1));
+            for (int s = first; s <= last; s++) {
+                segments[s].copySlab(copy);
+
+                // Pack the bucket above the offset, so sorting orders entries by bucket
+                int count = 0;
+                for (int offset = 0; offset < copy.writerIndex(); ) {
+                    int keyLen = copy.getShort(offset + OffHeapSegment.ENTRY_KEY_LEN);
+                    int valueLen = copy.getInt(offset + OffHeapSegment.ENTRY_VALUE_LEN);
+                    long expireAt = copy.getLong(offset + OffHeapSegment.ENTRY_EXPIRE_AT);
+
+                    boolean live = (copy.getByte(offset + OffHeapSegment.ENTRY_FLAGS) & OffHeapSegment.FLAG_DEAD) == 0
+                            && (expireAt == NO_EXPIRY || expireAt > now);
+                    int bucket = BucketMap.bucket(copy.getLong(offset + OffHeapSegment.ENTRY_HASH));
+                    if (live && bucket >= fromBucket && bucket < toBucket) {
+                        if (count == entries.length)
+                            entries = Arrays.copyOf(entries, count * 2);
+
+                        entries[count++] = (long) bucket << Integer.SIZE | offset;
+                    }
+
+                    offset += OffHeapSegment.ENTRY_HEADER_SIZE + keyLen + valueLen;
+                }
+
+                Arrays.sort(entries, 0, count);
+
+                for (int i = 0; i < count; i++) {
+                    int offset = (int) entries[i];
+                    int keyLen = copy.getShort(offset + OffHeapSegment.ENTRY_KEY_LEN);
+                    int valueLen = copy.getInt(offset + OffHeapSegment.ENTRY_VALUE_LEN);
+                    int keyIndex = offset + OffHeapSegment.ENTRY_HEADER_SIZE;
+
+                    visitor.visit(copy.getLong(offset + OffHeapSegment.ENTRY_HASH),
+                            copy.slice(keyIndex, keyLen),
+                            copy.slice(keyIndex + keyLen, valueLen),
+                            copy.getLong(offset + OffHeapSegment.ENTRY_EXPIRE_AT));
+                }
+            }
+        } finally {
+            copy.release();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (OffHeapSegment segment : segments)
+            segment.clear();
+    }
+
+    @Override
+    public long size() {
+        long size = 0;
+        for (OffHeapSegment segment : segments)
+            size += segment.size();
+
+        return size;
+    }
+
+    @Override
+    public void close() {
+        for (OffHeapSegment segment : segments)
+            segment.close();
+    }
+
+}
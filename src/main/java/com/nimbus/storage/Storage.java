@@ -0,0 +1,131 @@
+package com.nimbus.storage;
+
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.routing.BucketMap;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Pluggable key value storage engine backing the server command dispatcher.
+ * Keys and values are passed as the readable region of a {@link ByteBuf} so engines
+ * may copy directly out of network buffers. Implementations must be safe for concurrent
+ * use from every server event loop thread, without serializing on a single global lock.
+ * <p>
+ * Keys may carry an absolute expiry time in epoch millis. Expired keys must read as absent
+ * from the moment they expire, though engines may reclaim their memory lazily, on access or
+ * through {@link #purgeExpired(int)}.
+ */
+public interface Storage {
+
+    /**
+     * Expiry time of a key which never expires
+     */
+    long NO_EXPIRY = 0;
+
+    /**
+     * {@link #expireAt(ByteBuf)} result for a key which is absent or already expired
+     */
+    long KEY_ABSENT = -1;
+
+    /**
+     * Look up a key and if present write its value to the provided message.
+     * @implNote out may share memory with key when a response reuses its request buffer,
+     * so implementations must finish reading the key before writing any value data
+     * @param key Key bytes between readerIndex and writerIndex, indexes are not modified
+     * @param out Message to append the value field to
+     * @return true if the key was present and its value written
+     */
+    boolean get(ByteBuf key, BinaryMessage out);
+
+    /**
+     * Insert or replace the value of a key. Key and value bytes are copied,
+     * the provided buffers are not retained.
+     * @param key Key bytes between readerIndex and writerIndex, indexes are not modified
+     * @param value Value bytes between readerIndex and writerIndex, indexes are not modified
+     * @return true if stored, false if rejected because the storage memory budget is exhausted
+     */
+    default boolean set(ByteBuf key, ByteBuf value) {
+        return set(key, value, NO_EXPIRY);
+    }
+
+    /**
+     * Insert or replace the value of a key, replacing any previous expiry.
+     * Key and value bytes are copied, the provided buffers are not retained.
+     * @param key Key bytes between readerIndex and writerIndex, indexes are not modified
+     * @param value Value bytes between readerIndex and writerIndex, indexes are not modified
+     * @param expireAt Absolute expiry in epoch millis, or {@link #NO_EXPIRY}
+     * @return true if stored, false if rejected because the storage memory budget is exhausted
+     */
+    boolean set(ByteBuf key, ByteBuf value, long expireAt);
+
+    /**
+     * Remove a key and its value.
+     * @param key Key bytes between readerIndex and writerIndex, indexes are not modified
+     * @return true if the key was present
+     */
+    boolean delete(ByteBuf key);
+
+    /**
+     * Change the expiry of an existing key.
+     * @param key Key bytes between readerIndex and writerIndex, indexes are not modified
+     * @param expireAt Absolute expiry in epoch millis, or {@link #NO_EXPIRY} to persist the key
+     * @return true if the key was present
+     */
+    boolean expire(ByteBuf key, long expireAt);
+
+    /**
+     * @param key Key bytes between readerIndex and writerIndex, indexes are not modified
+     * @return Absolute expiry in epoch millis, {@link #NO_EXPIRY} if the key never expires,
+     * or {@link #KEY_ABSENT} if it is not present
+     */
+    long expireAt(ByteBuf key);
+
+    /**
+     * Reclaim expired keys, examining at most a bounded sample of the keys with an expiry,
+     * continuing from where the previous call stopped. Keys without expiry are passed over
+     * without counting as samples, within a bounded walk. Called periodically from a single thread.
+     * @param maxSamples Upper bound on the number of expiring keys examined
+     * @return Number of expired keys removed
+     */
+    int purgeExpired(int maxSamples);
+
+    /**
+     * Visit every live entry in ascending {@link BucketMap#bucket(long) bucket}
+     * order of its hash, for snapshots. Entries are copied a portion of the keyspace at a time,
+     * never holding a lock for the whole scan, so writers proceed meanwhile. Each portion is
+     * consistent in itself, while a write racing the scan may or may not be visited.
+     * Called from a single thread at a time.
+     */
+    void scan(EntryVisitor visitor);
+
+    /**
+     * Visit every live entry whose bucket lies in a range, in ascending bucket order, with the
+     * same consistency as {@link #scan(EntryVisitor)}. Engines which partition their keyspace
+     * by bucket should override this to only copy the partitions holding the range.
+     * @param fromBucket First bucket to visit, inclusive
+     * @param toBucket Last bucket to visit, exclusive
+     */
+    default void scan(int fromBucket, int toBucket, EntryVisitor visitor) {
+        scan((hash, key, value, expireAt) -> {
+            int bucket = BucketMap.bucket(hash);
+            if (bucket >= fromBucket && bucket < toBucket)
+                visitor.visit(hash, key, value, expireAt);
+        });
+    }
+
+    /**
+     * Remove every key, such as before a replica loads a full copy of its primary. Writes racing
+     * the clear may or may not survive it.
+     */
+    void clear();
+
+    /**
+     * @return Number of keys currently stored, which may include expired keys not yet reclaimed
+     */
+    long size();
+
+    /**
+     * Release any resources held by this storage, after which it may not be used.
+     */
+    void close();
+
+}
@@ -0,0 +1,37 @@
+package com.nimbus.trace;
+
+/**
+ * Debug tracing of the encode, decode and send paths. Disabled unless the JVM is started
+ * with -Dnimbus.trace=true. Every call site must be guarded by {@code if (Trace.ENABLED)},
+ * which being static final lets the JIT remove the guarded block entirely, including
+ * building its message, so tracing costs nothing when disabled.
+ */
+public final class Trace {
+
+    public static final boolean ENABLED = Boolean.getBoolean("nimbus.trace");
+
+    private static volatile TraceHook hook = TraceHook.STDOUT;
+
+    private Trace() {
+    }
+
+    /**
+     * Replace the receiver of trace events, e.g. to forward to a logger or JFR
+     * @param traceHook New hook
+     */
+    public static void hook(TraceHook traceHook) {
+        if (traceHook == null)
+            throw new NullPointerException("Trace hook cannot be null");
+
+        hook = traceHook;
+    }
+
+    public static void event(String source, String message) {
+        hook.onEvent(source, message, null);
+    }
+
+    public static void error(String source, String message, Throwable cause) {
+        hook.onEvent(source, message, cause);
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.nimbus.trace;
+
+/**
+ * Receiver of {@link Trace} events, installed with {@link Trace#hook(TraceHook)}.
+ * Invoked synchronously on the traced thread, often a netty event loop, so
+ * implementations should not block.
+ */
+@FunctionalInterface
+public interface TraceHook {
+
+    /**
+     * Default hook, printing each event as a line to standard out
+     */
+    TraceHook STDOUT = (source, message, cause) -> {
+        if (cause == null) {
+            System.out.println("[" + source + "] " + message);
+        } else {
+            System.out.println("[" + source + "] " + message + ": " + cause);
+        }
+    };
+
+    /**
+     * @param source Component emitting the event e.g. "client", "proto"
+     * @param message Event description
+     * @param cause Related error, or null
+     */
+    void onEvent(String source, String message, Throwable cause);
+
+}
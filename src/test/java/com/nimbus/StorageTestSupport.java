@@ -0,0 +1,36 @@
+package com.nimbus;
+
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.storage.Storage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+/**
+ * Helpers shared by tests reading and writing storage engines with string keys and values
+ */
+public final class StorageTestSupport {
+
+    private StorageTestSupport() {
+    }
+
+    public static ByteBuf buf(String value) {
+        return Unpooled.wrappedBuffer(value.getBytes());
+    }
+
+    /**
+     * @return Value of the key as a string, or null if absent
+     */
+    public static String get(Storage storage, String key) {
+        ResponseMessage out = new ResponseMessage();
+        try {
+            if (!storage.get(buf(key), out))
+                return null;
+
+            out.resetReaderIndex();
+            return out.valueAsString();
+        } finally {
+            out.release();
+        }
+    }
+
+}
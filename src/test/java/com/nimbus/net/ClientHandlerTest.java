@@ -0,0 +1,93 @@
+package com.nimbus.net;
+
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.HeaderProtocol;
+import com.nimbus.proto.protocol.RequestProtocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.concurrent.Promise;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientHandlerTest {
+
+    private static ByteBuf getRequest() {
+        RequestMessage request = new RequestMessage(16);
+        request.command(RequestProtocol.CMD_GET);
+        request.key("key");
+
+        return request.end();
+    }
+
+    private static Promise<ByteBuf> write(EmbeddedChannel channel) {
+        Promise<ByteBuf> promise = channel.eventLoop().newPromise();
+        channel.writeAndFlush(new PendingRequest(getRequest(), promise));
+
+        return promise;
+    }
+
+    @Test
+    void testResponseMatchedById() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ClientHandler(4));
+        Promise<ByteBuf> promise = write(channel);
+
+        ByteBuf written = channel.readOutbound();
+        assertEquals(1, ClientHandler.of(channel).inFlight());
+
+        channel.writeInbound(written);
+
+        assertTrue(promise.isSuccess());
+        assertEquals(0, ClientHandler.of(channel).inFlight());
+        promise.getNow().release();
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testAbandonedRequestFreesSlotAndDropsLateResponse() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ClientHandler(2));
+        ClientHandler handler = ClientHandler.of(channel);
+
+        Promise<ByteBuf> promise = write(channel);
+        ByteBuf written = channel.readOutbound();
+
+        promise.tryFailure(new TimeoutException());
+        channel.runPendingTasks();
+
+        assertEquals(0, handler.inFlight());
+        assertTrue(channel.isOpen());
+
+        channel.writeInbound(written);
+        assertEquals(0, written.refCnt(), "Late response should be released");
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testStalledChannelClosed() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ClientHandler(2));
+
+        Promise<ByteBuf> first = write(channel);
+        Promise<ByteBuf> second = write(channel);
+        first.cancel(false);
+        second.cancel(false);
+        channel.runPendingTasks();
+
+        assertFalse(channel.isOpen());
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    void testRequestIdAssigned() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ClientHandler(2));
+        write(channel);
+
+        ByteBuf written = channel.readOutbound();
+        assertNotEquals(ClientHandler.NO_REQUEST_ID, HeaderProtocol.getRequestId(written));
+
+        written.release();
+        channel.finishAndReleaseAll();
+    }
+
+}
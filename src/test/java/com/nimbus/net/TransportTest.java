@@ -0,0 +1,54 @@
+package com.nimbus.net;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TransportTest {
+
+    @Test
+    void testBestIsAvailable() {
+        assertTrue(Transport.best().isAvailable());
+        assertTrue(Transport.NIO.isAvailable());
+    }
+
+    @Test
+    void testUnavailableRequestFallsBack() {
+        System.setProperty(Transport.TRANSPORT_PROPERTY, "io_uring");
+        try {
+            Transport transport = Transport.best();
+
+            assertTrue(transport.isAvailable());
+            if (!Transport.IO_URING.isAvailable())
+                assertNotEquals(Transport.IO_URING, transport);
+        } finally {
+            System.clearProperty(Transport.TRANSPORT_PROPERTY);
+        }
+    }
+
+    @Test
+    void testUnknownRequestFallsBack() {
+        System.setProperty(Transport.TRANSPORT_PROPERTY, "epolll");
+        try {
+            assertTrue(Transport.best().isAvailable());
+        } finally {
+            System.clearProperty(Transport.TRANSPORT_PROPERTY);
+        }
+    }
+
+    @Test
+    void testGroupCreatedAndShutDown() {
+        Transport transport = Transport.best();
+        EventLoopGroup group = transport.newEventLoopGroup(1, new DefaultThreadFactory("transport-test", true));
+
+        assertNotNull(transport.socketChannelClass());
+        assertNotNull(transport.serverSocketChannelClass());
+        assertTrue(group.shutdownGracefully(0, 0, TimeUnit.SECONDS)
+                .awaitUninterruptibly().isSuccess());
+    }
+
+}
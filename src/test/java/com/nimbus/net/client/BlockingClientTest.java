@@ -0,0 +1,169 @@
+package com.nimbus.net.client;
+
+import com.nimbus.net.results.ValueResult;
+import com.nimbus.net.server.SuperTcpServer;
+import com.nimbus.storage.HeapStorage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockingClientTest {
+
+    private SuperTcpServer server;
+    private ClientResources resources;
+
+    @BeforeEach
+    void setup() throws InterruptedException {
+        server = new SuperTcpServer(0, 1, 2, new HeapStorage(), Map.of());
+        server.start();
+        resources = new ClientResources();
+    }
+
+    @AfterEach
+    void tearDown() {
+        resources.close();
+        server.close();
+    }
+
+    @Test
+    void testCommands() throws Exception {
+        SuperTcpClient client = new SuperTcpClient(resources, "127.0.0.1", server.boundPort(), 1, 4, 5000, Map.of());
+        BlockingClient blocking = new BlockingClient(client);
+
+        assertTrue(blocking.set("key", "value"));
+
+        ValueResult result = blocking.get("key");
+        assertTrue(result.isOk());
+        assertEquals("value", result.valueAsString());
+        result.release();
+
+        assertTrue(blocking.setLong("counter", 99));
+        assertEquals(OptionalLong.of(99), blocking.getLong("counter"));
+
+        assertTrue(blocking.del("key"));
+        assertFalse(blocking.del("key"));
+        assertEquals(OptionalLong.empty(), blocking.getLong("key"));
+
+        client.close();
+    }
+
+    @Test
+    void testExpiry() throws Exception {
+        SuperTcpClient client = new SuperTcpClient(resources, "127.0.0.1", server.boundPort(), 1, 4, 5000, Map.of());
+        BlockingClient blocking = new BlockingClient(client);
+
+        assertTrue(blocking.setLong("short", 1, 50));
+        assertTrue(blocking.setLong("long", 2));
+        assertEquals(OptionalLong.of(-1), blocking.ttl("long"));
+        assertTrue(blocking.expire("long", 60_000));
+        assertTrue(blocking.ttl("long").orElseThrow() > 50);
+        assertFalse(blocking.expire("absent", 1000));
+
+        Thread.sleep(100);
+        assertEquals(OptionalLong.empty(), blocking.getLong("short"));
+        assertEquals(OptionalLong.empty(), blocking.ttl("short"));
+        assertEquals(OptionalLong.of(2), blocking.getLong("long"));
+
+        client.close();
+    }
+
+    @Test
+    void testManyVirtualThreadsShareFewConnections() throws Exception {
+        SuperTcpClient client = new SuperTcpClient(resources, "127.0.0.1", server.boundPort(), 1, 8, 10_000, Map.of());
+        BlockingClient blocking = new BlockingClient(client);
+        int threads = 5_000;
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Long>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                long value = i;
+                futures.add(executor.submit(() -> {
+                    blocking.setLong("key:" + value, value);
+                    return blocking.getLong("key:" + value).orElseThrow();
+                }));
+            }
+
+            for (int i = 0; i < threads; i++)
+                assertEquals(i, futures.get(i).get(30, TimeUnit.SECONDS));
+        }
+
+        assertEquals(0, resources.metrics().requestsFailed());
+        assertTrue(resources.metrics().openConnections() <= 8);
+
+        client.close();
+    }
+
+    @Test
+    void testInterruptCancelsTypedRequest() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 8, InetAddress.getLoopbackAddress())) {
+            Thread acceptor = Thread.ofVirtual().start(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    socket.getInputStream().transferTo(OutputStream.nullOutputStream());
+                } catch (Exception ignored) {
+                    // Closed by the test
+                }
+            });
+
+            // No deadline, so only cancelling frees the slot of a request never answered
+            SuperTcpClient client = new SuperTcpClient(resources, "127.0.0.1", serverSocket.getLocalPort(),
+                    1, 1, 0, Map.of());
+            BlockingClient blocking = new BlockingClient(client);
+
+            CompletableFuture<Throwable> thrown = new CompletableFuture<>();
+            Thread caller = Thread.ofVirtual().start(() -> {
+                try {
+                    blocking.set("key", "value");
+                    thrown.complete(null);
+                } catch (Throwable t) {
+                    thrown.complete(t);
+                }
+            });
+
+            while (resources.metrics().requestsSent() == 0)
+                Thread.sleep(1);
+            caller.interrupt();
+
+            assertInstanceOf(InterruptedException.class, thrown.get(5, TimeUnit.SECONDS));
+            assertEquals(1, resources.metrics().requestsFailed());
+
+            client.close();
+            acceptor.interrupt();
+        }
+    }
+
+    @Test
+    void testDeadlineThrowsCompletionException() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 8, InetAddress.getLoopbackAddress())) {
+            Thread acceptor = Thread.ofVirtual().start(() -> {
+                try (Socket socket = serverSocket.accept()) {
+                    socket.getInputStream().transferTo(OutputStream.nullOutputStream());
+                } catch (Exception ignored) {
+                    // Closed by the test
+                }
+            });
+
+            SuperTcpClient client = new SuperTcpClient(resources, "127.0.0.1", serverSocket.getLocalPort(),
+                    1, 4, 100, Map.of());
+            BlockingClient blocking = new BlockingClient(client);
+
+            CompletionException e = assertThrows(CompletionException.class, () -> blocking.get("key"));
+            assertInstanceOf(TimeoutException.class, e.getCause());
+
+            client.close();
+            acceptor.interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.nimbus.net.client;
+
+import com.nimbus.net.Transport;
+import com.nimbus.net.server.SuperTcpServer;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import com.nimbus.storage.HeapStorage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClientResourcesTest {
+
+    private SuperTcpServer server;
+
+    @BeforeEach
+    void setup() throws InterruptedException {
+        server = new SuperTcpServer(0, 1, 1, new HeapStorage(), Map.of());
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close();
+    }
+
+    private static ByteBuf setRequest(String key) {
+        RequestMessage request = new RequestMessage(64);
+        request.command(RequestProtocol.CMD_SET);
+        request.count(1);
+        request.key(key);
+        request.value("value");
+
+        return request.end();
+    }
+
+    @Test
+    void testClientsShareResources() throws Exception {
+        ClientResources resources = new ClientResources(Transport.best(), 1, PooledByteBufAllocator.DEFAULT);
+
+        List<SuperTcpClient> clients = new ArrayList<>();
+        for (int i = 0; i < 3; i++)
+            clients.add(new SuperTcpClient(resources, "127.0.0.1", server.boundPort(), 2, 4, 5000, Map.of()));
+
+        for (int i = 0; i < clients.size(); i++) {
+            ByteBuf request = setRequest("key" + i);
+            ResponseMessage response = new ResponseMessage(clients.get(i).send(request).get(5, TimeUnit.SECONDS));
+            request.release();
+
+            assertEquals(ResponseProtocol.STATUS_OK, response.status());
+            response.release();
+        }
+
+        assertSame(resources, clients.get(0).resources());
+        assertEquals(3, resources.metrics().requestsSent());
+        assertEquals(3, resources.metrics().responsesReceived());
+        assertEquals(0, resources.metrics().requestsFailed());
+        assertEquals(3, resources.metrics().openConnections());
+
+        for (SuperTcpClient client : clients)
+            client.close();
+        resources.close();
+
+        assertTrue(resources.eventLoopGroup().isTerminated());
+        assertEquals(0, resources.metrics().openConnections());
+    }
+
+    @Test
+    void testSharedResourcesCannotBeClosed() {
+        assertThrows(IllegalStateException.class, () -> ClientResources.shared().close());
+    }
+
+}
@@ -0,0 +1,153 @@
+package com.nimbus.net.client;
+
+import com.nimbus.net.ClientHandler;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearCacheTest {
+
+    private static ByteBuf value(String value) {
+        return Unpooled.copiedBuffer(value, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testFillAndGet() {
+        NearCache cache = new NearCache(1 << 20, 0, false);
+
+        assertNull(cache.get("key"));
+        cache.fill("key", value("value"), cache.stamp("key"));
+
+        assertArrayEquals("value".getBytes(StandardCharsets.UTF_8), cache.get("key"));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void testKeyTypesShareWireEncoding() {
+        NearCache cache = new NearCache(1 << 20, 0, false);
+
+        cache.fill("key", value("a"), cache.stamp("key"));
+        assertNotNull(cache.get("key".getBytes(StandardCharsets.UTF_8)));
+
+        cache.fill(7L, value("b"), cache.stamp(7L));
+        assertNotNull(cache.get(new byte[]{0, 0, 0, 0, 0, 0, 0, 7}));
+        assertNull(cache.get(7));
+    }
+
+    @Test
+    void testInvalidationDiscardsInFlightFill() {
+        NearCache cache = new NearCache(1 << 20, 0, false);
+
+        long stamp = cache.stamp("key");
+        cache.invalidate("key");
+        cache.fill("key", value("stale"), stamp);
+
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testInvalidationOfOtherKeyKeepsInFlightFill() {
+        NearCache cache = new NearCache(1 << 20, 0, false);
+
+        long stamp = cache.stamp("key");
+        cache.invalidate("other");
+        cache.fill("key", value("value"), stamp);
+
+        assertNotNull(cache.get("key"));
+
+        // Everything in flight is discarded by invalidating all
+        stamp = cache.stamp("key");
+        cache.invalidateAll();
+        cache.fill("key", value("stale"), stamp);
+        assertNull(cache.get("key"));
+    }
+
+    @Test
+    void testInvalidate() {
+        NearCache cache = new NearCache(1 << 20, 0, false);
+
+        cache.fill("key", value("value"), cache.stamp("key"));
+        cache.invalidate("key");
+
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    void testExpiry() throws InterruptedException {
+        NearCache cache = new NearCache(1 << 20, 20, false);
+
+        cache.fill("key", value("value"), cache.stamp("key"));
+        assertNotNull(cache.get("key"));
+
+        Thread.sleep(50);
+        assertNull(cache.get("key"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testEvictionKeepsBudgetAndReferencedEntries() {
+        NearCache cache = new NearCache(4096, 0, false);
+        String payload = "x".repeat(200);
+
+        cache.fill("hot", value(payload), cache.stamp("hot"));
+        for (int i = 0; i < 100; i++) {
+            cache.get("hot");
+            cache.fill("cold" + i, value(payload), cache.stamp("cold" + i));
+        }
+
+        assertTrue(cache.bytes() <= 4096, "Over budget: " + cache.bytes());
+        assertTrue(cache.evictions() > 0);
+        assertNotNull(cache.get("hot"), "Referenced entry should survive the clock");
+    }
+
+    @Test
+    void testServerPushInvalidates() {
+        NearCache cache = new NearCache(1 << 20, 0, true);
+        cache.fill("a", value("1"), cache.stamp("a"));
+        cache.fill("b", value("2"), cache.stamp("b"));
+
+        ResponseMessage push = new ResponseMessage(64)
+                .requestId(ClientHandler.NO_REQUEST_ID)
+                .status(RequestProtocol.CMD_INVALIDATE)
+                .count(1);
+        push.key("a");
+        ByteBuf frame = push.end();
+
+        cache.onPush(frame);
+        frame.release();
+
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+    }
+
+    @Test
+    void testSubscriptionAcknowledgementDropsEverything() {
+        NearCache cache = new NearCache(1 << 20, 0, true);
+        cache.fill("a", value("1"), cache.stamp("a"));
+        long stamp = cache.stamp("b");
+
+        // Pushes may have been lost before the subscription, so nothing cached is trusted
+        ResponseMessage ack = new ResponseMessage(16)
+                .requestId(ClientHandler.NO_REQUEST_ID)
+                .status(ResponseProtocol.STATUS_OK);
+        ByteBuf frame = ack.end();
+
+        cache.onPush(frame);
+        frame.release();
+
+        assertNull(cache.get("a"));
+        cache.fill("b", value("2"), stamp);
+        assertNull(cache.get("b"));
+    }
+
+}
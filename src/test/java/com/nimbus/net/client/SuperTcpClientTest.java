@@ -0,0 +1,224 @@
+package com.nimbus.net.client;
+
+import com.nimbus.net.results.ValueResult;
+import com.nimbus.net.server.SuperTcpServer;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.storage.HeapStorage;
+import io.netty.buffer.ByteBuf;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SuperTcpClientTest {
+
+    /**
+     * Accepts connections and reads requests without ever answering
+     */
+    private static Thread silentServer(ServerSocket serverSocket) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = serverSocket.accept(); InputStream in = socket.getInputStream()) {
+                while (in.read() >= 0) {
+                    // Swallow requests
+                }
+            } catch (Exception ignored) {
+                // Closed by the test
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+
+        return thread;
+    }
+
+    @Test
+    void testRequestDeadline() throws Exception {
+        try (ServerSocket serverSocket = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+             ClientResources resources = new ClientResources()) {
+            silentServer(serverSocket);
+
+            SuperTcpClient client = new SuperTcpClient(resources, "127.0.0.1", serverSocket.getLocalPort(),
+                    1, 4, 5000, Map.of());
+
+            RequestMessage request = new RequestMessage(16);
+            request.command(RequestProtocol.CMD_GET);
+            request.key("key");
+            ByteBuf message = request.end();
+
+            CompletableFuture<ByteBuf> response = client.send(message, 100);
+            ExecutionException e = assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+
+            assertInstanceOf(TimeoutException.class, e.getCause());
+            assertEquals(1, resources.metrics().requestsTimedOut());
+            assertEquals(1, resources.metrics().requestsFailed());
+
+            request.release();
+            client.close();
+        }
+    }
+
+    /**
+     * Completes the future with the value of an ok result, or "missing", releasing
+     * the result inside the listener as callers must
+     */
+    private static ResultListener<ValueResult> value(CompletableFuture<String> future) {
+        return (result, cause) -> {
+            if (cause != null) {
+                future.completeExceptionally(cause);
+                return;
+            }
+
+            try {
+                future.complete(result.isOk() ? result.valueAsString() : "missing");
+            } finally {
+                result.release();
+            }
+        };
+    }
+
+    private static ResultListener<ValueResult> status(CompletableFuture<Boolean> future) {
+        return (result, cause) -> {
+            if (cause != null) {
+                future.completeExceptionally(cause);
+                return;
+            }
+
+            try {
+                future.complete(result.isOk());
+            } finally {
+                result.release();
+            }
+        };
+    }
+
+    @Test
+    void testTypedApi() throws Exception {
+        SuperTcpServer server = new SuperTcpServer(0, 1, 1, new HeapStorage(), Map.of());
+        server.start();
+
+        try (ClientResources resources = new ClientResources()) {
+            SuperTcpClient client = new SuperTcpClient(resources, "127.0.0.1", server.boundPort(),
+                    1, 4, 5000, Map.of());
+
+            CompletableFuture<Boolean> set = new CompletableFuture<>();
+            client.set("key", "héllo", status(set));
+            assertTrue(set.get(5, TimeUnit.SECONDS));
+
+            CompletableFuture<String> get = new CompletableFuture<>();
+            client.get("key", value(get));
+            assertEquals("héllo", get.get(5, TimeUnit.SECONDS));
+
+            CompletableFuture<Boolean> setLong = new CompletableFuture<>();
+            client.setLong(42L, Long.MIN_VALUE + 7, status(setLong));
+            assertTrue(setLong.get(5, TimeUnit.SECONDS));
+
+            CompletableFuture<Long> getLong = new CompletableFuture<>();
+            client.getLong(42L, (found, value, cause) -> {
+                if (cause != null)
+                    getLong.completeExceptionally(cause);
+                else
+                    getLong.complete(found ? value : null);
+            });
+            assertEquals(Long.MIN_VALUE + 7, getLong.get(5, TimeUnit.SECONDS));
+
+            CompletableFuture<Boolean> del = new CompletableFuture<>();
+            client.del("key", status(del));
+            assertTrue(del.get(5, TimeUnit.SECONDS));
+
+            CompletableFuture<String> missing = new CompletableFuture<>();
+            client.get("key", value(missing));
+            assertEquals("missing", missing.get(5, TimeUnit.SECONDS));
+
+            assertEquals(6, resources.metrics().responsesReceived());
+
+            client.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void testNearCacheInvalidatedByOtherClient() throws Exception {
+        SuperTcpServer server = new SuperTcpServer(0, 1, 1, new HeapStorage(), Map.of());
+        server.start();
+
+        try (ClientResources resources = new ClientResources()) {
+            NearCache cache = new NearCache(1 << 20, 0, true);
+            SuperTcpClient cached = new SuperTcpClient(resources, "127.0.0.1", server.boundPort(),
+                    1, 4, 5000, FlushPolicy.DEFAULT, cache, Map.of());
+            SuperTcpClient writer = new SuperTcpClient(resources, "127.0.0.1", server.boundPort(),
+                    1, 4, 5000, Map.of());
+
+            CompletableFuture<Boolean> set = new CompletableFuture<>();
+            cached.set("key", "first", status(set));
+            assertTrue(set.get(5, TimeUnit.SECONDS));
+
+            for (int i = 0; i < 2; i++) {
+                CompletableFuture<String> get = new CompletableFuture<>();
+                cached.get("key", value(get));
+                assertEquals("first", get.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, cache.hits());
+
+            CompletableFuture<Boolean> overwrite = new CompletableFuture<>();
+            writer.set("key", "second", status(overwrite));
+            assertTrue(overwrite.get(5, TimeUnit.SECONDS));
+
+            // Push arrives asynchronously after the writer's response
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (cache.size() > 0 && System.nanoTime() < deadline)
+                Thread.sleep(5);
+
+            CompletableFuture<String> get = new CompletableFuture<>();
+            cached.get("key", value(get));
+            assertEquals("second", get.get(5, TimeUnit.SECONDS));
+
+            writer.close();
+            cached.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void testNearCacheSubscribesOneConnection() throws Exception {
+        SuperTcpServer server = new SuperTcpServer(0, 1, 1, new HeapStorage(), Map.of());
+        server.start();
+
+        try (ClientResources resources = new ClientResources()) {
+            NearCache cache = new NearCache(1 << 20, 0, true);
+            SuperTcpClient cached = new SuperTcpClient(resources, "127.0.0.1", server.boundPort(),
+                    8, 1, 5000, FlushPolicy.DEFAULT, cache, Map.of());
+
+            // One request in flight per connection, so concurrent writes open several
+            CompletableFuture<?>[] sets = new CompletableFuture<?>[32];
+            for (int i = 0; i < sets.length; i++) {
+                CompletableFuture<Boolean> set = new CompletableFuture<>();
+                cached.set("key" + i, "value", status(set));
+                sets[i] = set;
+            }
+            CompletableFuture.allOf(sets).get(5, TimeUnit.SECONDS);
+            assertTrue(resources.metrics().openConnections() > 1);
+
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (server.invalidationSubscribers() == 0 && System.nanoTime() < deadline)
+                Thread.sleep(5);
+            assertEquals(1, server.invalidationSubscribers());
+
+            cached.close();
+        } finally {
+            server.close();
+        }
+    }
+
+}
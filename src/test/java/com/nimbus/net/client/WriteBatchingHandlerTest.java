@@ -0,0 +1,166 @@
+package com.nimbus.net.client;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.*;
+import io.netty.channel.local.LocalAddress;
+import io.netty.channel.local.LocalChannel;
+import io.netty.channel.local.LocalServerChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs over the local transport on a real event loop, as the embedded channel
+ * runs pending tasks on every write and so has no notion of a loop tick
+ */
+class WriteBatchingHandlerTest {
+
+    /**
+     * Counts flushes reaching the socket side of the pipeline
+     */
+    private static class FlushCounter extends ChannelOutboundHandlerAdapter {
+        final AtomicInteger flushes = new AtomicInteger();
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            flushes.incrementAndGet();
+            ctx.flush();
+        }
+    }
+
+    private EventLoopGroup group;
+    private Channel server;
+    private FlushCounter counter;
+
+    @BeforeEach
+    void setup() throws InterruptedException {
+        group = new DefaultEventLoopGroup(1);
+        server = new ServerBootstrap()
+                .group(group)
+                .channel(LocalServerChannel.class)
+                .childHandler(new ChannelInboundHandlerAdapter() {
+                    @Override
+                    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+                        ReferenceCountUtil.release(msg);
+                    }
+                })
+                .bind(new LocalAddress("write-batching-test")).sync().channel();
+        counter = new FlushCounter();
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.close().syncUninterruptibly();
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private Channel connect(FlushPolicy policy) throws InterruptedException {
+        return new Bootstrap()
+                .group(group)
+                .channel(LocalChannel.class)
+                .handler(new ChannelInitializer<LocalChannel>() {
+                    @Override
+                    protected void initChannel(LocalChannel ch) {
+                        ch.pipeline().addLast(counter, new WriteBatchingHandler(policy));
+                    }
+                })
+                .connect(server.localAddress()).sync().channel();
+    }
+
+    /**
+     * Write and flush each message within a single event loop task
+     * @return Flushes which reached the socket before the task ended
+     */
+    private int writeInOneTick(Channel channel, int... sizes) throws Exception {
+        Callable<Integer> task = () -> {
+            for (int size : sizes)
+                channel.writeAndFlush(Unpooled.buffer(size).writeZero(size));
+
+            return counter.flushes.get();
+        };
+
+        return channel.eventLoop().submit(task).get(5, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return Flushes once every task queued so far has run
+     */
+    private int flushesAfterTick(Channel channel) throws Exception {
+        return channel.eventLoop().submit(() -> counter.flushes.get()).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testFlushesAtEndOfTick() throws Exception {
+        Channel channel = connect(new FlushPolicy(64, 1 << 20, 0));
+
+        assertEquals(0, writeInOneTick(channel, 16, 16, 16));
+        assertEquals(1, flushesAfterTick(channel));
+
+        channel.close().sync();
+    }
+
+    @Test
+    void testFlushesAtMessageLimit() throws Exception {
+        Channel channel = connect(new FlushPolicy(4, 1 << 20, 0));
+
+        assertEquals(1, writeInOneTick(channel, 16, 16, 16, 16));
+
+        // Tick flush scheduled by the first write finds nothing left to send
+        assertEquals(1, flushesAfterTick(channel));
+
+        channel.close().sync();
+    }
+
+    @Test
+    void testFlushesAtByteLimit() throws Exception {
+        Channel channel = connect(new FlushPolicy(64, 100, 0));
+
+        assertEquals(0, writeInOneTick(channel, 60));
+        assertEquals(1, flushesAfterTick(channel));
+
+        assertEquals(2, writeInOneTick(channel, 60, 60));
+        assertEquals(2, flushesAfterTick(channel));
+
+        channel.close().sync();
+    }
+
+    @Test
+    void testFlushesAfterDelay() throws Exception {
+        Channel channel = connect(new FlushPolicy(64, 1 << 20, 50_000));
+
+        assertEquals(0, writeInOneTick(channel, 16, 16));
+        assertEquals(0, flushesAfterTick(channel));
+
+        Thread.sleep(200);
+        assertEquals(1, flushesAfterTick(channel));
+
+        channel.close().sync();
+    }
+
+    @Test
+    void testCloseFlushesPendingWrites() throws Exception {
+        Channel channel = connect(new FlushPolicy(64, 1 << 20, 60_000_000));
+
+        assertEquals(0, writeInOneTick(channel, 16));
+
+        channel.close().sync();
+        assertEquals(1, counter.flushes.get());
+    }
+
+    @Test
+    void testImmediatePolicy() {
+        assertTrue(FlushPolicy.IMMEDIATE.isImmediate());
+        assertFalse(FlushPolicy.DEFAULT.isImmediate());
+        assertThrows(IllegalArgumentException.class, () -> new FlushPolicy(0, 1, 0));
+    }
+
+}
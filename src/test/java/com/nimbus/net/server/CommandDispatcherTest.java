@@ -0,0 +1,204 @@
+package com.nimbus.net.server;
+
+import com.nimbus.persistence.WriteRecord;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import com.nimbus.storage.HeapStorage;
+import com.nimbus.storage.Storage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CommandDispatcherTest {
+
+    private CommandDispatcher dispatcher;
+
+    @BeforeEach
+    void setup() {
+        dispatcher = new CommandDispatcher(new HeapStorage());
+    }
+
+    private static RequestMessage request(int command, int count) {
+        RequestMessage request = new RequestMessage(PooledByteBufAllocator.DEFAULT.buffer(64));
+        request.command(command);
+        request.count(count);
+        request.requestId(7);
+
+        return request;
+    }
+
+    /**
+     * Dispatch as the server handler would, returning the response positioned to read entries
+     */
+    private ResponseMessage dispatch(RequestMessage request) {
+        request.end();
+
+        ResponseMessage response = dispatcher.dispatch(new RequestMessage(request.buffer()));
+        request.release();
+
+        response.end();
+        response.resetReaderIndex();
+
+        return response;
+    }
+
+    @Test
+    void testSetGetDel() {
+        RequestMessage set = request(RequestProtocol.CMD_SET, 1);
+        set.key("key");
+        set.value("value");
+        ResponseMessage setResponse = dispatch(set);
+        assertEquals(ResponseProtocol.STATUS_OK, setResponse.status());
+        assertEquals(7, setResponse.requestId());
+        setResponse.release();
+
+        RequestMessage get = request(RequestProtocol.CMD_GET, 1);
+        get.key("key");
+        ResponseMessage getResponse = dispatch(get);
+        assertEquals(ResponseProtocol.STATUS_OK, getResponse.status());
+        assertEquals("value", getResponse.valueAsString());
+        getResponse.release();
+
+        RequestMessage del = request(RequestProtocol.CMD_DEL, 1);
+        del.key("key");
+        ResponseMessage delResponse = dispatch(del);
+        assertEquals(ResponseProtocol.STATUS_OK, delResponse.status());
+        delResponse.release();
+
+        RequestMessage missing = request(RequestProtocol.CMD_GET, 1);
+        missing.key("key");
+        ResponseMessage missingResponse = dispatch(missing);
+        assertEquals(ResponseProtocol.STATUS_KEY_UNKNOWN, missingResponse.status());
+        missingResponse.release();
+    }
+
+    @Test
+    void testBatchCommands() {
+        RequestMessage mset = request(RequestProtocol.CMD_MSET, 3);
+        for (int i = 0; i < 3; i++) {
+            mset.key("key" + i);
+            mset.value("value" + i);
+        }
+
+        ResponseMessage msetResponse = dispatch(mset);
+        assertEquals(3, msetResponse.count());
+        for (int i = 0; i < 3; i++)
+            assertEquals(ResponseProtocol.STATUS_OK, msetResponse.readEntryStatus());
+        msetResponse.release();
+
+        RequestMessage mdel = request(RequestProtocol.CMD_MDEL, 2);
+        mdel.key("key1");
+        mdel.key("absent");
+        ResponseMessage mdelResponse = dispatch(mdel);
+        assertEquals(ResponseProtocol.STATUS_OK, mdelResponse.readEntryStatus());
+        assertEquals(ResponseProtocol.STATUS_KEY_UNKNOWN, mdelResponse.readEntryStatus());
+        mdelResponse.release();
+
+        RequestMessage mget = request(RequestProtocol.CMD_MGET, 3);
+        mget.key("key0");
+        mget.key("key1");
+        mget.key("key2");
+        ResponseMessage mgetResponse = dispatch(mget);
+        assertEquals(7, mgetResponse.requestId());
+        assertEquals(3, mgetResponse.count());
+        assertEquals(ResponseProtocol.STATUS_OK, mgetResponse.readEntryStatus());
+        assertEquals("value0", mgetResponse.valueAsString());
+        assertEquals(ResponseProtocol.STATUS_KEY_UNKNOWN, mgetResponse.readEntryStatus());
+        assertEquals(ResponseProtocol.STATUS_OK, mgetResponse.readEntryStatus());
+        assertEquals("value2", mgetResponse.valueAsString());
+        mgetResponse.release();
+    }
+
+    @Test
+    void testBatchWithMissingEntriesIsInvalid() {
+        RequestMessage mget = request(RequestProtocol.CMD_MGET, 2);
+        mget.key("only");
+
+        ResponseMessage response = dispatch(mget);
+        assertEquals(ResponseProtocol.STATUS_INVALID_REQ, response.status());
+        response.release();
+    }
+
+    @Test
+    void testMigrateWithMalformedRecordIsInvalid() {
+        ByteBuf key = Unpooled.copiedBuffer("key", StandardCharsets.UTF_8);
+        ByteBuf value = Unpooled.copiedBuffer("value", StandardCharsets.UTF_8);
+        ByteBuf record = WriteRecord.encode(Unpooled.buffer(), RequestProtocol.CMD_SET, key, value, false,
+                Storage.NO_EXPIRY);
+
+        ByteBuf records = Unpooled.buffer();
+        records.writeBytes(record);
+        records.writeInt(-8);
+        records.writeZero(8);
+
+        RequestMessage migrate = request(RequestProtocol.REPL_CMD_MIGRATE, 2);
+        migrate.value(records, records.readerIndex(), records.readableBytes());
+
+        ResponseMessage response = dispatch(migrate);
+        assertEquals(ResponseProtocol.STATUS_INVALID_REQ, response.status());
+        response.release();
+
+        // Applied up to the malformed record, as a batch is
+        RequestMessage get = request(RequestProtocol.CMD_GET, 1);
+        get.key("key");
+        ResponseMessage getResponse = dispatch(get);
+        assertEquals("value", getResponse.valueAsString());
+        getResponse.release();
+
+        record.release();
+        records.release();
+    }
+
+    @Test
+    void testExpireAndTtl() {
+        RequestMessage set = request(RequestProtocol.CMD_SET, 1);
+        set.key("key");
+        set.value("value");
+        set.value(60_000L, Long.BYTES);
+        dispatch(set).release();
+
+        RequestMessage ttl = request(RequestProtocol.CMD_TTL, 1);
+        ttl.key("key");
+        ResponseMessage ttlResponse = dispatch(ttl);
+        assertEquals(ResponseProtocol.STATUS_OK, ttlResponse.status());
+        long remaining = ttlResponse.valueAsLong();
+        assertTrue(remaining > 0 && remaining <= 60_000, "Remaining " + remaining);
+        ttlResponse.release();
+
+        RequestMessage persist = request(RequestProtocol.CMD_EXPIRE, 1);
+        persist.key("key");
+        persist.value(0L, Long.BYTES);
+        ResponseMessage persistResponse = dispatch(persist);
+        assertEquals(ResponseProtocol.STATUS_OK, persistResponse.status());
+        persistResponse.release();
+
+        RequestMessage persisted = request(RequestProtocol.CMD_TTL, 1);
+        persisted.key("key");
+        ResponseMessage persistedResponse = dispatch(persisted);
+        assertEquals(-1, persistedResponse.valueAsLong());
+        persistedResponse.release();
+
+        RequestMessage missing = request(RequestProtocol.CMD_EXPIRE, 1);
+        missing.key("absent");
+        missing.value(1000L, Long.BYTES);
+        ResponseMessage missingResponse = dispatch(missing);
+        assertEquals(ResponseProtocol.STATUS_KEY_UNKNOWN, missingResponse.status());
+        missingResponse.release();
+
+        RequestMessage invalid = request(RequestProtocol.CMD_SET, 1);
+        invalid.key("key");
+        invalid.value("value");
+        invalid.value(-5L, Long.BYTES);
+        ResponseMessage invalidResponse = dispatch(invalid);
+        assertEquals(ResponseProtocol.STATUS_INVALID_REQ, invalidResponse.status());
+        invalidResponse.release();
+    }
+}
@@ -0,0 +1,65 @@
+package com.nimbus.net.server;
+
+import com.nimbus.persistence.AppendLog;
+import com.nimbus.persistence.FsyncPolicy;
+import com.nimbus.persistence.LoggedStorage;
+import com.nimbus.storage.HeapStorage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static com.nimbus.StorageTestSupport.buf;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DurableFlushHandlerTest {
+
+    @TempDir
+    Path directory;
+
+    private static String readOutbound(EmbeddedChannel channel) {
+        ByteBuf response = channel.readOutbound();
+        assertNotNull(response);
+        try {
+            return response.toString(StandardCharsets.UTF_8);
+        } finally {
+            response.release();
+        }
+    }
+
+    @Test
+    void testDurableBatchWaitsForEarlierBatch() throws Exception {
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.ALWAYS)) {
+            log.replay(new HeapStorage());
+            LoggedStorage storage = new LoggedStorage(new HeapStorage(), log);
+
+            EmbeddedChannel channel = new EmbeddedChannel(new DurableFlushHandler(log));
+
+            storage.set(buf("key"), buf("value"));
+            channel.write(buf("first"));
+            channel.flush();
+
+            // Durable, though the first batch's sync completion has not reached the channel
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (log.durablePosition() < log.position() && System.nanoTime() < deadline)
+                Thread.sleep(1);
+
+            channel.write(buf("second"));
+            channel.flush();
+
+            assertEquals("first", readOutbound(channel));
+            assertEquals("second", readOutbound(channel));
+
+            // The first batch's completion finds nothing left to release
+            Thread.sleep(50);
+            channel.runPendingTasks();
+            assertNull(channel.readOutbound());
+            channel.finishAndReleaseAll();
+        }
+    }
+
+}
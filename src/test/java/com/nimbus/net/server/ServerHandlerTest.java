@@ -0,0 +1,76 @@
+package com.nimbus.net.server;
+
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import com.nimbus.storage.HeapStorage;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ServerHandlerTest {
+
+    private static ByteBuf set(String key, String value, Long ttlMillis) {
+        RequestMessage request = new RequestMessage(64);
+        request.command(RequestProtocol.CMD_SET);
+        request.requestId(1);
+        request.key(key);
+        request.value(value);
+        if (ttlMillis != null)
+            request.value(ttlMillis, Long.BYTES);
+
+        return request.end();
+    }
+
+    private static int status(EmbeddedChannel channel) {
+        ResponseMessage response = new ResponseMessage((ByteBuf) channel.readOutbound());
+        int status = response.status();
+        response.release();
+
+        return status;
+    }
+
+    @Test
+    void testInvalidationPushedOnlyOnceWriteApplied() {
+        EmbeddedChannel[] subscriber = new EmbeddedChannel[1];
+
+        // A push queued before the write reaches storage could be answered with the old value
+        HeapStorage storage = new HeapStorage() {
+            @Override
+            public boolean set(ByteBuf key, ByteBuf value, long expireAt) {
+                assertNull(subscriber[0].readOutbound(), "Invalidation pushed before the write");
+                return super.set(key, value, expireAt);
+            }
+        };
+
+        ServerHandler handler = new ServerHandler(new CommandDispatcher(storage), new InvalidationBroadcaster());
+        subscriber[0] = new EmbeddedChannel(handler);
+        EmbeddedChannel writer = new EmbeddedChannel(handler);
+
+        RequestMessage subscribe = new RequestMessage(0);
+        subscribe.command(RequestProtocol.CMD_INVALIDATE);
+        subscriber[0].writeInbound(subscribe.end());
+        assertEquals(ResponseProtocol.STATUS_OK, status(subscriber[0]));
+
+        // Rejected writes change nothing, so push nothing
+        writer.writeInbound(set("key", "value", 0L));
+        assertEquals(ResponseProtocol.STATUS_INVALID_REQ, status(writer));
+        assertNull(subscriber[0].readOutbound());
+
+        writer.writeInbound(set("key", "value", null));
+        assertEquals(ResponseProtocol.STATUS_OK, status(writer));
+
+        ResponseMessage push = new ResponseMessage((ByteBuf) subscriber[0].readOutbound());
+        assertEquals(RequestProtocol.CMD_INVALIDATE, push.status());
+        assertEquals(1, push.count());
+        assertEquals("key", push.keyAsString());
+        push.release();
+
+        writer.finishAndReleaseAll();
+        subscriber[0].finishAndReleaseAll();
+    }
+
+}
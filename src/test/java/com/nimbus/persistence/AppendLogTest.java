@@ -0,0 +1,218 @@
+package com.nimbus.persistence;
+
+import com.nimbus.net.Transport;
+import com.nimbus.net.client.BlockingClient;
+import com.nimbus.net.client.ClientResources;
+import com.nimbus.net.client.SuperTcpClient;
+import com.nimbus.net.server.SuperTcpServer;
+import com.nimbus.storage.HeapStorage;
+import com.nimbus.storage.OffHeapStorage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.stream.Stream;
+
+import static com.nimbus.StorageTestSupport.buf;
+import static com.nimbus.StorageTestSupport.get;
+import static org.junit.jupiter.api.Assertions.*;
+
+class AppendLogTest {
+
+    @TempDir
+    Path directory;
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(LogSegment::isSegment).sorted().toList();
+        }
+    }
+
+    @Test
+    void testReplayRestoresWrites() throws IOException {
+        long future = System.currentTimeMillis() + 60_000;
+
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER)) {
+            assertEquals(0, log.replay(new HeapStorage()));
+
+            LoggedStorage storage = new LoggedStorage(new HeapStorage(), log);
+            storage.set(buf("kept"), buf("one"));
+            storage.set(buf("kept"), buf("two"));
+            storage.set(buf("deleted"), buf("value"));
+            storage.delete(buf("deleted"));
+            storage.set(buf("expiring"), buf("value"), future);
+            storage.set(buf("expired"), buf("value"));
+            storage.expire(buf("expired"), System.currentTimeMillis() - 1);
+
+            // Not recorded, as nothing changed
+            storage.delete(buf("absent"));
+        }
+
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER)) {
+            OffHeapStorage storage = new OffHeapStorage(1024 * 1024, 4);
+            assertEquals(7, log.replay(storage));
+
+            assertEquals("two", get(storage, "kept"));
+            assertNull(get(storage, "deleted"));
+            assertEquals("value", get(storage, "expiring"));
+            assertEquals(future, storage.expireAt(buf("expiring")));
+            assertNull(get(storage, "expired"));
+
+            storage.close();
+        }
+    }
+
+    @Test
+    void testRollsSegmentsAndReplaysAcrossThem() throws IOException {
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER, 256)) {
+            log.replay(new HeapStorage());
+
+            LoggedStorage storage = new LoggedStorage(new HeapStorage(), log);
+            for (int i = 0; i < 100; i++)
+                storage.set(buf("key" + i), buf("value" + i));
+
+            // Larger than a segment, so given a segment of its own
+            storage.set(buf("large"), buf("x".repeat(1000)));
+        }
+
+        List<Path> segments = segments();
+        assertTrue(segments.size() > 10, "Segments: " + segments.size());
+
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER, 256)) {
+            HeapStorage storage = new HeapStorage();
+            assertEquals(101, log.replay(storage));
+
+            for (int i = 0; i < 100; i++)
+                assertEquals("value" + i, get(storage, "key" + i));
+            assertEquals(1000, get(storage, "large").length());
+        }
+    }
+
+    @Test
+    void testTornTailIsDiscardedAndOverwritten() throws IOException {
+        long tornAt;
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER)) {
+            log.replay(new HeapStorage());
+
+            LoggedStorage storage = new LoggedStorage(new HeapStorage(), log);
+            storage.set(buf("first"), buf("value"));
+            tornAt = log.position();
+            storage.set(buf("torn"), buf("value"));
+        }
+
+        // Corrupt the last byte of the second record, as a crash mid write would leave it
+        Path segment = segments().getLast();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7F}), tornAt + 30);
+        }
+
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER)) {
+            HeapStorage recovered = new HeapStorage();
+            assertEquals(1, log.replay(recovered));
+            assertEquals(tornAt, log.position());
+            assertNull(get(recovered, "torn"));
+
+            new LoggedStorage(recovered, log).set(buf("after"), buf("value"));
+        }
+
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER)) {
+            HeapStorage recovered = new HeapStorage();
+            assertEquals(2, log.replay(recovered));
+            assertEquals("value", get(recovered, "first"));
+            assertEquals("value", get(recovered, "after"));
+        }
+    }
+
+    @Test
+    void testRecordsAfterTornTailAreNotResurrected() throws IOException {
+        long tornAt;
+        long staleAt;
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER)) {
+            log.replay(new HeapStorage());
+
+            LoggedStorage storage = new LoggedStorage(new HeapStorage(), log);
+            storage.set(buf("first"), buf("value"));
+            tornAt = log.position();
+            storage.set(buf("key"), buf("aaaa"));
+            staleAt = log.position();
+            storage.set(buf("key"), buf("bbbb"));
+        }
+
+        // Tear the middle record, leaving a valid one after it
+        Path segment = segments().getLast();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7F}), staleAt - 1);
+        }
+
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER)) {
+            HeapStorage recovered = new HeapStorage();
+            assertEquals(1, log.replay(recovered));
+            assertEquals(tornAt, log.position());
+
+            // Same length as the torn record, so ending where the stale record began
+            new LoggedStorage(recovered, log).set(buf("key"), buf("cccc"));
+            assertEquals(staleAt, log.position());
+        }
+
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER)) {
+            HeapStorage recovered = new HeapStorage();
+            assertEquals(2, log.replay(recovered));
+            assertEquals("cccc", get(recovered, "key"));
+        }
+    }
+
+    @Test
+    void testSyncGroupsWaiters() throws Exception {
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.ALWAYS)) {
+            log.replay(new HeapStorage());
+
+            LoggedStorage storage = new LoggedStorage(new HeapStorage(), log);
+            storage.set(buf("a"), buf("1"));
+            var first = log.sync(log.position());
+            storage.set(buf("b"), buf("2"));
+            var second = log.sync(log.position());
+
+            second.get();
+            first.get();
+            assertEquals(log.position(), log.durablePosition());
+            assertTrue(log.sync(log.position()).isDone());
+        }
+    }
+
+    @Test
+    void testServerRecoversAfterRestart() throws Exception {
+        try (ClientResources resources = new ClientResources()) {
+            for (int run = 0; run < 2; run++) {
+                AppendLog log = new AppendLog(directory, FsyncPolicy.ALWAYS);
+                SuperTcpServer server = new SuperTcpServer(0, 1, 2, new HeapStorage(), Map.of(),
+                        Transport.best(), log);
+                server.start();
+
+                SuperTcpClient client = new SuperTcpClient(resources, "127.0.0.1", server.boundPort(),
+                        1, 4, 5000, Map.of());
+                BlockingClient blocking = new BlockingClient(client);
+
+                if (run == 0) {
+                    assertTrue(blocking.setLong("counter", 42));
+                    assertTrue(blocking.setLong("gone", 1));
+                    assertTrue(blocking.del("gone"));
+                } else {
+                    assertEquals(OptionalLong.of(42), blocking.getLong("counter"));
+                    assertEquals(OptionalLong.empty(), blocking.getLong("gone"));
+                }
+
+                client.close();
+                server.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.nimbus.persistence;
+
+import com.nimbus.routing.BucketMap;
+import com.nimbus.storage.HeapStorage;
+import com.nimbus.storage.OffHeapStorage;
+import com.nimbus.storage.Storage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.nimbus.StorageTestSupport.buf;
+import static com.nimbus.StorageTestSupport.get;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    private List<Path> files(String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.toString().endsWith(suffix)).sorted().toList();
+        }
+    }
+
+    @Test
+    void testScanVisitsLiveEntriesInBucketOrder() {
+        OffHeapStorage storage = new OffHeapStorage(4 * 1024 * 1024, 8);
+        for (int i = 0; i < 1000; i++)
+            storage.set(buf("key" + i), buf("value" + i));
+        storage.delete(buf("key0"));
+        storage.set(buf("expired"), buf("value"), System.currentTimeMillis() - 1);
+
+        List<Long> hashes = new ArrayList<>();
+        storage.scan((hash, key, value, expireAt) -> hashes.add(hash));
+
+        assertEquals(999, hashes.size());
+        for (int i = 1; i < hashes.size(); i++)
+            assertTrue(BucketMap.bucket(hashes.get(i - 1)) <= BucketMap.bucket(hashes.get(i)));
+
+        storage.close();
+    }
+
+    @Test
+    void testSnapshotRoundTrip() throws IOException {
+        long future = System.currentTimeMillis() + 60_000;
+
+        OffHeapStorage source = new OffHeapStorage(4 * 1024 * 1024, 8);
+        for (int i = 0; i < 5000; i++)
+            source.set(buf("key" + i), buf("value" + i));
+        source.set(buf("expiring"), buf("value"), future);
+
+        Snapshotter snapshotter = new Snapshotter(directory, null, Snapshotter.DEFAULT_INTERVAL_MILLIS, 4);
+        snapshotter.snapshot(source);
+        source.close();
+
+        for (Storage target : List.of(new HeapStorage(), new OffHeapStorage(4 * 1024 * 1024, 4))) {
+            assertEquals(0, snapshotter.load(target));
+            assertEquals(5001, target.size());
+            for (int i = 0; i < 5000; i++)
+                assertEquals("value" + i, get(target, "key" + i));
+            assertEquals(future, target.expireAt(buf("expiring")));
+
+            target.close();
+        }
+    }
+
+    @Test
+    void testCorruptRangeIsDetected() throws IOException {
+        HeapStorage source = new HeapStorage();
+        for (int i = 0; i < 100; i++)
+            source.set(buf("key" + i), buf("value" + i));
+
+        Snapshotter snapshotter = new Snapshotter(directory, null, Snapshotter.DEFAULT_INTERVAL_MILLIS, 2);
+        Path snapshot = snapshotter.snapshot(source);
+
+        // Flip a byte within the first entry's value
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0x7F}), 24 + 24);
+        }
+
+        assertThrows(IOException.class, () -> snapshotter.load(new HeapStorage()));
+    }
+
+    @Test
+    void testSnapshotTruncatesLogAndRecoversWithReplay() throws IOException {
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER, 4096)) {
+            HeapStorage raw = new HeapStorage();
+            log.replay(raw);
+
+            LoggedStorage storage = new LoggedStorage(raw, log);
+            for (int i = 0; i < 200; i++)
+                storage.set(buf("key" + i), buf("value" + i));
+
+            Snapshotter snapshotter = new Snapshotter(directory, log, Snapshotter.DEFAULT_INTERVAL_MILLIS, 2);
+            int segmentsBefore = files(".log").size();
+            snapshotter.snapshot(raw);
+            assertTrue(files(".log").size() < segmentsBefore);
+
+            // Written after the snapshot, so recovered by replay alone
+            storage.set(buf("key0"), buf("updated"));
+            storage.delete(buf("key1"));
+            storage.set(buf("after"), buf("value"));
+
+            // A second snapshot replaces the first
+            snapshotter.snapshot(raw);
+            assertEquals(1, files(".snap").size());
+            storage.set(buf("last"), buf("value"));
+        }
+
+        try (AppendLog log = new AppendLog(directory, FsyncPolicy.NEVER, 4096)) {
+            Snapshotter snapshotter = new Snapshotter(directory, log, Snapshotter.DEFAULT_INTERVAL_MILLIS, 2);
+            HeapStorage recovered = new HeapStorage();
+
+            long position = snapshotter.load(recovered);
+            assertTrue(position > 0);
+            assertEquals(1, log.replay(recovered, position));
+
+            assertEquals("updated", get(recovered, "key0"));
+            assertNull(get(recovered, "key1"));
+            assertEquals("value199", get(recovered, "key199"));
+            assertEquals("value", get(recovered, "after"));
+            assertEquals("value", get(recovered, "last"));
+            assertEquals(201, recovered.size());
+        }
+    }
+
+    @Test
+    void testFailedPeriodicSnapshotIsReported() throws Exception {
+        HeapStorage storage = new HeapStorage();
+        storage.set(buf("key"), buf("value"));
+
+        Path snapshots = directory.resolve("snapshots");
+        Snapshotter snapshotter = new Snapshotter(snapshots, null, 10, 2);
+        assertEquals(0, snapshotter.lastSnapshot().timeMillis());
+
+        // Nowhere to write the snapshot, as a full or failed disk would leave it
+        Files.delete(snapshots);
+        snapshotter.start(storage);
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (!snapshotter.lastSnapshot().failed() && System.nanoTime() < deadline)
+                Thread.sleep(5);
+
+            Snapshotter.Outcome failed = snapshotter.lastSnapshot();
+            assertTrue(failed.failed());
+            assertInstanceOf(IOException.class, failed.failure());
+            assertNull(failed.path());
+
+            // Recovers once snapshots can be written again
+            Files.createDirectories(snapshots);
+            while (snapshotter.lastSnapshot().failed() && System.nanoTime() < deadline)
+                Thread.sleep(5);
+
+            assertFalse(snapshotter.lastSnapshot().failed());
+            assertTrue(Files.exists(snapshotter.lastSnapshot().path()));
+        } finally {
+            snapshotter.close();
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.nimbus.proto.compression;
+
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.HeaderProtocol;
+import com.nimbus.proto.protocol.RequestProtocol;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionTest {
+
+    private static RequestMessage setRequest(int compression, byte[] value) {
+        RequestMessage msg = new RequestMessage(PooledByteBufAllocator.DEFAULT.directBuffer(64));
+        msg.command(RequestProtocol.CMD_SET);
+        msg.compression(compression);
+        msg.count(1);
+        msg.key("key1");
+        msg.value(value);
+
+        return msg;
+    }
+
+    private static byte[] compressibleValue(int length) {
+        byte[] value = new byte[length];
+        for (int i = 0; i < length; i++)
+            value[i] = (byte) ('a' + (i % 7));
+
+        return value;
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { Compression.LZ4, Compression.DEFLATE })
+    void testRoundTrip(int codec) {
+        byte[] value = compressibleValue(16 * 1024);
+        RequestMessage msg = setRequest(codec, value);
+
+        ByteBuf frame = msg.end();
+        int compressedLen = frame.readableBytes();
+
+        assertTrue(Compression.isCompressed(frame));
+        assertEquals(compressedLen, HeaderProtocol.getTotalLen(frame));
+        assertTrue(compressedLen < value.length / 4);
+
+        ByteBuf restored = Compression.decompress(frame.retain(), Integer.MAX_VALUE, PooledByteBufAllocator.DEFAULT);
+        RequestMessage read = new RequestMessage(restored);
+
+        assertFalse(Compression.isCompressed(restored));
+        assertEquals(codec, read.compression());
+        assertEquals(RequestProtocol.CMD_SET, read.command());
+        assertEquals(restored.writerIndex(), read.totalLength());
+        assertEquals("key1", read.keyAsString());
+        assertArrayEquals(value, read.valueAsBytes());
+
+        read.release();
+        msg.release();
+    }
+
+    @Test
+    void testBelowThresholdNotCompressed() {
+        RequestMessage msg = setRequest(Compression.LZ4, compressibleValue(64));
+        ByteBuf frame = msg.end();
+
+        assertFalse(Compression.isCompressed(frame));
+        assertSame(frame, Compression.decompress(frame, Integer.MAX_VALUE, PooledByteBufAllocator.DEFAULT));
+        assertEquals(1, frame.refCnt());
+
+        msg.release();
+    }
+
+    @Test
+    void testIncompressibleNotCompressed() {
+        byte[] value = new byte[4096];
+        new Random(7).nextBytes(value);
+
+        RequestMessage msg = setRequest(Compression.LZ4, value);
+        ByteBuf frame = msg.end();
+
+        assertFalse(Compression.isCompressed(frame));
+        assertEquals(Compression.LZ4, msg.compression());
+
+        msg.release();
+    }
+
+    @Test
+    void testNoCodecNotCompressed() {
+        RequestMessage msg = setRequest(Compression.NONE, compressibleValue(16 * 1024));
+
+        assertFalse(Compression.isCompressed(msg.end()));
+
+        msg.release();
+    }
+
+    @Test
+    void testRestoreBeyondMaxLengthRejected() {
+        RequestMessage msg = setRequest(Compression.LZ4, compressibleValue(16 * 1024));
+        ByteBuf frame = msg.end().retain();
+
+        assertThrows(IllegalStateException.class,
+                () -> Compression.decompress(frame, 4096, PooledByteBufAllocator.DEFAULT));
+        assertEquals(1, frame.refCnt());
+
+        msg.release();
+    }
+
+    @Test
+    void testCorruptDataRejected() {
+        RequestMessage msg = setRequest(Compression.DEFLATE, compressibleValue(16 * 1024));
+        ByteBuf frame = msg.end();
+
+        byte[] garbage = new byte[frame.writerIndex() - HeaderProtocol.HDR_END_OFFSET - Integer.BYTES];
+        Arrays.fill(garbage, (byte) 0xFF);
+        frame.setBytes(HeaderProtocol.HDR_END_OFFSET + Integer.BYTES, garbage);
+
+        ByteBuf retained = frame.retain();
+        assertThrows(IllegalStateException.class,
+                () -> Compression.decompress(retained, Integer.MAX_VALUE, PooledByteBufAllocator.DEFAULT));
+
+        msg.release();
+    }
+
+}
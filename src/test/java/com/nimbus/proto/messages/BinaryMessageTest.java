@@ -1,10 +1,13 @@
 package com.nimbus.proto.messages;
 
+import com.nimbus.routing.HashConstants;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.buffer.PooledByteBufAllocator;
 import org.junit.jupiter.api.*;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.concurrent.ThreadLocalRandom;
 
@@ -282,4 +285,105 @@ public class BinaryMessageTest {
         });
         assertEquals("Key or Value length field does not match expected value", exception.getMessage());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testKeyAndValueSlicesShareBuffer() {
+        binaryMessage.key("sliceKey");
+        binaryMessage.value("sliceValue");
+
+        binaryMessage.resetReaderIndex();
+
+        ByteBuf key = binaryMessage.keyAsSlice();
+        ByteBuf value = binaryMessage.valueAsSlice();
+
+        assertEquals("sliceKey", key.toString(StandardCharsets.UTF_8));
+        assertEquals("sliceValue", value.toString(StandardCharsets.UTF_8));
+        assertEquals(0, binaryMessage.buffer().readableBytes(), "Slices should consume the key and value");
+
+        // Views over the same memory, so writes through the message are visible in the slice
+        binaryMessage.buffer().setByte(binaryMessage.buffer().readerIndex() - value.readableBytes(), 'S');
+        assertEquals("SliceValue", value.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testRetainedKeySliceOutlivesRead() {
+        binaryMessage.key("retained");
+
+        binaryMessage.resetReaderIndex();
+
+        ByteBuf key = binaryMessage.keyAsRetainedSlice();
+        int refCnt = binaryMessage.buffer().refCnt();
+
+        assertEquals("retained", key.toString(StandardCharsets.UTF_8));
+        key.release();
+        assertEquals(refCnt - 1, binaryMessage.buffer().refCnt());
+    }
+
+    @Test
+    public void testKeyEqualsAndHashDoNotAdvance() {
+        byte[] key = "compareKey".getBytes(StandardCharsets.UTF_8);
+        binaryMessage.key(key);
+
+        binaryMessage.resetReaderIndex();
+
+        assertTrue(binaryMessage.keyEquals(key));
+        assertFalse(binaryMessage.keyEquals("compareKez".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(binaryMessage.keyEquals("compare".getBytes(StandardCharsets.UTF_8)));
+        assertEquals(HashConstants.HASH_FUNCTION.hashBytes(key), binaryMessage.keyHash());
+
+        assertArrayEquals(key, binaryMessage.keyAsBytes(), "Peeking should not consume the key");
+    }
+
+    @Test
+    public void testManySmallFieldsStayContiguous() {
+        for (int i = 0; i < 1000; i++)
+            binaryMessage.key(i);
+
+        assertFalse(binaryMessage.buffer() instanceof CompositeByteBuf);
+        assertEquals(1, binaryMessage.buffer().nioBufferCount());
+
+        binaryMessage.resetReaderIndex();
+        for (int i = 0; i < 1000; i++)
+            assertEquals(i, binaryMessage.keyAsInt());
+    }
+
+    @Test
+    public void testSliceGrowthCopiesAndReleases() {
+        ByteBuf parent = ALLOCATOR.directBuffer(64);
+        parent.writeZero(32);
+
+        ByteBuf slice = parent.retainedSlice(0, 32);
+        BinaryMessage sliced = new BinaryMessage(slice, 0) {};
+        sliced.resetWriteIndex();
+        sliced.value("grown beyond the slice capacity");
+
+        assertNotSame(slice, sliced.buffer());
+        assertEquals(1, parent.refCnt(), "Slice should be released once copied");
+
+        sliced.resetReaderIndex();
+        assertEquals("grown beyond the slice capacity", sliced.valueAsString());
+
+        sliced.release();
+        parent.release();
+    }
+
+    @Test
+    public void testPresizedRequestDoesNotGrow() {
+        byte[] key = "presized".getBytes(StandardCharsets.UTF_8);
+        byte[] value = new byte[3000];
+
+        RequestMessage request = new RequestMessage(
+                BinaryMessage.keyFieldLength(key.length) + BinaryMessage.valueFieldLength(value.length));
+        ByteBuf initial = request.buffer();
+        int capacity = initial.capacity();
+
+        request.key(key);
+        request.value(value);
+
+        assertSame(initial, request.buffer());
+        assertEquals(capacity, request.buffer().capacity());
+        assertEquals(0, request.buffer().writableBytes());
+
+        request.release();
+    }
+}
@@ -52,4 +52,18 @@ class ResponseMessageTest {
         assertEquals(ResponseProtocol.STATUS_OK, resMsg.status());
         assertEquals(2, resMsg.count());
     }
-}
\ No newline at end of file
+
+    @Test
+    void testReuseBufferPreservesRequestId() {
+        RequestMessage reqMsg = new RequestMessage(buffer);
+        reqMsg.command(RequestProtocol.CMD_GET);
+        reqMsg.requestId(42);
+        reqMsg.key("key1");
+
+        ResponseMessage resMsg = new ResponseMessage(reqMsg);
+        assertEquals(42, resMsg.requestId());
+
+        ResponseMessage ofMsg = ResponseMessage.of(reqMsg.buffer(), ResponseProtocol.STATUS_KEY_UNKNOWN, 0);
+        assertEquals(42, ofMsg.requestId());
+    }
+}
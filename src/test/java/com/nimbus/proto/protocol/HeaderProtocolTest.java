@@ -99,4 +99,16 @@ public class HeaderProtocolTest {
 
         assertArrayEquals(authData, result, "Auth data should match the written value");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSetAndGetRequestId() {
+        int requestId = 0x7ABCDEF1;
+
+        HeaderProtocol.setRequestId(buffer, requestId);
+        int result = HeaderProtocol.getRequestId(buffer);
+
+        assertEquals(requestId, result, "Request id should match the written value");
+        assertEquals(HeaderProtocol.HDR_END_OFFSET, HeaderProtocol.HDR_REQUEST_ID.offsetEnd()
+                + HeaderProtocol.HDR_RESERVED.sizeBytes(), "Request id must fit within the fixed header");
+    }
+}
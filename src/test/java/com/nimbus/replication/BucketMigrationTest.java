@@ -0,0 +1,157 @@
+package com.nimbus.replication;
+
+import com.nimbus.net.Node;
+import com.nimbus.net.Transport;
+import com.nimbus.net.client.BlockingClient;
+import com.nimbus.net.client.ClientResources;
+import com.nimbus.net.client.SuperTcpClient;
+import com.nimbus.net.server.SuperTcpServer;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import com.nimbus.routing.BucketMap;
+import com.nimbus.routing.HashConstants;
+import com.nimbus.routing.RoutingClient;
+import com.nimbus.storage.HeapStorage;
+import com.nimbus.storage.OffHeapStorage;
+import com.nimbus.storage.Storage;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.nimbus.StorageTestSupport.buf;
+import static com.nimbus.StorageTestSupport.get;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketMigrationTest {
+
+    private static final int MOVED_TO = BucketMap.BUCKET_COUNT / 2;
+
+    private static boolean moved(String key) {
+        return BucketMap.bucket(HashConstants.HASH_FUNCTION.hashBytes(key.getBytes())) < MOVED_TO;
+    }
+
+    private static void set(RoutingClient routing, String key, String value) throws Exception {
+        RequestMessage request = new RequestMessage(32);
+        request.command(RequestProtocol.CMD_SET);
+        request.key(key);
+        request.value(value);
+        request.end();
+
+        ResponseMessage response = new ResponseMessage(routing.send(request).get(5, TimeUnit.SECONDS));
+        assertEquals(ResponseProtocol.STATUS_OK, response.status());
+        response.release();
+        request.release();
+    }
+
+    @Test
+    void testMovesBucketsWhileServing() throws Exception {
+        HeapStorage sourceStorage = new HeapStorage();
+        ReplicationSource replication = new ReplicationSource(sourceStorage);
+        SuperTcpServer source = new SuperTcpServer(0, 1, 2, sourceStorage, Map.of(), Transport.best(), null, null,
+                replication);
+        source.start();
+
+        // Migrations are only accepted by a node replicating, as it could later move them on
+        OffHeapStorage targetStorage = new OffHeapStorage(8 * 1024 * 1024, 4);
+        SuperTcpServer target = new SuperTcpServer(0, 1, 2, targetStorage, Map.of(), Transport.best(), null, null,
+                new ReplicationSource(targetStorage));
+        target.start();
+
+        SuperTcpServer plain = new SuperTcpServer(0, 1, 1, new HeapStorage(), Map.of(), Transport.best());
+        plain.start();
+
+        Node sourceNode = new Node("127.0.0.1", source.boundPort());
+        Node targetNode = new Node("127.0.0.1", target.boundPort());
+
+        try (ClientResources resources = new ClientResources()) {
+            RoutingClient routing = new RoutingClient(BucketMap.evenlyDistributed(1, List.of(sourceNode)),
+                    node -> new SuperTcpClient(resources, node.host(), node.port(), 1, 16, 5000, Map.of()));
+            // Keeps routing by the old map throughout, as a client slow to learn of the move would
+            BlockingClient stale = new BlockingClient(routing.client(sourceNode));
+
+            Map<String, String> expected = new HashMap<>();
+            for (int i = 0; i < 2000; i++) {
+                set(routing, "key" + i, "value" + i);
+                expected.put("key" + i, "value" + i);
+            }
+
+            BucketMigration migration = source.migrate(resources, targetNode, 0, MOVED_TO);
+            assertThrows(IllegalStateException.class, () -> source.migrate(resources, targetNode, 100, 200));
+            assertThrows(IllegalStateException.class, () -> plain.migrate(resources, sourceNode, 0, 1));
+
+            RequestMessage refused = new RequestMessage(16);
+            refused.command(RequestProtocol.REPL_CMD_MIGRATE);
+            refused.value(new byte[0]);
+            SuperTcpClient plainClient = new SuperTcpClient(resources, "127.0.0.1", plain.boundPort(), 1, 4,
+                    5000, Map.of());
+            ResponseMessage refusal = new ResponseMessage(plainClient.send(refused.end()).get(5, TimeUnit.SECONDS));
+            assertEquals(ResponseProtocol.STATUS_INVALID_REQ, refusal.status());
+            refusal.release();
+            refused.release();
+            plainClient.close();
+
+            // Racing the copy, then forwarded
+            for (int i = 0; i < 100; i++) {
+                set(routing, "key" + i, "updated" + i);
+                expected.put("key" + i, "updated" + i);
+            }
+            assertTrue(stale.del("key100"));
+            expected.remove("key100");
+            assertTrue(stale.set("expiring", "value", 60_000));
+            expected.put("expiring", "value");
+
+            migration.caughtUp().get(10, TimeUnit.SECONDS);
+            migration.fence().get(10, TimeUnit.SECONDS);
+            assertEquals(0, migration.lag());
+
+            assertTrue(routing.updateBucketMap(routing.bucketMap().withOwner(0, MOVED_TO, targetNode)));
+
+            // Stale writes race direct ones, but are refused rather than forwarded over them
+            CompletableFuture<Void> staleWrites = CompletableFuture.runAsync(() -> {
+                try {
+                    for (int i = 200; i < 300; i++) {
+                        if (moved("key" + i))
+                            assertFalse(stale.set("key" + i, "stale" + i));
+                    }
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            for (int i = 200; i < 300; i++) {
+                set(routing, "key" + i, "flipped" + i);
+                expected.put("key" + i, "flipped" + i);
+            }
+            staleWrites.get(10, TimeUnit.SECONDS);
+
+            migration.finish().get(10, TimeUnit.SECONDS);
+            assertTrue(migration.recordsSent() > 0);
+
+            for (Map.Entry<String, String> entry : expected.entrySet()) {
+                Storage owner = moved(entry.getKey()) ? targetStorage : sourceStorage;
+                Storage other = owner == targetStorage ? sourceStorage : targetStorage;
+
+                assertEquals(entry.getValue(), get(owner, entry.getKey()), entry.getKey());
+                assertNull(get(other, entry.getKey()), entry.getKey());
+            }
+            assertNull(get(sourceStorage, "key100"));
+            assertNull(get(targetStorage, "key100"));
+
+            // Forwarded with its original expiry
+            Storage expiringOwner = moved("expiring") ? targetStorage : sourceStorage;
+            assertTrue(expiringOwner.expireAt(buf("expiring")) > System.currentTimeMillis());
+
+            routing.close();
+        } finally {
+            source.close();
+            target.close();
+            plain.close();
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+package com.nimbus.replication;
+
+import com.nimbus.net.Transport;
+import com.nimbus.net.client.BlockingClient;
+import com.nimbus.net.client.ClientResources;
+import com.nimbus.net.client.SuperTcpClient;
+import com.nimbus.net.server.SuperTcpServer;
+import com.nimbus.persistence.LoggedStorage;
+import com.nimbus.proto.messages.BinaryMessage;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.storage.HeapStorage;
+import com.nimbus.storage.OffHeapStorage;
+import com.nimbus.storage.Storage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static com.nimbus.StorageTestSupport.buf;
+import static com.nimbus.StorageTestSupport.get;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationTest {
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for replication");
+            Thread.sleep(10);
+        }
+    }
+
+    private static RequestMessage syncRequest(long replicationId, long offset) {
+        RequestMessage sync = new RequestMessage(BinaryMessage.valueFieldLength(Long.BYTES) * 2);
+        sync.command(RequestProtocol.REPL_CMD_SYNC);
+        sync.value(replicationId, Long.BYTES);
+        sync.value(offset, Long.BYTES);
+
+        return new RequestMessage(sync.end());
+    }
+
+    @Test
+    void testBacklogWrapsAndForgetsOverwrittenOffsets() {
+        ReplicationBacklog backlog = new ReplicationBacklog(256);
+        backlog.appendSet(buf("key"), buf("value"), Storage.NO_EXPIRY);
+        for (int i = 0; i < 20; i++)
+            backlog.appendDelete(buf("key" + i));
+
+        long start = backlog.startOffset();
+        assertEquals(backlog.offset() - 256, start);
+
+        ByteBuf out = Unpooled.buffer();
+        assertEquals(-1, backlog.read(0, out, 1024));
+        assertEquals(-1, backlog.read(start - 1, out, 1024));
+
+        // The newest bytes wrap around the end of the ring and read back contiguous
+        assertEquals(256, backlog.read(start, out, 1024));
+        assertEquals(10, backlog.read(backlog.offset() - 10, out.clear(), 1024));
+        assertEquals(0, backlog.read(backlog.offset(), out.clear(), 1024));
+
+        out.release();
+        backlog.close();
+    }
+
+    @Test
+    void testPartialResyncStreamsFromBacklog() {
+        HeapStorage storage = new HeapStorage();
+        ReplicationSource source = new ReplicationSource(storage, 4096);
+        LoggedStorage primary = new LoggedStorage(storage, source.backlog());
+
+        primary.set(buf("before"), buf("value"));
+        long resumeAt = source.backlog().offset();
+        primary.set(buf("after"), buf("value"));
+        primary.delete(buf("before"));
+
+        EmbeddedChannel channel = new EmbeddedChannel();
+        RequestMessage sync = syncRequest(source.replicationId(), resumeAt);
+        assertTrue(source.handle(channel, sync));
+        sync.release();
+
+        RequestMessage reply = new RequestMessage((ByteBuf) channel.readOutbound());
+        assertEquals(RequestProtocol.REPL_CMD_SYNC, reply.command());
+        assertEquals(0, reply.count());
+        assertEquals(source.replicationId(), reply.valueAsLong());
+        assertEquals(resumeAt, reply.valueAsLong());
+        reply.release();
+
+        RequestMessage stream = new RequestMessage((ByteBuf) channel.readOutbound());
+        assertEquals(RequestProtocol.REPL_CMD_STREAM, stream.command());
+        assertEquals(resumeAt, stream.valueAsLong());
+        assertEquals(source.backlog().offset() - resumeAt, stream.valueAsSlice().readableBytes());
+        stream.release();
+
+        // Later writes are streamed as they are appended
+        primary.set(buf("later"), buf("value"));
+        channel.runPendingTasks();
+        RequestMessage later = new RequestMessage((ByteBuf) channel.readOutbound());
+        assertEquals(RequestProtocol.REPL_CMD_STREAM, later.command());
+        later.release();
+
+        assertEquals(Map.of(channel.remoteAddress(), resumeAt), source.replicaOffsets());
+
+        channel.finishAndReleaseAll();
+        source.close();
+    }
+
+    @Test
+    void testDisconnectDuringFullCopyStartsItOver() throws Exception {
+        HeapStorage storage = new HeapStorage();
+        for (int i = 0; i < 1000; i++)
+            storage.set(buf("key" + i), buf("value" + i));
+
+        ReplicationSource source = new ReplicationSource(storage);
+        SuperTcpServer server = new SuperTcpServer(0, 1, 2, storage, Map.of(), Transport.best(), null, null,
+                source);
+        server.start();
+
+        // Rejects one record of the first copy, which drops the connection part way through it
+        AtomicInteger applied = new AtomicInteger();
+        HeapStorage replicated = new HeapStorage() {
+            @Override
+            public boolean set(ByteBuf key, ByteBuf value, long expireAt) {
+                return applied.incrementAndGet() != 500 && super.set(key, value, expireAt);
+            }
+        };
+
+        try (ClientResources resources = new ClientResources()) {
+            Replica replica = new Replica(resources, "127.0.0.1", server.boundPort(), replicated);
+            replica.start();
+            await(replica::isSynced);
+
+            // Copied again in full rather than resumed from the offset of the broken copy
+            assertTrue(applied.get() > 1000);
+            assertEquals(source.replicationId(), replica.replicationId());
+            for (int i = 0; i < 1000; i++)
+                assertEquals("value" + i, get(replicated, "key" + i), "key" + i);
+
+            replica.close();
+        }
+
+        server.close();
+    }
+
+    @Test
+    void testReplicaSyncsThenStreams() throws Exception {
+        HeapStorage storage = new HeapStorage();
+        ReplicationSource source = new ReplicationSource(storage);
+        SuperTcpServer server = new SuperTcpServer(0, 1, 2, storage, Map.of(), Transport.best(), null, null,
+                source);
+        server.start();
+
+        OffHeapStorage replicated = new OffHeapStorage(4 * 1024 * 1024, 4);
+        replicated.set(buf("stale"), buf("value"));
+
+        try (ClientResources resources = new ClientResources()) {
+            SuperTcpClient client = new SuperTcpClient(resources, "127.0.0.1", server.boundPort(),
+                    1, 4, 5000, Map.of());
+            BlockingClient blocking = new BlockingClient(client);
+
+            // Written before the replica connects, so copied in full
+            for (int i = 0; i < 1000; i++)
+                assertTrue(blocking.set("key" + i, "value" + i));
+
+            Replica replica = new Replica(resources, "127.0.0.1", server.boundPort(), replicated);
+            replica.start();
+            await(replica::isSynced);
+
+            // Streamed once synced
+            assertTrue(blocking.set("key0", "updated"));
+            assertTrue(blocking.del("key1"));
+            assertTrue(blocking.set("expiring", "value", 60_000));
+
+            await(() -> replica.offset() == source.backlog().offset());
+            assertEquals(source.replicationId(), replica.replicationId());
+
+            assertNull(get(replicated, "stale"));
+            assertEquals("updated", get(replicated, "key0"));
+            assertNull(get(replicated, "key1"));
+            assertEquals("value999", get(replicated, "key999"));
+            assertEquals(storage.expireAt(buf("expiring")), replicated.expireAt(buf("expiring")));
+
+            // Acknowledged periodically
+            await(() -> source.replicaOffsets().containsValue(source.backlog().offset()));
+
+            replica.close();
+            client.close();
+        }
+
+        server.close();
+        replicated.close();
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.nimbus.routing;
+
+import com.nimbus.net.Node;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BucketMapTest {
+
+    private static final Node NODE_A = new Node("10.0.0.1", 7000);
+    private static final Node NODE_B = new Node("10.0.0.2", 7000);
+    private static final Node NODE_C = new Node("10.0.0.3", 7000);
+
+    @Test
+    void testEvenDistribution() {
+        BucketMap map = BucketMap.evenlyDistributed(1, List.of(NODE_A, NODE_B, NODE_C));
+
+        Map<Node, Integer> counts = new HashMap<>();
+        for (int bucket = 0; bucket < BucketMap.BUCKET_COUNT; bucket++)
+            counts.merge(map.owner(bucket), 1, Integer::sum);
+
+        assertEquals(3, counts.size());
+        for (int count : counts.values())
+            assertTrue(Math.abs(count - BucketMap.BUCKET_COUNT / 3) <= 1, "Uneven bucket count " + count);
+    }
+
+    @Test
+    void testBucketCoversContiguousHashRange() {
+        assertEquals(0, BucketMap.bucket(0L));
+        assertEquals(BucketMap.BUCKET_COUNT - 1, BucketMap.bucket(-1L));
+
+        for (int bucket : new int[]{1, 8191, BucketMap.BUCKET_COUNT - 1}) {
+            long first = BucketMap.firstHash(bucket);
+            assertEquals(bucket, BucketMap.bucket(first));
+            assertEquals(bucket - 1, BucketMap.bucket(first - 1), "Hash before range start must fall in prior bucket");
+        }
+    }
+
+    @Test
+    void testWithOwnerIsCopyOnWrite() {
+        BucketMap original = BucketMap.evenlyDistributed(1, List.of(NODE_A, NODE_B));
+        BucketMap updated = original.withOwner(0, 16, NODE_C);
+
+        assertEquals(2, updated.version());
+        assertEquals(NODE_C, updated.owner(0));
+        assertEquals(NODE_C, updated.owner(15));
+        assertEquals(NODE_A, updated.owner(16));
+        assertEquals(NODE_A, original.owner(0), "Original map must not change");
+        assertTrue(updated.nodes().contains(NODE_C));
+    }
+
+    @Test
+    void testWithReplicasKeepsOwners() {
+        BucketMap original = BucketMap.evenlyDistributed(1, List.of(NODE_A));
+        BucketMap updated = original.withReplicas(0, 8, List.of(NODE_B, NODE_C));
+
+        assertEquals(2, updated.version());
+        assertEquals(List.of(NODE_B, NODE_C), updated.replicas(7));
+        assertEquals(List.of(), updated.replicas(8));
+        assertEquals(NODE_A, updated.owner(0));
+        assertEquals(List.of(), original.replicas(0), "Original map must not change");
+        assertTrue(updated.nodes().containsAll(List.of(NODE_A, NODE_B, NODE_C)));
+
+        // Reassigning owners keeps replicas
+        assertEquals(List.of(NODE_B, NODE_C), updated.withOwner(0, 8, NODE_B).replicas(0));
+    }
+
+    @Test
+    void testOwnerOfHash() {
+        BucketMap map = BucketMap.evenlyDistributed(1, List.of(NODE_A, NODE_B));
+        long hash = HashConstants.HASH_FUNCTION.hashBytes("someKey".getBytes());
+
+        assertEquals(map.owner(BucketMap.bucket(hash)), map.ownerOf(hash));
+    }
+}
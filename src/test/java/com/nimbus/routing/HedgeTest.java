@@ -0,0 +1,242 @@
+package com.nimbus.routing;
+
+import com.nimbus.net.Node;
+import com.nimbus.net.Transport;
+import com.nimbus.net.client.ClientResources;
+import com.nimbus.net.client.SuperTcpClient;
+import com.nimbus.net.server.SuperTcpServer;
+import com.nimbus.proto.messages.RequestMessage;
+import com.nimbus.proto.messages.ResponseMessage;
+import com.nimbus.proto.protocol.RequestProtocol;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import com.nimbus.storage.HeapStorage;
+import com.nimbus.storage.Storage;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HedgeTest {
+
+    @Test
+    void testSlowCopyIsHedged() throws Exception {
+        HeapStorage storage = new HeapStorage();
+        storage.set(Unpooled.copiedBuffer("key", StandardCharsets.UTF_8),
+                Unpooled.copiedBuffer("value", StandardCharsets.UTF_8), Storage.NO_EXPIRY);
+
+        SuperTcpServer server = new SuperTcpServer(0, 1, 1, storage, Map.of(), Transport.best());
+        server.start();
+
+        try (ServerSocket silent = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+             ClientResources resources = new ClientResources()) {
+            swallowRequests(silent);
+
+            // The owner never answers, while its replica holds the key
+            Node owner = new Node("127.0.0.1", silent.getLocalPort());
+            Node replica = new Node("127.0.0.1", server.boundPort());
+            BucketMap map = BucketMap.evenlyDistributed(1, List.of(owner))
+                    .withReplicas(0, BucketMap.BUCKET_COUNT, List.of(replica));
+
+            HedgePolicy policy = new HedgePolicy(0.95, 1, Duration.ofMillis(1), Duration.ofMillis(20));
+            RoutingClient routing = new RoutingClient(map,
+                    node -> new SuperTcpClient(resources, node.host(), node.port(), 1, 4, 5000, Map.of()),
+                    ReadPolicy.BALANCED, policy);
+            pickOwnerFirst(routing, replica);
+
+            RequestMessage request = new RequestMessage(16);
+            request.command(RequestProtocol.CMD_GET);
+            request.key("key");
+            request.end();
+
+            ResponseMessage response = new ResponseMessage(routing.send(request).get(5, TimeUnit.SECONDS));
+            assertEquals(ResponseProtocol.STATUS_OK, response.status());
+            assertEquals("value", response.valueAsString());
+            response.release();
+            request.release();
+
+            assertEquals(1, routing.hedgesSent());
+            assertEquals(1, routing.hedgesWon());
+
+            routing.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void testHedgeWhileFirstChannelBackedUp() throws Exception {
+        HeapStorage storage = new HeapStorage();
+        storage.set(Unpooled.copiedBuffer("key", StandardCharsets.UTF_8),
+                Unpooled.copiedBuffer("value", StandardCharsets.UTF_8), Storage.NO_EXPIRY);
+
+        SuperTcpServer server = new SuperTcpServer(0, 1, 1, storage, Map.of(), Transport.best());
+        server.start();
+
+        try (ServerSocket stalled = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+             ClientResources resources = new ClientResources()) {
+            acceptWithoutReading(stalled);
+
+            Node owner = new Node("127.0.0.1", stalled.getLocalPort());
+            Node replica = new Node("127.0.0.1", server.boundPort());
+            BucketMap map = BucketMap.evenlyDistributed(1, List.of(owner))
+                    .withReplicas(0, BucketMap.BUCKET_COUNT, List.of(replica));
+
+            HedgePolicy policy = new HedgePolicy(0.95, 1, Duration.ofMillis(1), Duration.ofMillis(20));
+            RoutingClient routing = new RoutingClient(map,
+                    node -> new SuperTcpClient(resources, node.host(), node.port(), 1, 4, 5000, Map.of()),
+                    ReadPolicy.BALANCED, policy);
+            pickOwnerFirst(routing, replica);
+
+            // Far more than the socket buffers hold, so the GET queues behind it on the same channel
+            RequestMessage large = new RequestMessage(32 * 1024 * 1024);
+            large.command(RequestProtocol.CMD_SET);
+            large.key("large");
+            large.value(new byte[32 * 1024 * 1024]);
+            ByteBuf encoded = large.end();
+            routing.client(owner).send(encoded).whenComplete((response, cause) -> {
+                if (response != null)
+                    response.release();
+                encoded.release();
+            });
+
+            RequestMessage request = new RequestMessage(16);
+            request.command(RequestProtocol.CMD_GET);
+            request.key("key");
+            request.end();
+
+            ResponseMessage response = new ResponseMessage(routing.send(request).get(5, TimeUnit.SECONDS));
+            assertEquals(ResponseProtocol.STATUS_OK, response.status());
+            assertEquals("value", response.valueAsString());
+            response.release();
+
+            // Still queued behind the large write, so only the backup's own copy went out
+            request.release();
+
+            assertEquals(1, routing.hedgesSent());
+            assertEquals(1, routing.hedgesWon());
+
+            routing.close();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    void testPrimaryReadIsNeverHedged() throws Exception {
+        HeapStorage storage = new HeapStorage();
+        storage.set(Unpooled.copiedBuffer("key", StandardCharsets.UTF_8),
+                Unpooled.copiedBuffer("stale", StandardCharsets.UTF_8), Storage.NO_EXPIRY);
+
+        SuperTcpServer server = new SuperTcpServer(0, 1, 1, storage, Map.of(), Transport.best());
+        server.start();
+
+        try (ServerSocket silent = new ServerSocket(0, 8, InetAddress.getLoopbackAddress());
+             ClientResources resources = new ClientResources()) {
+            swallowRequests(silent);
+
+            // The replica would answer at once, but with a value the owner may have replaced
+            Node owner = new Node("127.0.0.1", silent.getLocalPort());
+            Node replica = new Node("127.0.0.1", server.boundPort());
+            BucketMap map = BucketMap.evenlyDistributed(1, List.of(owner))
+                    .withReplicas(0, BucketMap.BUCKET_COUNT, List.of(replica));
+
+            HedgePolicy policy = new HedgePolicy(0.95, 1, Duration.ofMillis(1), Duration.ofMillis(20));
+            RoutingClient routing = new RoutingClient(map,
+                    node -> new SuperTcpClient(resources, node.host(), node.port(), 1, 4, 5000, Map.of()),
+                    ReadPolicy.BALANCED, policy);
+
+            RequestMessage request = new RequestMessage(16);
+            request.command(RequestProtocol.CMD_GET);
+            request.key("key");
+            request.end();
+
+            CompletableFuture<ByteBuf> future = routing.send(request, ReadPolicy.PRIMARY);
+            assertThrows(TimeoutException.class, () -> future.get(200, TimeUnit.MILLISECONDS));
+            assertEquals(0, routing.hedgesSent());
+
+            routing.close();
+            request.release();
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Make the replica look busy, so the owner is read first and the replica serves the hedge
+     */
+    private static void pickOwnerFirst(RoutingClient routing, Node replica) {
+        for (int i = 0; i < 8; i++)
+            routing.selector().load(replica).started();
+    }
+
+    private static void acceptWithoutReading(ServerSocket serverSocket) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = serverSocket.accept()) {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (Exception ignored) {
+                // Closed by the test
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void swallowRequests(ServerSocket serverSocket) {
+        Thread thread = new Thread(() -> {
+            try (Socket socket = serverSocket.accept(); InputStream in = socket.getInputStream()) {
+                while (in.read() >= 0) {
+                    // Never answer
+                }
+            } catch (Exception ignored) {
+                // Closed by the test
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Test
+    void testBudgetLimitsHedges() {
+        Hedger hedger = new Hedger(new HedgePolicy(0.95, 0.1, Duration.ofMillis(1), Duration.ofMillis(50)));
+
+        // Starts empty, earning a whole hedge every 10 reads
+        assertFalse(hedger.trySpend());
+        for (int i = 0; i < 10; i++)
+            hedger.earn();
+        assertTrue(hedger.trySpend());
+        assertFalse(hedger.trySpend());
+
+        // Savings are capped however long hedging is not needed
+        for (int i = 0; i < 1000; i++)
+            hedger.earn();
+        int spent = 0;
+        while (hedger.trySpend())
+            spent++;
+        assertEquals(Hedger.MAX_BURST, spent);
+    }
+
+    @Test
+    void testDelayFollowsLatencyQuantile() {
+        Hedger hedger = new Hedger(new HedgePolicy(0.95, 0.05, Duration.ofMillis(1), Duration.ofMillis(50)));
+
+        // Unknown latency waits the longest, measured latency is clamped to the bounds
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), hedger.delayNanos(-1));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), hedger.delayNanos(1000));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(7), hedger.delayNanos(TimeUnit.MILLISECONDS.toNanos(7)));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(50), hedger.delayNanos(TimeUnit.SECONDS.toNanos(1)));
+    }
+
+}
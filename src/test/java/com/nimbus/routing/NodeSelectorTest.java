@@ -0,0 +1,139 @@
+package com.nimbus.routing;
+
+import com.nimbus.net.Node;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NodeSelectorTest {
+
+    private static final Node OWNER = new Node("10.0.0.1", 7000);
+    private static final Node REPLICA_A = new Node("10.0.0.2", 7000);
+    private static final Node REPLICA_B = new Node("10.0.0.3", 7000);
+
+    @Test
+    void testPolicyLimitsCandidates() {
+        NodeSelector selector = new NodeSelector();
+        List<Node> replicas = List.of(REPLICA_A, REPLICA_B);
+
+        Set<Node> balanced = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            assertEquals(OWNER, selector.select(OWNER, replicas, ReadPolicy.PRIMARY));
+            assertNotEquals(OWNER, selector.select(OWNER, replicas, ReadPolicy.REPLICA));
+            balanced.add(selector.select(OWNER, replicas, ReadPolicy.BALANCED));
+        }
+
+        // Unmeasured nodes cost the same, so every copy is tried
+        assertEquals(Set.of(OWNER, REPLICA_A, REPLICA_B), balanced);
+        assertEquals(OWNER, selector.select(OWNER, List.of(), ReadPolicy.REPLICA));
+    }
+
+    @Test
+    void testPrefersFasterLessLoadedCopy() {
+        NodeSelector selector = new NodeSelector();
+        // Owner is slower and still has a request in flight
+        selector.load(OWNER).started();
+        selector.load(OWNER).started();
+        selector.load(OWNER).completed(TimeUnit.MILLISECONDS.toNanos(5));
+        selector.load(REPLICA_A).started();
+        selector.load(REPLICA_A).completed(TimeUnit.MILLISECONDS.toNanos(1));
+
+        for (int i = 0; i < 100; i++)
+            assertEquals(REPLICA_A, selector.select(OWNER, List.of(REPLICA_A), ReadPolicy.BALANCED));
+    }
+
+    @Test
+    void testFailingCopyStopsBeingSelected() {
+        NodeSelector selector = new NodeSelector();
+        List<Node> replicas = List.of(REPLICA_A, REPLICA_B);
+        selector.load(REPLICA_A).started();
+        selector.load(REPLICA_A).completed(TimeUnit.MILLISECONDS.toNanos(1));
+
+        // Fails fast without ever completing a request, which alone would leave it looking free
+        for (int i = 0; i < 3; i++) {
+            selector.load(REPLICA_B).started();
+            selector.load(REPLICA_B).failed();
+        }
+        assertEquals(0, selector.load(REPLICA_B).inFlight());
+
+        for (int i = 0; i < 100; i++)
+            assertEquals(REPLICA_A, selector.select(OWNER, replicas, ReadPolicy.REPLICA));
+        assertEquals(REPLICA_A, selector.alternate(OWNER, replicas, OWNER, ReadPolicy.REPLICA));
+
+        // An occasional fast success does not outweigh the failures around it
+        selector.load(REPLICA_B).started();
+        selector.load(REPLICA_B).completed(TimeUnit.MICROSECONDS.toNanos(100));
+        for (int i = 0; i < 10; i++) {
+            selector.load(REPLICA_B).started();
+            selector.load(REPLICA_B).failed();
+        }
+        assertEquals(REPLICA_A, selector.select(OWNER, replicas, ReadPolicy.REPLICA));
+    }
+
+    @Test
+    void testUnsampledCopyCountsRequestsInFlight() {
+        NodeSelector selector = new NodeSelector();
+        selector.load(REPLICA_B).started();
+        selector.load(REPLICA_B).started();
+
+        for (int i = 0; i < 100; i++)
+            assertEquals(REPLICA_A, selector.select(OWNER, List.of(REPLICA_A, REPLICA_B), ReadPolicy.REPLICA));
+    }
+
+    @Test
+    void testLatencyMovingAverage() {
+        NodeSelector.NodeLoad load = new NodeSelector.NodeLoad();
+        load.started();
+        load.completed(1000);
+        assertEquals(1000, load.ewmaNanos());
+
+        load.started();
+        load.completed(2000);
+        assertEquals(1000 + NodeSelector.EWMA_ALPHA * 1000, load.ewmaNanos(), 0.001);
+        assertEquals(0, load.inFlight());
+    }
+
+    @Test
+    void testLatencyQuantileOverRecentWindow() {
+        NodeSelector.NodeLoad load = new NodeSelector.NodeLoad();
+        assertEquals(-1, load.latencyQuantileNanos(0.95));
+
+        // Old samples fall out of the window, leaving latencies 1 to LATENCY_WINDOW
+        for (int i = 0; i < NodeSelector.LATENCY_WINDOW; i++) {
+            load.started();
+            load.completed(1_000_000);
+        }
+        for (int i = 1; i <= NodeSelector.LATENCY_WINDOW; i++) {
+            load.started();
+            load.completed(i);
+        }
+
+        int expected = (int) (0.95 * NodeSelector.LATENCY_WINDOW) + 1;
+        assertEquals(expected, load.latencyQuantileNanos(0.95));
+        assertEquals(NodeSelector.LATENCY_WINDOW, load.latencyQuantileNanos(0.9999));
+    }
+
+    @Test
+    void testAlternateExcludesChosenCopy() {
+        NodeSelector selector = new NodeSelector();
+        selector.load(REPLICA_A).started();
+        selector.load(REPLICA_A).completed(TimeUnit.MILLISECONDS.toNanos(1));
+        selector.load(REPLICA_B).started();
+        selector.load(REPLICA_B).completed(TimeUnit.MILLISECONDS.toNanos(2));
+        List<Node> replicas = List.of(REPLICA_A, REPLICA_B);
+
+        assertEquals(OWNER, selector.alternate(OWNER, replicas, REPLICA_A, ReadPolicy.BALANCED));
+        assertEquals(REPLICA_B, selector.alternate(OWNER, replicas, REPLICA_A, ReadPolicy.REPLICA));
+        assertEquals(REPLICA_A, selector.alternate(OWNER, replicas, OWNER, ReadPolicy.BALANCED));
+        assertNull(selector.alternate(OWNER, List.of(), OWNER, ReadPolicy.BALANCED));
+
+        // Only the owner may serve primary reads
+        assertNull(selector.alternate(OWNER, replicas, OWNER, ReadPolicy.PRIMARY));
+    }
+
+}
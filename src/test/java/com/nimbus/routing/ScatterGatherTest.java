@@ -0,0 +1,162 @@
+package com.nimbus.routing;
+
+import com.nimbus.net.Node;
+import com.nimbus.net.Transport;
+import com.nimbus.net.client.ClientResources;
+import com.nimbus.net.client.SuperTcpClient;
+import com.nimbus.net.results.ScatterGatherResult;
+import com.nimbus.net.server.SuperTcpServer;
+import com.nimbus.proto.protocol.ResponseProtocol;
+import com.nimbus.storage.HeapStorage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScatterGatherTest {
+
+    private final List<SuperTcpServer> servers = new ArrayList<>();
+    private final List<Node> nodes = new ArrayList<>();
+    private ClientResources resources;
+    private RoutingClient routing;
+
+    @BeforeEach
+    void start() throws InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            SuperTcpServer server = new SuperTcpServer(0, 1, 1, new HeapStorage(), Map.of(), Transport.best());
+            server.start();
+            servers.add(server);
+            nodes.add(new Node("127.0.0.1", server.boundPort()));
+        }
+
+        resources = new ClientResources();
+    }
+
+    @AfterEach
+    void stop() {
+        if (routing != null)
+            routing.close();
+        resources.close();
+        servers.forEach(SuperTcpServer::close);
+    }
+
+    private RoutingClient routing(List<Node> owners) {
+        routing = new RoutingClient(BucketMap.evenlyDistributed(1, owners),
+                node -> new SuperTcpClient(resources, node.host(), node.port(), 1, 16, 2000, Map.of()));
+
+        return routing;
+    }
+
+    private static List<String> keys(int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < count; i++)
+            keys.add("key" + i);
+
+        return keys;
+    }
+
+    @Test
+    void testResultsMergeInCallerOrder() throws Exception {
+        ScatterGather scatter = new ScatterGather(routing(nodes), 64);
+
+        List<String> keys = keys(500);
+        List<String> values = keys.stream().map(key -> "value-" + key).toList();
+
+        ScatterGatherResult set = scatter.mset(keys, values).get();
+        assertFalse(set.hasErrors());
+        for (int i = 0; i < keys.size(); i++)
+            assertTrue(set.isOk(i));
+
+        // Both nodes hold keys, each split into several sub-requests
+        Set<String> hosts = set.shards().stream().map(ScatterGatherResult.Shard::host).collect(Collectors.toSet());
+        assertEquals(2, hosts.size());
+        assertTrue(set.shards().size() >= 500 / 64);
+        assertEquals(500, set.shards().stream().mapToInt(ScatterGatherResult.Shard::keys).sum());
+        set.release();
+
+        List<String> lookup = new ArrayList<>(keys.subList(0, 100));
+        lookup.add(50, "missing");
+
+        ScatterGatherResult get = scatter.mget(lookup).get();
+        assertEquals(101, get.size());
+        for (int i = 0; i < get.size(); i++) {
+            if (i == 50) {
+                assertEquals(ResponseProtocol.STATUS_KEY_UNKNOWN, get.status(i));
+                assertNull(get.valueAsString(i));
+            } else {
+                assertEquals("value-" + lookup.get(i), get.valueAsString(i));
+            }
+        }
+        assertTrue(get.latencyNanos() > 0);
+        get.release();
+
+        ScatterGatherResult del = scatter.mdel(List.of("key0", "missing")).get();
+        assertTrue(del.isOk(0));
+        assertEquals(ResponseProtocol.STATUS_KEY_UNKNOWN, del.status(1));
+        del.release();
+    }
+
+    @Test
+    void testKeysPerRequestBoundedBySignedCount() throws Exception {
+        RoutingClient single = routing(List.of(nodes.get(0)));
+        assertThrows(IllegalArgumentException.class, () -> new ScatterGather(single, Short.MAX_VALUE + 1));
+
+        // More keys than a signed count holds, all owned by one node, so split rather than rejected
+        ScatterGather scatter = new ScatterGather(single, Short.MAX_VALUE);
+        List<String> keys = keys(Short.MAX_VALUE + 1000);
+
+        ScatterGatherResult set = scatter.mset(keys, keys).get();
+        assertFalse(set.hasErrors());
+        set.release();
+
+        ScatterGatherResult get = scatter.mget(keys).get();
+        assertFalse(get.hasErrors());
+        for (int i = 0; i < keys.size(); i++)
+            assertTrue(get.isOk(i), keys.get(i));
+        get.release();
+    }
+
+    @Test
+    void testFailedNodeOnlyFailsItsKeys() throws Exception {
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            closedPort = socket.getLocalPort();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        Node down = new Node("127.0.0.1", closedPort);
+        ScatterGather scatter = new ScatterGather(routing(List.of(nodes.get(0), down)));
+
+        List<String> keys = keys(200);
+        ScatterGatherResult result = scatter.mset(keys, keys).get();
+        assertTrue(result.hasErrors());
+
+        BucketMap map = routing.bucketMap();
+        int failed = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            long hash = HashConstants.HASH_FUNCTION.hashBytes(keys.get(i).getBytes());
+            if (map.ownerOf(hash).equals(down)) {
+                assertEquals(ScatterGatherResult.STATUS_FAILED, result.status(i));
+                assertNotNull(result.error(i));
+                failed++;
+            } else {
+                assertTrue(result.isOk(i));
+                assertNull(result.error(i));
+            }
+        }
+
+        assertTrue(failed > 0 && failed < keys.size());
+        result.release();
+    }
+
+}
@@ -0,0 +1,241 @@
+package com.nimbus.storage;
+
+import com.nimbus.routing.BucketMap;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.nimbus.StorageTestSupport.buf;
+import static com.nimbus.StorageTestSupport.get;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OffHeapStorageTest {
+
+    private OffHeapStorage storage;
+
+    @BeforeEach
+    void setup() {
+        storage = new OffHeapStorage(1024 * 1024, 4);
+    }
+
+    @AfterEach
+    void tearDown() {
+        storage.close();
+    }
+
+    @Test
+    void testSetGetDelete() {
+        assertTrue(storage.set(buf("key1"), buf("value1")));
+        assertEquals("value1", get(storage, "key1"));
+        assertEquals(1, storage.size());
+
+        assertTrue(storage.delete(buf("key1")));
+        assertNull(get(storage, "key1"));
+        assertFalse(storage.delete(buf("key1")));
+        assertEquals(0, storage.size());
+    }
+
+    @Test
+    void testOverwriteSameAndDifferentLength() {
+        storage.set(buf("key"), buf("aaaa"));
+        storage.set(buf("key"), buf("bbbb"));
+        assertEquals("bbbb", get(storage, "key"));
+
+        storage.set(buf("key"), buf("a much longer value"));
+        assertEquals("a much longer value", get(storage, "key"));
+        assertEquals(1, storage.size());
+    }
+
+    @Test
+    void testManyKeysGrowAndDelete() {
+        int count = 20_000;
+        for (int i = 0; i < count; i++)
+            assertTrue(storage.set(buf("key" + i), buf("value" + i)));
+
+        assertEquals(count, storage.size());
+
+        for (int i = 0; i < count; i += 2)
+            assertTrue(storage.delete(buf("key" + i)));
+
+        for (int i = 0; i < count; i++)
+            assertEquals(i % 2 == 0 ? null : "value" + i, get(storage, "key" + i), "Mismatch for key" + i);
+    }
+
+    @Test
+    void testCompactionReclaimsGarbage() {
+        OffHeapStorage small = new OffHeapStorage(4096, 1);
+        try {
+            String value = "x".repeat(100);
+
+            // Far more bytes written than the slab holds, only possible if overwrites are compacted away
+            for (int round = 0; round < 50; round++) {
+                for (int i = 0; i < 10; i++)
+                    assertTrue(small.set(buf("key" + i), buf(value + round)), "Write rejected in round " + round);
+            }
+
+            assertEquals(10, small.size());
+        } finally {
+            small.close();
+        }
+    }
+
+    @Test
+    void testRejectsWritesBeyondBudget() {
+        OffHeapStorage small = new OffHeapStorage(1024, 1);
+        try {
+            assertFalse(small.set(buf("key"), buf("x".repeat(2048))));
+
+            int stored = 0;
+            while (small.set(buf("key" + stored), buf("value")))
+                stored++;
+
+            assertTrue(stored > 0);
+            assertEquals(stored, small.size());
+        } finally {
+            small.close();
+        }
+    }
+
+    @Test
+    void testResizeExistingKeyInFullSegment() {
+        OffHeapStorage small = new OffHeapStorage(1024, 1);
+        try {
+            String large = "x".repeat(100);
+            int stored = 0;
+            while (small.set(buf("key" + stored), buf(large)))
+                stored++;
+
+            // Top up with empty values so the free tail is shorter than any entry below
+            int filler = 0;
+            while (small.set(buf("f" + filler), buf("")))
+                filler++;
+
+            assertTrue(small.set(buf("key0"), buf("y".repeat(10))), "Shrink rejected");
+            assertEquals("y".repeat(10), get(small, "key0"));
+
+            assertTrue(small.set(buf("key0"), buf(large)), "Grow rejected");
+            assertEquals(large, get(small, "key0"));
+
+            assertEquals(large, get(small, "key" + (stored - 1)));
+            assertEquals(stored + filler, small.size());
+        } finally {
+            small.close();
+        }
+    }
+
+    @Test
+    void testExpiredKeysReadAsAbsent() {
+        long past = System.currentTimeMillis() - 1;
+        long future = System.currentTimeMillis() + 60_000;
+
+        assertTrue(storage.set(buf("expired"), buf("value"), past));
+        assertTrue(storage.set(buf("live"), buf("value"), future));
+        assertTrue(storage.set(buf("persistent"), buf("value")));
+
+        assertNull(get(storage, "expired"));
+        assertEquals(Storage.KEY_ABSENT, storage.expireAt(buf("expired")));
+        assertFalse(storage.expire(buf("expired"), future));
+        assertFalse(storage.delete(buf("expired")));
+
+        assertEquals("value", get(storage, "live"));
+        assertEquals(future, storage.expireAt(buf("live")));
+        assertEquals(Storage.NO_EXPIRY, storage.expireAt(buf("persistent")));
+
+        assertTrue(storage.expire(buf("live"), Storage.NO_EXPIRY));
+        assertEquals(Storage.NO_EXPIRY, storage.expireAt(buf("live")));
+        assertTrue(storage.expire(buf("persistent"), past));
+        assertNull(get(storage, "persistent"));
+
+        // Overwriting replaces the expiry
+        assertTrue(storage.set(buf("persistent"), buf("value")));
+        assertEquals("value", get(storage, "persistent"));
+    }
+
+    @Test
+    void testPurgeReclaimsExpiredKeys() {
+        long past = System.currentTimeMillis() - 1;
+        for (int i = 0; i < 1000; i++)
+            storage.set(buf("expired" + i), buf("value" + i), past);
+        for (int i = 0; i < 100; i++)
+            storage.set(buf("live" + i), buf("value" + i));
+
+        assertEquals(1100, storage.size());
+
+        int removed = 0;
+        for (int i = 0; i < 10_000 && storage.size() > 100; i++)
+            removed += storage.purgeExpired(64);
+
+        assertEquals(1000, removed);
+        assertEquals(100, storage.size());
+        for (int i = 0; i < 100; i++)
+            assertEquals("value" + i, get(storage, "live" + i));
+
+        // Nothing left expiring, so no segment is sampled
+        assertEquals(0, storage.purgeExpired(64));
+    }
+
+    @Test
+    void testReaperReclaimsMinorityOfExpiringKeys() {
+        long past = System.currentTimeMillis() - 1;
+        for (int i = 0; i < 10_000; i++)
+            storage.set(buf("live" + i), buf("v"));
+        for (int i = 0; i < 500; i++)
+            storage.set(buf("expired" + i), buf("v"), past);
+
+        // Keys without expiry do not dilute the share of samples expired, so the run carries on
+        ExpiryReaper reaper = new ExpiryReaper(storage, 10_000);
+        reaper.run();
+        assertTrue(storage.size() < 10_050, "Reclaimed too few in one run: " + storage.size());
+
+        // The sparse remainder in later runs
+        for (int i = 0; i < 100 && storage.size() > 10_000; i++)
+            reaper.run();
+        assertEquals(10_000, storage.size());
+    }
+
+    @Test
+    void testDefaultSegmentsKeepLargeEntriesStorable() {
+        // 256 segments would cap entries at 32KiB, so fewer larger ones are used
+        OffHeapStorage small = new OffHeapStorage(8 * 1024 * 1024);
+        try {
+            assertEquals(OffHeapStorage.MIN_DEFAULT_SEGMENT_BYTES - OffHeapSegment.ENTRY_HEADER_SIZE,
+                    small.maxEntryBytes());
+            assertTrue(small.set(buf("large"), Unpooled.wrappedBuffer(new byte[1024 * 1024])));
+        } finally {
+            small.close();
+        }
+
+        // The explicit segment count is the ceiling
+        assertEquals(1024 * 1024 / 4 - OffHeapSegment.ENTRY_HEADER_SIZE, storage.maxEntryBytes());
+        assertFalse(storage.set(buf("large"), Unpooled.wrappedBuffer(new byte[1024 * 1024 / 4])));
+    }
+
+    @Test
+    void testScanBucketRange() {
+        for (int i = 0; i < 2000; i++)
+            storage.set(buf("key" + i), buf("value" + i));
+
+        // Spans part of two of the four segments
+        int from = BucketMap.BUCKET_COUNT / 8;
+        int to = BucketMap.BUCKET_COUNT * 3 / 8;
+
+        List<Integer> buckets = new ArrayList<>();
+        storage.scan(from, to, (hash, key, value, expireAt) -> buckets.add(BucketMap.bucket(hash)));
+
+        List<Integer> expected = new ArrayList<>();
+        storage.scan((hash, key, value, expireAt) -> {
+            int bucket = BucketMap.bucket(hash);
+            if (bucket >= from && bucket < to)
+                expected.add(bucket);
+        });
+
+        assertFalse(buckets.isEmpty());
+        assertEquals(expected, buckets);
+        assertEquals(buckets.stream().sorted().toList(), buckets);
+    }
+
+}